@@ -0,0 +1,9 @@
+package android;
+
+public final class R {
+
+	public static final class attr {
+
+		public static final int progressBarStyle = 0x01010077;
+	}
+}
@@ -0,0 +1,93 @@
+package android.app;
+
+import android.content.Context;
+import android.content.DialogInterface;
+import android.os.Bundle;
+import android.view.View;
+import android.view.ViewGroup;
+import android.view.Window;
+
+/**
+ * JVM stand-in: nothing is shown, only the lifecycle callbacks and the listeners are invoked.
+ */
+public class Dialog implements DialogInterface {
+
+	private final Context mContext;
+	private final Window mWindow = new Window();
+	private OnCancelListener mOnCancelListener;
+	private OnDismissListener mOnDismissListener;
+	private boolean mCreated;
+	private boolean mShowing;
+
+	public Dialog( Context context ) {
+		mContext = context;
+	}
+
+	public final Context getContext() {
+		return mContext;
+	}
+
+	public Window getWindow() {
+		return mWindow;
+	}
+
+	public final boolean requestWindowFeature( int featureId ) {
+		return true;
+	}
+
+	public void addContentView( View view, ViewGroup.LayoutParams params ) {
+		view.setLayoutParams( params );
+		onContentChanged();
+	}
+
+	public void onContentChanged() {}
+
+	protected void onCreate( Bundle savedInstanceState ) {}
+
+	protected void onStart() {}
+
+	protected void onStop() {}
+
+	public void onDetachedFromWindow() {}
+
+	public boolean isShowing() {
+		return mShowing;
+	}
+
+	public void show() {
+		if ( mShowing ) return;
+		if ( !mCreated ) {
+			mCreated = true;
+			onCreate( null );
+		}
+		mShowing = true;
+		onStart();
+	}
+
+	@Override
+	public void cancel() {
+		if ( mShowing && null != mOnCancelListener ) {
+			mOnCancelListener.onCancel( this );
+		}
+		dismiss();
+	}
+
+	@Override
+	public void dismiss() {
+		if ( !mShowing ) return;
+		mShowing = false;
+		onStop();
+		onDetachedFromWindow();
+		if ( null != mOnDismissListener ) {
+			mOnDismissListener.onDismiss( this );
+		}
+	}
+
+	public void setOnCancelListener( OnCancelListener listener ) {
+		mOnCancelListener = listener;
+	}
+
+	public void setOnDismissListener( OnDismissListener listener ) {
+		mOnDismissListener = listener;
+	}
+}
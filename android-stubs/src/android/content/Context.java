@@ -0,0 +1,28 @@
+package android.content;
+
+import java.io.File;
+import android.content.res.Resources;
+import android.os.Looper;
+
+/**
+ * JVM stand-in: see it.sephiroth.android.stubs.JvmContext for a working implementation.
+ */
+public abstract class Context {
+
+	public static final int MODE_PRIVATE = 0;
+	public static final String CONNECTIVITY_SERVICE = "connectivity";
+
+	public abstract Context getApplicationContext();
+
+	public abstract SharedPreferences getSharedPreferences( String name, int mode );
+
+	public abstract File getFilesDir();
+
+	public abstract File getCacheDir();
+
+	public abstract Resources getResources();
+
+	public abstract Object getSystemService( String name );
+
+	public abstract Looper getMainLooper();
+}
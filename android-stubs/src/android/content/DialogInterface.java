@@ -0,0 +1,18 @@
+package android.content;
+
+public interface DialogInterface {
+
+	public static interface OnCancelListener {
+
+		public void onCancel( DialogInterface dialog );
+	}
+
+	public static interface OnDismissListener {
+
+		public void onDismiss( DialogInterface dialog );
+	}
+
+	public void cancel();
+
+	public void dismiss();
+}
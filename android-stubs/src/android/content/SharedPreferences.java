@@ -0,0 +1,57 @@
+package android.content;
+
+import java.util.Map;
+import java.util.Set;
+
+public interface SharedPreferences {
+
+	public static interface OnSharedPreferenceChangeListener {
+
+		public void onSharedPreferenceChanged( SharedPreferences sharedPreferences, String key );
+	}
+
+	public static interface Editor {
+
+		public Editor putString( String key, String value );
+
+		public Editor putStringSet( String key, Set<String> values );
+
+		public Editor putInt( String key, int value );
+
+		public Editor putLong( String key, long value );
+
+		public Editor putFloat( String key, float value );
+
+		public Editor putBoolean( String key, boolean value );
+
+		public Editor remove( String key );
+
+		public Editor clear();
+
+		public boolean commit();
+
+		public void apply();
+	}
+
+	public Map<String, ?> getAll();
+
+	public String getString( String key, String defValue );
+
+	public Set<String> getStringSet( String key, Set<String> defValues );
+
+	public int getInt( String key, int defValue );
+
+	public long getLong( String key, long defValue );
+
+	public float getFloat( String key, float defValue );
+
+	public boolean getBoolean( String key, boolean defValue );
+
+	public boolean contains( String key );
+
+	public Editor edit();
+
+	public void registerOnSharedPreferenceChangeListener( OnSharedPreferenceChangeListener listener );
+
+	public void unregisterOnSharedPreferenceChangeListener( OnSharedPreferenceChangeListener listener );
+}
@@ -0,0 +1,12 @@
+package android.content.res;
+
+import android.util.DisplayMetrics;
+
+public class Resources {
+
+	private final DisplayMetrics mMetrics = new DisplayMetrics();
+
+	public DisplayMetrics getDisplayMetrics() {
+		return mMetrics;
+	}
+}
@@ -0,0 +1,20 @@
+package android.net;
+
+/**
+ * JVM stand-in: the network state is set with {@link #setConnected(boolean)}, connected by default.
+ */
+public class ConnectivityManager {
+
+	private volatile NetworkInfo mActive = new NetworkInfo( true );
+
+	public NetworkInfo getActiveNetworkInfo() {
+		return mActive;
+	}
+
+	/**
+	 * JVM stand-in only.
+	 */
+	public void setConnected( boolean connected ) {
+		mActive = connected ? new NetworkInfo( true ) : null;
+	}
+}
@@ -0,0 +1,21 @@
+package android.net;
+
+public class NetworkInfo {
+
+	private final boolean mConnected;
+
+	/**
+	 * JVM stand-in only.
+	 */
+	public NetworkInfo( boolean connected ) {
+		mConnected = connected;
+	}
+
+	public boolean isConnected() {
+		return mConnected;
+	}
+
+	public boolean isConnectedOrConnecting() {
+		return mConnected;
+	}
+}
@@ -0,0 +1,80 @@
+package android.net;
+
+import java.io.UnsupportedEncodingException;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.net.URLDecoder;
+
+/**
+ * JVM stand-in backed by {@link URI}, limited to hierarchical uris.
+ */
+public final class Uri {
+
+	private final String mString;
+	private final URI mUri;
+
+	private Uri( String string, URI uri ) {
+		mString = string;
+		mUri = uri;
+	}
+
+	public static Uri parse( String uriString ) {
+		URI uri;
+		try {
+			uri = new URI( uriString );
+		} catch ( URISyntaxException e ) {
+			uri = null;
+		}
+		return new Uri( uriString, uri );
+	}
+
+	public String getScheme() {
+		return null != mUri ? mUri.getScheme() : null;
+	}
+
+	public String getHost() {
+		return null != mUri ? mUri.getHost() : null;
+	}
+
+	public int getPort() {
+		return null != mUri ? mUri.getPort() : -1;
+	}
+
+	public String getPath() {
+		return null != mUri ? mUri.getPath() : null;
+	}
+
+	public String getQuery() {
+		return null != mUri ? mUri.getQuery() : null;
+	}
+
+	/**
+	 * Returns the first decoded value of the query parameter, or null.
+	 */
+	public String getQueryParameter( String key ) {
+		final String query = null != mUri ? mUri.getRawQuery() : null;
+		if ( null == query ) return null;
+
+		for ( String pair : query.split( "&" ) ) {
+			final int index = pair.indexOf( '=' );
+			final String name = index < 0 ? pair : pair.substring( 0, index );
+			if ( decode( name ).equals( key ) ) {
+				return index < 0 ? "" : decode( pair.substring( index + 1 ) );
+			}
+		}
+		return null;
+	}
+
+	private static String decode( String value ) {
+		try {
+			return URLDecoder.decode( value, "UTF-8" );
+		} catch ( UnsupportedEncodingException e ) {
+			throw new AssertionError( e );
+		}
+	}
+
+	@Override
+	public String toString() {
+		return mString;
+	}
+}
@@ -0,0 +1,21 @@
+package android.os;
+
+import java.util.HashMap;
+import java.util.Map;
+
+public class Bundle {
+
+	private final Map<String, Object> mValues = new HashMap<String, Object>();
+
+	public void putString( String key, String value ) {
+		mValues.put( key, value );
+	}
+
+	public String getString( String key ) {
+		return (String) mValues.get( key );
+	}
+
+	public boolean containsKey( String key ) {
+		return mValues.containsKey( key );
+	}
+}
@@ -0,0 +1,139 @@
+package android.os;
+
+/**
+ * JVM stand-in: same dispatching rules as the Android handler, on the {@link Looper} it's bound to.
+ */
+public class Handler {
+
+	public static interface Callback {
+
+		public boolean handleMessage( Message msg );
+	}
+
+	private final Looper mLooper;
+	private final MessageQueue mQueue;
+	private final Callback mCallback;
+
+	public Handler() {
+		this( (Callback) null );
+	}
+
+	public Handler( Callback callback ) {
+		this( myLooperOrThrow(), callback );
+	}
+
+	public Handler( Looper looper ) {
+		this( looper, null );
+	}
+
+	public Handler( Looper looper, Callback callback ) {
+		mLooper = looper;
+		mQueue = looper.getQueue();
+		mCallback = callback;
+	}
+
+	private static Looper myLooperOrThrow() {
+		final Looper looper = Looper.myLooper();
+		if ( null == looper ) {
+			throw new RuntimeException( "Can't create handler inside thread that has not called Looper.prepare()" );
+		}
+		return looper;
+	}
+
+	public void handleMessage( Message msg ) {}
+
+	public void dispatchMessage( Message msg ) {
+		if ( null != msg.callback ) {
+			msg.callback.run();
+		} else if ( null == mCallback || !mCallback.handleMessage( msg ) ) {
+			handleMessage( msg );
+		}
+	}
+
+	public final Looper getLooper() {
+		return mLooper;
+	}
+
+	public final Message obtainMessage() {
+		return Message.obtain( this, 0, null );
+	}
+
+	public final Message obtainMessage( int what ) {
+		return Message.obtain( this, what, null );
+	}
+
+	public final Message obtainMessage( int what, Object obj ) {
+		return Message.obtain( this, what, obj );
+	}
+
+	public final boolean post( Runnable r ) {
+		return postAtTime( r, null, SystemClock.uptimeMillis() );
+	}
+
+	public final boolean postDelayed( Runnable r, long delayMillis ) {
+		return postAtTime( r, null, SystemClock.uptimeMillis() + Math.max( 0, delayMillis ) );
+	}
+
+	public final boolean postAtTime( Runnable r, long uptimeMillis ) {
+		return postAtTime( r, null, uptimeMillis );
+	}
+
+	public final boolean postAtTime( Runnable r, Object token, long uptimeMillis ) {
+		Message message = Message.obtain( this, 0, null );
+		message.callback = r;
+		message.token = token;
+		return mQueue.enqueue( message, uptimeMillis );
+	}
+
+	public final boolean sendMessage( Message msg ) {
+		return sendMessageAtTime( msg, SystemClock.uptimeMillis() );
+	}
+
+	public final boolean sendEmptyMessage( int what ) {
+		return sendMessage( obtainMessage( what ) );
+	}
+
+	public final boolean sendEmptyMessageDelayed( int what, long delayMillis ) {
+		return sendMessageDelayed( obtainMessage( what ), delayMillis );
+	}
+
+	public final boolean sendMessageDelayed( Message msg, long delayMillis ) {
+		return sendMessageAtTime( msg, SystemClock.uptimeMillis() + Math.max( 0, delayMillis ) );
+	}
+
+	public boolean sendMessageAtTime( Message msg, long uptimeMillis ) {
+		msg.target = this;
+		return mQueue.enqueue( msg, uptimeMillis );
+	}
+
+	public final void removeCallbacks( Runnable r ) {
+		mQueue.remove( this, -1, r, null );
+	}
+
+	public final void removeCallbacks( Runnable r, Object token ) {
+		mQueue.remove( this, -1, r, token );
+	}
+
+	public final void removeMessages( int what ) {
+		mQueue.remove( this, what, null, null );
+	}
+
+	public final void removeMessages( int what, Object object ) {
+		mQueue.remove( this, what, null, object );
+	}
+
+	/**
+	 * Remove the callbacks and messages whose token or obj is the given one, or all of them if null.
+	 */
+	public final void removeCallbacksAndMessages( Object token ) {
+		mQueue.remove( this, -1, null, token );
+	}
+
+	public final boolean hasMessages( int what ) {
+		return mQueue.has( this, what, null, null );
+	}
+
+	public final boolean hasCallbacks( Runnable r ) {
+		return mQueue.has( this, -1, r, null );
+	}
+}
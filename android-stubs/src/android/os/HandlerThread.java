@@ -0,0 +1,50 @@
+package android.os;
+
+public class HandlerThread extends Thread {
+
+	private Looper mLooper;
+
+	public HandlerThread( String name ) {
+		super( name );
+	}
+
+	public HandlerThread( String name, int priority ) {
+		super( name );
+	}
+
+	@Override
+	public void run() {
+		Looper.prepare();
+		synchronized ( this ) {
+			mLooper = Looper.myLooper();
+			notifyAll();
+		}
+		Looper.loop();
+	}
+
+	/**
+	 * Blocks until the thread has started its looper.
+	 */
+	public Looper getLooper() {
+		synchronized ( this ) {
+			boolean interrupted = false;
+			while ( null == mLooper ) {
+				if ( !isAlive() ) return null;
+				try {
+					wait( 10 );
+				} catch ( InterruptedException e ) {
+					interrupted = true;
+				}
+			}
+			if ( interrupted ) Thread.currentThread().interrupt();
+			return mLooper;
+		}
+	}
+
+	public boolean quit() {
+		final Looper looper = getLooper();
+		if ( null == looper ) return false;
+		looper.quit();
+		return true;
+	}
+}
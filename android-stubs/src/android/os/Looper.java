@@ -0,0 +1,67 @@
+package android.os;
+
+/**
+ * JVM stand-in: runs the messages of its {@link MessageQueue} on the thread that called {@link #loop()}.
+ */
+public final class Looper {
+
+	private static final ThreadLocal<Looper> sThreadLocal = new ThreadLocal<Looper>();
+	private static Looper sMainLooper;
+
+	private final MessageQueue mQueue = new MessageQueue();
+	private final Thread mThread = Thread.currentThread();
+
+	private Looper() {}
+
+	public static void prepare() {
+		if ( null != sThreadLocal.get() ) {
+			throw new RuntimeException( "Only one Looper may be created per thread" );
+		}
+		sThreadLocal.set( new Looper() );
+	}
+
+	public static void prepareMainLooper() {
+		prepare();
+		synchronized ( Looper.class ) {
+			if ( null != sMainLooper ) {
+				throw new IllegalStateException( "The main Looper has already been prepared." );
+			}
+			sMainLooper = myLooper();
+		}
+	}
+
+	public static synchronized Looper getMainLooper() {
+		return sMainLooper;
+	}
+
+	public static Looper myLooper() {
+		return sThreadLocal.get();
+	}
+
+	/**
+	 * Run the queue of the current thread until {@link #quit()}.
+	 */
+	public static void loop() {
+		final Looper looper = myLooper();
+		if ( null == looper ) {
+			throw new RuntimeException( "No Looper; Looper.prepare() wasn't called on this thread." );
+		}
+
+		Message message;
+		while ( null != ( message = looper.mQueue.next() ) ) {
+			message.target.dispatchMessage( message );
+		}
+	}
+
+	public void quit() {
+		mQueue.quit();
+	}
+
+	public Thread getThread() {
+		return mThread;
+	}
+
+	MessageQueue getQueue() {
+		return mQueue;
+	}
+}
@@ -0,0 +1,45 @@
+package android.os;
+
+public final class Message {
+
+	public int what;
+	public int arg1;
+	public int arg2;
+	public Object obj;
+
+	Handler target;
+	Runnable callback;
+	Object token;
+	long when;
+	long sequence;
+
+	public Message() {}
+
+	public static Message obtain() {
+		return new Message();
+	}
+
+	public static Message obtain( Handler handler, int what, Object obj ) {
+		Message message = new Message();
+		message.target = handler;
+		message.what = what;
+		message.obj = obj;
+		return message;
+	}
+
+	public Handler getTarget() {
+		return target;
+	}
+
+	public Runnable getCallback() {
+		return callback;
+	}
+
+	public long getWhen() {
+		return when;
+	}
+
+	public void sendToTarget() {
+		target.sendMessage( this );
+	}
+}
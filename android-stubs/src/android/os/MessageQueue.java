@@ -0,0 +1,100 @@
+package android.os;
+
+import java.util.Iterator;
+import java.util.PriorityQueue;
+
+/**
+ * JVM stand-in: messages ordered by uptime, then by insertion order.
+ */
+public final class MessageQueue {
+
+	private final PriorityQueue<Message> mMessages = new PriorityQueue<Message>( 16, new java.util.Comparator<Message>() {
+
+		@Override
+		public int compare( Message lhs, Message rhs ) {
+			if ( lhs.when != rhs.when ) return lhs.when < rhs.when ? -1 : 1;
+			return lhs.sequence < rhs.sequence ? -1 : ( lhs.sequence == rhs.sequence ? 0 : 1 );
+		}
+	} );
+
+	private long mSequence;
+	private boolean mQuitting;
+
+	MessageQueue() {}
+
+	synchronized boolean enqueue( Message message, long when ) {
+		if ( mQuitting ) return false;
+
+		message.when = when;
+		message.sequence = mSequence++;
+		mMessages.add( message );
+		notifyAll();
+		return true;
+	}
+
+	/**
+	 * Blocks until a message is due, returns null once the queue is quitting.
+	 */
+	synchronized Message next() {
+		while ( true ) {
+			if ( mQuitting ) return null;
+
+			final Message head = mMessages.peek();
+			if ( null == head ) {
+				waitUninterruptibly( 0 );
+				continue;
+			}
+
+			final long delay = head.when - SystemClock.uptimeMillis();
+			if ( delay <= 0 ) {
+				return mMessages.poll();
+			}
+			waitUninterruptibly( delay );
+		}
+	}
+
+	synchronized void quit() {
+		mQuitting = true;
+		mMessages.clear();
+		notifyAll();
+	}
+
+	synchronized boolean isQuitting() {
+		return mQuitting;
+	}
+
+	/**
+	 * Remove the messages of the handler matching all the non null/negative criteria.
+	 */
+	synchronized void remove( Handler handler, int what, Runnable callback, Object token ) {
+		for ( Iterator<Message> iterator = mMessages.iterator(); iterator.hasNext(); ) {
+			if ( matches( iterator.next(), handler, what, callback, token ) ) {
+				iterator.remove();
+			}
+		}
+	}
+
+	synchronized boolean has( Handler handler, int what, Runnable callback, Object token ) {
+		for ( Message message : mMessages ) {
+			if ( matches( message, handler, what, callback, token ) ) return true;
+		}
+		return false;
+	}
+
+	private static boolean matches( Message message, Handler handler, int what, Runnable callback, Object token ) {
+		if ( message.target != handler ) return false;
+		if ( what >= 0 && ( message.what != what || null != message.callback ) ) return false;
+		if ( null != callback && message.callback != callback ) return false;
+		if ( null != token && message.token != token && message.obj != token ) return false;
+		return true;
+	}
+
+	private void waitUninterruptibly( long millis ) {
+		try {
+			wait( millis );
+		} catch ( InterruptedException e ) {
+			Thread.currentThread().interrupt();
+			mQuitting = true;
+		}
+	}
+}
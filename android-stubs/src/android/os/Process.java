@@ -0,0 +1,22 @@
+package android.os;
+
+/**
+ * JVM stand-in: thread priorities are ignored.
+ */
+public class Process {
+
+	public static final int THREAD_PRIORITY_DEFAULT = 0;
+	public static final int THREAD_PRIORITY_LOWEST = 19;
+	public static final int THREAD_PRIORITY_BACKGROUND = 10;
+	public static final int THREAD_PRIORITY_FOREGROUND = -2;
+	public static final int THREAD_PRIORITY_MORE_FAVORABLE = -1;
+	public static final int THREAD_PRIORITY_LESS_FAVORABLE = 1;
+
+	public static void setThreadPriority( int priority ) {}
+
+	public static void setThreadPriority( int tid, int priority ) {}
+
+	public static int myTid() {
+		return (int) Thread.currentThread().getId();
+	}
+}
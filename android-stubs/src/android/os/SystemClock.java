@@ -0,0 +1,36 @@
+package android.os;
+
+/**
+ * JVM stand-in: the uptime is the time elapsed since the class has been loaded.
+ */
+public final class SystemClock {
+
+	private static final long ORIGIN = System.nanoTime();
+
+	private SystemClock() {}
+
+	public static long uptimeMillis() {
+		return ( System.nanoTime() - ORIGIN ) / 1000000L;
+	}
+
+	public static long elapsedRealtime() {
+		return uptimeMillis();
+	}
+
+	public static long currentThreadTimeMillis() {
+		return uptimeMillis();
+	}
+
+	public static void sleep( long ms ) {
+		final long end = uptimeMillis() + ms;
+		long remaining = ms;
+		while ( remaining > 0 ) {
+			try {
+				Thread.sleep( remaining );
+			} catch ( InterruptedException e ) {
+				// same as Android, the sleep is not interrupted
+			}
+			remaining = end - uptimeMillis();
+		}
+	}
+}
@@ -0,0 +1,50 @@
+package android.text;
+
+import java.util.Iterator;
+import java.util.regex.Pattern;
+
+public class TextUtils {
+
+	private TextUtils() {}
+
+	public static boolean isEmpty( CharSequence str ) {
+		return null == str || str.length() == 0;
+	}
+
+	public static boolean equals( CharSequence a, CharSequence b ) {
+		if ( a == b ) return true;
+		return null != a && null != b && a.toString().equals( b.toString() );
+	}
+
+	public static String join( CharSequence delimiter, Object[] tokens ) {
+		StringBuilder builder = new StringBuilder();
+		for ( int i = 0; i < tokens.length; i++ ) {
+			if ( i > 0 ) builder.append( delimiter );
+			builder.append( tokens[i] );
+		}
+		return builder.toString();
+	}
+
+	@SuppressWarnings ( "rawtypes" )
+	public static String join( CharSequence delimiter, Iterable tokens ) {
+		StringBuilder builder = new StringBuilder();
+		for ( Iterator iterator = tokens.iterator(); iterator.hasNext(); ) {
+			builder.append( iterator.next() );
+			if ( iterator.hasNext() ) builder.append( delimiter );
+		}
+		return builder.toString();
+	}
+
+	/**
+	 * Same as Android: the expression is a regular expression and an empty string gives an empty array.
+	 */
+	public static String[] split( String text, String expression ) {
+		if ( text.length() == 0 ) return new String[0];
+		return text.split( expression, -1 );
+	}
+
+	public static String[] split( String text, Pattern pattern ) {
+		if ( text.length() == 0 ) return new String[0];
+		return pattern.split( text, -1 );
+	}
+}
@@ -0,0 +1,8 @@
+package android.util;
+
+public class DisplayMetrics {
+
+	public int widthPixels = 480;
+	public int heightPixels = 800;
+	public float density = 1.5f;
+}
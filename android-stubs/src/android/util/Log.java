@@ -0,0 +1,88 @@
+package android.util;
+
+/**
+ * JVM stand-in of the Android logger: messages at or above the level set by the <code>android.util.Log.level</code> system
+ * property (default {@link #WARN}) are written to the standard error.
+ */
+public final class Log {
+
+	public static final int VERBOSE = 2;
+	public static final int DEBUG = 3;
+	public static final int INFO = 4;
+	public static final int WARN = 5;
+	public static final int ERROR = 6;
+	public static final int ASSERT = 7;
+
+	private static final String LEVELS = "??VDIWEA";
+
+	private static volatile int sLevel = Integer.getInteger( "android.util.Log.level", WARN );
+
+	private Log() {}
+
+	public static void setLevel( int level ) {
+		sLevel = level;
+	}
+
+	public static boolean isLoggable( String tag, int level ) {
+		return level >= sLevel;
+	}
+
+	public static int v( String tag, String msg ) {
+		return println( VERBOSE, tag, msg, null );
+	}
+
+	public static int v( String tag, String msg, Throwable tr ) {
+		return println( VERBOSE, tag, msg, tr );
+	}
+
+	public static int d( String tag, String msg ) {
+		return println( DEBUG, tag, msg, null );
+	}
+
+	public static int d( String tag, String msg, Throwable tr ) {
+		return println( DEBUG, tag, msg, tr );
+	}
+
+	public static int i( String tag, String msg ) {
+		return println( INFO, tag, msg, null );
+	}
+
+	public static int i( String tag, String msg, Throwable tr ) {
+		return println( INFO, tag, msg, tr );
+	}
+
+	public static int w( String tag, String msg ) {
+		return println( WARN, tag, msg, null );
+	}
+
+	public static int w( String tag, String msg, Throwable tr ) {
+		return println( WARN, tag, msg, tr );
+	}
+
+	public static int w( String tag, Throwable tr ) {
+		return println( WARN, tag, "", tr );
+	}
+
+	public static int e( String tag, String msg ) {
+		return println( ERROR, tag, msg, null );
+	}
+
+	public static int e( String tag, String msg, Throwable tr ) {
+		return println( ERROR, tag, msg, tr );
+	}
+
+	public static int println( int priority, String tag, String msg ) {
+		return println( priority, tag, msg, null );
+	}
+
+	private static int println( int priority, String tag, String msg, Throwable tr ) {
+		if ( priority < sLevel ) return 0;
+
+		final String line = LEVELS.charAt( priority ) + "/" + tag + ": " + msg;
+		synchronized ( System.err ) {
+			System.err.println( line );
+			if ( null != tr ) tr.printStackTrace();
+		}
+		return line.length();
+	}
+}
@@ -0,0 +1,50 @@
+package android.view;
+
+import android.content.Context;
+
+/**
+ * JVM stand-in: nothing is drawn, only the tree and the visibility are kept.
+ */
+public class View {
+
+	public static final int VISIBLE = 0x00000000;
+	public static final int INVISIBLE = 0x00000004;
+	public static final int GONE = 0x00000008;
+
+	private final Context mContext;
+	private ViewGroup.LayoutParams mLayoutParams;
+	private int mVisibility = VISIBLE;
+	ViewParent mParent;
+
+	public View( Context context ) {
+		mContext = context;
+	}
+
+	public Context getContext() {
+		return mContext;
+	}
+
+	public ViewParent getParent() {
+		return mParent;
+	}
+
+	public void setVisibility( int visibility ) {
+		mVisibility = visibility;
+	}
+
+	public int getVisibility() {
+		return mVisibility;
+	}
+
+	public void setLayoutParams( ViewGroup.LayoutParams params ) {
+		mLayoutParams = params;
+	}
+
+	public ViewGroup.LayoutParams getLayoutParams() {
+		return mLayoutParams;
+	}
+
+	public void setVerticalScrollBarEnabled( boolean enabled ) {}
+
+	public void setHorizontalScrollBarEnabled( boolean enabled ) {}
+}
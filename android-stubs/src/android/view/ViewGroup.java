@@ -0,0 +1,55 @@
+package android.view;
+
+import java.util.ArrayList;
+import java.util.List;
+import android.content.Context;
+
+public class ViewGroup extends View implements ViewParent {
+
+	public static class LayoutParams {
+
+		public static final int MATCH_PARENT = -1;
+		public static final int WRAP_CONTENT = -2;
+
+		public int width;
+		public int height;
+
+		public LayoutParams( int width, int height ) {
+			this.width = width;
+			this.height = height;
+		}
+	}
+
+	private final List<View> mChildren = new ArrayList<View>();
+
+	public ViewGroup( Context context ) {
+		super( context );
+	}
+
+	public void addView( View child ) {
+		addView( child, child.getLayoutParams() );
+	}
+
+	public void addView( View child, LayoutParams params ) {
+		if ( null != child.mParent ) {
+			throw new IllegalStateException( "The specified child already has a parent." );
+		}
+		if ( null != params ) child.setLayoutParams( params );
+		child.mParent = this;
+		mChildren.add( child );
+	}
+
+	public void removeView( View view ) {
+		if ( mChildren.remove( view ) ) {
+			view.mParent = null;
+		}
+	}
+
+	public int getChildCount() {
+		return mChildren.size();
+	}
+
+	public View getChildAt( int index ) {
+		return mChildren.get( index );
+	}
+}
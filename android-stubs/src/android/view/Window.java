@@ -0,0 +1,6 @@
+package android.view;
+
+public class Window {
+
+	public static final int FEATURE_NO_TITLE = 1;
+}
@@ -0,0 +1,8 @@
+package android.webkit;
+
+public class WebSettings {
+
+	public void setJavaScriptEnabled( boolean flag ) {}
+
+	public void setSavePassword( boolean save ) {}
+}
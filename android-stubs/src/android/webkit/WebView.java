@@ -0,0 +1,46 @@
+package android.webkit;
+
+import android.content.Context;
+import android.widget.AbsoluteLayout;
+
+/**
+ * JVM stand-in: no page is loaded, {@link #loadUrl(String)} only records the url.
+ */
+public class WebView extends AbsoluteLayout {
+
+	private final WebSettings mSettings = new WebSettings();
+	private WebViewClient mClient;
+	private String mUrl;
+	private boolean mDestroyed;
+
+	public WebView( Context context ) {
+		super( context );
+	}
+
+	public WebSettings getSettings() {
+		return mSettings;
+	}
+
+	public void setWebViewClient( WebViewClient client ) {
+		mClient = client;
+	}
+
+	public WebViewClient getWebViewClient() {
+		return mClient;
+	}
+
+	public void loadUrl( String url ) {
+		if ( mDestroyed ) return;
+		mUrl = url;
+	}
+
+	public String getUrl() {
+		return mUrl;
+	}
+
+	public void stopLoading() {}
+
+	public void destroy() {
+		mDestroyed = true;
+	}
+}
@@ -0,0 +1,26 @@
+package android.widget;
+
+import android.content.Context;
+import android.util.AttributeSet;
+import android.view.View;
+
+public class ProgressBar extends View {
+
+	private boolean mIndeterminate;
+
+	public ProgressBar( Context context ) {
+		super( context );
+	}
+
+	public ProgressBar( Context context, AttributeSet attrs, int defStyle ) {
+		super( context );
+	}
+
+	public void setIndeterminate( boolean indeterminate ) {
+		mIndeterminate = indeterminate;
+	}
+
+	public boolean isIndeterminate() {
+		return mIndeterminate;
+	}
+}
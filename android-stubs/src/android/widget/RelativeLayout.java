@@ -0,0 +1,22 @@
+package android.widget;
+
+import android.content.Context;
+import android.view.ViewGroup;
+
+public class RelativeLayout extends ViewGroup {
+
+	public static final int CENTER_IN_PARENT = 13;
+
+	public static class LayoutParams extends ViewGroup.LayoutParams {
+
+		public LayoutParams( int width, int height ) {
+			super( width, height );
+		}
+
+		public void addRule( int verb ) {}
+	}
+
+	public RelativeLayout( Context context ) {
+		super( context );
+	}
+}
@@ -0,0 +1,169 @@
+package it.sephiroth.android.stubs;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import android.content.SharedPreferences;
+
+/**
+ * Thread safe {@link SharedPreferences} kept in memory. {@link Editor#apply()} and {@link Editor#commit()} are both
+ * synchronous.
+ */
+public class InMemorySharedPreferences implements SharedPreferences {
+
+	private final Map<String, Object> mValues = new HashMap<String, Object>();
+	private final List<OnSharedPreferenceChangeListener> mListeners = new CopyOnWriteArrayList<OnSharedPreferenceChangeListener>();
+
+	private final class EditorImpl implements Editor {
+
+		private final Map<String, Object> mChanges = new HashMap<String, Object>();
+		private boolean mClear;
+
+		@Override
+		public Editor putString( String key, String value ) {
+			return put( key, value );
+		}
+
+		@Override
+		public Editor putStringSet( String key, Set<String> values ) {
+			return put( key, null != values ? new HashSet<String>( values ) : null );
+		}
+
+		@Override
+		public Editor putInt( String key, int value ) {
+			return put( key, value );
+		}
+
+		@Override
+		public Editor putLong( String key, long value ) {
+			return put( key, value );
+		}
+
+		@Override
+		public Editor putFloat( String key, float value ) {
+			return put( key, value );
+		}
+
+		@Override
+		public Editor putBoolean( String key, boolean value ) {
+			return put( key, value );
+		}
+
+		@Override
+		public Editor remove( String key ) {
+			// a null value marks the removal, as in the Android implementation
+			return put( key, null );
+		}
+
+		@Override
+		public synchronized Editor clear() {
+			mClear = true;
+			return this;
+		}
+
+		private synchronized Editor put( String key, Object value ) {
+			mChanges.put( key, value );
+			return this;
+		}
+
+		@Override
+		public boolean commit() {
+			final List<String> changed = new ArrayList<String>();
+			synchronized ( this ) {
+				synchronized ( InMemorySharedPreferences.this ) {
+					if ( mClear ) {
+						mValues.clear();
+						mClear = false;
+					}
+					for ( Map.Entry<String, Object> entry : mChanges.entrySet() ) {
+						if ( null == entry.getValue() ) {
+							mValues.remove( entry.getKey() );
+						} else {
+							mValues.put( entry.getKey(), entry.getValue() );
+						}
+						changed.add( entry.getKey() );
+					}
+					mChanges.clear();
+				}
+			}
+
+			for ( String key : changed ) {
+				for ( OnSharedPreferenceChangeListener listener : mListeners ) {
+					listener.onSharedPreferenceChanged( InMemorySharedPreferences.this, key );
+				}
+			}
+			return true;
+		}
+
+		@Override
+		public void apply() {
+			commit();
+		}
+	}
+
+	@Override
+	public synchronized Map<String, ?> getAll() {
+		return new HashMap<String, Object>( mValues );
+	}
+
+	@Override
+	public synchronized String getString( String key, String defValue ) {
+		final Object value = mValues.get( key );
+		return null != value ? (String) value : defValue;
+	}
+
+	@Override
+	@SuppressWarnings ( "unchecked" )
+	public synchronized Set<String> getStringSet( String key, Set<String> defValues ) {
+		final Object value = mValues.get( key );
+		return null != value ? (Set<String>) value : defValues;
+	}
+
+	@Override
+	public synchronized int getInt( String key, int defValue ) {
+		final Object value = mValues.get( key );
+		return null != value ? (Integer) value : defValue;
+	}
+
+	@Override
+	public synchronized long getLong( String key, long defValue ) {
+		final Object value = mValues.get( key );
+		return null != value ? (Long) value : defValue;
+	}
+
+	@Override
+	public synchronized float getFloat( String key, float defValue ) {
+		final Object value = mValues.get( key );
+		return null != value ? (Float) value : defValue;
+	}
+
+	@Override
+	public synchronized boolean getBoolean( String key, boolean defValue ) {
+		final Object value = mValues.get( key );
+		return null != value ? (Boolean) value : defValue;
+	}
+
+	@Override
+	public synchronized boolean contains( String key ) {
+		return mValues.containsKey( key );
+	}
+
+	@Override
+	public Editor edit() {
+		return new EditorImpl();
+	}
+
+	@Override
+	public void registerOnSharedPreferenceChangeListener( OnSharedPreferenceChangeListener listener ) {
+		mListeners.add( listener );
+	}
+
+	@Override
+	public void unregisterOnSharedPreferenceChangeListener( OnSharedPreferenceChangeListener listener ) {
+		mListeners.remove( listener );
+	}
+}
@@ -0,0 +1,122 @@
+package it.sephiroth.android.stubs;
+
+import java.io.File;
+import java.util.HashMap;
+import java.util.Map;
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.content.res.Resources;
+import android.net.ConnectivityManager;
+import android.os.Looper;
+
+/**
+ * {@link Context} usable on a plain JVM: preferences are kept in memory, the files and cache directories are created
+ * under a private temporary directory, and the network is reported as connected until
+ * {@link ConnectivityManager#setConnected(boolean)} says otherwise.
+ */
+public class JvmContext extends Context {
+
+	private final File mRoot;
+	private final Looper mMainLooper;
+	private final Resources mResources = new Resources();
+	private final ConnectivityManager mConnectivity = new ConnectivityManager();
+	private final Map<String, SharedPreferences> mPreferences = new HashMap<String, SharedPreferences>();
+
+	/**
+	 * @param root
+	 *           directory holding the files and cache directories
+	 * @param mainLooper
+	 *           the looper returned by {@link #getMainLooper()}, may be null
+	 */
+	public JvmContext( File root, Looper mainLooper ) {
+		mRoot = root;
+		mMainLooper = mainLooper;
+	}
+
+	/**
+	 * Create a context in a new temporary directory, deleted on exit.
+	 */
+	public static JvmContext create( Looper mainLooper ) {
+		final File root;
+		try {
+			root = File.createTempFile( "jvmcontext", "" );
+		} catch ( java.io.IOException e ) {
+			throw new IllegalStateException( "cannot create the context directory", e );
+		}
+		if ( !root.delete() || !root.mkdir() ) {
+			throw new IllegalStateException( "cannot create the context directory " + root );
+		}
+		root.deleteOnExit();
+		return new JvmContext( root, mainLooper );
+	}
+
+	@Override
+	public Context getApplicationContext() {
+		return this;
+	}
+
+	@Override
+	public synchronized SharedPreferences getSharedPreferences( String name, int mode ) {
+		SharedPreferences preferences = mPreferences.get( name );
+		if ( null == preferences ) {
+			preferences = new InMemorySharedPreferences();
+			mPreferences.put( name, preferences );
+		}
+		return preferences;
+	}
+
+	@Override
+	public File getFilesDir() {
+		return getDir( "files" );
+	}
+
+	@Override
+	public File getCacheDir() {
+		return getDir( "cache" );
+	}
+
+	@Override
+	public Resources getResources() {
+		return mResources;
+	}
+
+	@Override
+	public Object getSystemService( String name ) {
+		if ( CONNECTIVITY_SERVICE.equals( name ) ) return mConnectivity;
+		return null;
+	}
+
+	@Override
+	public Looper getMainLooper() {
+		return mMainLooper;
+	}
+
+	public ConnectivityManager getConnectivityManager() {
+		return mConnectivity;
+	}
+
+	/**
+	 * Delete the files and cache directories.
+	 */
+	public void clear() {
+		delete( mRoot, false );
+	}
+
+	private File getDir( String name ) {
+		File dir = new File( mRoot, name );
+		if ( !dir.isDirectory() && !dir.mkdirs() ) {
+			throw new IllegalStateException( "cannot create " + dir );
+		}
+		return dir;
+	}
+
+	private static void delete( File file, boolean self ) {
+		File[] children = file.listFiles();
+		if ( null != children ) {
+			for ( File child : children ) {
+				delete( child, true );
+			}
+		}
+		if ( self ) file.delete();
+	}
+}
@@ -0,0 +1,51 @@
+package it.sephiroth.twitter.bench;
+
+/**
+ * A measured operation. {@link #run(int)} is invoked in a loop by every thread of the benchmark, and each invocation is
+ * timed on its own; its result is consumed by the {@link BenchmarkRunner} so that the work can't be optimized away.
+ */
+public abstract class Benchmark {
+
+	private final String mName;
+	private final int mThreads;
+
+	protected Benchmark( String name ) {
+		this( name, 1 );
+	}
+
+	/**
+	 * @param threads
+	 *           number of threads invoking {@link #run(int)} concurrently
+	 */
+	protected Benchmark( String name, int threads ) {
+		if ( threads < 1 ) throw new IllegalArgumentException( "threads must be >= 1" );
+		mName = name;
+		mThreads = threads;
+	}
+
+	public final String getName() {
+		return mName;
+	}
+
+	public final int getThreads() {
+		return mThreads;
+	}
+
+	/**
+	 * Invoked once before the warmup, on the runner thread.
+	 */
+	public void setUp() throws Exception {}
+
+	/**
+	 * One operation.
+	 *
+	 * @param thread
+	 *           index of the calling thread, from 0 to {@link #getThreads()} - 1
+	 */
+	public abstract Object run( int thread ) throws Exception;
+
+	/**
+	 * Invoked once after the measurement, on the runner thread, also if the benchmark failed.
+	 */
+	public void tearDown() throws Exception {}
+}
@@ -0,0 +1,97 @@
+package it.sephiroth.twitter.bench;
+
+import java.util.Arrays;
+import java.util.Locale;
+
+/**
+ * Throughput, latency distribution and allocation of a benchmark, over all its measurement iterations and threads.
+ */
+public final class BenchmarkResult {
+
+	static final String CSV_HEADER = "benchmark,threads,ops,ops_per_sec,p50_us,p90_us,p99_us,max_us,alloc_bytes_per_op,alloc_mb_per_sec";
+
+	private final String mName;
+	private final int mThreads;
+	private final long mOperations;
+	private final long mElapsedNanos;
+	private final long[] mSortedLatencies;
+	private final long mAllocatedBytes;
+
+	/**
+	 * @param latencies
+	 *           sampled latencies, in nanoseconds
+	 * @param allocatedBytes
+	 *           bytes allocated by the whole JVM during the measurement, or -1 if not supported
+	 */
+	BenchmarkResult( String name, int threads, long operations, long elapsedNanos, long[] latencies, long allocatedBytes ) {
+		mName = name;
+		mThreads = threads;
+		mOperations = operations;
+		mElapsedNanos = elapsedNanos;
+		mSortedLatencies = latencies;
+		mAllocatedBytes = allocatedBytes;
+		Arrays.sort( mSortedLatencies );
+	}
+
+	public String getName() {
+		return mName;
+	}
+
+	public int getThreads() {
+		return mThreads;
+	}
+
+	public long getOperations() {
+		return mOperations;
+	}
+
+	public double getOpsPerSecond() {
+		return mElapsedNanos > 0 ? mOperations * 1e9 / mElapsedNanos : 0;
+	}
+
+	/**
+	 * Returns the latency at the given percentile, in microseconds.
+	 */
+	public double getLatencyMicros( double percentile ) {
+		if ( mSortedLatencies.length == 0 ) return 0;
+		final int index = (int) Math.ceil( percentile / 100 * mSortedLatencies.length ) - 1;
+		return mSortedLatencies[Math.max( 0, Math.min( mSortedLatencies.length - 1, index ) )] / 1000.0;
+	}
+
+	/**
+	 * Returns the bytes allocated per operation, or -1 if the JVM can't measure the allocations.
+	 */
+	public double getAllocatedBytesPerOp() {
+		if ( mAllocatedBytes < 0 || mOperations == 0 ) return -1;
+		return (double) mAllocatedBytes / mOperations;
+	}
+
+	/**
+	 * Returns the allocation rate in MB per second, or -1 if the JVM can't measure the allocations.
+	 */
+	public double getAllocatedMegabytesPerSecond() {
+		if ( mAllocatedBytes < 0 || mElapsedNanos == 0 ) return -1;
+		return mAllocatedBytes * 1e9 / mElapsedNanos / ( 1024 * 1024 );
+	}
+
+	String toRow() {
+		return String.format( Locale.US, "%-36s %3d %12.1f %10.1f %10.1f %10.1f %10.1f %12s %10s", mName, mThreads,
+				getOpsPerSecond(), getLatencyMicros( 50 ), getLatencyMicros( 90 ), getLatencyMicros( 99 ), getLatencyMicros( 100 ),
+				formatAllocation( getAllocatedBytesPerOp(), "%.0f" ), formatAllocation( getAllocatedMegabytesPerSecond(), "%.1f" ) );
+	}
+
+	static String header() {
+		return String.format( Locale.US, "%-36s %3s %12s %10s %10s %10s %10s %12s %10s", "benchmark", "thr", "ops/s", "p50 us",
+				"p90 us", "p99 us", "max us", "alloc B/op", "alloc MB/s" );
+	}
+
+	String toCsv() {
+		return String.format( Locale.US, "%s,%d,%d,%.1f,%.1f,%.1f,%.1f,%.1f,%.0f,%.1f", mName, mThreads, mOperations,
+				getOpsPerSecond(), getLatencyMicros( 50 ), getLatencyMicros( 90 ), getLatencyMicros( 99 ),
+				getLatencyMicros( 100 ), getAllocatedBytesPerOp(), getAllocatedMegabytesPerSecond() );
+	}
+
+	private static String formatAllocation( double value, String format ) {
+		return value < 0 ? "n/a" : String.format( Locale.US, format, value );
+	}
+}
@@ -0,0 +1,357 @@
+package it.sephiroth.twitter.bench;
+
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.lang.management.ThreadInfo;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.BrokenBarrierException;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.regex.Pattern;
+
+/**
+ * Runs the benchmarks one after the other: a timed warmup, then the measurement iterations. Every operation is timed and
+ * kept in a uniform sample of fixed size per thread, so the measurement itself never allocates. The bytes allocated during
+ * the measurement by all the threads of the JVM, except the excluded ones, are read from the
+ * {@link com.sun.management.ThreadMXBean}, so the allocations of the library threads are accounted as well; threads started
+ * and terminated within the measurement are missed.<br />
+ * The {@link HeapBenchmark}s are measured apart, by the growth of the live heap after a full collection; their results are
+ * printed only.<br />
+ * Settings are read from the system properties:
+ * <ul>
+ * <li><code>bench.filter</code>: regular expression matched against the benchmark names</li>
+ * <li><code>bench.warmup</code>: warmup time, in milliseconds, default 3000</li>
+ * <li><code>bench.iterations</code>: number of measurement iterations, default 5</li>
+ * <li><code>bench.time</code>: time of every iteration, in milliseconds, default 2000</li>
+ * <li><code>bench.results</code>: file where the results are written as CSV</li>
+ * </ul>
+ */
+public class BenchmarkRunner {
+
+	/** size of the latency reservoir of every thread */
+	private static final int MAX_SAMPLES = 1 << 16;
+
+	/** max collections run to reach a stable live heap */
+	private static final int MAX_GC_RUNS = 10;
+
+	private final Pattern mFilter;
+	private final long mWarmupMillis;
+	private final int mIterations;
+	private final long mIterationMillis;
+	private final String mResultsFile;
+
+	private final List<String> mExcludedThreads = new ArrayList<String>();
+
+	/** sink of the operation results, so that they can't be optimized away */
+	private volatile int mSink;
+	/** graph of the heap benchmark being measured, held in a field so that it's released as soon as measured */
+	private volatile Object mRetained;
+
+	public BenchmarkRunner() {
+		final String filter = System.getProperty( "bench.filter" );
+		mFilter = null != filter && filter.length() > 0 ? Pattern.compile( filter ) : null;
+		mWarmupMillis = Long.getLong( "bench.warmup", 3000 );
+		mIterations = Integer.getInteger( "bench.iterations", 5 );
+		mIterationMillis = Long.getLong( "bench.time", 2000 );
+		final String results = System.getProperty( "bench.results" );
+		mResultsFile = null != results && results.length() > 0 ? results : null;
+	}
+
+	/**
+	 * Don't account the allocations of the threads whose name starts with the given prefix, such as the ones of a fake
+	 * server running in the same JVM.
+	 */
+	public void excludeThreads( String namePrefix ) {
+		mExcludedThreads.add( namePrefix );
+	}
+
+	/**
+	 * Run the benchmarks matching the filter, print their results and write them to the results file if any.
+	 *
+	 * @return the results, in the same order as the benchmarks
+	 */
+	public List<BenchmarkResult> run( List<? extends Benchmark> benchmarks ) throws Exception {
+		final List<BenchmarkResult> results = new ArrayList<BenchmarkResult>();
+
+		System.out.println( "warmup " + mWarmupMillis + "ms, " + mIterations + " x " + mIterationMillis + "ms" );
+		System.out.println( BenchmarkResult.header() );
+
+		for ( Benchmark benchmark : benchmarks ) {
+			if ( null != mFilter && !mFilter.matcher( benchmark.getName() ).find() ) continue;
+
+			BenchmarkResult result = run( benchmark );
+			results.add( result );
+			System.out.println( result.toRow() );
+		}
+
+		if ( null != mResultsFile ) {
+			writeCsv( results );
+		}
+		return results;
+	}
+
+	/**
+	 * Measure the retained heap of the benchmarks matching the filter and print the results. Every benchmark builds its graph
+	 * once to warm up, then once per iteration; the median measure is kept.
+	 *
+	 * @return the results, in the same order as the benchmarks
+	 */
+	public List<HeapResult> measureHeap( List<? extends HeapBenchmark> benchmarks ) throws Exception {
+		final List<HeapResult> results = new ArrayList<HeapResult>();
+
+		System.out.println( HeapResult.header() );
+
+		for ( HeapBenchmark benchmark : benchmarks ) {
+			if ( null != mFilter && !mFilter.matcher( benchmark.getName() ).find() ) continue;
+
+			HeapResult result = measureHeap( benchmark );
+			results.add( result );
+			System.out.println( result.toRow() );
+		}
+		return results;
+	}
+
+	private HeapResult measureHeap( HeapBenchmark benchmark ) throws Exception {
+		benchmark.setUp();
+		try {
+			mSink ^= System.identityHashCode( benchmark.retain() );
+
+			final long[] retained = new long[Math.max( 1, mIterations )];
+			for ( int i = 0; i < retained.length; i++ ) {
+				final long before = getLiveHeap();
+				mRetained = benchmark.retain();
+				final long after = getLiveHeap();
+				mRetained = null;
+				retained[i] = after - before;
+			}
+			Arrays.sort( retained );
+			return new HeapResult( benchmark.getName(), benchmark.getItems(), Math.max( 0, retained[retained.length / 2] ) );
+		} finally {
+			benchmark.tearDown();
+		}
+	}
+
+	/**
+	 * Returns the used heap after full collections, run until it no longer shrinks. With the serial collector the JVM must
+	 * run with -XX:MarkSweepAlwaysCompactCount=1, otherwise some dead objects are left in place and counted.
+	 */
+	private static long getLiveHeap() throws InterruptedException {
+		final MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+		long used = Long.MAX_VALUE;
+		for ( int i = 0; i < MAX_GC_RUNS; i++ ) {
+			memory.gc();
+			Thread.sleep( 20 );
+			final long current = memory.getHeapMemoryUsage().getUsed();
+			if ( current >= used ) return current;
+			used = current;
+		}
+		return used;
+	}
+
+	private BenchmarkResult run( final Benchmark benchmark ) throws Exception {
+		final int threads = benchmark.getThreads();
+		final Worker[] workers = new Worker[threads];
+		final CyclicBarrier barrier = new CyclicBarrier( threads + 1 );
+		final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+
+		benchmark.setUp();
+		try {
+			for ( int i = 0; i < threads; i++ ) {
+				workers[i] = new Worker( benchmark, i, barrier, failure );
+				workers[i].start();
+			}
+
+			// warmup, not recorded
+			runPhase( workers, barrier, mWarmupMillis, false );
+			checkFailure( benchmark, failure );
+
+			final long allocatedBefore = getAllocatedBytes();
+			long elapsed = 0;
+			for ( int i = 0; i < mIterations; i++ ) {
+				elapsed += runPhase( workers, barrier, mIterationMillis, true );
+				checkFailure( benchmark, failure );
+			}
+			final long allocatedAfter = getAllocatedBytes();
+
+			// stop the workers
+			runPhase( workers, barrier, -1, false );
+
+			long operations = 0;
+			int samples = 0;
+			for ( Worker worker : workers ) {
+				operations += worker.operations;
+				samples += worker.getSampleCount();
+			}
+			long[] latencies = new long[samples];
+			int offset = 0;
+			for ( Worker worker : workers ) {
+				System.arraycopy( worker.samples, 0, latencies, offset, worker.getSampleCount() );
+				offset += worker.getSampleCount();
+			}
+			final long allocated = allocatedBefore < 0 || allocatedAfter < 0 ? -1 : allocatedAfter - allocatedBefore;
+			return new BenchmarkResult( benchmark.getName(), threads, operations, elapsed, latencies, allocated );
+		} finally {
+			for ( Worker worker : workers ) {
+				if ( null != worker ) worker.interrupt();
+			}
+			benchmark.tearDown();
+		}
+	}
+
+	/**
+	 * Release the workers for one phase and wait for all of them to be done.
+	 *
+	 * @param durationMillis
+	 *           -1 to make the workers exit
+	 * @return the elapsed time of the phase, in nanoseconds
+	 */
+	private long runPhase( Worker[] workers, CyclicBarrier barrier, long durationMillis, boolean record )
+			throws InterruptedException, BrokenBarrierException {
+		final long start = System.nanoTime();
+		final long deadline = durationMillis < 0 ? -1 : start + durationMillis * 1000000L;
+		for ( Worker worker : workers ) {
+			worker.deadline = deadline;
+			worker.record = record;
+		}
+		// start
+		barrier.await();
+		if ( deadline < 0 ) return 0;
+		// done
+		barrier.await();
+		return System.nanoTime() - start;
+	}
+
+	private static void checkFailure( Benchmark benchmark, AtomicReference<Throwable> failure ) throws Exception {
+		final Throwable throwable = failure.get();
+		if ( null == throwable ) return;
+		if ( throwable instanceof Exception ) throw (Exception) throwable;
+		throw new RuntimeException( benchmark.getName() + " failed", throwable );
+	}
+
+	/**
+	 * Returns the bytes allocated so far by the live threads not excluded, or -1 if not supported.
+	 */
+	private long getAllocatedBytes() {
+		final java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+		if ( !( bean instanceof com.sun.management.ThreadMXBean ) ) return -1;
+
+		final com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) bean;
+		if ( !threads.isThreadAllocatedMemorySupported() ) return -1;
+		if ( !threads.isThreadAllocatedMemoryEnabled() ) {
+			threads.setThreadAllocatedMemoryEnabled( true );
+		}
+
+		final long[] ids = threads.getAllThreadIds();
+		final long[] allocated = threads.getThreadAllocatedBytes( ids );
+		final ThreadInfo[] infos = threads.getThreadInfo( ids );
+
+		long total = 0;
+		for ( int i = 0; i < ids.length; i++ ) {
+			if ( allocated[i] > 0 && null != infos[i] && !isExcluded( infos[i].getThreadName() ) ) {
+				total += allocated[i];
+			}
+		}
+		return total;
+	}
+
+	private boolean isExcluded( String threadName ) {
+		for ( String prefix : mExcludedThreads ) {
+			if ( threadName.startsWith( prefix ) ) return true;
+		}
+		return false;
+	}
+
+	private void writeCsv( List<BenchmarkResult> results ) throws IOException {
+		PrintWriter writer = new PrintWriter( new FileWriter( mResultsFile ) );
+		try {
+			writer.println( BenchmarkResult.CSV_HEADER );
+			for ( BenchmarkResult result : results ) {
+				writer.println( result.toCsv() );
+			}
+		} finally {
+			writer.close();
+		}
+		System.out.println( "results written to " + mResultsFile );
+	}
+
+	private final class Worker extends Thread {
+
+		final Benchmark benchmark;
+		final int index;
+		final CyclicBarrier barrier;
+		final AtomicReference<Throwable> failure;
+		final long[] samples = new long[MAX_SAMPLES];
+
+		volatile long deadline;
+		volatile boolean record;
+		/** recorded operations, written by the worker before the barrier and read by the runner after it */
+		long operations;
+		private long random = System.nanoTime() | 1;
+		private int sink;
+
+		Worker( Benchmark benchmark, int index, CyclicBarrier barrier, AtomicReference<Throwable> failure ) {
+			super( benchmark.getName() + "-" + index );
+			this.benchmark = benchmark;
+			this.index = index;
+			this.barrier = barrier;
+			this.failure = failure;
+			setDaemon( true );
+		}
+
+		int getSampleCount() {
+			return (int) Math.min( operations, MAX_SAMPLES );
+		}
+
+		@Override
+		public void run() {
+			try {
+				while ( true ) {
+					barrier.await();
+					final long end = deadline;
+					if ( end < 0 ) break;
+
+					final boolean recording = record;
+					try {
+						long now = System.nanoTime();
+						while ( now < end && null == failure.get() ) {
+							final Object result = benchmark.run( index );
+							final long done = System.nanoTime();
+							sink ^= System.identityHashCode( result );
+							if ( recording ) sample( done - now );
+							now = done;
+						}
+					} catch ( Throwable t ) {
+						failure.compareAndSet( null, t );
+					}
+					barrier.await();
+				}
+			} catch ( InterruptedException e ) {
+				// benchmark aborted
+			} catch ( BrokenBarrierException e ) {
+				// benchmark aborted
+			}
+			mSink ^= sink;
+		}
+
+		/**
+		 * Reservoir sampling: every recorded operation has the same chance of being kept.
+		 */
+		private void sample( long latency ) {
+			if ( operations < MAX_SAMPLES ) {
+				samples[(int) operations] = latency;
+			} else {
+				random ^= random << 13;
+				random ^= random >>> 7;
+				random ^= random << 17;
+				final long slot = ( random >>> 1 ) % ( operations + 1 );
+				if ( slot < MAX_SAMPLES ) samples[(int) slot] = latency;
+			}
+			operations++;
+		}
+	}
+}
@@ -0,0 +1,280 @@
+package it.sephiroth.twitter.bench;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.GZIPOutputStream;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Local HTTP server standing in for the Twitter REST API in the benchmarks.<br />
+ * The timelines are generated: a request with since_id gets the page of statuses right after it, so that the timeline
+ * cursor never sees a gap and every refresh is a single round trip; a request without since_id gets the newest page below
+ * {@link #NEWEST_STATUS_ID}. Every response has generous rate limit headers, so the benchmarks are never throttled.
+ */
+public class FakeTwitterEndpoint {
+
+	public static final long USER_ID = 1000;
+	public static final String SCREEN_NAME = "benchmark";
+	public static final long NEWEST_STATUS_ID = 1000000;
+
+	/**
+	 * Names of the threads of the server, excluded from the allocations of the benchmarks, see
+	 * {@link BenchmarkRunner#excludeThreads(String)}.
+	 */
+	public static final String[] THREAD_NAME_PREFIXES = { "FakeTwitterEndpoint-", "HTTP-Dispatcher" };
+
+	private static final int RATE_LIMIT = 1000000;
+	private static final int DEFAULT_COUNT = 20;
+
+	private final HttpServer mServer;
+	private final ExecutorService mExecutor;
+	private final AtomicLong mRequestCount = new AtomicLong();
+
+	public FakeTwitterEndpoint() throws IOException {
+		// headers and body are written separately: without it, Nagle and the delayed ACKs add ~40ms to every response. Read
+		// once, when the first server is created
+		System.setProperty( "sun.net.httpserver.nodelay", "true" );
+
+		mServer = HttpServer.create( new InetSocketAddress( InetAddress.getByName( "127.0.0.1" ), 0 ), 128 );
+		mExecutor = Executors.newFixedThreadPool( 16, new ThreadFactory() {
+
+			private final AtomicInteger mCount = new AtomicInteger();
+
+			@Override
+			public Thread newThread( Runnable runnable ) {
+				Thread thread = new Thread( runnable, THREAD_NAME_PREFIXES[0] + mCount.incrementAndGet() );
+				thread.setDaemon( true );
+				return thread;
+			}
+		} );
+		mServer.setExecutor( mExecutor );
+
+		mServer.createContext( "/1.1/statuses/user_timeline.json", new TimelineHandler() );
+		mServer.createContext( "/1.1/statuses/home_timeline.json", new TimelineHandler() );
+		mServer.createContext( "/1.1/statuses/mentions_timeline.json", new TimelineHandler() );
+		mServer.createContext( "/1.1/account/verify_credentials.json", new Handler() {
+
+			@Override
+			String respond( Map<String, String> params ) {
+				return userJson( USER_ID, false );
+			}
+		} );
+		mServer.createContext( "/oauth/request_token", new Handler() {
+
+			@Override
+			String respond( Map<String, String> params ) {
+				return "oauth_token=request-token&oauth_token_secret=request-secret&oauth_callback_confirmed=true";
+			}
+		} );
+		mServer.createContext( "/oauth/access_token", new Handler() {
+
+			@Override
+			String respond( Map<String, String> params ) {
+				return "oauth_token=" + USER_ID + "-access-token&oauth_token_secret=access-secret&user_id=" + USER_ID
+						+ "&screen_name=" + SCREEN_NAME;
+			}
+		} );
+	}
+
+	public void start() {
+		mServer.start();
+	}
+
+	public void stop() {
+		mServer.stop( 0 );
+		mExecutor.shutdownNow();
+	}
+
+	public int getPort() {
+		return mServer.getAddress().getPort();
+	}
+
+	/**
+	 * Returns the base url of the REST API, to be used as restBaseURL of the twitter4j configuration.
+	 */
+	public String getRestBaseUrl() {
+		return getBaseUrl() + "/1.1/";
+	}
+
+	public String getBaseUrl() {
+		return "http://127.0.0.1:" + getPort();
+	}
+
+	public long getRequestCount() {
+		return mRequestCount.get();
+	}
+
+	/**
+	 * Returns the JSON of a status written by the benchmark user, as returned by the timeline endpoints.
+	 */
+	public static String statusJson( long id, boolean trimUser ) {
+		StringBuilder builder = new StringBuilder( 1400 );
+		appendStatus( builder, id, trimUser );
+		return builder.toString();
+	}
+
+	public static String userJson( long userId, boolean trimmed ) {
+		if ( trimmed ) {
+			return "{\"id\":" + userId + ",\"id_str\":\"" + userId + "\"}";
+		}
+		return "{\"id\":" + userId + ",\"id_str\":\"" + userId + "\",\"name\":\"Benchmark User\",\"screen_name\":\""
+				+ SCREEN_NAME + "\",\"location\":\"Milano\",\"description\":\"Generated user of the benchmarks\","
+				+ "\"url\":null,\"protected\":false,\"followers_count\":1234,\"friends_count\":321,\"listed_count\":5,"
+				+ "\"created_at\":\"Mon Jan 07 10:00:00 +0000 2013\",\"favourites_count\":42,\"utc_offset\":3600,"
+				+ "\"time_zone\":\"Rome\",\"geo_enabled\":false,\"verified\":false,\"statuses_count\":5000,\"lang\":\"en\","
+				+ "\"profile_background_color\":\"C0DEED\",\"profile_background_image_url\":\"http://a0.twimg.com/bg.png\","
+				+ "\"profile_background_image_url_https\":\"https://si0.twimg.com/bg.png\",\"profile_background_tile\":false,"
+				+ "\"profile_image_url\":\"http://a0.twimg.com/profile_normal.png\","
+				+ "\"profile_image_url_https\":\"https://si0.twimg.com/profile_normal.png\",\"profile_link_color\":\"0084B4\","
+				+ "\"profile_sidebar_border_color\":\"C0DEED\",\"profile_sidebar_fill_color\":\"DDEEF6\","
+				+ "\"profile_text_color\":\"333333\",\"profile_use_background_image\":true,\"default_profile\":true,"
+				+ "\"default_profile_image\":false,\"following\":false,\"follow_request_sent\":false,\"notifications\":false}";
+	}
+
+	private static void appendStatus( StringBuilder builder, long id, boolean trimUser ) {
+		final String prefix = "Status " + id + " of the benchmark timeline, with a ";
+		final int hashtag = prefix.length();
+		final int mention = hashtag + "#hashtag and a mention of ".length();
+
+		builder.append( "{\"created_at\":\"Tue Jan 15 10:00:00 +0000 2013\",\"id\":" ).append( id );
+		builder.append( ",\"id_str\":\"" ).append( id );
+		builder.append( "\",\"text\":\"" ).append( prefix ).append( "#hashtag and a mention of @" ).append( SCREEN_NAME );
+		builder.append( "\",\"source\":\"web\",\"truncated\":false,\"in_reply_to_status_id\":null," );
+		builder.append( "\"in_reply_to_status_id_str\":null,\"in_reply_to_user_id\":null,\"in_reply_to_user_id_str\":null," );
+		builder.append( "\"in_reply_to_screen_name\":null,\"user\":" ).append( userJson( USER_ID, trimUser ) );
+		builder.append( ",\"geo\":null,\"coordinates\":null,\"place\":null,\"contributors\":null,\"retweet_count\":" );
+		builder.append( id % 7 ).append( ",\"favorite_count\":" ).append( id % 5 );
+		builder.append( ",\"entities\":{\"hashtags\":[{\"text\":\"hashtag\",\"indices\":[" ).append( hashtag ).append( ',' );
+		builder.append( hashtag + 8 ).append( "]}],\"symbols\":[],\"urls\":[],\"user_mentions\":[{\"screen_name\":\"" );
+		builder.append( SCREEN_NAME ).append( "\",\"name\":\"Benchmark User\",\"id\":" ).append( USER_ID );
+		builder.append( ",\"id_str\":\"" ).append( USER_ID ).append( "\",\"indices\":[" ).append( mention ).append( ',' );
+		builder.append( mention + 1 + SCREEN_NAME.length() );
+		builder.append( "]}]},\"favorited\":false,\"retweeted\":false,\"lang\":\"en\"}" );
+	}
+
+	/**
+	 * Page of statuses for the given paging parameters, newest first.
+	 */
+	static String timelineJson( long sinceId, long maxId, int count, boolean trimUser ) {
+		long newest = sinceId > 0 ? sinceId + count : NEWEST_STATUS_ID;
+		if ( maxId > 0 ) newest = Math.min( newest, maxId );
+		final long oldest = Math.max( sinceId + 1, newest - count + 1 );
+
+		StringBuilder builder = new StringBuilder( count * 1400 );
+		builder.append( '[' );
+		for ( long id = newest; id >= oldest && id > 0; id-- ) {
+			if ( id != newest ) builder.append( ',' );
+			appendStatus( builder, id, trimUser );
+		}
+		return builder.append( ']' ).toString();
+	}
+
+	private abstract class Handler implements HttpHandler {
+
+		abstract String respond( Map<String, String> params );
+
+		@Override
+		public void handle( HttpExchange exchange ) throws IOException {
+			mRequestCount.incrementAndGet();
+			try {
+				drain( exchange.getRequestBody() );
+				final String body = respond( parseQuery( exchange.getRequestURI().getRawQuery() ) );
+				send( exchange, body );
+			} finally {
+				exchange.close();
+			}
+		}
+	}
+
+	private final class TimelineHandler extends Handler {
+
+		@Override
+		String respond( Map<String, String> params ) {
+			return timelineJson( getLong( params, "since_id" ), getLong( params, "max_id" ),
+					(int) Math.max( 1, Math.min( 200, getLong( params, "count", DEFAULT_COUNT ) ) ),
+					"true".equals( params.get( "trim_user" ) ) );
+		}
+	}
+
+	private static void send( HttpExchange exchange, String body ) throws IOException {
+		byte[] bytes = body.getBytes( "UTF-8" );
+
+		final String acceptEncoding = exchange.getRequestHeaders().getFirst( "Accept-Encoding" );
+		if ( null != acceptEncoding && acceptEncoding.contains( "gzip" ) ) {
+			ByteArrayOutputStream buffer = new ByteArrayOutputStream( bytes.length / 4 );
+			GZIPOutputStream gzip = new GZIPOutputStream( buffer );
+			gzip.write( bytes );
+			gzip.close();
+			bytes = buffer.toByteArray();
+			exchange.getResponseHeaders().set( "Content-Encoding", "gzip" );
+		}
+
+		final long reset = System.currentTimeMillis() / 1000 + 15 * 60;
+		exchange.getResponseHeaders().set( "Content-Type", body.startsWith( "oauth_" ) ? "text/plain" : "application/json;charset=utf-8" );
+		exchange.getResponseHeaders().set( "X-Rate-Limit-Limit", String.valueOf( RATE_LIMIT ) );
+		exchange.getResponseHeaders().set( "X-Rate-Limit-Remaining", String.valueOf( RATE_LIMIT - 1 ) );
+		exchange.getResponseHeaders().set( "X-Rate-Limit-Reset", String.valueOf( reset ) );
+		exchange.sendResponseHeaders( 200, bytes.length );
+
+		OutputStream out = exchange.getResponseBody();
+		out.write( bytes );
+		out.close();
+	}
+
+	private static void drain( InputStream in ) throws IOException {
+		byte[] buffer = new byte[1024];
+		while ( in.read( buffer ) >= 0 ) {
+			// discard the form of the POST requests
+		}
+	}
+
+	static Map<String, String> parseQuery( String query ) {
+		Map<String, String> params = new HashMap<String, String>();
+		if ( null == query ) return params;
+
+		for ( String pair : query.split( "&" ) ) {
+			final int index = pair.indexOf( '=' );
+			if ( index > 0 ) {
+				params.put( decode( pair.substring( 0, index ) ), decode( pair.substring( index + 1 ) ) );
+			}
+		}
+		return params;
+	}
+
+	private static String decode( String value ) {
+		try {
+			return URLDecoder.decode( value, "UTF-8" );
+		} catch ( UnsupportedEncodingException e ) {
+			throw new AssertionError( e );
+		}
+	}
+
+	private static long getLong( Map<String, String> params, String name ) {
+		return getLong( params, name, 0 );
+	}
+
+	private static long getLong( Map<String, String> params, String name, long defValue ) {
+		final String value = params.get( name );
+		if ( null == value ) return defValue;
+		try {
+			return Long.parseLong( value );
+		} catch ( NumberFormatException e ) {
+			return defValue;
+		}
+	}
+}
@@ -0,0 +1,45 @@
+package it.sephiroth.twitter.bench;
+
+/**
+ * A measured object graph. {@link #retain()} builds the graph, whose retained size is the growth of the live heap while it's
+ * held, see {@link BenchmarkRunner#measureHeap(java.util.List)}.
+ */
+public abstract class HeapBenchmark {
+
+	private final String mName;
+	private final int mItems;
+
+	/**
+	 * @param items
+	 *           number of items held by the graph, to report the size per item
+	 */
+	protected HeapBenchmark( String name, int items ) {
+		if ( items < 1 ) throw new IllegalArgumentException( "items must be >= 1" );
+		mName = name;
+		mItems = items;
+	}
+
+	public final String getName() {
+		return mName;
+	}
+
+	public final int getItems() {
+		return mItems;
+	}
+
+	/**
+	 * Invoked once before the measurement, on the runner thread. Whatever is created here is not measured.
+	 */
+	public void setUp() throws Exception {}
+
+	/**
+	 * Build the measured graph. All the objects reachable from the returned one are measured, the temporary ones are
+	 * collected before the measurement.
+	 */
+	public abstract Object retain() throws Exception;
+
+	/**
+	 * Invoked once after the measurement, on the runner thread, also if the benchmark failed.
+	 */
+	public void tearDown() throws Exception {}
+}
@@ -0,0 +1,44 @@
+package it.sephiroth.twitter.bench;
+
+import java.util.Locale;
+
+/**
+ * Retained heap of a {@link HeapBenchmark}: the median growth of the live heap measured over the iterations.
+ */
+public final class HeapResult {
+
+	private final String mName;
+	private final int mItems;
+	private final long mRetainedBytes;
+
+	HeapResult( String name, int items, long retainedBytes ) {
+		mName = name;
+		mItems = items;
+		mRetainedBytes = retainedBytes;
+	}
+
+	public String getName() {
+		return mName;
+	}
+
+	public int getItems() {
+		return mItems;
+	}
+
+	public long getRetainedBytes() {
+		return mRetainedBytes;
+	}
+
+	public double getRetainedBytesPerItem() {
+		return (double) mRetainedBytes / mItems;
+	}
+
+	static String header() {
+		return String.format( Locale.US, "%-36s %8s %12s %12s", "heap", "items", "retained_kb", "bytes_item" );
+	}
+
+	String toRow() {
+		return String.format( Locale.US, "%-36s %8d %12.1f %12.0f", mName, mItems, mRetainedBytes / 1024.0,
+				getRetainedBytesPerItem() );
+	}
+}
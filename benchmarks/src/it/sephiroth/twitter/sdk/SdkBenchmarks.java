@@ -0,0 +1,35 @@
+package it.sephiroth.twitter.sdk;
+
+import it.sephiroth.twitter.bench.Benchmark;
+import it.sephiroth.twitter.bench.BenchmarkRunner;
+import it.sephiroth.twitter.bench.FakeTwitterEndpoint;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Entry point of the benchmarks, see {@link BenchmarkRunner} for the settings.
+ */
+public final class SdkBenchmarks {
+
+	private SdkBenchmarks() {}
+
+	public static void main( String[] args ) throws Exception {
+		final FakeTwitterEndpoint endpoint = new FakeTwitterEndpoint();
+		endpoint.start();
+
+		try {
+			List<Benchmark> benchmarks = new ArrayList<Benchmark>();
+			benchmarks.addAll( SessionBenchmarks.create( endpoint ) );
+			benchmarks.addAll( TimelineBenchmarks.create( endpoint ) );
+
+			BenchmarkRunner runner = new BenchmarkRunner();
+			for ( String prefix : FakeTwitterEndpoint.THREAD_NAME_PREFIXES ) {
+				runner.excludeThreads( prefix );
+			}
+			runner.run( benchmarks );
+			runner.measureHeap( TimelineBenchmarks.createHeap( endpoint ) );
+		} finally {
+			endpoint.stop();
+		}
+	}
+}
@@ -0,0 +1,139 @@
+package it.sephiroth.twitter.sdk;
+
+import it.sephiroth.android.stubs.JvmContext;
+import it.sephiroth.twitter.bench.FakeTwitterEndpoint;
+import it.sephiroth.twitter.sdk.TwitterAndroid.SessionState;
+import it.sephiroth.twitter.sdk.TwitterAndroid.StatusCallback;
+import it.sephiroth.twitter.sdk.TwitterAndroid.TimelineCallback;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import twitter4j.Status;
+import twitter4j.TwitterException;
+import twitter4j.conf.Configuration;
+import twitter4j.conf.ConfigurationBuilder;
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.os.Handler;
+import android.os.HandlerThread;
+
+/**
+ * A {@link TwitterAndroid} instance signed in to a {@link FakeTwitterEndpoint}. It's created and receives its callbacks on
+ * its own looper thread, which plays the main thread of the application.
+ */
+final class SdkFixture {
+
+	static final long TIMEOUT_MILLIS = 10000;
+
+	/** same preferences as the ones written by TwitterAndroid on login */
+	private static final String PREF_NAME = "TwitterAndroidSDK-Pref";
+
+	private final HandlerThread mMainThread;
+	private final JvmContext mContext;
+	private final TwitterExecutor mExecutor;
+	private final TwitterAndroid mTwitter;
+
+	/**
+	 * Create the instance with a saved session, and wait for the session to be restored.
+	 */
+	SdkFixture( FakeTwitterEndpoint endpoint, final TwitterAndroid.Options options ) throws Exception {
+		mMainThread = new HandlerThread( "benchmark-main" );
+		mMainThread.start();
+		mContext = JvmContext.create( mMainThread.getLooper() );
+		mExecutor = new TwitterExecutor( 1, 4, 1, 256 );
+		options.executor = mExecutor;
+		saveSession( mContext.getSharedPreferences( PREF_NAME, Context.MODE_PRIVATE ) );
+
+		final Configuration configuration = createConfiguration( endpoint );
+		final CountDownLatch connected = new CountDownLatch( 1 );
+		final TwitterAndroid[] twitter = new TwitterAndroid[1];
+
+		new Handler( mMainThread.getLooper() ).post( new Runnable() {
+
+			@Override
+			public void run() {
+				twitter[0] = new TwitterAndroid( mContext, new StatusCallback() {
+
+					@Override
+					public void call( SessionState newState ) {
+						if ( newState.getState() == SessionState.CONNECTED ) {
+							connected.countDown();
+						}
+					}
+				}, configuration, options );
+			}
+		} );
+
+		if ( !connected.await( TIMEOUT_MILLIS, TimeUnit.MILLISECONDS ) ) {
+			close();
+			throw new TimeoutException( "session not restored" );
+		}
+		mTwitter = twitter[0];
+	}
+
+	static Configuration createConfiguration( FakeTwitterEndpoint endpoint ) {
+		ConfigurationBuilder builder = new ConfigurationBuilder();
+		builder.setOAuthConsumerKey( "benchmark-consumer-key" );
+		builder.setOAuthConsumerSecret( "benchmark-consumer-secret" );
+		builder.setUseSSL( false );
+		builder.setRestBaseURL( endpoint.getRestBaseUrl() );
+		builder.setOAuthRequestTokenURL( endpoint.getBaseUrl() + "/oauth/request_token" );
+		builder.setOAuthAuthorizationURL( endpoint.getBaseUrl() + "/oauth/authorize" );
+		builder.setOAuthAccessTokenURL( endpoint.getBaseUrl() + "/oauth/access_token" );
+		return builder.build();
+	}
+
+	private static void saveSession( SharedPreferences prefs ) {
+		SharedPreferences.Editor editor = prefs.edit();
+		editor.putString( "oauth_token", FakeTwitterEndpoint.USER_ID + "-access-token" );
+		editor.putString( "oauth_token_secret", "access-secret" );
+		editor.putString( "oauth_screen_name", FakeTwitterEndpoint.SCREEN_NAME );
+		editor.putLong( "oauth_token_userid", FakeTwitterEndpoint.USER_ID );
+		editor.putBoolean( "logged_in", true );
+		editor.apply();
+	}
+
+	TwitterAndroid getTwitter() {
+		return mTwitter;
+	}
+
+	/**
+	 * Refresh the timeline and wait for the result to be delivered on the main thread.
+	 */
+	List<Status> refreshTimeline( RequestProfile profile ) throws Exception {
+		final CountDownLatch done = new CountDownLatch( 1 );
+		final Object[] result = new Object[1];
+
+		mTwitter.refreshTimeline( profile, new TimelineCallback() {
+
+			@Override
+			public void onTimelineLoaded( List<Status> statuses ) {
+				result[0] = statuses;
+				done.countDown();
+			}
+
+			@Override
+			public void onTimelineError( TwitterException exception ) {
+				result[0] = exception;
+				done.countDown();
+			}
+		} );
+
+		if ( !done.await( TIMEOUT_MILLIS, TimeUnit.MILLISECONDS ) ) {
+			throw new TimeoutException( "timeline not delivered" );
+		}
+		if ( result[0] instanceof TwitterException ) {
+			throw (TwitterException) result[0];
+		}
+		@SuppressWarnings ( "unchecked" )
+		List<Status> statuses = (List<Status>) result[0];
+		return statuses;
+	}
+
+	void close() {
+		mExecutor.shutdownNow();
+		mMainThread.quit();
+		mContext.clear();
+	}
+}
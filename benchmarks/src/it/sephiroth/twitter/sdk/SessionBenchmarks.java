@@ -0,0 +1,121 @@
+package it.sephiroth.twitter.sdk;
+
+import it.sephiroth.android.stubs.InMemorySharedPreferences;
+import it.sephiroth.twitter.bench.Benchmark;
+import it.sephiroth.twitter.bench.FakeTwitterEndpoint;
+import it.sephiroth.twitter.sdk.TwitterAndroid.Session;
+import it.sephiroth.twitter.sdk.TwitterAndroid.SessionState;
+import java.util.ArrayList;
+import java.util.List;
+import twitter4j.auth.AccessToken;
+import twitter4j.conf.Configuration;
+import android.content.SharedPreferences;
+import android.os.Handler;
+import android.os.HandlerThread;
+
+/**
+ * Session state transitions and credentials persistence.
+ */
+final class SessionBenchmarks {
+
+	/** accounts saved in the preferences read by the load benchmark */
+	private static final int SAVED_ACCOUNTS = 5;
+
+	private SessionBenchmarks() {}
+
+	static List<Benchmark> create( final FakeTwitterEndpoint endpoint ) {
+		final List<Benchmark> result = new ArrayList<Benchmark>();
+		final Configuration configuration = SdkFixture.createConfiguration( endpoint );
+
+		// a full login cycle, CONNECTING -> CONNECTED -> DISCONNECTED, with the listener notified on the main thread
+		result.add( new Benchmark( "session.transitions" ) {
+
+			HandlerThread mainThread;
+			SessionStateMachine machine;
+			final SessionState connecting = new SessionState( SessionState.CONNECTING );
+			final SessionState connected = new SessionState( SessionState.CONNECTED );
+			final SessionState disconnected = new SessionState( SessionState.DISCONNECTED );
+
+			@Override
+			public void setUp() {
+				mainThread = new HandlerThread( "benchmark-main" );
+				mainThread.start();
+				machine = new SessionStateMachine( new Handler( mainThread.getLooper() ) );
+				machine.addListener( new TwitterAndroid.StatusCallback() {
+
+					@Override
+					public void call( SessionState newState ) {}
+				} );
+			}
+
+			@Override
+			public Object run( int thread ) {
+				machine.transition( connecting );
+				machine.transition( connected );
+				machine.transition( disconnected );
+				return machine.get();
+			}
+
+			@Override
+			public void tearDown() {
+				mainThread.quit();
+			}
+		} );
+
+		// save the credentials of an account
+		result.add( new Benchmark( "credentials.save" ) {
+
+			TwitterExecutor executor;
+			SessionManager sessions;
+			long userId;
+
+			@Override
+			public void setUp() {
+				executor = new TwitterExecutor();
+				sessions = new SessionManager( new InMemorySharedPreferences(), configuration, executor );
+			}
+
+			@Override
+			public Object run( int thread ) {
+				// at most SAVED_ACCOUNTS accounts, so that the accounts list written every time has a steady size
+				final long id = 1 + userId++ % SAVED_ACCOUNTS;
+				Session session = new Session( new AccessToken( id + "-access-token", "access-secret", id ), id, "user" + id );
+				sessions.add( session );
+				return session;
+			}
+
+			@Override
+			public void tearDown() {
+				executor.shutdownNow();
+			}
+		} );
+
+		// read the saved accounts, as done on the first access after startup
+		result.add( new Benchmark( "credentials.load" ) {
+
+			final SharedPreferences prefs = new InMemorySharedPreferences();
+			TwitterExecutor executor;
+
+			@Override
+			public void setUp() {
+				executor = new TwitterExecutor();
+				SessionManager sessions = new SessionManager( prefs, configuration, executor );
+				for ( long id = 1; id <= SAVED_ACCOUNTS; id++ ) {
+					sessions.add( new Session( new AccessToken( id + "-access-token", "access-secret", id ), id, "user" + id ) );
+				}
+			}
+
+			@Override
+			public Object run( int thread ) {
+				return new SessionManager( prefs, configuration, executor ).getSessions();
+			}
+
+			@Override
+			public void tearDown() {
+				executor.shutdownNow();
+			}
+		} );
+
+		return result;
+	}
+}
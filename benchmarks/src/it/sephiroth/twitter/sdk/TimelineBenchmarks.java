@@ -0,0 +1,183 @@
+package it.sephiroth.twitter.sdk;
+
+import it.sephiroth.twitter.bench.Benchmark;
+import it.sephiroth.twitter.bench.FakeTwitterEndpoint;
+import it.sephiroth.twitter.bench.HeapBenchmark;
+import java.util.ArrayList;
+import java.util.List;
+import twitter4j.Paging;
+import twitter4j.ResponseList;
+import twitter4j.Status;
+import twitter4j.Twitter;
+import twitter4j.TwitterException;
+import twitter4j.TwitterFactory;
+import twitter4j.auth.AccessToken;
+import twitter4j.json.DataObjectFactory;
+
+/**
+ * Timeline requests end to end against the {@link FakeTwitterEndpoint}, the {@link StatusCache} hit paths, and the heap
+ * retained by a large timeline as twitter4j statuses and as {@link CompactStatus}es.
+ */
+final class TimelineBenchmarks {
+
+	/** concurrent callers of the contended refresh */
+	private static final int CONCURRENT_CALLERS = 8;
+
+	private static final int CACHED_STATUSES = 500;
+
+	/** pages of the timeline held by the heap benchmarks */
+	private static final int HEAP_PAGES = 10;
+	private static final int HEAP_PAGE_SIZE = 200;
+
+	private TimelineBenchmarks() {}
+
+	static List<Benchmark> create( final FakeTwitterEndpoint endpoint ) {
+		final List<Benchmark> result = new ArrayList<Benchmark>();
+
+		result.add( new RefreshBenchmark( "timeline.refresh.full", endpoint, RequestProfile.FULL, 1 ) );
+		result.add( new RefreshBenchmark( "timeline.refresh.light", endpoint, RequestProfile.LIGHT, 1 ) );
+		result.add( new RefreshBenchmark( "timeline.refresh.concurrent", endpoint, RequestProfile.FULL, CONCURRENT_CALLERS ) );
+		result.add( new CacheBenchmark( "statusCache.get", 1, false ) );
+		result.add( new CacheBenchmark( "statusCache.get.concurrent", 4, false ) );
+		result.add( new CacheBenchmark( "statusCache.intern", 1, true ) );
+
+		return result;
+	}
+
+	static List<HeapBenchmark> createHeap( final FakeTwitterEndpoint endpoint ) {
+		final List<HeapBenchmark> result = new ArrayList<HeapBenchmark>();
+
+		result.add( new TimelineHeapBenchmark( "heap.timeline.responseList", endpoint, TimelineHeapBenchmark.RAW ) );
+		result.add( new TimelineHeapBenchmark( "heap.timeline.compact", endpoint, TimelineHeapBenchmark.COMPACT ) );
+		result.add( new TimelineHeapBenchmark( "heap.timeline.statusCache", endpoint, TimelineHeapBenchmark.CACHE ) );
+
+		return result;
+	}
+
+	/**
+	 * Refresh of the timeline, from the call to the delivery of the parsed and interned statuses on the main thread. With
+	 * more than one thread the callers share the running request.
+	 */
+	private static final class RefreshBenchmark extends Benchmark {
+
+		private final FakeTwitterEndpoint mEndpoint;
+		private final RequestProfile mProfile;
+		private SdkFixture mFixture;
+
+		RefreshBenchmark( String name, FakeTwitterEndpoint endpoint, RequestProfile profile, int threads ) {
+			super( name, threads );
+			mEndpoint = endpoint;
+			mProfile = profile;
+		}
+
+		@Override
+		public void setUp() throws Exception {
+			mFixture = new SdkFixture( mEndpoint, new TwitterAndroid.Options() );
+		}
+
+		@Override
+		public Object run( int thread ) throws Exception {
+			return mFixture.refreshTimeline( mProfile );
+		}
+
+		@Override
+		public void tearDown() {
+			if ( null != mFixture ) mFixture.close();
+		}
+	}
+
+	/**
+	 * Lookups of statuses already in the cache, by id or by interning the same status again.
+	 */
+	private static final class CacheBenchmark extends Benchmark {
+
+		private final boolean mIntern;
+		private final StatusCache mCache = new StatusCache( CACHED_STATUSES * 2, 8 * 1024 * 1024, new StatusCompactor() );
+		private final Status[] mStatuses = new Status[CACHED_STATUSES];
+		/** position of every thread, padded so that the threads don't share cache lines */
+		private final int[] mPositions;
+
+		CacheBenchmark( String name, int threads, boolean intern ) {
+			super( name, threads );
+			mIntern = intern;
+			mPositions = new int[threads * 16];
+		}
+
+		@Override
+		public void setUp() throws TwitterException {
+			for ( int i = 0; i < CACHED_STATUSES; i++ ) {
+				mStatuses[i] = DataObjectFactory.createStatus( FakeTwitterEndpoint.statusJson(
+						FakeTwitterEndpoint.NEWEST_STATUS_ID - i, false ) );
+				mCache.intern( mStatuses[i] );
+			}
+		}
+
+		@Override
+		public Object run( int thread ) {
+			final int slot = thread * 16;
+			final int index = mPositions[slot];
+			mPositions[slot] = ( index + 1 ) % CACHED_STATUSES;
+
+			final Status status = mStatuses[( index + thread * 97 ) % CACHED_STATUSES];
+			return mIntern ? mCache.intern( status ) : mCache.get( status.getId() );
+		}
+	}
+
+	/**
+	 * A timeline of {@link #HEAP_PAGES} full pages, as held by a list adapter: the raw twitter4j responses, the compact
+	 * statuses with their pooled users, or a {@link StatusCache} holding them.
+	 */
+	private static final class TimelineHeapBenchmark extends HeapBenchmark {
+
+		static final int RAW = 0;
+		static final int COMPACT = 1;
+		static final int CACHE = 2;
+
+		private final FakeTwitterEndpoint mEndpoint;
+		private final int mForm;
+		private Twitter mTwitter;
+
+		TimelineHeapBenchmark( String name, FakeTwitterEndpoint endpoint, int form ) {
+			super( name, HEAP_PAGES * HEAP_PAGE_SIZE );
+			mEndpoint = endpoint;
+			mForm = form;
+		}
+
+		@Override
+		public void setUp() {
+			mTwitter = new TwitterFactory( SdkFixture.createConfiguration( mEndpoint ) ).getInstance();
+			mTwitter.setOAuthAccessToken( new AccessToken( "benchmark-token", "benchmark-secret" ) );
+		}
+
+		@Override
+		public Object retain() throws TwitterException {
+			final List<ResponseList<Status>> pages = new ArrayList<ResponseList<Status>>( HEAP_PAGES );
+			long maxId = FakeTwitterEndpoint.NEWEST_STATUS_ID;
+			for ( int i = 0; i < HEAP_PAGES; i++ ) {
+				ResponseList<Status> page = mTwitter.getUserTimeline( new Paging( 1, HEAP_PAGE_SIZE ).maxId( maxId ) );
+				pages.add( page );
+				maxId = page.get( page.size() - 1 ).getId() - 1;
+			}
+
+			switch ( mForm ) {
+				case COMPACT:
+					final StatusCompactor compactor = new StatusCompactor();
+					final List<CompactStatus> statuses = new ArrayList<CompactStatus>( getItems() );
+					for ( ResponseList<Status> page : pages ) {
+						statuses.addAll( compactor.compactAll( page ) );
+					}
+					return new Object[] { compactor, statuses };
+
+				case CACHE:
+					final StatusCache cache = new StatusCache( getItems(), Long.MAX_VALUE, new StatusCompactor() );
+					for ( ResponseList<Status> page : pages ) {
+						cache.internAll( page );
+					}
+					return cache;
+
+				default:
+					return pages;
+			}
+		}
+	}
+}
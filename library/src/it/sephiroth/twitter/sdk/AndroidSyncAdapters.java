@@ -0,0 +1,158 @@
+package it.sephiroth.twitter.sdk;
+
+import java.util.concurrent.ScheduledFuture;
+import twitter4j.TwitterException;
+import android.content.Context;
+import android.net.ConnectivityManager;
+import android.net.NetworkInfo;
+import android.os.SystemClock;
+import android.util.Log;
+
+/**
+ * Android implementations of the {@link SyncScheduler} interfaces.
+ */
+public final class AndroidSyncAdapters {
+
+	private static final String LOG_TAG = "SyncScheduler";
+
+	public static final SyncScheduler.Clock SYSTEM_CLOCK = new SyncScheduler.Clock() {
+
+		@Override
+		public long uptimeMillis() {
+			return SystemClock.uptimeMillis();
+		}
+
+		@Override
+		public long currentTimeMillis() {
+			return System.currentTimeMillis();
+		}
+	};
+
+	/**
+	 * Reads the network state from the {@link ConnectivityManager}. Requires the ACCESS_NETWORK_STATE permission.
+	 */
+	public static final class ConnectivityStateProvider implements SyncScheduler.NetworkStateProvider {
+
+		private final ConnectivityManager mConnectivity;
+
+		public ConnectivityStateProvider( Context context ) {
+			mConnectivity = (ConnectivityManager) context.getApplicationContext().getSystemService( Context.CONNECTIVITY_SERVICE );
+		}
+
+		@Override
+		public boolean isConnected() {
+			NetworkInfo info = mConnectivity.getActiveNetworkInfo();
+			return null != info && info.isConnected();
+		}
+	}
+
+	/**
+	 * Runs the fetches and the wake-ups on the {@link TwitterExecutor#LANE_SYNC} lane, honoring the rate limits.
+	 */
+	public static final class ExecutorDispatcher implements SyncScheduler.Dispatcher {
+
+		private final TwitterExecutor mExecutor;
+		private final RateLimitScheduler.Provider mRateLimits;
+		private final SyncScheduler.Clock mClock;
+
+		/**
+		 * @param rateLimits
+		 *           quota of the endpoints of the current account, read on every fetch. Can be null
+		 * @param clock
+		 *           the clock of the scheduler
+		 */
+		public ExecutorDispatcher( TwitterExecutor executor, RateLimitScheduler.Provider rateLimits, SyncScheduler.Clock clock ) {
+			mExecutor = executor;
+			mRateLimits = rateLimits;
+			mClock = clock;
+		}
+
+		@Override
+		public void execute( final String resource, final SyncScheduler.AsyncSyncTask task,
+				final SyncScheduler.FetchCallback callback ) {
+			final RateLimitScheduler rateLimits = null != mRateLimits ? mRateLimits.get() : null;
+
+			final SyncScheduler.FetchCallback completed = new SyncScheduler.FetchCallback() {
+
+				@Override
+				public void onFetchComplete( int newItems ) {
+					Log.d( LOG_TAG, resource + ": " + newItems + " new items" );
+					callback.onFetchComplete( newItems );
+				}
+			};
+
+			final Runnable fetch = new Runnable() {
+
+				@Override
+				public void run() {
+					boolean started = false;
+					try {
+						task.fetch( completed );
+						started = true;
+					} catch ( TwitterException e ) {
+						Log.w( LOG_TAG, resource + " failed: " + e.getStatusCode() );
+						if ( null != rateLimits ) {
+							rateLimits.update( resource, e );
+						}
+					} finally {
+						if ( !started ) {
+							completed.onFetchComplete( 0 );
+						}
+					}
+				}
+			};
+
+			final Runnable rejected = new Runnable() {
+
+				@Override
+				public void run() {
+					Log.w( LOG_TAG, resource + " rejected" );
+					callback.onFetchComplete( 0 );
+				}
+			};
+
+			if ( null != rateLimits ) {
+				rateLimits.execute( TwitterExecutor.LANE_SYNC, resource, fetch, rejected );
+			} else if ( !mExecutor.execute( TwitterExecutor.LANE_SYNC, fetch ) ) {
+				rejected.run();
+			}
+		}
+
+		@Override
+		public SyncScheduler.Alarm schedule( Runnable wakeUp, long uptimeMillis, final Runnable onRejected ) {
+			final long delay = Math.max( 0, uptimeMillis - mClock.uptimeMillis() );
+			Log.d( LOG_TAG, "next wake-up in " + delay + "ms" );
+
+			final ScheduledFuture<?> future = mExecutor.schedule( TwitterExecutor.LANE_SYNC, wakeUp, delay, new Runnable() {
+
+				@Override
+				public void run() {
+					// a shut down executor would reject the retry as well
+					if ( mExecutor.isShutdown() ) return;
+					Log.w( LOG_TAG, "wake-up rejected" );
+					onRejected.run();
+				}
+			} );
+
+			if ( null == future ) return null;
+			return new SyncScheduler.Alarm() {
+
+				@Override
+				public void cancel() {
+					future.cancel( false );
+				}
+			};
+		}
+
+		@Override
+		public long getQuotaResetTime( String resource ) {
+			if ( null == mRateLimits ) return 0;
+
+			RateLimitScheduler.Budget budget = mRateLimits.get().getBudget( resource );
+			if ( null == budget || budget.getRemaining() > RateLimitScheduler.getSyncReserve( budget.getLimit() ) ) return 0;
+			return budget.getResetTime();
+		}
+	}
+
+	private AndroidSyncAdapters() {}
+}
@@ -0,0 +1,272 @@
+package it.sephiroth.twitter.sdk;
+
+import java.nio.charset.Charset;
+import java.util.Date;
+import twitter4j.Status;
+
+/**
+ * Compact, immutable representation of a {@link Status}, meant to be held in large numbers by list adapters and caches.<br />
+ * Scalar fields are stored as primitives, the text is kept UTF-8 encoded and decoded on every {@link #getText()} call, the
+ * entities are packed in a single int array and the author is a {@link CompactUser} shared with the other statuses of the
+ * same user. Created by {@link StatusCompactor}.<br />
+ * This is not a {@link Status}: source, place, geo location, contributors and the details of the entities other than their
+ * bounds and value are not kept.
+ */
+public final class CompactStatus {
+
+	static final Charset UTF_8 = Charset.forName( "UTF-8" );
+
+	public static final int ENTITY_HASHTAG = 0;
+	public static final int ENTITY_MENTION = 1;
+	public static final int ENTITY_URL = 2;
+	public static final int ENTITY_MEDIA = 3;
+
+	private static final int FLAG_FAVORITED = 1;
+	private static final int FLAG_RETWEETED_BY_ME = 1 << 1;
+	private static final int FLAG_TRUNCATED = 1 << 2;
+	private static final int FLAG_SENSITIVE = 1 << 3;
+
+	private static final int[] NO_ENTITIES = new int[0];
+
+	private final long mId;
+	private final long mCreatedAt;
+	private final long mInReplyToStatusId;
+	private final long mInReplyToUserId;
+	private final String mInReplyToScreenName;
+	private final long mRetweetCount;
+	private final long mCurrentUserRetweetId;
+	private final int mFlags;
+	private final CompactUser mUser;
+	private final CompactStatus mRetweetedStatus;
+	private final byte[] mText;
+
+	/** entity type, start, end triples. Start and end are code point indexes in the text */
+	private final int[] mEntities;
+	/** expanded urls, indexed by entity, null if the status has no url entities */
+	private final String[] mEntityUrls;
+
+	CompactStatus( Status status, CompactUser user, CompactStatus retweetedStatus, int[] entities, String[] entityUrls ) {
+		this( status.getId(), null != status.getCreatedAt() ? status.getCreatedAt().getTime() : 0,
+				status.getInReplyToStatusId(), status.getInReplyToUserId(), status.getInReplyToScreenName(),
+				status.getRetweetCount(), status.getCurrentUserRetweetId(), getFlags( status ), user, retweetedStatus,
+				null != status.getText() ? status.getText().getBytes( UTF_8 ) : null, entities, entityUrls );
+	}
+
+	CompactStatus( long id, long createdAt, long inReplyToStatusId, long inReplyToUserId, String inReplyToScreenName,
+			long retweetCount, long currentUserRetweetId, int flags, CompactUser user, CompactStatus retweetedStatus, byte[] text,
+			int[] entities, String[] entityUrls ) {
+		mId = id;
+		mCreatedAt = createdAt;
+		mInReplyToStatusId = inReplyToStatusId;
+		mInReplyToUserId = inReplyToUserId;
+		mInReplyToScreenName = inReplyToScreenName;
+		mRetweetCount = retweetCount;
+		mCurrentUserRetweetId = currentUserRetweetId;
+		mFlags = flags;
+		mUser = user;
+		mRetweetedStatus = retweetedStatus;
+		mText = null != text ? text : new byte[0];
+		mEntities = null != entities ? entities : NO_ENTITIES;
+		mEntityUrls = entityUrls;
+	}
+
+	public long getId() {
+		return mId;
+	}
+
+	/**
+	 * Creation time, in milliseconds since the epoch.
+	 */
+	public long getCreatedAtMillis() {
+		return mCreatedAt;
+	}
+
+	/**
+	 * Returns a new Date on every call, see {@link #getCreatedAtMillis()}.
+	 */
+	public Date getCreatedAt() {
+		return 0 != mCreatedAt ? new Date( mCreatedAt ) : null;
+	}
+
+	public CompactUser getUser() {
+		return mUser;
+	}
+
+	/**
+	 * Same as getUser().getScreenName().
+	 */
+	public String getScreenName() {
+		return null != mUser ? mUser.getScreenName() : null;
+	}
+
+	/**
+	 * Decode the status text. A new string is returned on every call, callers showing the text should keep it only while
+	 * needed.
+	 */
+	public String getText() {
+		return new String( mText, UTF_8 );
+	}
+
+	/**
+	 * Length of the encoded text, in bytes.
+	 */
+	public int getTextSize() {
+		return mText.length;
+	}
+
+	public long getInReplyToStatusId() {
+		return mInReplyToStatusId;
+	}
+
+	public long getInReplyToUserId() {
+		return mInReplyToUserId;
+	}
+
+	public String getInReplyToScreenName() {
+		return mInReplyToScreenName;
+	}
+
+	public long getRetweetCount() {
+		return mRetweetCount;
+	}
+
+	public long getCurrentUserRetweetId() {
+		return mCurrentUserRetweetId;
+	}
+
+	public boolean isFavorited() {
+		return ( mFlags & FLAG_FAVORITED ) != 0;
+	}
+
+	public boolean isRetweetedByMe() {
+		return ( mFlags & FLAG_RETWEETED_BY_ME ) != 0;
+	}
+
+	public boolean isTruncated() {
+		return ( mFlags & FLAG_TRUNCATED ) != 0;
+	}
+
+	public boolean isPossiblySensitive() {
+		return ( mFlags & FLAG_SENSITIVE ) != 0;
+	}
+
+	public boolean isRetweet() {
+		return null != mRetweetedStatus;
+	}
+
+	/**
+	 * Returns the original status if this is a retweet, otherwise null.
+	 */
+	public CompactStatus getRetweetedStatus() {
+		return mRetweetedStatus;
+	}
+
+	public int getEntityCount() {
+		return mEntities.length / 3;
+	}
+
+	/**
+	 * Returns one of the ENTITY_* constants.
+	 */
+	public int getEntityType( int index ) {
+		return mEntities[index * 3];
+	}
+
+	/**
+	 * Start of the entity in the status text, inclusive. Counted in code points, as returned by Twitter: use
+	 * {@link String#offsetByCodePoints(int, int)} to get the char index.
+	 */
+	public int getEntityStart( int index ) {
+		return mEntities[index * 3 + 1];
+	}
+
+	/**
+	 * End of the entity in the status text, exclusive. Counted in code points.
+	 */
+	public int getEntityEnd( int index ) {
+		return mEntities[index * 3 + 2];
+	}
+
+	/**
+	 * Returns the entity value: the hashtag text or the mentioned screen name without the leading symbol, or the expanded
+	 * url. Hashtags and mentions are read from the text, which is decoded for the purpose.
+	 */
+	public String getEntityValue( int index ) {
+		switch ( getEntityType( index ) ) {
+			case ENTITY_URL:
+			case ENTITY_MEDIA:
+				return mEntityUrls[index];
+
+			default:
+				return getEntityValue( index, getText() );
+		}
+	}
+
+	/**
+	 * Same as {@link #getEntityValue(int)}, reading hashtags and mentions from the given decoded text.
+	 */
+	String getEntityValue( int index, String text ) {
+		switch ( getEntityType( index ) ) {
+			case ENTITY_URL:
+			case ENTITY_MEDIA:
+				return mEntityUrls[index];
+
+			default:
+				return substring( text, getEntityStart( index ) + 1, getEntityEnd( index ) );
+		}
+	}
+
+	@Override
+	public int hashCode() {
+		return (int) ( mId ^ ( mId >>> 32 ) );
+	}
+
+	@Override
+	public boolean equals( Object o ) {
+		return o instanceof CompactStatus && ( (CompactStatus) o ).mId == mId;
+	}
+
+	@Override
+	public String toString() {
+		return "CompactStatus{id=" + mId + ", user=" + getScreenName() + "}";
+	}
+
+	int getFlags() {
+		return mFlags;
+	}
+
+	/**
+	 * Returns the encoded text, not a copy.
+	 */
+	byte[] getTextBytes() {
+		return mText;
+	}
+
+	/**
+	 * Returns the packed entities, not a copy.
+	 */
+	int[] getPackedEntities() {
+		return mEntities;
+	}
+
+	String[] getEntityUrls() {
+		return mEntityUrls;
+	}
+
+	private static int getFlags( Status status ) {
+		return ( status.isFavorited() ? FLAG_FAVORITED : 0 ) | ( status.isRetweetedByMe() ? FLAG_RETWEETED_BY_ME : 0 )
+				| ( status.isTruncated() ? FLAG_TRUNCATED : 0 ) | ( status.isPossiblySensitive() ? FLAG_SENSITIVE : 0 );
+	}
+
+	/**
+	 * Returns the text between the given code point indexes, clamped to the text bounds.
+	 */
+	private static String substring( String text, int start, int end ) {
+		final int length = text.codePointCount( 0, text.length() );
+		final int first = Math.min( Math.max( start, 0 ), length );
+		final int last = Math.max( first, Math.min( end, length ) );
+
+		final int from = text.offsetByCodePoints( 0, first );
+		return text.substring( from, text.offsetByCodePoints( from, last - first ) );
+	}
+}
@@ -0,0 +1,140 @@
+package it.sephiroth.twitter.sdk;
+
+import twitter4j.User;
+
+/**
+ * Immutable subset of a twitter4j {@link User}, holding only the fields needed to render a timeline.<br />
+ * Instances are shared by all the {@link CompactStatus}es of the same user, see {@link StatusCompactor}. This is not a
+ * {@link User}: the fields not listed here are not kept.
+ */
+public final class CompactUser {
+
+	private static final int FLAG_VERIFIED = 1;
+	private static final int FLAG_PROTECTED = 1 << 1;
+
+	private final long mId;
+	private final String mScreenName;
+	private final String mName;
+	private final String mProfileImageUrl;
+	private final String mProfileImageUrlHttps;
+	private final int mFlags;
+
+	CompactUser( User user ) {
+		this( user.getId(), user.getScreenName(), user.getName(), user.getProfileImageURL(), user.getProfileImageURLHttps(),
+				getFlags( user ) );
+	}
+
+	CompactUser( long id, String screenName, String name, String profileImageUrl, String profileImageUrlHttps, int flags ) {
+		mId = id;
+		mScreenName = screenName;
+		mName = name;
+		mProfileImageUrl = profileImageUrl;
+		mProfileImageUrlHttps = profileImageUrlHttps;
+		mFlags = flags;
+	}
+
+	public long getId() {
+		return mId;
+	}
+
+	public String getScreenName() {
+		return mScreenName;
+	}
+
+	public String getName() {
+		return mName;
+	}
+
+	public String getProfileImageUrl() {
+		return mProfileImageUrl;
+	}
+
+	public String getBiggerProfileImageUrl() {
+		return toResizedUrl( mProfileImageUrl, "_bigger" );
+	}
+
+	public String getMiniProfileImageUrl() {
+		return toResizedUrl( mProfileImageUrl, "_mini" );
+	}
+
+	public String getOriginalProfileImageUrl() {
+		return toResizedUrl( mProfileImageUrl, "" );
+	}
+
+	public String getProfileImageUrlHttps() {
+		return mProfileImageUrlHttps;
+	}
+
+	public String getBiggerProfileImageUrlHttps() {
+		return toResizedUrl( mProfileImageUrlHttps, "_bigger" );
+	}
+
+	public String getMiniProfileImageUrlHttps() {
+		return toResizedUrl( mProfileImageUrlHttps, "_mini" );
+	}
+
+	public String getOriginalProfileImageUrlHttps() {
+		return toResizedUrl( mProfileImageUrlHttps, "" );
+	}
+
+	public boolean isVerified() {
+		return ( mFlags & FLAG_VERIFIED ) != 0;
+	}
+
+	public boolean isProtected() {
+		return ( mFlags & FLAG_PROTECTED ) != 0;
+	}
+
+	@Override
+	public int hashCode() {
+		return (int) ( mId ^ ( mId >>> 32 ) );
+	}
+
+	@Override
+	public boolean equals( Object o ) {
+		return o instanceof CompactUser && ( (CompactUser) o ).mId == mId;
+	}
+
+	@Override
+	public String toString() {
+		return "CompactUser{id=" + mId + ", screenName=" + mScreenName + "}";
+	}
+
+	int getFlags() {
+		return mFlags;
+	}
+
+	/**
+	 * Returns true if this instance still matches the given user.
+	 */
+	boolean matches( User user ) {
+		return mId == user.getId() && equals( mScreenName, user.getScreenName() ) && equals( mName, user.getName() )
+				&& equals( mProfileImageUrl, user.getProfileImageURL() )
+				&& equals( mProfileImageUrlHttps, user.getProfileImageURLHttps() ) && mFlags == getFlags( user );
+	}
+
+	private static int getFlags( User user ) {
+		return ( user.isVerified() ? FLAG_VERIFIED : 0 ) | ( user.isProtected() ? FLAG_PROTECTED : 0 );
+	}
+
+	/**
+	 * Same size variants as twitter4j: the "_normal" suffix of the image name is replaced.
+	 */
+	private static String toResizedUrl( String url, String suffix ) {
+		if ( null == url ) return null;
+
+		final int index = url.lastIndexOf( '_' );
+		final int extension = url.lastIndexOf( '.' );
+		if ( index < 0 ) return url;
+
+		String result = url.substring( 0, index ) + suffix;
+		if ( extension > index ) {
+			result += url.substring( extension );
+		}
+		return result;
+	}
+
+	private static boolean equals( String lhs, String rhs ) {
+		return null == lhs ? null == rhs : lhs.equals( rhs );
+	}
+}
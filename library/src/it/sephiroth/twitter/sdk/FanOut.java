@@ -0,0 +1,171 @@
+package it.sephiroth.twitter.sdk;
+
+import it.sephiroth.twitter.sdk.TwitterAndroid.FanOutCallback;
+import java.util.ArrayList;
+import java.util.List;
+import twitter4j.TwitterException;
+import android.os.Handler;
+import android.os.SystemClock;
+import android.util.Log;
+
+/**
+ * Joins a group of concurrent requests into a single {@link FanOutResult}.<br />
+ * Every request has its own timeout: once expired the request is cancelled and its endpoint fails with a timeout error,
+ * without affecting the others. The result is delivered once, on the {@link Handler} thread, as soon as every request
+ * completed or timed out. Requests completing after their timeout are ignored.
+ */
+class FanOut {
+
+	private static final String LOG_TAG = "FanOut";
+
+	/**
+	 * A registered request, and its timeout task.
+	 */
+	private final class Expected implements Runnable {
+
+		final int endpoint;
+		final long timeoutMillis;
+		final RequestHandle handle;
+
+		Expected( int endpoint, long timeoutMillis, RequestHandle handle ) {
+			this.endpoint = endpoint;
+			this.timeoutMillis = timeoutMillis;
+			this.handle = handle;
+		}
+
+		@Override
+		public void run() {
+			timeout( this );
+		}
+	}
+
+	private final Handler mHandler;
+	private final FanOutCallback mCallback;
+	private final FanOutResult mResult = new FanOutResult();
+	private final List<Expected> mExpected = new ArrayList<Expected>( 4 );
+	private final long mStartTime = SystemClock.uptimeMillis();
+	private int mPending;
+	private boolean mStarted;
+	private boolean mDelivered;
+
+	FanOut( Handler handler, FanOutCallback callback ) {
+		mHandler = handler;
+		mCallback = callback;
+	}
+
+	/**
+	 * Register a request for the given endpoint and returns the listener which completes it. All the requests must be
+	 * registered before {@link #start()} is called.
+	 *
+	 * @param timeoutMillis
+	 *           max time to wait for the request, from {@link #start()}
+	 * @param handle
+	 *           handle of the request, cancelled when it times out and finished when it completes
+	 */
+	synchronized <T> RequestCoalescer.Listener<T> expect( final int endpoint, long timeoutMillis, RequestHandle handle ) {
+		mResult.setRequested( endpoint );
+		mExpected.add( new Expected( endpoint, timeoutMillis, handle ) );
+		mPending++;
+
+		return new RequestCoalescer.Listener<T>() {
+
+			@Override
+			public void onResult( T result ) {
+				complete( endpoint, result, null );
+			}
+
+			@Override
+			public void onError( TwitterException exception ) {
+				complete( endpoint, null, exception );
+			}
+		};
+	}
+
+	/**
+	 * Start the timeouts of the pending requests. The result is delivered immediately if the registered requests are already
+	 * completed.
+	 */
+	void start() {
+		synchronized ( this ) {
+			mStarted = true;
+			if ( mPending > 0 ) {
+				for ( Expected expected : mExpected ) {
+					if ( !mResult.isCompleted( expected.endpoint ) ) {
+						mHandler.postDelayed( expected, expected.timeoutMillis );
+					}
+				}
+				return;
+			}
+		}
+		deliver();
+	}
+
+	private void complete( int endpoint, Object result, TwitterException error ) {
+		final Expected expected;
+
+		synchronized ( this ) {
+			if ( mDelivered || mResult.isCompleted( endpoint ) ) {
+				Log.d( LOG_TAG, "late result ignored: " + endpoint );
+				return;
+			}
+
+			mResult.setResult( endpoint, result, error );
+			mPending--;
+			expected = find( endpoint );
+		}
+
+		mHandler.removeCallbacks( expected );
+		expected.handle.finish();
+		deliverIfDone();
+	}
+
+	private void timeout( Expected expected ) {
+		synchronized ( this ) {
+			if ( mDelivered || mResult.isCompleted( expected.endpoint ) ) return;
+
+			Log.w( LOG_TAG, "endpoint " + expected.endpoint + " timed out after " + expected.timeoutMillis + "ms" );
+			mResult.setTimedOut( expected.endpoint );
+			mPending--;
+		}
+
+		// aborts the request, its late result is ignored
+		expected.handle.cancel();
+		deliverIfDone();
+	}
+
+	private void deliverIfDone() {
+		synchronized ( this ) {
+			if ( !mStarted || mPending > 0 ) return;
+		}
+		deliver();
+	}
+
+	private void deliver() {
+		synchronized ( this ) {
+			if ( mDelivered ) return;
+			mDelivered = true;
+		}
+
+		Log.i( LOG_TAG, "completed in " + ( SystemClock.uptimeMillis() - mStartTime ) + "ms, timed out: "
+				+ mResult.isTimedOut() );
+
+		if ( null == mCallback ) return;
+		mHandler.post( new Runnable() {
+
+			@Override
+			public void run() {
+				mCallback.onFanOutComplete( mResult );
+			}
+		} );
+	}
+
+	/**
+	 * Must be called holding the lock.
+	 */
+	private Expected find( int endpoint ) {
+		for ( Expected expected : mExpected ) {
+			if ( expected.endpoint == endpoint ) return expected;
+		}
+		throw new IllegalArgumentException( "endpoint not expected: " + endpoint );
+	}
+}
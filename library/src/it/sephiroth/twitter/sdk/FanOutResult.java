@@ -0,0 +1,118 @@
+package it.sephiroth.twitter.sdk;
+
+import java.util.List;
+import twitter4j.DirectMessage;
+import twitter4j.Status;
+import twitter4j.TwitterException;
+
+/**
+ * Aggregated result of the requests issued together by {@link TwitterAndroid#loadHomeScreen(int, long, TwitterAndroid.FanOutCallback)}.
+ * <br />
+ * Every endpoint succeeds or fails on its own: a failed, timed out or not requested endpoint has no result, the others are
+ * still available.
+ */
+public final class FanOutResult {
+
+	public static final int ENDPOINT_HOME_TIMELINE = 1;
+	public static final int ENDPOINT_MENTIONS = 1 << 1;
+	public static final int ENDPOINT_DIRECT_MESSAGES = 1 << 2;
+	public static final int ENDPOINT_USER_TIMELINE = 1 << 3;
+	public static final int ENDPOINT_ALL = ENDPOINT_HOME_TIMELINE | ENDPOINT_MENTIONS | ENDPOINT_DIRECT_MESSAGES
+			| ENDPOINT_USER_TIMELINE;
+
+	private static final int ENDPOINT_COUNT = 4;
+
+	private final Object[] mResults = new Object[ENDPOINT_COUNT];
+	private final TwitterException[] mErrors = new TwitterException[ENDPOINT_COUNT];
+	private int mRequested;
+	private int mCompleted;
+	private int mTimedOut;
+
+	FanOutResult() {}
+
+	@SuppressWarnings( "unchecked" )
+	public List<Status> getHomeTimeline() {
+		return (List<Status>) mResults[indexOf( ENDPOINT_HOME_TIMELINE )];
+	}
+
+	@SuppressWarnings( "unchecked" )
+	public List<Status> getMentions() {
+		return (List<Status>) mResults[indexOf( ENDPOINT_MENTIONS )];
+	}
+
+	@SuppressWarnings( "unchecked" )
+	public List<DirectMessage> getDirectMessages() {
+		return (List<DirectMessage>) mResults[indexOf( ENDPOINT_DIRECT_MESSAGES )];
+	}
+
+	@SuppressWarnings( "unchecked" )
+	public List<Status> getUserTimeline() {
+		return (List<Status>) mResults[indexOf( ENDPOINT_USER_TIMELINE )];
+	}
+
+	/**
+	 * Returns the error of the given endpoint, or null if it succeeded or was not requested.
+	 *
+	 * @param endpoint
+	 *           one of the ENDPOINT_* constants
+	 */
+	public TwitterException getError( int endpoint ) {
+		return mErrors[indexOf( endpoint )];
+	}
+
+	/**
+	 * Returns true if the given endpoint has been requested and succeeded.
+	 */
+	public boolean isSuccessful( int endpoint ) {
+		return ( mCompleted & endpoint ) != 0 && null == mErrors[indexOf( endpoint )];
+	}
+
+	/**
+	 * Bitmask of the requested endpoints.
+	 */
+	public int getRequested() {
+		return mRequested;
+	}
+
+	/**
+	 * Returns true if at least one request timed out.
+	 */
+	public boolean isTimedOut() {
+		return mTimedOut != 0;
+	}
+
+	/**
+	 * Returns true if the request of the given endpoint timed out.
+	 */
+	public boolean isTimedOut( int endpoint ) {
+		return ( mTimedOut & endpoint ) != 0;
+	}
+
+	void setRequested( int endpoint ) {
+		mRequested |= endpoint;
+	}
+
+	boolean isCompleted( int endpoint ) {
+		return ( mCompleted & endpoint ) != 0;
+	}
+
+	void setResult( int endpoint, Object result, TwitterException error ) {
+		final int index = indexOf( endpoint );
+		mResults[index] = result;
+		mErrors[index] = error;
+		mCompleted |= endpoint;
+	}
+
+	void setTimedOut( int endpoint ) {
+		mTimedOut |= endpoint;
+		setResult( endpoint, null, new TwitterException( "request timed out" ) );
+	}
+
+	private static int indexOf( int endpoint ) {
+		final int index = Integer.numberOfTrailingZeros( endpoint );
+		if ( Integer.bitCount( endpoint ) != 1 || index >= ENDPOINT_COUNT ) {
+			throw new IllegalArgumentException( "invalid endpoint: " + endpoint );
+		}
+		return index;
+	}
+}
@@ -0,0 +1,153 @@
+package it.sephiroth.twitter.sdk;
+
+/**
+ * Open addressing hash map using primitive long keys, so that no {@link Long} is allocated on lookups.<br />
+ * Null values are not allowed. This class is not thread safe.
+ */
+public class LongHashMap<V> {
+
+	private static final int MIN_CAPACITY = 8;
+
+	private long[] mKeys;
+	private Object[] mValues;
+	private int mSize;
+	private int mMask;
+
+	public LongHashMap() {
+		this( MIN_CAPACITY );
+	}
+
+	/**
+	 * @param expectedSize
+	 *           number of entries the map can hold before resizing
+	 */
+	public LongHashMap( int expectedSize ) {
+		allocate( tableSizeFor( expectedSize ) );
+	}
+
+	private static int tableSizeFor( int expectedSize ) {
+		int capacity = MIN_CAPACITY;
+		// keep the load factor under 0.5
+		while ( capacity < expectedSize * 2 ) {
+			capacity <<= 1;
+		}
+		return capacity;
+	}
+
+	private void allocate( int capacity ) {
+		mKeys = new long[capacity];
+		mValues = new Object[capacity];
+		mMask = capacity - 1;
+	}
+
+	private static int hash( long key ) {
+		long h = key * 0x9E3779B97F4A7C15L;
+		return (int) ( h ^ ( h >>> 32 ) );
+	}
+
+	private int indexOf( long key ) {
+		int index = hash( key ) & mMask;
+		while ( null != mValues[index] ) {
+			if ( mKeys[index] == key ) return index;
+			index = ( index + 1 ) & mMask;
+		}
+		return -1;
+	}
+
+	@SuppressWarnings ( "unchecked" )
+	public V get( long key ) {
+		final int index = indexOf( key );
+		return index < 0 ? null : (V) mValues[index];
+	}
+
+	public boolean containsKey( long key ) {
+		return indexOf( key ) >= 0;
+	}
+
+	/**
+	 * @return the previous value for the key, or null
+	 */
+	@SuppressWarnings ( "unchecked" )
+	public V put( long key, V value ) {
+		if ( null == value ) throw new NullPointerException( "value == null" );
+
+		int index = hash( key ) & mMask;
+		while ( null != mValues[index] ) {
+			if ( mKeys[index] == key ) {
+				V old = (V) mValues[index];
+				mValues[index] = value;
+				return old;
+			}
+			index = ( index + 1 ) & mMask;
+		}
+
+		mKeys[index] = key;
+		mValues[index] = value;
+
+		if ( ++mSize * 2 > mValues.length ) {
+			rehash( mValues.length << 1 );
+		}
+		return null;
+	}
+
+	/**
+	 * @return the removed value, or null
+	 */
+	@SuppressWarnings ( "unchecked" )
+	public V remove( long key ) {
+		int index = indexOf( key );
+		if ( index < 0 ) return null;
+
+		V old = (V) mValues[index];
+		mValues[index] = null;
+		mSize--;
+
+		// backward shift deletion: move back the following entries of the same probe sequence
+		int next = ( index + 1 ) & mMask;
+		while ( null != mValues[next] ) {
+			final int ideal = hash( mKeys[next] ) & mMask;
+			if ( ( ( next - ideal ) & mMask ) >= ( ( next - index ) & mMask ) ) {
+				mKeys[index] = mKeys[next];
+				mValues[index] = mValues[next];
+				mValues[next] = null;
+				index = next;
+			}
+			next = ( next + 1 ) & mMask;
+		}
+		return old;
+	}
+
+	public int size() {
+		return mSize;
+	}
+
+	public boolean isEmpty() {
+		return mSize == 0;
+	}
+
+	public void clear() {
+		for ( int i = 0; i < mValues.length; i++ ) {
+			mValues[i] = null;
+		}
+		mSize = 0;
+	}
+
+	private void rehash( int capacity ) {
+		long[] keys = mKeys;
+		Object[] values = mValues;
+		allocate( capacity );
+		mSize = 0;
+
+		for ( int i = 0; i < values.length; i++ ) {
+			if ( null != values[i] ) {
+				int index = hash( keys[i] ) & mMask;
+				while ( null != mValues[index] ) {
+					index = ( index + 1 ) & mMask;
+				}
+				mKeys[index] = keys[i];
+				mValues[index] = values[i];
+				mSize++;
+			}
+		}
+	}
+}
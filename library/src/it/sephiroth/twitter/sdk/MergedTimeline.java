@@ -0,0 +1,217 @@
+package it.sephiroth.twitter.sdk;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+import twitter4j.Status;
+
+/**
+ * Single timeline merging the statuses of several sources, such as the home timeline, the mentions and the lists, newest
+ * first and without duplicates.<br />
+ * Every page added is expected to be sorted by id, newest first, as returned by the twitter4j timeline calls. The pages
+ * added together are combined with a k-way merge, in O(n log k); the merged batch is then appended in front of or behind the
+ * current statuses without touching them. Only a batch overlapping the current range needs a linear merge with the whole
+ * timeline.
+ */
+public class MergedTimeline {
+
+	private static final Comparator<Cursor> NEWEST_FIRST = new Comparator<Cursor>() {
+
+		@Override
+		public int compare( Cursor lhs, Cursor rhs ) {
+			final long l = lhs.peek().getId();
+			final long r = rhs.peek().getId();
+			return l > r ? -1 : ( l == r ? 0 : 1 );
+		}
+	};
+
+	private static final class Cursor {
+
+		final List<Status> page;
+		int index;
+
+		Cursor( List<Status> page ) {
+			this.page = page;
+		}
+
+		Status peek() {
+			return page.get( index );
+		}
+
+		boolean hasNext() {
+			return index < page.size();
+		}
+	}
+
+	/** statuses newer than mOlder, oldest first so that new statuses are appended at the end */
+	private final ArrayList<Status> mNewer = new ArrayList<Status>();
+	/** newest first */
+	private final ArrayList<Status> mOlder = new ArrayList<Status>();
+	private final LongHashMap<Status> mById = new LongHashMap<Status>();
+
+	/**
+	 * Same as {@link #addPages(List)} with a single page.
+	 */
+	public int addPage( List<Status> page ) {
+		return addPages( Collections.singletonList( page ) );
+	}
+
+	/**
+	 * Merge the given pages into the timeline.
+	 *
+	 * @param pages
+	 *           pages sorted by id, newest first. The statuses already in the timeline are skipped
+	 * @return the number of statuses added
+	 */
+	public synchronized int addPages( List<? extends List<Status>> pages ) {
+		final List<Status> batch = merge( pages );
+		if ( batch.isEmpty() ) return 0;
+
+		final long newest = batch.get( 0 ).getId();
+		final long oldest = batch.get( batch.size() - 1 ).getId();
+
+		if ( isEmpty() || oldest > getNewestId() ) {
+			for ( int i = batch.size() - 1; i >= 0; i-- ) {
+				mNewer.add( batch.get( i ) );
+			}
+		} else if ( newest < getOldestId() ) {
+			mOlder.addAll( batch );
+		} else {
+			mergeOverlapping( batch );
+		}
+		return batch.size();
+	}
+
+	public synchronized int size() {
+		return mNewer.size() + mOlder.size();
+	}
+
+	public synchronized boolean isEmpty() {
+		return size() == 0;
+	}
+
+	/**
+	 * Returns the status at the given position, 0 being the newest.
+	 */
+	public synchronized Status get( int index ) {
+		final int newer = mNewer.size();
+		return index < newer ? mNewer.get( newer - 1 - index ) : mOlder.get( index - newer );
+	}
+
+	/**
+	 * Returns the status with the given id, or null.
+	 */
+	public synchronized Status getById( long id ) {
+		return mById.get( id );
+	}
+
+	public synchronized boolean contains( long id ) {
+		return mById.containsKey( id );
+	}
+
+	/**
+	 * Returns the id of the newest status, or 0 if empty.
+	 */
+	public synchronized long getNewestId() {
+		return isEmpty() ? 0 : get( 0 ).getId();
+	}
+
+	/**
+	 * Returns the id of the oldest status, or 0 if empty.
+	 */
+	public synchronized long getOldestId() {
+		return isEmpty() ? 0 : get( size() - 1 ).getId();
+	}
+
+	/**
+	 * Returns a snapshot of the timeline, newest first.
+	 */
+	public synchronized List<Status> toList() {
+		List<Status> result = new ArrayList<Status>( size() );
+		for ( int i = mNewer.size() - 1; i >= 0; i-- ) {
+			result.add( mNewer.get( i ) );
+		}
+		result.addAll( mOlder );
+		return result;
+	}
+
+	public synchronized void clear() {
+		mNewer.clear();
+		mOlder.clear();
+		mById.clear();
+	}
+
+	/**
+	 * k-way merge of the given pages, skipping the statuses already in the timeline. Must be called holding the lock.
+	 */
+	private List<Status> merge( List<? extends List<Status>> pages ) {
+		PriorityQueue<Cursor> heap = new PriorityQueue<Cursor>( Math.max( pages.size(), 1 ), NEWEST_FIRST );
+		int total = 0;
+
+		for ( List<Status> page : pages ) {
+			if ( null == page || page.isEmpty() ) continue;
+			heap.add( new Cursor( isSorted( page ) ? page : sorted( page ) ) );
+			total += page.size();
+		}
+
+		List<Status> result = new ArrayList<Status>( total );
+		while ( !heap.isEmpty() ) {
+			final Cursor cursor = heap.poll();
+			final Status status = cursor.peek();
+
+			if ( !mById.containsKey( status.getId() ) ) {
+				mById.put( status.getId(), status );
+				result.add( status );
+			}
+
+			cursor.index++;
+			if ( cursor.hasNext() ) {
+				heap.add( cursor );
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Linear merge of a batch overlapping the current statuses. Must be called holding the lock.
+	 */
+	private void mergeOverlapping( List<Status> batch ) {
+		final List<Status> current = toList();
+		mNewer.clear();
+		mOlder.clear();
+		mOlder.ensureCapacity( current.size() + batch.size() );
+
+		int i = 0;
+		int j = 0;
+		while ( i < current.size() || j < batch.size() ) {
+			if ( j == batch.size() || ( i < current.size() && current.get( i ).getId() > batch.get( j ).getId() ) ) {
+				mOlder.add( current.get( i++ ) );
+			} else {
+				mOlder.add( batch.get( j++ ) );
+			}
+		}
+	}
+
+	private static boolean isSorted( List<Status> page ) {
+		for ( int i = 1; i < page.size(); i++ ) {
+			if ( page.get( i - 1 ).getId() < page.get( i ).getId() ) return false;
+		}
+		return true;
+	}
+
+	private static List<Status> sorted( List<Status> page ) {
+		List<Status> result = new ArrayList<Status>( page );
+		Collections.sort( result, new Comparator<Status>() {
+
+			@Override
+			public int compare( Status lhs, Status rhs ) {
+				final long l = lhs.getId();
+				final long r = rhs.getId();
+				return l > r ? -1 : ( l == r ? 0 : 1 );
+			}
+		} );
+		return result;
+	}
+}
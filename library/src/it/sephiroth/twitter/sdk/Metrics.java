@@ -0,0 +1,424 @@
+package it.sephiroth.twitter.sdk;
+
+import it.sephiroth.twitter.sdk.TwitterAndroid.SessionState;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import android.os.SystemClock;
+import android.util.Log;
+
+/**
+ * Counters and latency histograms of the API calls, of the time spent in every {@link SessionState} and of the login flow
+ * phases.<br />
+ * Collection is disabled by default: until {@link #setEnabled(boolean)} is called every recording method returns after a
+ * single volatile read, without allocating. The values collected are read with {@link #snapshot()}, or pushed to the
+ * registered {@link Exporter}s with {@link #export()}. API calls are measured by the {@link SharedHttpClient} transport.
+ */
+public final class Metrics {
+
+	private static final String LOG_TAG = "Metrics";
+
+	/** OAuth request token call, made by {@link TwitterAndroid#prepareLogin(android.content.Context)} or by the dialog */
+	public static final String PHASE_REQUEST_TOKEN = "request_token";
+
+	/** loading of the authorization page */
+	public static final String PHASE_PAGE_LOAD = "page_load";
+
+	/** OAuth access token call, once the user authorized the application */
+	public static final String PHASE_ACCESS_TOKEN = "access_token";
+
+	/**
+	 * Receives the collected values, on the thread calling {@link Metrics#export()}.
+	 */
+	public static interface Exporter {
+
+		public void export( Snapshot snapshot );
+	}
+
+	/**
+	 * Writes the snapshot to the log.
+	 */
+	public static final Exporter LOG_EXPORTER = new Exporter() {
+
+		@Override
+		public void export( Snapshot snapshot ) {
+			for ( Map.Entry<String, Endpoint> entry : snapshot.getEndpoints().entrySet() ) {
+				final Endpoint endpoint = entry.getValue();
+				final Histogram latency = endpoint.getLatency();
+				Log.i( LOG_TAG, entry.getKey() + ": " + endpoint.getRequestCount() + " requests, " + endpoint.getErrorCount()
+						+ " errors, " + endpoint.getBytesReceived() + " bytes, p50 " + latency.getPercentile( 50 ) + "ms, p95 "
+						+ latency.getPercentile( 95 ) + "ms, max " + latency.getMax() + "ms" );
+			}
+			for ( Map.Entry<String, Histogram> entry : snapshot.getAuthPhases().entrySet() ) {
+				Log.i( LOG_TAG, entry.getKey() + ": " + entry.getValue().getCount() + " times, p50 "
+						+ entry.getValue().getPercentile( 50 ) + "ms" );
+			}
+			Log.i( LOG_TAG, "session: connecting " + snapshot.getSessionStateMillis( SessionState.CONNECTING )
+					+ "ms, connected " + snapshot.getSessionStateMillis( SessionState.CONNECTED ) + "ms" );
+		}
+	};
+
+	/**
+	 * Latency distribution, with fixed exponential buckets.
+	 */
+	public static final class Histogram {
+
+		/** upper bound, inclusive, of every bucket but the last one */
+		private static final long[] BOUNDS_MILLIS = { 1, 2, 5, 10, 20, 50, 100, 200, 500, 1000, 2000, 5000, 10000, 30000 };
+
+		private final long[] mCounts = new long[BOUNDS_MILLIS.length + 1];
+		private long mCount;
+		private long mSum;
+		private long mMax;
+
+		void record( long millis ) {
+			int bucket = 0;
+			while ( bucket < BOUNDS_MILLIS.length && millis > BOUNDS_MILLIS[bucket] ) {
+				bucket++;
+			}
+			mCounts[bucket]++;
+			mCount++;
+			mSum += millis;
+			mMax = Math.max( mMax, millis );
+		}
+
+		Histogram copy() {
+			Histogram result = new Histogram();
+			System.arraycopy( mCounts, 0, result.mCounts, 0, mCounts.length );
+			result.mCount = mCount;
+			result.mSum = mSum;
+			result.mMax = mMax;
+			return result;
+		}
+
+		public long getCount() {
+			return mCount;
+		}
+
+		public long getMax() {
+			return mMax;
+		}
+
+		public long getMean() {
+			return mCount > 0 ? mSum / mCount : 0;
+		}
+
+		/**
+		 * Returns the upper bound of the bucket holding the given percentile, capped to the max value recorded.
+		 *
+		 * @param percentile
+		 *           between 0 and 100
+		 */
+		public long getPercentile( double percentile ) {
+			if ( 0 == mCount ) return 0;
+
+			final long rank = Math.max( 1, (long) Math.ceil( mCount * percentile / 100 ) );
+			long seen = 0;
+			for ( int i = 0; i < BOUNDS_MILLIS.length; i++ ) {
+				seen += mCounts[i];
+				if ( seen >= rank ) return Math.min( BOUNDS_MILLIS[i], mMax );
+			}
+			return mMax;
+		}
+
+		public int getBucketCount() {
+			return mCounts.length;
+		}
+
+		/**
+		 * Upper bound of the given bucket, Long.MAX_VALUE for the last one.
+		 */
+		public static long getBucketBound( int bucket ) {
+			return bucket < BOUNDS_MILLIS.length ? BOUNDS_MILLIS[bucket] : Long.MAX_VALUE;
+		}
+
+		public long getBucketValue( int bucket ) {
+			return mCounts[bucket];
+		}
+	}
+
+	/**
+	 * Values collected for a single API endpoint.
+	 */
+	public static final class Endpoint {
+
+		private long mRequestCount;
+		private long mErrorCount;
+		private long mBytesReceived;
+		private Histogram mLatency = new Histogram();
+
+		Endpoint copy() {
+			Endpoint result = new Endpoint();
+			result.mRequestCount = mRequestCount;
+			result.mErrorCount = mErrorCount;
+			result.mBytesReceived = mBytesReceived;
+			result.mLatency = mLatency.copy();
+			return result;
+		}
+
+		public long getRequestCount() {
+			return mRequestCount;
+		}
+
+		/**
+		 * Requests failed with a network error or an error status code.
+		 */
+		public long getErrorCount() {
+			return mErrorCount;
+		}
+
+		/**
+		 * Response body bytes read, after gzip decoding.
+		 */
+		public long getBytesReceived() {
+			return mBytesReceived;
+		}
+
+		/**
+		 * Time from the request to the end of the response body, in milliseconds.
+		 */
+		public Histogram getLatency() {
+			return mLatency;
+		}
+	}
+
+	/**
+	 * Copy of the values collected up to a given time.
+	 */
+	public static final class Snapshot {
+
+		private final long mTime;
+		private final Map<String, Endpoint> mEndpoints;
+		private final Map<String, Histogram> mAuthPhases;
+		private final long[] mStateMillis;
+
+		Snapshot( long time, Map<String, Endpoint> endpoints, Map<String, Histogram> authPhases, long[] stateMillis ) {
+			mTime = time;
+			mEndpoints = Collections.unmodifiableMap( endpoints );
+			mAuthPhases = Collections.unmodifiableMap( authPhases );
+			mStateMillis = stateMillis;
+		}
+
+		/**
+		 * Returns the SystemClock.elapsedRealtime() of the snapshot.
+		 */
+		public long getTime() {
+			return mTime;
+		}
+
+		/**
+		 * Returns the endpoints, keyed by their path without the API version, the extension and the ids, such as
+		 * "statuses/user_timeline" or "statuses/destroy/:id".
+		 */
+		public Map<String, Endpoint> getEndpoints() {
+			return mEndpoints;
+		}
+
+		/**
+		 * Returns the login flow phases, keyed by the PHASE_* constants.
+		 */
+		public Map<String, Histogram> getAuthPhases() {
+			return mAuthPhases;
+		}
+
+		/**
+		 * Returns the total time spent in the given state, in milliseconds.
+		 *
+		 * @param state
+		 *           one of the SessionState constants
+		 */
+		public long getSessionStateMillis( int state ) {
+			final int index = state - SessionState.INVALID;
+			return index >= 0 && index < mStateMillis.length ? mStateMillis[index] : 0;
+		}
+	}
+
+	private static final int STATE_COUNT = SessionState.LOGIN_FAILED - SessionState.INVALID + 1;
+
+	private static volatile boolean sEnabled;
+
+	private static final Object sLock = new Object();
+	private static final Map<String, Endpoint> sEndpoints = new HashMap<String, Endpoint>();
+	private static final Map<String, Histogram> sAuthPhases = new HashMap<String, Histogram>();
+	private static final long[] sStateMillis = new long[STATE_COUNT];
+	private static int sState = SessionState.INVALID;
+	private static long sStateTime;
+
+	private static final CopyOnWriteArrayList<Exporter> sExporters = new CopyOnWriteArrayList<Exporter>();
+
+	private Metrics() {}
+
+	public static void setEnabled( boolean enabled ) {
+		synchronized ( sLock ) {
+			if ( enabled && !sEnabled ) {
+				sStateTime = SystemClock.elapsedRealtime();
+			}
+			sEnabled = enabled;
+		}
+	}
+
+	public static boolean isEnabled() {
+		return sEnabled;
+	}
+
+	public static void addExporter( Exporter exporter ) {
+		sExporters.addIfAbsent( exporter );
+	}
+
+	public static void removeExporter( Exporter exporter ) {
+		sExporters.remove( exporter );
+	}
+
+	/**
+	 * Returns a copy of the values collected so far.
+	 */
+	public static Snapshot snapshot() {
+		synchronized ( sLock ) {
+			final long now = SystemClock.elapsedRealtime();
+
+			Map<String, Endpoint> endpoints = new HashMap<String, Endpoint>( sEndpoints.size() * 2 );
+			for ( Map.Entry<String, Endpoint> entry : sEndpoints.entrySet() ) {
+				endpoints.put( entry.getKey(), entry.getValue().copy() );
+			}
+
+			Map<String, Histogram> phases = new HashMap<String, Histogram>();
+			for ( Map.Entry<String, Histogram> entry : sAuthPhases.entrySet() ) {
+				phases.put( entry.getKey(), entry.getValue().copy() );
+			}
+
+			long[] states = sStateMillis.clone();
+			if ( sEnabled ) {
+				states[sState - SessionState.INVALID] += now - sStateTime;
+			}
+			return new Snapshot( now, endpoints, phases, states );
+		}
+	}
+
+	/**
+	 * Push a snapshot to all the registered exporters.
+	 */
+	public static void export() {
+		if ( sExporters.isEmpty() ) return;
+
+		final Snapshot snapshot = snapshot();
+		for ( Exporter exporter : sExporters ) {
+			exporter.export( snapshot );
+		}
+	}
+
+	/**
+	 * Discard the values collected so far.
+	 */
+	public static void reset() {
+		synchronized ( sLock ) {
+			sEndpoints.clear();
+			sAuthPhases.clear();
+			for ( int i = 0; i < sStateMillis.length; i++ ) {
+				sStateMillis[i] = 0;
+			}
+			sStateTime = SystemClock.elapsedRealtime();
+		}
+	}
+
+	/**
+	 * Returns the start time of a measure, or 0 if disabled.
+	 */
+	static long start() {
+		return sEnabled ? SystemClock.elapsedRealtime() : 0;
+	}
+
+	/**
+	 * @param startTime
+	 *           value returned by {@link #start()}, nothing is recorded if 0
+	 */
+	static void recordRequest( String url, long startTime, long bytesReceived, boolean failed ) {
+		if ( !sEnabled || 0 == startTime ) return;
+
+		final long elapsed = SystemClock.elapsedRealtime() - startTime;
+		final String name = getEndpointName( url );
+
+		synchronized ( sLock ) {
+			Endpoint endpoint = sEndpoints.get( name );
+			if ( null == endpoint ) {
+				endpoint = new Endpoint();
+				sEndpoints.put( name, endpoint );
+			}
+			endpoint.mRequestCount++;
+			endpoint.mBytesReceived += bytesReceived;
+			if ( failed ) {
+				endpoint.mErrorCount++;
+			}
+			endpoint.mLatency.record( elapsed );
+		}
+	}
+
+	/**
+	 * @param startTime
+	 *           value returned by {@link #start()}, nothing is recorded if 0
+	 */
+	static void recordAuthPhase( String phase, long startTime ) {
+		if ( !sEnabled || 0 == startTime ) return;
+
+		final long elapsed = SystemClock.elapsedRealtime() - startTime;
+		synchronized ( sLock ) {
+			Histogram histogram = sAuthPhases.get( phase );
+			if ( null == histogram ) {
+				histogram = new Histogram();
+				sAuthPhases.put( phase, histogram );
+			}
+			histogram.record( elapsed );
+		}
+	}
+
+	/**
+	 * Called on every session transition. The state is tracked also while disabled, only the time is not accumulated.
+	 */
+	static void recordSessionState( int state ) {
+		synchronized ( sLock ) {
+			final long now = sEnabled ? SystemClock.elapsedRealtime() : 0;
+			if ( sEnabled ) {
+				sStateMillis[sState - SessionState.INVALID] += now - sStateTime;
+			}
+			sState = state;
+			sStateTime = now;
+		}
+	}
+
+	/**
+	 * Path of the url without the API version, the extension and the numeric ids.
+	 */
+	static String getEndpointName( String url ) {
+		int start = url.indexOf( "://" );
+		start = start < 0 ? 0 : url.indexOf( '/', start + 3 );
+		if ( start < 0 ) return "/";
+
+		int end = url.indexOf( '?', start );
+		if ( end < 0 ) end = url.length();
+
+		StringBuilder builder = new StringBuilder( end - start );
+		for ( String segment : url.substring( start + 1, end ).split( "/" ) ) {
+			if ( segment.length() == 0 ) continue;
+			if ( segment.endsWith( ".json" ) ) {
+				segment = segment.substring( 0, segment.length() - 5 );
+			}
+			if ( builder.length() == 0 && isVersion( segment ) ) continue;
+
+			if ( builder.length() > 0 ) builder.append( '/' );
+			builder.append( isNumber( segment ) ? ":id" : segment );
+		}
+		return builder.toString();
+	}
+
+	private static boolean isVersion( String segment ) {
+		return segment.length() > 0 && Character.isDigit( segment.charAt( 0 ) ) && segment.indexOf( '.' ) > 0;
+	}
+
+	private static boolean isNumber( String segment ) {
+		if ( segment.length() == 0 ) return false;
+		for ( int i = 0; i < segment.length(); i++ ) {
+			if ( !Character.isDigit( segment.charAt( i ) ) ) return false;
+		}
+		return true;
+	}
+}
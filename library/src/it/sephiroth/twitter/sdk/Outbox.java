@@ -0,0 +1,551 @@
+package it.sephiroth.twitter.sdk;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import twitter4j.Status;
+import twitter4j.StatusUpdate;
+import twitter4j.Twitter;
+import twitter4j.TwitterException;
+import android.content.Context;
+import android.os.Handler;
+import android.util.Log;
+
+/**
+ * Durable queue of the write operations: status updates, replies, retweets and favorites.<br />
+ * Operations are accepted immediately, also while offline, and persisted in an {@link OutboxJournal}. The journal is written
+ * in the background, so queueing an operation never performs disk I/O on the calling thread. The operations are sent in order
+ * on the {@link TwitterExecutor#LANE_DATA} lane, one after the other, with the access token of the account which queued
+ * them. Network and server errors are retried with an exponential backoff, and the rate limits of the account are honored.
+ * <br />
+ * A favorite queued while the opposite operation on the same status is still pending cancels it, and neither is sent.
+ */
+public class Outbox {
+
+	private static final String LOG_TAG = "Outbox";
+
+	public static final int TYPE_POST = 0;
+	public static final int TYPE_RETWEET = 1;
+	public static final int TYPE_FAVORITE = 2;
+	public static final int TYPE_UNFAVORITE = 3;
+
+	private static final long BACKOFF_BASE_MILLIS = 2000;
+	private static final long BACKOFF_MAX_MILLIS = 5 * 60 * 1000;
+
+	/** number of completed operations after which the journal is rewritten */
+	private static final int COMPACT_THRESHOLD = 64;
+
+	/**
+	 * A queued write operation.
+	 */
+	public static final class Operation {
+
+		private final long mId;
+		private final int mType;
+		private final long mUserId;
+		private final long mStatusId;
+		private final long mInReplyToStatusId;
+		private final String mText;
+		private final long mCreatedAt;
+
+		Operation( long id, int type, long userId, long statusId, long inReplyToStatusId, String text, long createdAt ) {
+			mId = id;
+			mType = type;
+			mUserId = userId;
+			mStatusId = statusId;
+			mInReplyToStatusId = inReplyToStatusId;
+			mText = text;
+			mCreatedAt = createdAt;
+		}
+
+		public long getId() {
+			return mId;
+		}
+
+		/**
+		 * One of the TYPE_* constants.
+		 */
+		public int getType() {
+			return mType;
+		}
+
+		/**
+		 * Id of the account which queued the operation.
+		 */
+		public long getUserId() {
+			return mUserId;
+		}
+
+		/**
+		 * Id of the target status, 0 for {@link Outbox#TYPE_POST}.
+		 */
+		public long getStatusId() {
+			return mStatusId;
+		}
+
+		/**
+		 * Id of the status replied to, 0 if not a reply.
+		 */
+		public long getInReplyToStatusId() {
+			return mInReplyToStatusId;
+		}
+
+		public String getText() {
+			return mText;
+		}
+
+		/**
+		 * Time the operation has been queued, in milliseconds since the epoch.
+		 */
+		public long getCreatedAt() {
+			return mCreatedAt;
+		}
+	}
+
+	/**
+	 * Receives the outcome of the queued operations, on the thread which created the {@link TwitterAndroid} instance.
+	 */
+	public static interface Listener {
+
+		public void onOperationSent( Operation operation, Status status );
+
+		/**
+		 * The operation has been rejected by the server and will not be retried.
+		 */
+		public void onOperationFailed( Operation operation, TwitterException exception );
+	}
+
+	private final Context mContext;
+	private final String mJournalName;
+	private OutboxJournal mJournal;
+	private final SessionManager mSessions;
+	private final TwitterExecutor mExecutor;
+	private final Handler mHandler;
+	private volatile Listener mListener;
+
+	/**
+	 * A journal record not yet written: an added operation, or the completion of one.
+	 */
+	private static final class JournalEntry {
+
+		final Operation operation;
+		final boolean completed;
+
+		JournalEntry( Operation operation, boolean completed ) {
+			this.operation = operation;
+			this.completed = completed;
+		}
+	}
+
+	private final LinkedList<Operation> mPending = new LinkedList<Operation>();
+	private final List<JournalEntry> mJournalEntries = new ArrayList<JournalEntry>();
+	private boolean mJournalScheduled;
+	private boolean mOpened;
+	private boolean mJournalAvailable;
+	private long mNextId = 1;
+	private Operation mInFlight;
+	private boolean mDrainScheduled;
+	private int mAttempts;
+
+	private final Runnable mSendTask = new Runnable() {
+
+		@Override
+		public void run() {
+			send();
+		}
+	};
+
+	private final Runnable mRetryTask = new Runnable() {
+
+		@Override
+		public void run() {
+			synchronized ( Outbox.this ) {
+				dispatchNext();
+			}
+		}
+	};
+
+	private final Runnable mJournalTask = new Runnable() {
+
+		@Override
+		public void run() {
+			writeJournal();
+		}
+	};
+
+	private final Runnable mJournalRejectedTask = new Runnable() {
+
+		@Override
+		public void run() {
+			// the entries stay queued, and are written along with the next ones
+			synchronized ( Outbox.this ) {
+				mJournalScheduled = false;
+			}
+		}
+	};
+
+	private final Runnable mRejectedTask = new Runnable() {
+
+		@Override
+		public void run() {
+			synchronized ( Outbox.this ) {
+				if ( mExecutor.isShutdown() ) {
+					mDrainScheduled = false;
+				} else {
+					scheduleRetry();
+				}
+			}
+		}
+	};
+
+	/**
+	 * @param journalName
+	 *           name of the journal file, in the files directory of the application
+	 */
+	Outbox( Context context, String journalName, SessionManager sessions, TwitterExecutor executor, Handler handler ) {
+		mContext = context;
+		mJournalName = journalName;
+		mSessions = sessions;
+		mExecutor = executor;
+		mHandler = handler;
+	}
+
+	public void setListener( Listener listener ) {
+		mListener = listener;
+	}
+
+	/**
+	 * Read the pending operations from the journal. Performs disk I/O, it's called on a background thread before the first
+	 * drain.
+	 */
+	synchronized void open() {
+		if ( mOpened ) return;
+		mOpened = true;
+
+		try {
+			// getFilesDir() may create the directory, it's resolved here rather than in the constructor
+			mJournal = new OutboxJournal( new File( mContext.getFilesDir(), mJournalName ) );
+			for ( Operation operation : mJournal.open() ) {
+				mPending.add( operation );
+				mNextId = Math.max( mNextId, operation.getId() + 1 );
+			}
+			mJournalAvailable = true;
+			Log.i( LOG_TAG, "pending operations: " + mPending.size() );
+		} catch ( IOException e ) {
+			Log.e( LOG_TAG, "failed to open the journal, operations will not be persisted", e );
+		}
+	}
+
+	/**
+	 * Queue a new operation and start sending the pending ones.
+	 *
+	 * @return the queued operation, or null if it cancelled a pending opposite operation
+	 */
+	synchronized Operation enqueue( int type, long userId, long statusId, long inReplyToStatusId, String text ) {
+		open();
+
+		if ( type != TYPE_POST ) {
+			for ( Iterator<Operation> iterator = mPending.iterator(); iterator.hasNext(); ) {
+				final Operation pending = iterator.next();
+				if ( pending == mInFlight || pending.getUserId() != userId || pending.getStatusId() != statusId ) continue;
+
+				if ( pending.getType() == type ) {
+					Log.d( LOG_TAG, "duplicate operation: " + type + ", " + statusId );
+					return pending;
+				}
+
+				if ( isOpposite( pending.getType(), type ) ) {
+					Log.d( LOG_TAG, "operation " + type + " cancels pending " + pending.getType() + " for " + statusId );
+					iterator.remove();
+					journalComplete( pending );
+					return null;
+				}
+			}
+		}
+
+		final Operation operation = new Operation( mNextId++, type, userId, statusId, inReplyToStatusId, text,
+				System.currentTimeMillis() );
+		mPending.add( operation );
+		journal( operation, false );
+
+		drain();
+		return operation;
+	}
+
+	/**
+	 * Start sending the pending operations, unless already in progress.
+	 */
+	synchronized void drain() {
+		open();
+		if ( mDrainScheduled || mPending.isEmpty() ) return;
+
+		mDrainScheduled = true;
+		mAttempts = 0;
+		dispatchNext();
+	}
+
+	/**
+	 * Drop the pending operations of the given account.
+	 */
+	synchronized void removeAll( long userId ) {
+		for ( Iterator<Operation> iterator = mPending.iterator(); iterator.hasNext(); ) {
+			final Operation pending = iterator.next();
+			if ( pending != mInFlight && pending.getUserId() == userId ) {
+				iterator.remove();
+				journalComplete( pending );
+			}
+		}
+	}
+
+	/**
+	 * Returns a snapshot of the operations not yet sent, in order.
+	 */
+	public synchronized List<Operation> getPending() {
+		return new ArrayList<Operation>( mPending );
+	}
+
+	public synchronized int size() {
+		return mPending.size();
+	}
+
+	/**
+	 * Dispatch the head of the queue through the rate limits of its account. Must be called holding the lock.
+	 */
+	private void dispatchNext() {
+		while ( !mPending.isEmpty() ) {
+			final Operation head = mPending.getFirst();
+			final RateLimitScheduler rateLimits = mSessions.getRateLimits( head.getUserId() );
+
+			if ( null == rateLimits ) {
+				Log.w( LOG_TAG, "account " + head.getUserId() + " removed, dropping operation " + head.getId() );
+				mPending.removeFirst();
+				journalComplete( head );
+				continue;
+			}
+
+			// a rejected task, also once delayed by the rate limits, is retried later
+			rateLimits.execute( TwitterExecutor.LANE_DATA, getResource( head.getType() ), mSendTask, mRejectedTask );
+			return;
+		}
+		mDrainScheduled = false;
+	}
+
+	private void scheduleRetry() {
+		final long delay = Math.min( BACKOFF_BASE_MILLIS << Math.min( mAttempts, 16 ), BACKOFF_MAX_MILLIS );
+		mAttempts++;
+
+		Log.i( LOG_TAG, "retrying in " + delay + "ms, attempt " + mAttempts );
+		mExecutor.schedule( TwitterExecutor.LANE_DATA, mRetryTask, delay, mRejectedTask );
+	}
+
+	private void send() {
+		final Operation operation;
+		synchronized ( this ) {
+			if ( mPending.isEmpty() ) {
+				mDrainScheduled = false;
+				return;
+			}
+			operation = mPending.getFirst();
+			mInFlight = operation;
+		}
+
+		final Twitter twitter = mSessions.getClient( operation.getUserId() );
+		final RateLimitScheduler rateLimits = mSessions.getRateLimits( operation.getUserId() );
+
+		if ( null == twitter || null == rateLimits ) {
+			complete( operation, null, null );
+			return;
+		}
+
+		final String resource = getResource( operation.getType() );
+
+		try {
+			Status status = execute( twitter, operation );
+			rateLimits.update( resource, status );
+			Log.d( LOG_TAG, "sent operation " + operation.getId() );
+			complete( operation, status, null );
+		} catch ( TwitterException e ) {
+			rateLimits.update( resource, e );
+
+			if ( isRetryable( e ) ) {
+				Log.w( LOG_TAG, "operation " + operation.getId() + " failed: " + e.getStatusCode() );
+				synchronized ( this ) {
+					mInFlight = null;
+					scheduleRetry();
+				}
+			} else {
+				Log.w( LOG_TAG, "operation " + operation.getId() + " rejected: " + e.getStatusCode() );
+				complete( operation, null, e );
+			}
+		}
+	}
+
+	private void complete( final Operation operation, final Status status, final TwitterException exception ) {
+		synchronized ( this ) {
+			mInFlight = null;
+			mAttempts = 0;
+			mPending.remove( operation );
+			journalComplete( operation );
+			dispatchNext();
+		}
+
+		final Listener listener = mListener;
+		if ( null == listener || ( null == status && null == exception ) ) return;
+
+		mHandler.post( new Runnable() {
+
+			@Override
+			public void run() {
+				if ( null != status ) {
+					listener.onOperationSent( operation, status );
+				} else {
+					listener.onOperationFailed( operation, exception );
+				}
+			}
+		} );
+	}
+
+	/**
+	 * Must be called holding the lock.
+	 */
+	private void journalComplete( Operation operation ) {
+		journal( operation, true );
+	}
+
+	/**
+	 * Queue a journal record, written in order on the {@link TwitterExecutor#LANE_DATA} lane. Must be called holding the lock.
+	 */
+	private void journal( Operation operation, boolean completed ) {
+		if ( !mJournalAvailable ) return;
+
+		mJournalEntries.add( new JournalEntry( operation, completed ) );
+		if ( mJournalScheduled ) return;
+
+		mJournalScheduled = true;
+		if ( !mExecutor.execute( TwitterExecutor.LANE_DATA, mJournalTask ) ) {
+			mExecutor.schedule( TwitterExecutor.LANE_DATA, mJournalTask, BACKOFF_BASE_MILLIS, mJournalRejectedTask );
+		}
+	}
+
+	/**
+	 * Write the queued journal records. A single task runs at a time, so the records are written in the order they have
+	 * been queued.
+	 */
+	private void writeJournal() {
+		boolean idle = false;
+		try {
+			while ( !idle ) {
+				idle = writeJournalEntries();
+			}
+		} finally {
+			if ( !idle ) {
+				// failed with an unexpected exception: the next record queued schedules the task again
+				synchronized ( this ) {
+					mJournalScheduled = false;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Write the journal records queued so far.
+	 *
+	 * @return true if there was nothing left to write, the task is then no longer scheduled
+	 */
+	private boolean writeJournalEntries() {
+		final List<JournalEntry> entries;
+		List<Operation> pending = null;
+
+		synchronized ( this ) {
+			if ( mJournalEntries.isEmpty() ) {
+				mJournalScheduled = false;
+				return true;
+			}
+			entries = new ArrayList<JournalEntry>( mJournalEntries );
+			mJournalEntries.clear();
+
+			int completed = mJournal.getCompletedCount();
+			for ( JournalEntry entry : entries ) {
+				if ( entry.completed ) completed++;
+			}
+			if ( completed > COMPACT_THRESHOLD ) {
+				// taken along with the entries, so it matches the journal once they are written
+				pending = new ArrayList<Operation>( mPending );
+			}
+		}
+
+		try {
+			for ( JournalEntry entry : entries ) {
+				if ( entry.completed ) {
+					mJournal.complete( entry.operation.getId() );
+				} else {
+					mJournal.append( entry.operation );
+				}
+			}
+			if ( null != pending ) {
+				mJournal.rewrite( pending );
+			}
+		} catch ( IOException e ) {
+			Log.e( LOG_TAG, "failed to update the journal", e );
+
+			if ( !mJournal.isOpen() ) {
+				Log.e( LOG_TAG, "journal lost, operations will not be persisted" );
+				synchronized ( this ) {
+					mJournalAvailable = false;
+					mJournalEntries.clear();
+				}
+			}
+		}
+		return false;
+	}
+
+	private static Status execute( Twitter twitter, Operation operation ) throws TwitterException {
+		switch ( operation.getType() ) {
+			case TYPE_POST:
+				StatusUpdate update = new StatusUpdate( operation.getText() );
+				if ( operation.getInReplyToStatusId() > 0 ) {
+					update.setInReplyToStatusId( operation.getInReplyToStatusId() );
+				}
+				return twitter.updateStatus( update );
+
+			case TYPE_RETWEET:
+				return twitter.retweetStatus( operation.getStatusId() );
+
+			case TYPE_FAVORITE:
+				return twitter.createFavorite( operation.getStatusId() );
+
+			case TYPE_UNFAVORITE:
+				return twitter.destroyFavorite( operation.getStatusId() );
+
+			default:
+				throw new IllegalArgumentException( "unknown operation type: " + operation.getType() );
+		}
+	}
+
+	/**
+	 * Network errors, server errors and rate limits are retried, any other error means the server rejected the operation.
+	 */
+	private static boolean isRetryable( TwitterException e ) {
+		return e.isCausedByNetworkIssue() || e.exceededRateLimitation() || e.getStatusCode() >= 500 || e.getStatusCode() <= 0;
+	}
+
+	private static boolean isOpposite( int lhs, int rhs ) {
+		return ( lhs == TYPE_FAVORITE && rhs == TYPE_UNFAVORITE ) || ( lhs == TYPE_UNFAVORITE && rhs == TYPE_FAVORITE );
+	}
+
+	private static String getResource( int type ) {
+		switch ( type ) {
+			case TYPE_RETWEET:
+				return RateLimitScheduler.RESOURCE_STATUSES_RETWEET;
+			case TYPE_FAVORITE:
+				return RateLimitScheduler.RESOURCE_FAVORITES_CREATE;
+			case TYPE_UNFAVORITE:
+				return RateLimitScheduler.RESOURCE_FAVORITES_DESTROY;
+			default:
+				return RateLimitScheduler.RESOURCE_STATUSES_UPDATE;
+		}
+	}
+}
@@ -0,0 +1,249 @@
+package it.sephiroth.twitter.sdk;
+
+import it.sephiroth.twitter.sdk.Outbox.Operation;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import android.util.Log;
+
+/**
+ * Append-only on disk journal of the {@link Outbox} operations.<br />
+ * <br />
+ * File layout:
+ *
+ * <pre>
+ * header: int magic, int version
+ * record: int length, byte kind, long operationId, [int type, long userId, long statusId, long inReplyToStatusId, long createdAt, boolean hasText, utf text]
+ * </pre>
+ *
+ * An operation is written once when queued and a short completion record is appended once it has been sent or dropped, so
+ * that every change is a single small write. Replaying the records in order gives back the pending operations.
+ */
+class OutboxJournal {
+
+	private static final String LOG_TAG = "OutboxJournal";
+
+	private static final int MAGIC = 0x5457424A; // "TWBJ"
+	private static final int VERSION = 1;
+
+	private static final int HEADER_SIZE = 8;
+
+	private static final byte RECORD_ADD = 1;
+	private static final byte RECORD_DONE = 2;
+
+	private final File mFile;
+	private FileChannel mChannel;
+	private int mCompletedCount;
+
+	OutboxJournal( File file ) {
+		mFile = file;
+	}
+
+	/**
+	 * Open the journal and returns the pending operations, in the order they have been queued.
+	 */
+	List<Operation> open() throws IOException {
+		closeChannel();
+		mChannel = new RandomAccessFile( mFile, "rw" ).getChannel();
+		mCompletedCount = 0;
+
+		final Map<Long, Operation> pending = new LinkedHashMap<Long, Operation>();
+
+		if ( mChannel.size() < HEADER_SIZE || !readHeader() ) {
+			Log.w( LOG_TAG, "missing or incompatible header, creating a new journal" );
+			mChannel.truncate( 0 );
+			writeHeader( mChannel );
+			return new ArrayList<Operation>();
+		}
+
+		final long size = mChannel.size();
+		final ByteBuffer length = ByteBuffer.allocate( 4 );
+		long position = HEADER_SIZE;
+
+		while ( position + 4 <= size ) {
+			length.clear();
+			readFully( length, position );
+			final int recordLength = length.getInt( 0 );
+
+			if ( recordLength <= 0 || position + 4 + recordLength > size ) {
+				break;
+			}
+
+			ByteBuffer record = ByteBuffer.allocate( recordLength );
+			readFully( record, position + 4 );
+
+			DataInputStream input = new DataInputStream( new ByteArrayInputStream( record.array() ) );
+			final byte kind = input.readByte();
+			final long id = input.readLong();
+
+			if ( kind == RECORD_ADD ) {
+				pending.put( id, readOperation( id, input ) );
+			} else if ( kind == RECORD_DONE ) {
+				pending.remove( id );
+				mCompletedCount++;
+			} else {
+				break;
+			}
+			position += 4 + recordLength;
+		}
+
+		if ( position != size ) {
+			// partially written record, most likely the process has been killed while appending
+			Log.w( LOG_TAG, "truncating journal from " + size + " to " + position );
+			mChannel.truncate( position );
+		}
+		return new ArrayList<Operation>( pending.values() );
+	}
+
+	void append( Operation operation ) throws IOException {
+		writeRecord( getChannel(), encodeOperation( operation ) );
+	}
+
+	void complete( long operationId ) throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream( 9 );
+		DataOutputStream output = new DataOutputStream( bytes );
+		output.writeByte( RECORD_DONE );
+		output.writeLong( operationId );
+		output.close();
+
+		writeRecord( getChannel(), bytes.toByteArray() );
+		mCompletedCount++;
+	}
+
+	/**
+	 * Number of completion records, which are dropped by the next {@link #rewrite(Collection)}.
+	 */
+	int getCompletedCount() {
+		return mCompletedCount;
+	}
+
+	/**
+	 * Returns false if the journal has been closed, or could not be reopened after a failed {@link #rewrite(Collection)}.
+	 */
+	boolean isOpen() {
+		return null != mChannel;
+	}
+
+	/**
+	 * Replace the journal content with the given pending operations. If the new content can't replace the current one, the
+	 * current journal is kept and reopened.
+	 */
+	void rewrite( Collection<Operation> pending ) throws IOException {
+		Log.i( LOG_TAG, "rewrite: " + pending.size() + " pending, " + mCompletedCount + " completed" );
+
+		File tmp = new File( mFile.getPath() + ".tmp" );
+		RandomAccessFile output = new RandomAccessFile( tmp, "rw" );
+		try {
+			FileChannel channel = output.getChannel();
+			channel.truncate( 0 );
+			writeHeader( channel );
+			for ( Operation operation : pending ) {
+				writeRecord( channel, encodeOperation( operation ) );
+			}
+			channel.force( false );
+		} finally {
+			output.close();
+		}
+
+		closeChannel();
+		final boolean renamed = tmp.renameTo( mFile );
+		mChannel = new RandomAccessFile( mFile, "rw" ).getChannel();
+		if ( !renamed ) {
+			tmp.delete();
+			throw new IOException( "failed to rename " + tmp );
+		}
+		mCompletedCount = 0;
+	}
+
+	void close() {
+		closeChannel();
+	}
+
+	private static byte[] encodeOperation( Operation operation ) throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream( 64 );
+		DataOutputStream output = new DataOutputStream( bytes );
+		output.writeByte( RECORD_ADD );
+		output.writeLong( operation.getId() );
+		output.writeInt( operation.getType() );
+		output.writeLong( operation.getUserId() );
+		output.writeLong( operation.getStatusId() );
+		output.writeLong( operation.getInReplyToStatusId() );
+		output.writeLong( operation.getCreatedAt() );
+		output.writeBoolean( null != operation.getText() );
+		if ( null != operation.getText() ) {
+			output.writeUTF( operation.getText() );
+		}
+		output.close();
+		return bytes.toByteArray();
+	}
+
+	private static Operation readOperation( long id, DataInputStream input ) throws IOException {
+		final int type = input.readInt();
+		final long userId = input.readLong();
+		final long statusId = input.readLong();
+		final long inReplyToStatusId = input.readLong();
+		final long createdAt = input.readLong();
+		final String text = input.readBoolean() ? input.readUTF() : null;
+		return new Operation( id, type, userId, statusId, inReplyToStatusId, text, createdAt );
+	}
+
+	private static void writeRecord( FileChannel channel, byte[] record ) throws IOException {
+		ByteBuffer buffer = ByteBuffer.allocate( 4 + record.length );
+		buffer.putInt( record.length ).put( record ).flip();
+
+		channel.position( channel.size() );
+		while ( buffer.hasRemaining() ) {
+			channel.write( buffer );
+		}
+	}
+
+	private boolean readHeader() throws IOException {
+		ByteBuffer header = ByteBuffer.allocate( HEADER_SIZE );
+		readFully( header, 0 );
+		return header.getInt( 0 ) == MAGIC && header.getInt( 4 ) == VERSION;
+	}
+
+	private static void writeHeader( FileChannel channel ) throws IOException {
+		ByteBuffer header = ByteBuffer.allocate( HEADER_SIZE );
+		header.putInt( MAGIC ).putInt( VERSION ).flip();
+		channel.position( 0 );
+		while ( header.hasRemaining() ) {
+			channel.write( header );
+		}
+	}
+
+	private void readFully( ByteBuffer buffer, long position ) throws IOException {
+		while ( buffer.hasRemaining() ) {
+			if ( mChannel.read( buffer, position + buffer.position() ) < 0 ) {
+				throw new IOException( "unexpected end of file" );
+			}
+		}
+	}
+
+	private FileChannel getChannel() throws IOException {
+		if ( null == mChannel ) throw new IOException( "journal not open" );
+		return mChannel;
+	}
+
+	private void closeChannel() {
+		if ( null != mChannel ) {
+			try {
+				mChannel.close();
+			} catch ( IOException e ) {
+				e.printStackTrace();
+			}
+			mChannel = null;
+		}
+	}
+}
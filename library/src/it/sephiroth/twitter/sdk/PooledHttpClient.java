@@ -0,0 +1,294 @@
+package it.sephiroth.twitter.sdk;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.security.GeneralSecurityException;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+import javax.net.ssl.HandshakeCompletedEvent;
+import javax.net.ssl.HandshakeCompletedListener;
+import javax.net.ssl.HttpsURLConnection;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLSession;
+import javax.net.ssl.SSLSocket;
+import javax.net.ssl.SSLSocketFactory;
+import twitter4j.TwitterException;
+import twitter4j.internal.http.HttpClientConfiguration;
+import twitter4j.internal.http.HttpClientImpl;
+import twitter4j.internal.http.HttpRequest;
+import twitter4j.internal.http.HttpResponse;
+import android.util.Log;
+
+/**
+ * {@link HttpClientImpl} tuned for connection reuse:
+ * <ul>
+ * <li>responses are released by closing their stream instead of disconnecting, so the socket goes back to the keep-alive
+ * pool</li>
+ * <li>all the https connections share a single {@link SSLContext}, hence a single TLS session cache</li>
+ * <li>gzip encoded responses are always requested</li>
+ * <li>the timeline requests are shaped by the {@link RequestProfile} active on the calling thread</li>
+ * <li>the connections are attached to the {@link RequestHandle} bound to the calling thread, which aborts them when
+ * cancelled</li>
+ * </ul>
+ */
+class PooledHttpClient extends HttpClientImpl {
+
+	private static final long serialVersionUID = 1L;
+
+	private static final String LOG_TAG = "PooledHttpClient";
+
+	private static SSLSocketFactory sSocketFactory;
+
+	/** last connection opened by the current thread, attached to the bound handle */
+	private static final ThreadLocal<HttpURLConnection> sConnection = new ThreadLocal<HttpURLConnection>();
+
+	PooledHttpClient( HttpClientConfiguration configuration ) {
+		super( configuration );
+	}
+
+	@Override
+	protected HttpURLConnection getConnection( String url ) throws IOException {
+		HttpURLConnection connection = super.getConnection( url );
+		if ( connection instanceof HttpsURLConnection ) {
+			SSLSocketFactory factory = getSocketFactory();
+			if ( null != factory ) {
+				( (HttpsURLConnection) connection ).setSSLSocketFactory( factory );
+			}
+		}
+		connection.setRequestProperty( "Accept-Encoding", "gzip" );
+		connection.setRequestProperty( "Connection", "keep-alive" );
+
+		final RequestHandle handle = RequestHandle.getCurrent();
+		if ( null != handle ) {
+			handle.attach( connection );
+			sConnection.set( connection );
+		}
+		return connection;
+	}
+
+	@Override
+	public HttpResponse request( HttpRequest request ) throws TwitterException {
+		SharedHttpClient.sRequestCount.incrementAndGet();
+
+		final RequestProfile profile = RequestProfile.getCurrent();
+		if ( null != profile ) {
+			// rebuilt before the call, so that the OAuth signature covers the profile parameters
+			request = profile.apply( request );
+		}
+
+		final long startTime = Metrics.start();
+		final RequestHandle handle = RequestHandle.getCurrent();
+		final HttpResponse response;
+		try {
+			response = super.request( request );
+		} catch ( TwitterException e ) {
+			Metrics.recordRequest( request.getURL(), startTime, 0, true );
+			if ( null != handle ) {
+				detach( handle );
+				if ( handle.isCancelled() ) throw new TwitterException( "request cancelled", e );
+			}
+			throw e;
+		}
+		return new PooledResponse( CONF, response, request.getURL(), startTime, handle );
+	}
+
+	private static void detach( RequestHandle handle ) {
+		final HttpURLConnection connection = sConnection.get();
+		if ( null != connection ) {
+			sConnection.remove();
+			handle.detach( connection );
+		}
+	}
+
+	private static synchronized SSLSocketFactory getSocketFactory() {
+		if ( null == sSocketFactory ) {
+			try {
+				SSLContext context = SSLContext.getInstance( "TLS" );
+				context.init( null, null, null );
+				sSocketFactory = new CountingSocketFactory( context.getSocketFactory() );
+			} catch ( GeneralSecurityException e ) {
+				Log.e( LOG_TAG, "failed to create the ssl context", e );
+			}
+		}
+		return sSocketFactory;
+	}
+
+	/**
+	 * Response whose stream is counted and released without closing the underlying connection.
+	 */
+	private static final class PooledResponse extends HttpResponse {
+
+		private final HttpResponse mResponse;
+
+		PooledResponse( HttpClientConfiguration configuration, HttpResponse response, String url, long startTime,
+				RequestHandle handle ) {
+			super( configuration );
+			mResponse = response;
+			statusCode = response.getStatusCode();
+			InputStream stream = response.asStream();
+			final HttpURLConnection connection = null != handle ? sConnection.get() : null;
+			sConnection.remove();
+			if ( null != stream ) {
+				is = new CountingInputStream( stream, url, startTime, statusCode >= 400, handle, connection );
+			} else {
+				is = null;
+				Metrics.recordRequest( url, startTime, 0, statusCode >= 400 );
+				if ( null != connection ) handle.detach( connection );
+			}
+		}
+
+		@Override
+		public String getResponseHeader( String name ) {
+			return mResponse.getResponseHeader( name );
+		}
+
+		@Override
+		public Map<String, List<String>> getResponseHeaderFields() {
+			return mResponse.getResponseHeaderFields();
+		}
+
+		@Override
+		public void disconnect() throws IOException {
+			// closing the fully read stream returns the socket to the keep-alive pool
+			if ( null != is ) {
+				is.close();
+			}
+		}
+	}
+
+	/**
+	 * Counts the bytes read, and records the request in the {@link Metrics} once closed. The connection stays attached to the
+	 * handle until then, so that a cancel aborts the read in progress.
+	 */
+	private static final class CountingInputStream extends FilterInputStream {
+
+		private final String mUrl;
+		private final long mStartTime;
+		private final boolean mFailed;
+		private final RequestHandle mHandle;
+		private final HttpURLConnection mConnection;
+		private long mCount;
+		private boolean mClosed;
+
+		CountingInputStream( InputStream in, String url, long startTime, boolean failed, RequestHandle handle,
+				HttpURLConnection connection ) {
+			super( in );
+			mUrl = url;
+			mStartTime = startTime;
+			mFailed = failed;
+			mHandle = handle;
+			mConnection = connection;
+		}
+
+		@Override
+		public int read() throws IOException {
+			int result = super.read();
+			if ( result >= 0 ) {
+				mCount++;
+				SharedHttpClient.addBytesReceived( 1 );
+			}
+			return result;
+		}
+
+		@Override
+		public int read( byte[] buffer, int offset, int count ) throws IOException {
+			int result = super.read( buffer, offset, count );
+			if ( result > 0 ) {
+				mCount += result;
+				SharedHttpClient.addBytesReceived( result );
+			}
+			return result;
+		}
+
+		@Override
+		public void close() throws IOException {
+			if ( !mClosed ) {
+				mClosed = true;
+				Metrics.recordRequest( mUrl, mStartTime, mCount, mFailed );
+				if ( null != mConnection ) mHandle.detach( mConnection );
+			}
+			super.close();
+		}
+	}
+
+	/**
+	 * Socket factory which counts the full and the resumed TLS handshakes.
+	 */
+	private static final class CountingSocketFactory extends SSLSocketFactory {
+
+		private final SSLSocketFactory mDelegate;
+		private final Map<SSLSession, Boolean> mSessions = new WeakHashMap<SSLSession, Boolean>();
+
+		private final HandshakeCompletedListener mListener = new HandshakeCompletedListener() {
+
+			@Override
+			public void handshakeCompleted( HandshakeCompletedEvent event ) {
+				final boolean resumed;
+				synchronized ( mSessions ) {
+					resumed = null != mSessions.put( event.getSession(), Boolean.TRUE );
+				}
+				if ( resumed ) {
+					SharedHttpClient.sTlsResumedCount.incrementAndGet();
+				} else {
+					SharedHttpClient.sTlsHandshakeCount.incrementAndGet();
+				}
+			}
+		};
+
+		CountingSocketFactory( SSLSocketFactory delegate ) {
+			mDelegate = delegate;
+		}
+
+		private Socket track( Socket socket ) {
+			if ( socket instanceof SSLSocket ) {
+				( (SSLSocket) socket ).addHandshakeCompletedListener( mListener );
+			}
+			return socket;
+		}
+
+		@Override
+		public String[] getDefaultCipherSuites() {
+			return mDelegate.getDefaultCipherSuites();
+		}
+
+		@Override
+		public String[] getSupportedCipherSuites() {
+			return mDelegate.getSupportedCipherSuites();
+		}
+
+		@Override
+		public Socket createSocket() throws IOException {
+			return track( mDelegate.createSocket() );
+		}
+
+		@Override
+		public Socket createSocket( Socket socket, String host, int port, boolean autoClose ) throws IOException {
+			return track( mDelegate.createSocket( socket, host, port, autoClose ) );
+		}
+
+		@Override
+		public Socket createSocket( String host, int port ) throws IOException {
+			return track( mDelegate.createSocket( host, port ) );
+		}
+
+		@Override
+		public Socket createSocket( String host, int port, InetAddress localHost, int localPort ) throws IOException {
+			return track( mDelegate.createSocket( host, port, localHost, localPort ) );
+		}
+
+		@Override
+		public Socket createSocket( InetAddress host, int port ) throws IOException {
+			return track( mDelegate.createSocket( host, port ) );
+		}
+
+		@Override
+		public Socket createSocket( InetAddress address, int port, InetAddress localAddress, int localPort ) throws IOException {
+			return track( mDelegate.createSocket( address, port, localAddress, localPort ) );
+		}
+	}
+}
@@ -0,0 +1,120 @@
+package it.sephiroth.twitter.sdk;
+
+import java.lang.ref.WeakReference;
+import twitter4j.auth.RequestToken;
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.os.SystemClock;
+import android.util.Log;
+import android.webkit.WebView;
+import android.webkit.WebViewClient;
+
+/**
+ * Login prepared in advance by {@link TwitterAndroid#prepareLogin(Context)}: a request token fetched before the dialog is
+ * shown and a {@link WebView} already loading the authorization page.<br />
+ * The web view is dropped once handed to a dialog or released, and the context is only weakly referenced, so nothing of the
+ * activity is kept past the dialog.
+ */
+class PreparedLogin {
+
+	private static final String LOG_TAG = "PreparedLogin";
+
+	/** request tokens are discarded after this time, even if the server would still accept them */
+	static final long REQUEST_TOKEN_TTL_MILLIS = 5 * 60 * 1000;
+
+	private final WeakReference<Context> mContext;
+	private WebView mWebView;
+
+	private volatile RequestToken mRequestToken;
+	private volatile long mExpireTime;
+	private volatile boolean mPageFinished;
+	private boolean mReleased;
+
+	/**
+	 * Must be created on the main thread.
+	 */
+	PreparedLogin( Context context ) {
+		mContext = new WeakReference<Context>( context );
+		mWebView = TwitterDialog.createWebView( context );
+		mWebView.setWebViewClient( new WebViewClient() {
+
+			private long mPageStartTime;
+
+			@Override
+			public void onPageStarted( WebView view, String url, Bitmap favicon ) {
+				mPageFinished = false;
+				mPageStartTime = Metrics.start();
+			}
+
+			@Override
+			public void onPageFinished( WebView view, String url ) {
+				Log.i( LOG_TAG, "authorization page ready" );
+				mPageFinished = true;
+				Metrics.recordAuthPhase( Metrics.PHASE_PAGE_LOAD, mPageStartTime );
+				mPageStartTime = 0;
+			}
+		} );
+	}
+
+	void setRequestToken( RequestToken requestToken ) {
+		mExpireTime = SystemClock.uptimeMillis() + REQUEST_TOKEN_TTL_MILLIS;
+		mRequestToken = requestToken;
+	}
+
+	/**
+	 * Returns the prefetched request token, or null if not yet available or expired.
+	 */
+	RequestToken getRequestToken() {
+		final RequestToken requestToken = mRequestToken;
+		return null != requestToken && !isExpired() ? requestToken : null;
+	}
+
+	boolean isExpired() {
+		return null != mRequestToken && SystemClock.uptimeMillis() >= mExpireTime;
+	}
+
+	/**
+	 * Returns true if this login can be used by a dialog created with the given context.
+	 */
+	boolean isUsableWith( Context context ) {
+		return !mReleased && !isExpired() && mContext.get() == context;
+	}
+
+	boolean isPageFinished() {
+		return mPageFinished;
+	}
+
+	/**
+	 * Start loading the authorization page, if not already done. Must be called on the main thread.
+	 */
+	void loadAuthorizationPage() {
+		final RequestToken requestToken = getRequestToken();
+		if ( !mReleased && null != requestToken && null == mWebView.getUrl() ) {
+			mWebView.loadUrl( requestToken.getAuthorizationURL() );
+		}
+	}
+
+	/**
+	 * Release the web view, if it has not been handed to a dialog. Must be called on the main thread.
+	 */
+	void release() {
+		if ( !mReleased ) {
+			mReleased = true;
+			mWebView.destroy();
+			mWebView = null;
+		}
+	}
+
+	/**
+	 * Mark this login as used by a dialog, which now owns the web view.
+	 *
+	 * @return the preloaded web view
+	 */
+	WebView consume() {
+		final WebView webView = mWebView;
+		mReleased = true;
+		mWebView = null;
+		mContext.clear();
+		return webView;
+	}
+}
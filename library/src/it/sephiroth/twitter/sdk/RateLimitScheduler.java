@@ -0,0 +1,246 @@
+package it.sephiroth.twitter.sdk;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import twitter4j.RateLimitStatus;
+import twitter4j.TwitterException;
+import twitter4j.TwitterResponse;
+import android.util.Log;
+
+/**
+ * Dispatches the sdk requests to the {@link TwitterExecutor} keeping track of the Twitter rate limits.<br />
+ * The remaining quota and the reset time of every resource are read from the {@link RateLimitStatus} attached to the
+ * responses and to the {@link TwitterException}s; the status doesn't name its resource, the caller passes it along. When a
+ * resource has no quota left its requests are delayed until the reset time; when the quota is running low the
+ * {@link TwitterExecutor#LANE_SYNC} requests are delayed, leaving the remaining calls to the user initiated ones. The quota
+ * is checked again when a delayed request is due, and the requests waiting for the same reset are spread over a few seconds
+ * after it instead of being sent together.
+ */
+public class RateLimitScheduler {
+
+	private static final String LOG_TAG = "RateLimitScheduler";
+
+	/*
+	 * Resources, named after the rate_limit_status paths. Every resource has its own quota: the timelines are limited
+	 * separately, and the write resources by the posting limits of the account.
+	 */
+	public static final String RESOURCE_USER_TIMELINE = "/statuses/user_timeline";
+	public static final String RESOURCE_HOME_TIMELINE = "/statuses/home_timeline";
+	public static final String RESOURCE_MENTIONS_TIMELINE = "/statuses/mentions_timeline";
+	public static final String RESOURCE_DIRECT_MESSAGES = "/direct_messages";
+	public static final String RESOURCE_VERIFY_CREDENTIALS = "/account/verify_credentials";
+	public static final String RESOURCE_STATUSES_UPDATE = "/statuses/update";
+	public static final String RESOURCE_STATUSES_RETWEET = "/statuses/retweet/:id";
+	public static final String RESOURCE_FAVORITES_CREATE = "/favorites/create";
+	public static final String RESOURCE_FAVORITES_DESTROY = "/favorites/destroy";
+
+	/** extra delay added to the reset time, to absorb the clock skew with the server */
+	private static final long RESET_SLACK_MILLIS = 1000;
+
+	/** max random delay added to the reset time, so that the delayed requests don't wake up together */
+	private static final int RESET_SPREAD_MILLIS = 5000;
+
+	/** first delay after a 429 response carrying neither a Retry-After nor the rate limit headers, doubled on every new one */
+	private static final long MIN_BACKOFF_MILLIS = 60 * 1000;
+
+	/** length of a rate limit window, the longest backoff */
+	private static final long WINDOW_MILLIS = 15 * 60 * 1000;
+
+	/** fraction of the quota reserved to the interactive lanes */
+	private static final int SYNC_RESERVE_DIVISOR = 10;
+
+	/**
+	 * Supplies the rate limits of the account the requests are currently made for.
+	 */
+	public static interface Provider {
+
+		public RateLimitScheduler get();
+	}
+
+	/**
+	 * Snapshot of the known quota of a resource.
+	 */
+	public static final class Budget {
+
+		private final int mLimit;
+		private final int mRemaining;
+		private final long mResetTime;
+
+		Budget( int limit, int remaining, long resetTime ) {
+			mLimit = limit;
+			mRemaining = remaining;
+			mResetTime = resetTime;
+		}
+
+		public int getLimit() {
+			return mLimit;
+		}
+
+		public int getRemaining() {
+			return mRemaining;
+		}
+
+		/**
+		 * Time of the next quota reset, in milliseconds since the epoch.
+		 */
+		public long getResetTime() {
+			return mResetTime;
+		}
+	}
+
+	private final TwitterExecutor mExecutor;
+	private final Map<String, Budget> mBudgets = new HashMap<String, Budget>();
+	/** consecutive 429 responses without a reset time, per resource. Guarded by mBudgets */
+	private final Map<String, Integer> mBackoffs = new HashMap<String, Integer>();
+	private final Random mRandom = new Random();
+
+	public RateLimitScheduler( TwitterExecutor executor ) {
+		mExecutor = executor;
+	}
+
+	/**
+	 * Queue a task in the given lane, now or as soon as the resource has enough quota.
+	 *
+	 * @return false if the task has been rejected by the executor. A delayed task can still be rejected once due, use
+	 *         {@link #execute(int, String, Runnable, Runnable)} to be notified
+	 */
+	public boolean execute( int lane, String resource, Runnable task ) {
+		return execute( lane, resource, task, null );
+	}
+
+	/**
+	 * Same as {@link #execute(int, String, Runnable)}, reporting the rejection of the task.
+	 *
+	 * @param onRejected
+	 *           invoked if the task is rejected by the executor, immediately on the calling thread or, for a delayed task,
+	 *           on the timer thread once due. Can be null
+	 * @return false if the task has been rejected immediately
+	 */
+	public boolean execute( final int lane, final String resource, final Runnable task, final Runnable onRejected ) {
+		final long delay = reserve( lane, resource );
+		if ( delay > 0 ) {
+			final long spread = delay + mRandom.nextInt( RESET_SPREAD_MILLIS );
+			Log.i( LOG_TAG, "delaying " + resource + " request by " + spread + "ms" );
+
+			// the quota is reserved again once due, another request may have used it in the meantime
+			return null != mExecutor.scheduleOnTimer( new Runnable() {
+
+				@Override
+				public void run() {
+					execute( lane, resource, task, onRejected );
+				}
+			}, spread, onRejected );
+		}
+
+		if ( mExecutor.execute( lane, task ) ) return true;
+
+		if ( null != onRejected ) {
+			onRejected.run();
+		}
+		return false;
+	}
+
+	/**
+	 * Returns the current known quota of the resource, or null if no response has been received yet.
+	 */
+	public Budget getBudget( String resource ) {
+		synchronized ( mBudgets ) {
+			Budget budget = mBudgets.get( resource );
+			if ( null != budget && budget.getResetTime() <= System.currentTimeMillis() ) {
+				// the window has been reset since the last response
+				return new Budget( budget.getLimit(), budget.getLimit(), 0 );
+			}
+			return budget;
+		}
+	}
+
+	/**
+	 * Update the resource quota with the rate limit status of a response.
+	 */
+	public void update( String resource, TwitterResponse response ) {
+		if ( null != response ) {
+			synchronized ( mBudgets ) {
+				mBackoffs.remove( resource );
+			}
+			update( resource, response.getRateLimitStatus() );
+		}
+	}
+
+	/**
+	 * Update the resource quota after a failed request. A rate limited request with no known reset time blocks the resource
+	 * for a minute, doubled on every following one up to a whole window.
+	 */
+	public void update( String resource, TwitterException exception ) {
+		update( resource, exception.getRateLimitStatus() );
+
+		if ( exception.exceededRateLimitation() ) {
+			final long now = System.currentTimeMillis();
+			long resetTime = now + Math.max( exception.getRetryAfter(), 0 ) * 1000L;
+
+			synchronized ( mBudgets ) {
+				Budget budget = mBudgets.get( resource );
+				if ( null != budget ) {
+					resetTime = Math.max( resetTime, budget.getResetTime() );
+				}
+				if ( resetTime <= now ) {
+					final Integer backoffs = mBackoffs.get( resource );
+					final int count = null != backoffs ? backoffs : 0;
+					resetTime = now + Math.min( MIN_BACKOFF_MILLIS << Math.min( count, 4 ), WINDOW_MILLIS );
+					mBackoffs.put( resource, count + 1 );
+					Log.w( LOG_TAG, "rate limited without a reset time, backing off " + resource + " by " + ( resetTime - now )
+							+ "ms" );
+				}
+				mBudgets.put( resource, new Budget( null != budget ? budget.getLimit() : 0, 0, resetTime ) );
+			}
+		}
+	}
+
+	public void clear() {
+		synchronized ( mBudgets ) {
+			mBudgets.clear();
+			mBackoffs.clear();
+		}
+	}
+
+	private void update( String resource, RateLimitStatus status ) {
+		if ( null == status ) return;
+
+		synchronized ( mBudgets ) {
+			mBudgets.put( resource, new Budget( status.getLimit(), status.getRemaining(), status.getResetTimeInSeconds() * 1000L ) );
+		}
+	}
+
+	/**
+	 * Number of calls of a quota which the {@link TwitterExecutor#LANE_SYNC} requests leave to the interactive ones.
+	 */
+	static int getSyncReserve( int limit ) {
+		return Math.max( 1, limit / SYNC_RESERVE_DIVISOR );
+	}
+
+	/**
+	 * Returns the delay before the task can be dispatched, or 0 if it can be dispatched now. In the latter case one call is
+	 * taken from the resource quota, until the next response reports the real value.
+	 */
+	private long reserve( int lane, String resource ) {
+		synchronized ( mBudgets ) {
+			Budget budget = mBudgets.get( resource );
+			if ( null == budget ) return 0;
+
+			final long now = System.currentTimeMillis();
+			if ( budget.getResetTime() <= now ) {
+				mBudgets.remove( resource );
+				return 0;
+			}
+
+			final int reserve = lane == TwitterExecutor.LANE_SYNC ? getSyncReserve( budget.getLimit() ) : 0;
+
+			if ( budget.getRemaining() <= reserve ) {
+				return budget.getResetTime() - now + RESET_SLACK_MILLIS;
+			}
+
+			mBudgets.put( resource, new Budget( budget.getLimit(), budget.getRemaining() - 1, budget.getResetTime() ) );
+			return 0;
+		}
+	}
+}
@@ -0,0 +1,294 @@
+package it.sephiroth.twitter.sdk;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import twitter4j.TwitterException;
+import android.os.SystemClock;
+import android.util.Log;
+
+/**
+ * Merges concurrent identical requests into a single network call.<br />
+ * Requests are identified by a key: while a request is running every other call with the same key is attached to it and
+ * receives the same result. A successful result of a reusable request is also kept for a short time and used to answer the
+ * calls made right after the request completed. Requests returning the changes since the previous call, like the newer
+ * statuses of a timeline, must not be reusable: a later caller would receive again the changes already delivered.<br />
+ * Every call has its own {@link RequestHandle}: a cancelled call is detached from the request, which is aborted once all its
+ * calls have been cancelled.
+ */
+public class RequestCoalescer<T> {
+
+	private static final String LOG_TAG = "RequestCoalescer";
+
+	public static interface Request<T> {
+
+		public T execute() throws TwitterException;
+	}
+
+	/**
+	 * Receives the result of a request. Methods are invoked on the worker thread which executed the request, or on the caller
+	 * thread when the result is served from the recently completed requests.
+	 */
+	public static interface Listener<T> {
+
+		public void onResult( T result );
+
+		public void onError( TwitterException exception );
+	}
+
+	private static final class Attached<T> {
+
+		final Listener<T> listener;
+		final RequestHandle handle;
+
+		Attached( Listener<T> listener, RequestHandle handle ) {
+			this.listener = listener;
+			this.handle = handle;
+		}
+	}
+
+	private final class Call implements Runnable {
+
+		final String key;
+		final Request<T> request;
+		final boolean reusable;
+		final List<Attached<T>> listeners = new ArrayList<Attached<T>>( 2 );
+		/** handle of the network request, cancelled when all the listeners are */
+		final RequestHandle handle = new RequestHandle();
+		boolean done;
+		T result;
+		long completedAt;
+
+		Call( String key, Request<T> request, boolean reusable ) {
+			this.key = key;
+			this.request = request;
+			this.reusable = reusable;
+		}
+
+		@Override
+		public void run() {
+			if ( handle.isCancelled() ) {
+				complete( this, null, new TwitterException( "request cancelled: " + key ) );
+				return;
+			}
+
+			RequestHandle.bind( handle );
+			try {
+				complete( this, request.execute(), null );
+			} catch ( TwitterException e ) {
+				complete( this, null, e );
+			} finally {
+				RequestHandle.unbind();
+				handle.finish();
+			}
+		}
+	}
+
+	private final long mTtlMillis;
+	private final Map<String, Call> mCalls = new HashMap<String, Call>();
+
+	/**
+	 * @param ttlMillis
+	 *           how long a successful result is reused for calls with the same key. 0 to only merge concurrent calls
+	 */
+	public RequestCoalescer( long ttlMillis ) {
+		mTtlMillis = ttlMillis;
+	}
+
+	/**
+	 * Execute the request in the given executor lane, unless an identical request is already running or has just completed.
+	 *
+	 * @param resource
+	 *           the {@link RateLimitScheduler} resource of the request
+	 * @return false if the request has been rejected immediately by the executor. The listener is notified with an error
+	 *         whenever the request is rejected, also if it has been delayed by the rate limits
+	 */
+	public boolean execute( RateLimitScheduler scheduler, int lane, String resource, String key, Request<T> request,
+			Listener<T> listener ) {
+		return execute( scheduler, lane, resource, key, request, listener, new RequestHandle(), true );
+	}
+
+	/**
+	 * Same as {@link #execute(RateLimitScheduler, int, String, String, Request, Listener)}. Once the handle is cancelled the
+	 * listener is not notified anymore.
+	 *
+	 * @param reusable
+	 *           false to only merge the concurrent calls, the result is never reused once delivered
+	 */
+	boolean execute( RateLimitScheduler scheduler, int lane, String resource, String key, Request<T> request,
+			Listener<T> listener, RequestHandle handle, boolean reusable ) {
+		final Attached<T> attached = new Attached<T>( listener, handle );
+		Call call;
+		T recent = null;
+		boolean reuse = false;
+
+		synchronized ( mCalls ) {
+			final long now = SystemClock.uptimeMillis();
+			call = mCalls.get( key );
+
+			if ( null != call && !call.done ) {
+				Log.d( LOG_TAG, "attached to running request: " + key );
+				call.listeners.add( attached );
+				setOnCancel( call, attached );
+				return true;
+			} else if ( null != call && now - call.completedAt < mTtlMillis ) {
+				Log.d( LOG_TAG, "reusing recent result: " + key );
+				recent = call.result;
+				reuse = true;
+			} else {
+				removeExpired( now );
+				call = new Call( key, request, reusable );
+				call.listeners.add( attached );
+				mCalls.put( key, call );
+			}
+		}
+
+		if ( reuse ) {
+			if ( !handle.isCancelled() ) listener.onResult( recent );
+			return true;
+		}
+
+		setOnCancel( call, attached );
+
+		final Call scheduled = call;
+		return scheduler.execute( lane, resource, scheduled, new Runnable() {
+
+			@Override
+			public void run() {
+				complete( scheduled, null, new TwitterException( "request rejected: " + scheduled.key ) );
+			}
+		} );
+	}
+
+	/**
+	 * Same as {@link #execute(RateLimitScheduler, int, String, String, Request, Listener, RequestHandle, boolean)}, for the
+	 * callers already running on an executor lane within the rate limits: a new request is executed on the calling thread,
+	 * otherwise the listener is attached to the identical running request and the method returns right away. The listener
+	 * is always notified once, with an error if the handle is cancelled.
+	 */
+	void executeNow( String key, Request<T> request, final Listener<T> listener, RequestHandle handle, boolean reusable ) {
+		final Attached<T> attached = new Attached<T>( listener, handle );
+		final Call call;
+		final boolean created;
+		T recent = null;
+
+		synchronized ( mCalls ) {
+			final long now = SystemClock.uptimeMillis();
+			Call current = mCalls.get( key );
+
+			if ( null != current && !current.done ) {
+				Log.d( LOG_TAG, "attached to running request: " + key );
+				call = current;
+				created = false;
+				call.listeners.add( attached );
+			} else if ( null != current && now - current.completedAt < mTtlMillis ) {
+				Log.d( LOG_TAG, "reusing recent result: " + key );
+				call = null;
+				created = false;
+				recent = current.result;
+			} else {
+				removeExpired( now );
+				call = new Call( key, request, reusable );
+				mCalls.put( key, call );
+				created = true;
+				call.listeners.add( attached );
+			}
+		}
+
+		if ( null == call ) {
+			listener.onResult( recent );
+			return;
+		}
+
+		handle.setOnCancel( new Runnable() {
+
+			@Override
+			public void run() {
+				detach( call, attached );
+				listener.onError( new TwitterException( "request cancelled: " + call.key ) );
+			}
+		} );
+
+		if ( created ) call.run();
+	}
+
+	/**
+	 * Forget all the recent results. Running requests are not affected.
+	 */
+	public void clear() {
+		synchronized ( mCalls ) {
+			Iterator<Call> iterator = mCalls.values().iterator();
+			while ( iterator.hasNext() ) {
+				if ( iterator.next().done ) {
+					iterator.remove();
+				}
+			}
+		}
+	}
+
+	private void setOnCancel( final Call call, final Attached<T> attached ) {
+		attached.handle.setOnCancel( new Runnable() {
+
+			@Override
+			public void run() {
+				detach( call, attached );
+			}
+		} );
+	}
+
+	/**
+	 * Detach a cancelled listener, and abort the request if it was the last one.
+	 */
+	private void detach( Call call, Attached<T> attached ) {
+		synchronized ( mCalls ) {
+			if ( call.done || !call.listeners.remove( attached ) || !call.listeners.isEmpty() ) return;
+
+			Log.d( LOG_TAG, "all the listeners cancelled: " + call.key );
+			if ( mCalls.get( call.key ) == call ) {
+				mCalls.remove( call.key );
+			}
+		}
+		call.handle.cancel();
+	}
+
+	private void complete( Call call, T result, TwitterException exception ) {
+		List<Attached<T>> listeners;
+
+		synchronized ( mCalls ) {
+			if ( call.done ) return;
+			call.done = true;
+			call.result = result;
+			call.completedAt = SystemClock.uptimeMillis();
+			listeners = new ArrayList<Attached<T>>( call.listeners );
+			call.listeners.clear();
+
+			if ( null != exception || mTtlMillis <= 0 || !call.reusable ) {
+				if ( mCalls.get( call.key ) == call ) {
+					mCalls.remove( call.key );
+				}
+			}
+		}
+
+		for ( Attached<T> attached : listeners ) {
+			if ( attached.handle.isCancelled() ) continue;
+
+			if ( null != exception ) {
+				attached.listener.onError( exception );
+			} else {
+				attached.listener.onResult( result );
+			}
+		}
+	}
+
+	private void removeExpired( long now ) {
+		Iterator<Call> iterator = mCalls.values().iterator();
+		while ( iterator.hasNext() ) {
+			Call call = iterator.next();
+			if ( call.done && now - call.completedAt >= mTtlMillis ) {
+				iterator.remove();
+			}
+		}
+	}
+}
@@ -0,0 +1,230 @@
+package it.sephiroth.twitter.sdk;
+
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Handle of an asynchronous operation, used to cancel it.<br />
+ * Once cancelled the callbacks of the operation are not invoked anymore, the work not yet started is skipped and the HTTP
+ * connections in progress are aborted: the worker threads bind the handle while calling twitter4j, and the
+ * {@link SharedHttpClient} transport attaches every connection it opens to the handle bound to the calling thread.<br />
+ * {@link #cancel()} never blocks: closing a connection may wait on the network, so the aborted connections are
+ * disconnected on a background thread.
+ */
+public final class RequestHandle {
+
+	private static final ThreadLocal<RequestHandle> sCurrent = new ThreadLocal<RequestHandle>();
+
+	private static final long DISCONNECT_KEEP_ALIVE_SECONDS = 30;
+
+	/** single thread disconnecting the aborted connections, in the order they have been cancelled */
+	private static final ThreadPoolExecutor sDisconnector = new ThreadPoolExecutor( 1, 1, DISCONNECT_KEEP_ALIVE_SECONDS,
+			TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+
+				@Override
+				public Thread newThread( Runnable runnable ) {
+					Thread thread = new Thread( runnable, "TwitterAndroidSDK-disconnect" );
+					thread.setDaemon( true );
+					return thread;
+				}
+			} );
+
+	static {
+		sDisconnector.allowCoreThreadTimeOut( true );
+	}
+
+	private final List<HttpURLConnection> mConnections = new ArrayList<HttpURLConnection>( 1 );
+	private final List<RequestHandle> mChildren = new ArrayList<RequestHandle>( 1 );
+	/** the scopes holding the handle, typically the session one and the caller one */
+	private final List<RequestScope> mScopes = new ArrayList<RequestScope>( 2 );
+	private Runnable mOnCancel;
+	private boolean mCancelled;
+	private boolean mDone;
+
+	RequestHandle() {}
+
+	/**
+	 * Cancel the operation. Does nothing if already completed or cancelled.<br />
+	 * The handle is cancelled and the callbacks skipped right away, the connections in progress are disconnected in
+	 * background.
+	 */
+	public void cancel() {
+		final List<HttpURLConnection> connections;
+		final List<RequestHandle> children;
+		final Runnable onCancel;
+		final List<RequestScope> scopes;
+
+		synchronized ( this ) {
+			if ( mCancelled || mDone ) return;
+			mCancelled = true;
+			connections = new ArrayList<HttpURLConnection>( mConnections );
+			children = new ArrayList<RequestHandle>( mChildren );
+			mConnections.clear();
+			mChildren.clear();
+			onCancel = mOnCancel;
+			mOnCancel = null;
+			scopes = removeScopes();
+		}
+
+		for ( RequestScope scope : scopes ) {
+			scope.remove( this );
+		}
+		for ( RequestHandle child : children ) {
+			child.cancel();
+		}
+		if ( null != onCancel ) {
+			onCancel.run();
+		}
+		if ( !connections.isEmpty() ) {
+			disconnect( connections );
+		}
+	}
+
+	private static void disconnect( final List<HttpURLConnection> connections ) {
+		sDisconnector.execute( new Runnable() {
+
+			@Override
+			public void run() {
+				for ( HttpURLConnection connection : connections ) {
+					// aborts the request, the blocked reads fail with an IOException
+					connection.disconnect();
+				}
+			}
+		} );
+	}
+
+	public synchronized boolean isCancelled() {
+		return mCancelled;
+	}
+
+	/**
+	 * Returns true once the operation completed, successfully or not, or has been cancelled.
+	 */
+	public synchronized boolean isDone() {
+		return mDone || mCancelled;
+	}
+
+	/**
+	 * Mark the operation as completed: later calls to {@link #cancel()} do nothing.
+	 */
+	void finish() {
+		final List<RequestScope> scopes;
+		synchronized ( this ) {
+			if ( mDone || mCancelled ) return;
+			mDone = true;
+			mConnections.clear();
+			mChildren.clear();
+			mOnCancel = null;
+			scopes = removeScopes();
+		}
+		for ( RequestScope scope : scopes ) {
+			scope.remove( this );
+		}
+	}
+
+	/**
+	 * Must be called holding the lock.
+	 */
+	private List<RequestScope> removeScopes() {
+		final List<RequestScope> scopes = new ArrayList<RequestScope>( mScopes );
+		mScopes.clear();
+		return scopes;
+	}
+
+	/**
+	 * Set the action invoked on {@link #cancel()}, immediately if already cancelled.
+	 */
+	void setOnCancel( Runnable onCancel ) {
+		synchronized ( this ) {
+			if ( !mCancelled ) {
+				if ( !mDone ) mOnCancel = onCancel;
+				return;
+			}
+		}
+		onCancel.run();
+	}
+
+	/**
+	 * Cancel the given handle together with this one.
+	 */
+	void link( RequestHandle child ) {
+		synchronized ( this ) {
+			if ( !mCancelled ) {
+				if ( !mDone ) mChildren.add( child );
+				return;
+			}
+		}
+		child.cancel();
+	}
+
+	/**
+	 * Add the scope to the ones holding the handle, which leaves all of them once done.
+	 *
+	 * @return false if the handle is already done
+	 */
+	synchronized boolean addScope( RequestScope scope ) {
+		if ( mDone || mCancelled ) return false;
+		if ( !mScopes.contains( scope ) ) mScopes.add( scope );
+		return true;
+	}
+
+	/**
+	 * Abort the connection if the handle is cancelled. Called by the transport before the connection is opened.
+	 *
+	 * @throws IOException
+	 *            if the handle has already been cancelled
+	 */
+	synchronized void attach( HttpURLConnection connection ) throws IOException {
+		if ( mCancelled ) throw new IOException( "request cancelled" );
+		if ( !mDone ) mConnections.add( connection );
+	}
+
+	/**
+	 * Called by the transport once the response has been read.
+	 */
+	synchronized void detach( HttpURLConnection connection ) {
+		mConnections.remove( connection );
+	}
+
+	/**
+	 * Returns a task running the given one with this handle bound to the worker thread. The task is skipped if the handle is
+	 * cancelled before it starts.
+	 */
+	Runnable wrap( final Runnable task ) {
+		return new Runnable() {
+
+			@Override
+			public void run() {
+				if ( isCancelled() ) return;
+
+				bind( RequestHandle.this );
+				try {
+					task.run();
+				} finally {
+					unbind();
+				}
+			}
+		};
+	}
+
+	/**
+	 * Bind the handle to the current thread, until {@link #unbind()}.
+	 */
+	static void bind( RequestHandle handle ) {
+		sCurrent.set( handle );
+	}
+
+	static void unbind() {
+		sCurrent.remove();
+	}
+
+	static RequestHandle getCurrent() {
+		return sCurrent.get();
+	}
+}
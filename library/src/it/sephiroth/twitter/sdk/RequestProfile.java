@@ -0,0 +1,155 @@
+package it.sephiroth.twitter.sdk;
+
+import twitter4j.internal.http.HttpRequest;
+import twitter4j.internal.http.RequestMethod;
+
+/**
+ * Shape of the timeline requests: how many statuses and which parts of them the server should return.<br />
+ * twitter4j only exposes these parameters through the {@link twitter4j.conf.Configuration}, globally, or not at all. The
+ * profile is instead applied per request by the {@link SharedHttpClient} transport, which rewrites the query parameters of
+ * the timeline calls made while the profile is active on the calling thread. Requires the shared transport to be installed.
+ */
+public final class RequestProfile {
+
+	private static final String PARAM_COUNT = "count";
+	private static final String PARAM_TRIM_USER = "trim_user";
+	private static final String PARAM_INCLUDE_ENTITIES = "include_entities";
+	private static final String PARAM_EXCLUDE_REPLIES = "exclude_replies";
+	private static final String PARAM_INCLUDE_RTS = "include_rts";
+
+	private static final String TIMELINE_PATH = "/statuses/";
+	private static final String TIMELINE_SUFFIX = "_timeline.json";
+
+	private static final ThreadLocal<RequestProfile> sCurrent = new ThreadLocal<RequestProfile>();
+
+	/**
+	 * Full statuses, as returned by the server by default.
+	 */
+	public static final RequestProfile FULL = new RequestProfile( 0, false, true, false, true );
+
+	/**
+	 * Statuses without entities and with the user reduced to its id. Users can be read from the user cache, see
+	 * {@link TwitterAndroid#getUser(long)}.
+	 */
+	public static final RequestProfile LIGHT = new RequestProfile( 0, true, false, false, true );
+
+	private final int mCount;
+	private final boolean mTrimUser;
+	private final boolean mIncludeEntities;
+	private final boolean mExcludeReplies;
+	private final boolean mIncludeRts;
+
+	/**
+	 * @param count
+	 *           number of statuses per page, 0 to use the count of the timeline method
+	 * @param trimUser
+	 *           return only the user id instead of the full user object
+	 * @param includeEntities
+	 *           return the hashtags, mentions, urls and media entities
+	 * @param excludeReplies
+	 *           drop the replies from the result. The filter is applied after count, so less statuses may be returned
+	 * @param includeRts
+	 *           include the native retweets
+	 */
+	public RequestProfile( int count, boolean trimUser, boolean includeEntities, boolean excludeReplies, boolean includeRts ) {
+		if ( count < 0 ) throw new IllegalArgumentException( "count must be >= 0" );
+		mCount = count;
+		mTrimUser = trimUser;
+		mIncludeEntities = includeEntities;
+		mExcludeReplies = excludeReplies;
+		mIncludeRts = includeRts;
+	}
+
+	public int getCount() {
+		return mCount;
+	}
+
+	public boolean isTrimUser() {
+		return mTrimUser;
+	}
+
+	public boolean isIncludeEntities() {
+		return mIncludeEntities;
+	}
+
+	public boolean isExcludeReplies() {
+		return mExcludeReplies;
+	}
+
+	public boolean isIncludeRts() {
+		return mIncludeRts;
+	}
+
+	/**
+	 * Returns true if the statuses are returned in full, as with the default parameters.
+	 */
+	public boolean isFull() {
+		return !mTrimUser && mIncludeEntities && !mExcludeReplies && mIncludeRts;
+	}
+
+	/**
+	 * Key identifying the profile, used to coalesce identical requests.
+	 */
+	String getKey() {
+		return mCount + ( mTrimUser ? "t" : "" ) + ( mIncludeEntities ? "e" : "" ) + ( mExcludeReplies ? "x" : "" )
+				+ ( mIncludeRts ? "r" : "" );
+	}
+
+	/**
+	 * Make the profile active for the twitter4j calls made by the current thread, until {@link #clearCurrent()}.
+	 */
+	static void setCurrent( RequestProfile profile ) {
+		sCurrent.set( profile );
+	}
+
+	static void clearCurrent() {
+		sCurrent.remove();
+	}
+
+	static RequestProfile getCurrent() {
+		return sCurrent.get();
+	}
+
+	/**
+	 * Returns the request with the profile parameters, or the same request if it's not a timeline request.<br />
+	 * twitter4j moves the parameters of the GET requests into the url, the query string is rewritten.
+	 */
+	HttpRequest apply( HttpRequest request ) {
+		final String url = request.getURL();
+		if ( request.getMethod() != RequestMethod.GET || null == url ) return request;
+
+		final int query = url.indexOf( '?' );
+		final String path = query < 0 ? url : url.substring( 0, query );
+		if ( !path.contains( TIMELINE_PATH ) || !path.endsWith( TIMELINE_SUFFIX ) ) return request;
+
+		StringBuilder builder = new StringBuilder( url.length() + 96 ).append( path ).append( '?' );
+		if ( query >= 0 ) {
+			for ( String parameter : url.substring( query + 1 ).split( "&" ) ) {
+				final int equals = parameter.indexOf( '=' );
+				final String name = equals < 0 ? parameter : parameter.substring( 0, equals );
+				if ( name.length() == 0 || PARAM_TRIM_USER.equals( name ) || PARAM_INCLUDE_ENTITIES.equals( name )
+						|| PARAM_EXCLUDE_REPLIES.equals( name ) || PARAM_INCLUDE_RTS.equals( name )
+						|| ( mCount > 0 && PARAM_COUNT.equals( name ) ) ) {
+					continue;
+				}
+				builder.append( parameter ).append( '&' );
+			}
+		}
+
+		if ( mCount > 0 ) {
+			append( builder, PARAM_COUNT, String.valueOf( mCount ) );
+		}
+		append( builder, PARAM_TRIM_USER, String.valueOf( mTrimUser ) );
+		append( builder, PARAM_INCLUDE_ENTITIES, String.valueOf( mIncludeEntities ) );
+		append( builder, PARAM_EXCLUDE_REPLIES, String.valueOf( mExcludeReplies ) );
+		append( builder, PARAM_INCLUDE_RTS, String.valueOf( mIncludeRts ) );
+		builder.setLength( builder.length() - 1 );
+
+		return new HttpRequest( request.getMethod(), builder.toString(), null, request.getAuthorization(),
+				request.getRequestHeaders() );
+	}
+
+	private static void append( StringBuilder builder, String name, String value ) {
+		builder.append( name ).append( '=' ).append( value ).append( '&' );
+	}
+}
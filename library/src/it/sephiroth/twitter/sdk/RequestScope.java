@@ -0,0 +1,70 @@
+package it.sephiroth.twitter.sdk;
+
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Group of {@link RequestHandle}s cancelled together, typically bound to the lifecycle of an Activity or a Fragment:
+ *
+ * <pre>
+ * scope.add( twitter.refreshTimeline( callback ) );
+ * ...
+ * protected void onDestroy() {
+ * 	scope.cancelAll();
+ * }
+ * </pre>
+ *
+ * Completed handles leave the scope by themselves. A handle can belong to several scopes at once, the ones returned by
+ * {@link TwitterAndroid} are already held by the scope of the session. The scope can be used again after {@link #cancelAll()}.
+ */
+public class RequestScope {
+
+	private final Set<RequestHandle> mHandles = new LinkedHashSet<RequestHandle>();
+
+	/**
+	 * Add the handle to the scope, does nothing if null or already done.
+	 *
+	 * @return the same handle
+	 */
+	public RequestHandle add( RequestHandle handle ) {
+		if ( null == handle ) return null;
+
+		synchronized ( mHandles ) {
+			if ( handle.addScope( this ) ) {
+				mHandles.add( handle );
+			}
+		}
+		return handle;
+	}
+
+	/**
+	 * Cancel all the operations in progress.
+	 */
+	public void cancelAll() {
+		final List<RequestHandle> handles;
+		synchronized ( mHandles ) {
+			handles = new ArrayList<RequestHandle>( mHandles );
+			mHandles.clear();
+		}
+		for ( RequestHandle handle : handles ) {
+			handle.cancel();
+		}
+	}
+
+	/**
+	 * Number of operations in progress.
+	 */
+	public int size() {
+		synchronized ( mHandles ) {
+			return mHandles.size();
+		}
+	}
+
+	void remove( RequestHandle handle ) {
+		synchronized ( mHandles ) {
+			mHandles.remove( handle );
+		}
+	}
+}
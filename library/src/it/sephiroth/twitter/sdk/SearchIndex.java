@@ -0,0 +1,433 @@
+package it.sephiroth.twitter.sdk;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+/**
+ * In memory inverted index of the statuses held by a {@link StatusCache}.<br />
+ * Registered as the cache {@link StatusCache.Listener}, the index is updated on every status added, evicted or removed, so
+ * it always covers exactly the cached statuses. Indexed terms are:
+ * <ul>
+ * <li>the words of the text, lower case</li>
+ * <li>the hashtags, as <code>#tag</code></li>
+ * <li>the mentioned users, as <code>@screen_name</code></li>
+ * <li>the hosts of the links, as <code>host:example.com</code></li>
+ * </ul>
+ * A query is a list of terms which must all match; <code>OR</code> separates alternative lists. A term ending with
+ * <code>*</code> matches all the terms starting with it, for instance <code>andr* #sdk OR @twitter</code>.<br />
+ * Postings are kept as sorted arrays of status ids, so a query is a few binary searches and linear merges. The postings of
+ * every status are remembered as well, so that removing it doesn't need to parse its text again.
+ */
+public class SearchIndex implements StatusCache.Listener {
+
+	private static final String OPERATOR_OR = "OR";
+	private static final String HOST_PREFIX = "host:";
+	private static final int MIN_WORD_LENGTH = 2;
+
+	private static final long[] EMPTY = new long[0];
+
+	/**
+	 * Sorted set of status ids.
+	 */
+	private static final class Postings {
+
+		final String term;
+		long[] ids = new long[4];
+		int size;
+
+		Postings( String term ) {
+			this.term = term;
+		}
+
+		void add( long id ) {
+			// new statuses have the highest ids, appending is the common case
+			if ( size == 0 || ids[size - 1] < id ) {
+				ensureCapacity();
+				ids[size++] = id;
+				return;
+			}
+
+			int index = binarySearch( ids, size, id );
+			if ( index >= 0 ) return;
+			index = -index - 1;
+			ensureCapacity();
+			System.arraycopy( ids, index, ids, index + 1, size - index );
+			ids[index] = id;
+			size++;
+		}
+
+		void remove( long id ) {
+			final int index = binarySearch( ids, size, id );
+			if ( index < 0 ) return;
+			System.arraycopy( ids, index + 1, ids, index, size - index - 1 );
+			size--;
+		}
+
+		private void ensureCapacity() {
+			if ( size == ids.length ) {
+				long[] grown = new long[ids.length * 2];
+				System.arraycopy( ids, 0, grown, 0, size );
+				ids = grown;
+			}
+		}
+	}
+
+	private final TreeMap<String, Postings> mTerms = new TreeMap<String, Postings>();
+	/** postings of every indexed status, by status id */
+	private final LongHashMap<Postings[]> mDocuments = new LongHashMap<Postings[]>();
+
+	@Override
+	public void onStatusAdded( CompactStatus status ) {
+		final long id = status.getId();
+		// the text is decoded and tokenized before taking the lock, the queries only wait for the postings update
+		final Set<String> terms = getTerms( status );
+
+		synchronized ( this ) {
+			removeDocument( id );
+
+			final Postings[] document = new Postings[terms.size()];
+			int index = 0;
+			for ( String term : terms ) {
+				Postings postings = mTerms.get( term );
+				if ( null == postings ) {
+					postings = new Postings( term );
+					mTerms.put( term, postings );
+				}
+				postings.add( id );
+				document[index++] = postings;
+			}
+			mDocuments.put( id, document );
+		}
+	}
+
+	@Override
+	public synchronized void onStatusRemoved( CompactStatus status ) {
+		removeDocument( status.getId() );
+	}
+
+	@Override
+	public synchronized void onCleared() {
+		mTerms.clear();
+		mDocuments.clear();
+	}
+
+	/**
+	 * Number of indexed statuses.
+	 */
+	public synchronized int getDocumentCount() {
+		return mDocuments.size();
+	}
+
+	/**
+	 * Number of distinct indexed terms.
+	 */
+	public synchronized int getTermCount() {
+		return mTerms.size();
+	}
+
+	/**
+	 * Returns the ids of the statuses matching the query, newest first.
+	 *
+	 * @param limit
+	 *           max number of ids returned
+	 */
+	public synchronized long[] search( String query, int limit ) {
+		long[] result = EMPTY;
+		List<String> clause = new ArrayList<String>();
+
+		for ( String token : query.trim().split( "\\s+" ) ) {
+			if ( OPERATOR_OR.equals( token ) ) {
+				result = union( result, result.length, evaluate( clause, limit ) );
+				clause.clear();
+			} else if ( token.length() > 0 ) {
+				clause.add( token );
+			}
+		}
+		result = union( result, result.length, evaluate( clause, limit ) );
+
+		final int count = Math.min( limit, result.length );
+		long[] newest = new long[count];
+		for ( int i = 0; i < count; i++ ) {
+			newest[i] = result[result.length - 1 - i];
+		}
+		return newest;
+	}
+
+	private void removeDocument( long id ) {
+		final Postings[] document = mDocuments.remove( id );
+		if ( null == document ) return;
+
+		for ( Postings postings : document ) {
+			postings.remove( id );
+			if ( postings.size == 0 ) {
+				mTerms.remove( postings.term );
+			}
+		}
+	}
+
+	/**
+	 * Intersection of the postings of all the terms of a clause.
+	 *
+	 * @param limit
+	 *           only the newest ids are needed
+	 */
+	private long[] evaluate( List<String> clause, int limit ) {
+		List<String> terms = new ArrayList<String>();
+		for ( String token : clause ) {
+			terms.addAll( parseQueryTerm( token ) );
+		}
+
+		if ( terms.isEmpty() ) return EMPTY;
+		if ( terms.size() == 1 ) return lookup( terms.get( 0 ), limit );
+
+		List<long[]> lists = new ArrayList<long[]>( terms.size() );
+		for ( String term : terms ) {
+			final long[] ids = lookup( term, Integer.MAX_VALUE );
+			if ( ids.length == 0 ) return EMPTY;
+			lists.add( ids );
+		}
+
+		// intersect starting from the shortest lists, so the intermediate results stay small
+		long[][] sorted = lists.toArray( new long[lists.size()][] );
+		Arrays.sort( sorted, new Comparator<long[]>() {
+
+			@Override
+			public int compare( long[] lhs, long[] rhs ) {
+				return lhs.length - rhs.length;
+			}
+		} );
+
+		long[] result = sorted[0];
+		for ( int i = 1; i < sorted.length && result.length > 0; i++ ) {
+			result = intersect( result, sorted[i] );
+		}
+		return result;
+	}
+
+	/**
+	 * Returns the newest ids matching a single term, or all the terms starting with it when it ends with a '*'.
+	 */
+	private long[] lookup( String term, int limit ) {
+		if ( term.endsWith( "*" ) ) {
+			final String prefix = term.substring( 0, term.length() - 1 );
+			if ( prefix.length() == 0 ) return EMPTY;
+
+			// concatenate the postings of all the matching terms, then sort once: pairwise unions would be quadratic with
+			// short prefixes matching many terms
+			SortedMap<String, Postings> range = mTerms.subMap( prefix, prefix + Character.MAX_VALUE );
+			int total = 0;
+			for ( Postings postings : range.values() ) {
+				total += Math.min( postings.size, limit );
+			}
+
+			long[] result = new long[total];
+			int offset = 0;
+			for ( Postings postings : range.values() ) {
+				final int count = Math.min( postings.size, limit );
+				System.arraycopy( postings.ids, postings.size - count, result, offset, count );
+				offset += count;
+			}
+
+			if ( range.size() > 1 ) {
+				Arrays.sort( result );
+				int count = 0;
+				for ( int i = 0; i < total; i++ ) {
+					if ( count == 0 || result[count - 1] != result[i] ) {
+						result[count++] = result[i];
+					}
+				}
+				result = trim( result, count );
+			}
+			return result;
+		}
+
+		Postings postings = mTerms.get( term );
+		if ( null == postings ) return EMPTY;
+
+		final int count = Math.min( postings.size, limit );
+		long[] result = new long[count];
+		System.arraycopy( postings.ids, postings.size - count, result, 0, count );
+		return result;
+	}
+
+	/**
+	 * Normalize a query token into the indexed terms it must match. Words shorter than the indexed ones are dropped, except a
+	 * prefix, which matches the longer words.
+	 */
+	private static List<String> parseQueryTerm( String token ) {
+		List<String> result = new ArrayList<String>( 1 );
+		final String lower = token.toLowerCase( Locale.US );
+
+		if ( lower.startsWith( "#" ) || lower.startsWith( "@" ) || lower.startsWith( HOST_PREFIX ) ) {
+			if ( lower.length() > 1 ) {
+				result.add( lower );
+			}
+			return result;
+		}
+
+		final boolean prefix = lower.endsWith( "*" );
+		tokenize( prefix ? lower.substring( 0, lower.length() - 1 ) : lower, result, 1 );
+
+		final int last = result.size() - 1;
+		for ( int i = last; i >= 0; i-- ) {
+			if ( prefix && i == last ) {
+				result.set( i, result.get( i ) + "*" );
+			} else if ( result.get( i ).length() < MIN_WORD_LENGTH ) {
+				result.remove( i );
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Returns the distinct terms of a status.
+	 */
+	static Set<String> getTerms( CompactStatus status ) {
+		Set<String> terms = new HashSet<String>();
+		List<String> words = new ArrayList<String>();
+
+		// decoded once for the words and the entities
+		final String text = status.getText();
+		for ( String chunk : text.split( "\\s+" ) ) {
+			// links are indexed by host only
+			if ( chunk.startsWith( "http://" ) || chunk.startsWith( "https://" ) ) continue;
+			tokenize( chunk.toLowerCase( Locale.US ), words, MIN_WORD_LENGTH );
+		}
+		terms.addAll( words );
+
+		for ( int i = 0; i < status.getEntityCount(); i++ ) {
+			final String value = status.getEntityValue( i, text );
+			switch ( status.getEntityType( i ) ) {
+				case CompactStatus.ENTITY_HASHTAG:
+					terms.add( "#" + value.toLowerCase( Locale.US ) );
+					break;
+
+				case CompactStatus.ENTITY_MENTION:
+					terms.add( "@" + value.toLowerCase( Locale.US ) );
+					break;
+
+				case CompactStatus.ENTITY_URL:
+					final String host = null != value ? getHost( value ) : null;
+					if ( null != host ) {
+						terms.add( HOST_PREFIX + host );
+					}
+					break;
+			}
+		}
+		return terms;
+	}
+
+	private static void tokenize( String text, List<String> out, int minLength ) {
+		final int length = text.length();
+		int start = -1;
+
+		for ( int i = 0; i <= length; i++ ) {
+			final boolean word = i < length && Character.isLetterOrDigit( text.charAt( i ) );
+			if ( word && start < 0 ) {
+				start = i;
+			} else if ( !word && start >= 0 ) {
+				if ( i - start >= minLength ) {
+					out.add( text.substring( start, i ) );
+				}
+				start = -1;
+			}
+		}
+	}
+
+	static String getHost( String url ) {
+		if ( null == url ) return null;
+
+		int start = url.indexOf( "://" );
+		start = start < 0 ? 0 : start + 3;
+
+		int end = start;
+		while ( end < url.length() ) {
+			final char c = url.charAt( end );
+			if ( c == '/' || c == ':' || c == '?' || c == '#' ) break;
+			end++;
+		}
+
+		String host = url.substring( start, end ).toLowerCase( Locale.US );
+		if ( host.startsWith( "www." ) ) {
+			host = host.substring( 4 );
+		}
+		return host.length() > 0 ? host : null;
+	}
+
+	private static long[] intersect( long[] lhs, long[] rhs ) {
+		long[] result = new long[Math.min( lhs.length, rhs.length )];
+		int count = 0;
+		int i = 0;
+		int j = 0;
+
+		while ( i < lhs.length && j < rhs.length ) {
+			if ( lhs[i] < rhs[j] ) {
+				i++;
+			} else if ( lhs[i] > rhs[j] ) {
+				j++;
+			} else {
+				result[count++] = lhs[i];
+				i++;
+				j++;
+			}
+		}
+		return trim( result, count );
+	}
+
+	private static long[] union( long[] lhs, int lhsSize, long[] rhs ) {
+		return union( lhs, lhsSize, rhs, rhs.length );
+	}
+
+	private static long[] union( long[] lhs, int lhsSize, long[] rhs, int rhsSize ) {
+		long[] result = new long[lhsSize + rhsSize];
+		int count = 0;
+		int i = 0;
+		int j = 0;
+
+		while ( i < lhsSize || j < rhsSize ) {
+			long next;
+			if ( j == rhsSize || ( i < lhsSize && lhs[i] < rhs[j] ) ) {
+				next = lhs[i++];
+			} else if ( i == lhsSize || rhs[j] < lhs[i] ) {
+				next = rhs[j++];
+			} else {
+				next = lhs[i++];
+				j++;
+			}
+			result[count++] = next;
+		}
+		return trim( result, count );
+	}
+
+	private static long[] trim( long[] array, int size ) {
+		if ( size == array.length ) return array;
+		long[] result = new long[size];
+		System.arraycopy( array, 0, result, 0, size );
+		return result;
+	}
+
+	private static int binarySearch( long[] array, int size, long key ) {
+		int low = 0;
+		int high = size - 1;
+
+		while ( low <= high ) {
+			final int mid = ( low + high ) >>> 1;
+			final long value = array[mid];
+			if ( value < key ) {
+				low = mid + 1;
+			} else if ( value > key ) {
+				high = mid - 1;
+			} else {
+				return mid;
+			}
+		}
+		return -( low + 1 );
+	}
+}
@@ -0,0 +1,258 @@
+package it.sephiroth.twitter.sdk;
+
+import it.sephiroth.twitter.sdk.TwitterAndroid.Session;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import twitter4j.Twitter;
+import twitter4j.TwitterException;
+import twitter4j.TwitterFactory;
+import twitter4j.auth.AccessToken;
+import twitter4j.conf.Configuration;
+import android.content.SharedPreferences;
+import android.content.SharedPreferences.Editor;
+import android.text.TextUtils;
+import android.util.Log;
+
+/**
+ * Keeps all the authenticated accounts of the application.<br />
+ * Every account is persisted under its own preference keys and gets its own twitter client and rate limits, created on first
+ * use. Switching the active account is a simple lookup and never requires a network call.
+ */
+public class SessionManager {
+
+	private static final String LOG_TAG = "SessionManager";
+
+	private static final String PREF_KEY_ACCOUNTS = "accounts";
+	private static final String PREF_KEY_OAUTH_TOKEN = "oauth_token_";
+	private static final String PREF_KEY_OAUTH_SECRET = "oauth_token_secret_";
+	private static final String PREF_KEY_OAUTH_SCREENNAME = "oauth_screen_name_";
+
+	/**
+	 * Task executed for every account by {@link SessionManager#syncAll(String, AccountTask)}, on a background thread.
+	 */
+	public static interface AccountTask {
+
+		public void run( Session session, Twitter twitter ) throws TwitterException;
+	}
+
+	private static final class Account {
+
+		final Session session;
+		Twitter client;
+		RateLimitScheduler rateLimits;
+
+		Account( Session session ) {
+			this.session = session;
+		}
+	}
+
+	private final SharedPreferences mPrefs;
+	private final Configuration mConfiguration;
+	private final TwitterExecutor mExecutor;
+
+	private final LongHashMap<Account> mAccounts = new LongHashMap<Account>();
+	private final List<Long> mOrder = new ArrayList<Long>();
+	private long mActiveUserId;
+	private boolean mLoaded;
+
+	SessionManager( SharedPreferences prefs, Configuration configuration, TwitterExecutor executor ) {
+		mPrefs = prefs;
+		mConfiguration = configuration;
+		mExecutor = executor;
+	}
+
+	/**
+	 * Read the saved accounts. Performs disk I/O, so it's called on a background thread the first time the accounts are
+	 * needed.
+	 */
+	private void ensureLoaded() {
+		if ( mLoaded ) return;
+		mLoaded = true;
+
+		final String ids = mPrefs.getString( PREF_KEY_ACCOUNTS, null );
+		if ( TextUtils.isEmpty( ids ) ) return;
+
+		for ( String id : TextUtils.split( ids, "," ) ) {
+			final long userId = Long.parseLong( id );
+			final String token = mPrefs.getString( PREF_KEY_OAUTH_TOKEN + userId, null );
+			final String secret = mPrefs.getString( PREF_KEY_OAUTH_SECRET + userId, null );
+			final String screenName = mPrefs.getString( PREF_KEY_OAUTH_SCREENNAME + userId, null );
+
+			if ( null != token && null != secret ) {
+				putAccount( new Session( new AccessToken( token, secret, userId ), userId, screenName ) );
+			}
+		}
+		Log.i( LOG_TAG, "loaded accounts: " + mOrder.size() );
+	}
+
+	/**
+	 * Add or replace an account, and persist it.
+	 */
+	public synchronized void add( Session session ) {
+		ensureLoaded();
+		putAccount( session );
+
+		final long userId = session.getUserId();
+		Editor editor = mPrefs.edit();
+		editor.putString( PREF_KEY_OAUTH_TOKEN + userId, session.getAccessToken().getToken() );
+		editor.putString( PREF_KEY_OAUTH_SECRET + userId, session.getAccessToken().getTokenSecret() );
+		editor.putString( PREF_KEY_OAUTH_SCREENNAME + userId, session.getScreenName() );
+		editor.putString( PREF_KEY_ACCOUNTS, TextUtils.join( ",", mOrder ) );
+		editor.apply();
+	}
+
+	/**
+	 * Remove an account and its saved credentials.
+	 */
+	public synchronized void remove( long userId ) {
+		ensureLoaded();
+		if ( null == mAccounts.remove( userId ) ) return;
+		mOrder.remove( Long.valueOf( userId ) );
+
+		if ( mActiveUserId == userId ) {
+			mActiveUserId = 0;
+		}
+
+		Editor editor = mPrefs.edit();
+		editor.remove( PREF_KEY_OAUTH_TOKEN + userId );
+		editor.remove( PREF_KEY_OAUTH_SECRET + userId );
+		editor.remove( PREF_KEY_OAUTH_SCREENNAME + userId );
+		editor.putString( PREF_KEY_ACCOUNTS, TextUtils.join( ",", mOrder ) );
+		editor.apply();
+	}
+
+	/**
+	 * Returns the session of the given account, or null.
+	 */
+	public synchronized Session get( long userId ) {
+		ensureLoaded();
+		Account account = mAccounts.get( userId );
+		return null != account ? account.session : null;
+	}
+
+	/**
+	 * Returns all the accounts, in the order they have been added.
+	 */
+	public synchronized List<Session> getSessions() {
+		ensureLoaded();
+		List<Session> result = new ArrayList<Session>( mOrder.size() );
+		for ( Long userId : mOrder ) {
+			result.add( mAccounts.get( userId ).session );
+		}
+		return result;
+	}
+
+	public synchronized long getActiveUserId() {
+		return mActiveUserId;
+	}
+
+	/**
+	 * Mark the given account as the active one.
+	 *
+	 * @return false if the account is unknown
+	 */
+	public synchronized boolean setActive( long userId ) {
+		ensureLoaded();
+		if ( !mAccounts.containsKey( userId ) ) return false;
+		mActiveUserId = userId;
+		return true;
+	}
+
+	/**
+	 * Returns the twitter client of the given account, created on first use, or null if the account is unknown.
+	 */
+	public synchronized Twitter getClient( long userId ) {
+		ensureLoaded();
+		Account account = mAccounts.get( userId );
+		if ( null == account ) return null;
+
+		if ( null == account.client ) {
+			account.client = new TwitterFactory( mConfiguration ).getInstance( account.session.getAccessToken() );
+		}
+		return account.client;
+	}
+
+	/**
+	 * Run the task for every account on the {@link TwitterExecutor#LANE_SYNC} lane, honoring the rate limits of each account.
+	 * The accounts are synchronized in parallel, at most as many at a time as the lane threads: an account is queued once
+	 * another one is done or rejected, so that the accounts never fill the lane queue.
+	 *
+	 * @param resource
+	 *           the {@link RateLimitScheduler} resource used by the task
+	 */
+	public void syncAll( final String resource, final AccountTask task ) {
+		final List<Session> sessions = getSessions();
+		final AtomicInteger next = new AtomicInteger();
+		final int parallelism = Math.min( sessions.size(), mExecutor.getThreadCount( TwitterExecutor.LANE_SYNC ) );
+
+		for ( int i = 0; i < parallelism; i++ ) {
+			syncNext( sessions, next, resource, task );
+		}
+	}
+
+	/**
+	 * Queue the next account not yet taken, then the following one once done.
+	 */
+	private void syncNext( final List<Session> sessions, final AtomicInteger next, final String resource,
+			final AccountTask task ) {
+		final int index = next.getAndIncrement();
+		if ( index >= sessions.size() ) return;
+
+		final Session session = sessions.get( index );
+		final long userId = session.getUserId();
+		final RateLimitScheduler rateLimits = getRateLimits( userId );
+
+		final Runnable done = new Runnable() {
+
+			@Override
+			public void run() {
+				syncNext( sessions, next, resource, task );
+			}
+		};
+
+		if ( null == rateLimits ) {
+			done.run();
+			return;
+		}
+
+		rateLimits.execute( TwitterExecutor.LANE_SYNC, resource, new Runnable() {
+
+			@Override
+			public void run() {
+				try {
+					Twitter twitter = getClient( userId );
+					if ( null != twitter ) {
+						task.run( session, twitter );
+					}
+				} catch ( TwitterException e ) {
+					Log.w( LOG_TAG, "sync failed for " + userId + ": " + e.getStatusCode() );
+					rateLimits.update( resource, e );
+				} finally {
+					done.run();
+				}
+			}
+		}, done );
+	}
+
+	/**
+	 * Returns the rate limits of the given account, created on first use, or null if the account is unknown.
+	 */
+	synchronized RateLimitScheduler getRateLimits( long userId ) {
+		ensureLoaded();
+		Account account = mAccounts.get( userId );
+		if ( null == account ) return null;
+
+		if ( null == account.rateLimits ) {
+			account.rateLimits = new RateLimitScheduler( mExecutor );
+		}
+		return account.rateLimits;
+	}
+
+	private void putAccount( Session session ) {
+		final long userId = session.getUserId();
+		if ( null == mAccounts.put( userId, new Account( session ) ) ) {
+			mOrder.add( userId );
+		}
+	}
+}
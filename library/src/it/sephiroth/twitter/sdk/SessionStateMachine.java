@@ -0,0 +1,214 @@
+package it.sephiroth.twitter.sdk;
+
+import it.sephiroth.twitter.sdk.TwitterAndroid.SessionState;
+import it.sephiroth.twitter.sdk.TwitterAndroid.StatusCallback;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+import android.os.Handler;
+import android.util.Log;
+
+/**
+ * Lock-free holder of the current {@link SessionState}.<br />
+ * Transitions are validated and applied with a compare-and-set, so readers never block. Listeners are notified on the
+ * {@link Handler} thread; transitions happening before the listeners had a chance to run are coalesced and only the latest
+ * state is delivered.<br />
+ * When {@link Effects} are given, every state entered is passed to them in transition order by a single task at a time on
+ * the given executor lane, outside of any lock, and the listeners only receive the states whose effects have been applied.
+ */
+class SessionStateMachine {
+
+	private static final String LOG_TAG = "SessionStateMachine";
+
+	/** delay before queueing again the effects rejected by a full lane */
+	private static final long EFFECTS_RETRY_DELAY_MILLIS = 100;
+
+	/**
+	 * Side effects of the states entered.
+	 */
+	static interface Effects {
+
+		public void apply( SessionState state );
+	}
+
+	/**
+	 * A state entered, linked to the one entered right after it: the chain keeps the order of the transitions without locks.
+	 */
+	private static final class Transition {
+
+		final SessionState mState;
+		volatile Transition mNext;
+
+		Transition( SessionState state ) {
+			mState = state;
+		}
+	}
+
+	private final AtomicReference<Transition> mState = new AtomicReference<Transition>( new Transition( new SessionState(
+			SessionState.INVALID ) ) );
+	private final CopyOnWriteArrayList<StatusCallback> mListeners = new CopyOnWriteArrayList<StatusCallback>();
+	private final AtomicBoolean mDispatchPending = new AtomicBoolean();
+	private final AtomicBoolean mEffectsPending = new AtomicBoolean();
+	private final Handler mHandler;
+	private final TwitterExecutor mExecutor;
+	private final int mLane;
+	private final Effects mEffects;
+
+	/** last transition whose effects have been applied, only written by the effects task */
+	private volatile Transition mApplied;
+
+	/** last state delivered to the listeners, only accessed on the handler thread */
+	private SessionState mDelivered;
+
+	private final Runnable mDispatch = new Runnable() {
+
+		@Override
+		public void run() {
+			mDispatchPending.set( false );
+
+			final SessionState state = null != mEffects ? mApplied.mState : mState.get().mState;
+			if ( state == mDelivered ) return;
+			mDelivered = state;
+
+			Log.i( LOG_TAG, "dispatch: " + state.getState() );
+			for ( StatusCallback listener : mListeners ) {
+				listener.call( state );
+			}
+		}
+	};
+
+	private final Runnable mApplyEffects = new Runnable() {
+
+		@Override
+		public void run() {
+			while ( true ) {
+				Transition next;
+				while ( null != ( next = mApplied.mNext ) ) {
+					try {
+						mEffects.apply( next.mState );
+					} catch ( RuntimeException e ) {
+						Log.e( LOG_TAG, "effects of state " + next.mState.getState() + " failed", e );
+					}
+					mApplied = next;
+					scheduleDispatch();
+				}
+
+				mEffectsPending.set( false );
+				// a transition linked after the check above has found the task still pending
+				if ( null == mApplied.mNext || !mEffectsPending.compareAndSet( false, true ) ) return;
+			}
+		}
+	};
+
+	SessionStateMachine( Handler handler ) {
+		this( handler, null, 0, null );
+	}
+
+	/**
+	 * @param executor
+	 *           executor running the effects, can be null if effects is null
+	 * @param lane
+	 *           lane of the executor running the effects
+	 * @param effects
+	 *           effects of the states entered, can be null
+	 */
+	SessionStateMachine( Handler handler, TwitterExecutor executor, int lane, Effects effects ) {
+		mHandler = handler;
+		mExecutor = executor;
+		mLane = lane;
+		mEffects = effects;
+		mApplied = mState.get();
+	}
+
+	SessionState get() {
+		return mState.get().mState;
+	}
+
+	/**
+	 * Move to the new state if the transition from the current one is allowed.
+	 *
+	 * @return false if the transition is not allowed
+	 */
+	boolean transition( SessionState newState ) {
+		final Transition transition = new Transition( newState );
+		while ( true ) {
+			final Transition current = mState.get();
+			final int from = current.mState.getState();
+
+			if ( !isAllowed( from, newState.getState() ) ) {
+				Log.w( LOG_TAG, "transition not allowed: " + from + " -> " + newState.getState() );
+				return false;
+			}
+
+			if ( mState.compareAndSet( current, transition ) ) {
+				Log.i( LOG_TAG, "transition: " + from + " -> " + newState.getState() );
+				Metrics.recordSessionState( newState.getState() );
+				if ( null != mEffects ) {
+					current.mNext = transition;
+					scheduleEffects();
+				} else {
+					scheduleDispatch();
+				}
+				return true;
+			}
+		}
+	}
+
+	void addListener( StatusCallback listener ) {
+		mListeners.addIfAbsent( listener );
+	}
+
+	void removeListener( StatusCallback listener ) {
+		mListeners.remove( listener );
+	}
+
+	private void scheduleDispatch() {
+		if ( mDispatchPending.compareAndSet( false, true ) ) {
+			mHandler.post( mDispatch );
+		}
+	}
+
+	private void scheduleEffects() {
+		if ( mEffectsPending.compareAndSet( false, true ) && !mExecutor.execute( mLane, mApplyEffects ) ) {
+			retryEffects();
+		}
+	}
+
+	/**
+	 * Queue again the effects task rejected by its lane, unless the executor has been shut down.
+	 */
+	private void retryEffects() {
+		if ( mExecutor.isShutdown() ) {
+			Log.w( LOG_TAG, "executor shut down, effects dropped" );
+			return;
+		}
+
+		mExecutor.schedule( mLane, mApplyEffects, EFFECTS_RETRY_DELAY_MILLIS, new Runnable() {
+
+			@Override
+			public void run() {
+				retryEffects();
+			}
+		} );
+	}
+
+	static boolean isAllowed( int from, int to ) {
+		if ( from == to ) return false;
+
+		switch ( to ) {
+			case SessionState.CONNECTING:
+			case SessionState.DISCONNECTED:
+				return true;
+
+			case SessionState.CONNECTED:
+				return from == SessionState.CONNECTING;
+
+			case SessionState.LOGIN_FAILED:
+				// CONNECTED -> LOGIN_FAILED happens when an optimistic login is rejected by the server
+				return from == SessionState.CONNECTING || from == SessionState.CONNECTED;
+
+			default:
+				return false;
+		}
+	}
+}
@@ -0,0 +1,148 @@
+package it.sephiroth.twitter.sdk;
+
+import java.security.Security;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import twitter4j.TwitterException;
+import twitter4j.internal.http.HttpClient;
+import twitter4j.internal.http.HttpClientConfiguration;
+import twitter4j.internal.http.HttpRequest;
+import twitter4j.internal.http.HttpResponse;
+import android.util.Log;
+
+/**
+ * HTTP transport shared by all the twitter4j clients created by the sdk.<br />
+ * twitter4j creates one {@link HttpClient} per client instance through the class named by the
+ * {@value #HTTP_CLIENT_PROPERTY} system property. Once {@link #install(int)} has been called every one of them is a thin
+ * delegate to a single {@link PooledHttpClient} per configuration, which keeps the connections alive between requests,
+ * requests gzip encoded responses and reuses the TLS sessions.
+ */
+public class SharedHttpClient implements HttpClient {
+
+	private static final String LOG_TAG = "SharedHttpClient";
+
+	static final String HTTP_CLIENT_PROPERTY = "twitter4j.http.httpClient";
+
+	public static final int DEFAULT_MAX_CONNECTIONS = 5;
+
+	/** seconds a successful DNS lookup is cached */
+	private static final String DNS_CACHE_TTL = "60";
+
+	private static final Map<HttpClientConfiguration, PooledHttpClient> sClients = new HashMap<HttpClientConfiguration, PooledHttpClient>();
+	private static boolean sInstalled;
+
+	static final AtomicLong sRequestCount = new AtomicLong();
+	static final AtomicLong sBytesReceived = new AtomicLong();
+	static final AtomicLong sTlsHandshakeCount = new AtomicLong();
+	static final AtomicLong sTlsResumedCount = new AtomicLong();
+
+	/** bytes received by the current thread, to measure the single requests */
+	static final ThreadLocal<long[]> sThreadBytesReceived = new ThreadLocal<long[]>() {
+
+		@Override
+		protected long[] initialValue() {
+			return new long[1];
+		}
+	};
+
+	private final PooledHttpClient mClient;
+
+	/**
+	 * Invoked by twitter4j.
+	 */
+	public SharedHttpClient( HttpClientConfiguration configuration ) {
+		mClient = getClient( configuration );
+	}
+
+	/**
+	 * Same as {@link #install(int)} with {@link #DEFAULT_MAX_CONNECTIONS}.
+	 */
+	public static void install() {
+		install( DEFAULT_MAX_CONNECTIONS );
+	}
+
+	/**
+	 * Make twitter4j use the shared transport. Must be called before the first twitter4j client is created, calls after the
+	 * first one are ignored.
+	 *
+	 * @param maxConnections
+	 *           max number of idle connections kept alive per host
+	 */
+	public static synchronized void install( int maxConnections ) {
+		if ( sInstalled ) return;
+		sInstalled = true;
+
+		final String current = System.getProperty( HTTP_CLIENT_PROPERTY );
+		if ( null != current && !current.equals( SharedHttpClient.class.getName() ) ) {
+			Log.w( LOG_TAG, "custom http client already configured: " + current );
+			return;
+		}
+
+		System.setProperty( HTTP_CLIENT_PROPERTY, SharedHttpClient.class.getName() );
+		System.setProperty( "http.keepAlive", "true" );
+		System.setProperty( "http.maxConnections", String.valueOf( maxConnections ) );
+		Security.setProperty( "networkaddress.cache.ttl", DNS_CACHE_TTL );
+	}
+
+	private static synchronized PooledHttpClient getClient( HttpClientConfiguration configuration ) {
+		PooledHttpClient client = sClients.get( configuration );
+		if ( null == client ) {
+			client = new PooledHttpClient( configuration );
+			sClients.put( configuration, client );
+		}
+		return client;
+	}
+
+	@Override
+	public HttpResponse request( HttpRequest request ) throws TwitterException {
+		return mClient.request( request );
+	}
+
+	/**
+	 * The shared transport outlives the single clients, nothing to do here.
+	 */
+	@Override
+	public void shutdown() {}
+
+	/**
+	 * Number of requests sent through the shared transport.
+	 */
+	public static long getRequestCount() {
+		return sRequestCount.get();
+	}
+
+	/**
+	 * Number of response body bytes read, after gzip decoding.
+	 */
+	public static long getBytesReceived() {
+		return sBytesReceived.get();
+	}
+
+	/**
+	 * Number of response body bytes read by the current thread, after gzip decoding. The difference between two calls made
+	 * around a twitter4j call is the size of its response.
+	 */
+	public static long getThreadBytesReceived() {
+		return sThreadBytesReceived.get()[0];
+	}
+
+	static void addBytesReceived( long count ) {
+		sBytesReceived.addAndGet( count );
+		sThreadBytesReceived.get()[0] += count;
+	}
+
+	/**
+	 * Number of TLS handshakes which created a new session.
+	 */
+	public static long getTlsHandshakeCount() {
+		return sTlsHandshakeCount.get();
+	}
+
+	/**
+	 * Number of TLS handshakes which resumed an existing session.
+	 */
+	public static long getTlsResumedCount() {
+		return sTlsResumedCount.get();
+	}
+}
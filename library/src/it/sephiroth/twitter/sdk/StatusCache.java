@@ -0,0 +1,371 @@
+package it.sephiroth.twitter.sdk;
+
+import java.util.ArrayList;
+import java.util.List;
+import twitter4j.Status;
+
+/**
+ * Memory cache of statuses keyed by status id, holding a single record of every status received by all the timelines which
+ * contain it.<br />
+ * The statuses are held as {@link CompactStatus}es: they are converted by a {@link StatusCompactor} when added, outside
+ * the cache lock, and only the compact instances are returned by the cache. The twitter4j statuses are not retained.<br />
+ * The cache is bounded both by number of entries and by an estimated size in bytes; the least recently used statuses are
+ * evicted first. A {@link Listener} can follow the content of the cache, for instance to keep an index in step with it.
+ */
+public class StatusCache {
+
+	/** fixed fields of a compact status, its arrays headers and the cache entry */
+	private static final int ENTRY_OVERHEAD_BYTES = 160;
+
+	private static final int EVENT_ADDED = 0;
+	private static final int EVENT_REMOVED = 1;
+	private static final int EVENT_CLEARED = 2;
+
+	/**
+	 * Notified of every change of the cache content, in the order of the changes. Methods are invoked after the cache lock
+	 * has been released, by one thread at a time: the thread which made a change, or another thread changing the cache
+	 * concurrently, which then delivers the changes of both.
+	 */
+	public static interface Listener {
+
+		public void onStatusAdded( CompactStatus status );
+
+		/**
+		 * The status has been removed, evicted or replaced by a newer instance.
+		 */
+		public void onStatusRemoved( CompactStatus status );
+
+		public void onCleared();
+	}
+
+	private static final class Entry {
+
+		final long id;
+		CompactStatus status;
+		int size;
+		Entry prev;
+		Entry next;
+
+		Entry( long id ) {
+			this.id = id;
+		}
+	}
+
+	private static final class Event {
+
+		final int type;
+		final CompactStatus status;
+
+		Event( int type, CompactStatus status ) {
+			this.type = type;
+			this.status = status;
+		}
+	}
+
+	private final int mMaxEntries;
+	private final long mMaxBytes;
+	private final LongHashMap<Entry> mEntries;
+	private final StatusCompactor mCompactor;
+
+	/** most recently used entry */
+	private Entry mHead;
+	/** least recently used entry */
+	private Entry mTail;
+
+	private long mSizeInBytes;
+	private long mHitCount;
+	private long mMissCount;
+	private long mEvictionCount;
+	private Listener mListener;
+
+	/** changes not yet delivered to the listener */
+	private final List<Event> mEvents = new ArrayList<Event>();
+	private boolean mDispatching;
+
+	/**
+	 * @param maxEntries
+	 *           max number of cached statuses
+	 * @param maxBytes
+	 *           max estimated memory used by the cached statuses
+	 */
+	public StatusCache( int maxEntries, long maxBytes ) {
+		this( maxEntries, maxBytes, new StatusCompactor() );
+	}
+
+	/**
+	 * @param compactor
+	 *           converter of the added statuses, can be shared to pool the users with other timelines
+	 */
+	public StatusCache( int maxEntries, long maxBytes, StatusCompactor compactor ) {
+		if ( maxEntries < 1 ) throw new IllegalArgumentException( "maxEntries must be > 0" );
+		if ( maxBytes < 1 ) throw new IllegalArgumentException( "maxBytes must be > 0" );
+		mMaxEntries = maxEntries;
+		mMaxBytes = maxBytes;
+		mEntries = new LongHashMap<Entry>( maxEntries );
+		mCompactor = compactor;
+	}
+
+	public synchronized void setListener( Listener listener ) {
+		mListener = listener;
+	}
+
+	/**
+	 * Returns the cached status with the given id, or null.
+	 */
+	public synchronized CompactStatus get( long id ) {
+		Entry entry = mEntries.get( id );
+		if ( null == entry ) {
+			mMissCount++;
+			return null;
+		}
+		mHitCount++;
+		moveToHead( entry );
+		return entry.status;
+	}
+
+	/**
+	 * Add the given status to the cache and returns its compact instance. A cached instance with the same id is replaced, so
+	 * that the cache always holds the latest counters and flags received from the server.
+	 */
+	public CompactStatus intern( Status status ) {
+		final CompactStatus compact = mCompactor.compact( status );
+		synchronized ( this ) {
+			internLocked( compact );
+		}
+		dispatchEvents();
+		return compact;
+	}
+
+	/**
+	 * Same as {@link #intern(Status)} for a list of statuses.
+	 *
+	 * @return a new list with the compact statuses, in the same order
+	 */
+	public List<CompactStatus> internAll( List<Status> statuses ) {
+		final List<CompactStatus> compact = mCompactor.compactAll( statuses );
+		synchronized ( this ) {
+			for ( CompactStatus status : compact ) {
+				internLocked( status );
+			}
+		}
+		dispatchEvents();
+		return compact;
+	}
+
+	/**
+	 * Same as {@link #internAll(List)} for statuses already converted, such as the ones read from a {@link StatusStore}.
+	 */
+	public void putAll( List<CompactStatus> statuses ) {
+		synchronized ( this ) {
+			for ( CompactStatus status : statuses ) {
+				internLocked( status );
+			}
+		}
+		dispatchEvents();
+	}
+
+	/**
+	 * Add or replace the given status, for instance after it has been updated by a write request.
+	 */
+	public void put( Status status ) {
+		final CompactStatus compact = mCompactor.compact( status );
+		synchronized ( this ) {
+			Entry entry = mEntries.get( compact.getId() );
+			if ( null == entry ) {
+				insert( compact );
+			} else {
+				replace( entry, compact );
+			}
+		}
+		dispatchEvents();
+	}
+
+	public void remove( long id ) {
+		synchronized ( this ) {
+			Entry entry = mEntries.remove( id );
+			if ( null != entry ) {
+				unlink( entry );
+				mSizeInBytes -= entry.size;
+				addEvent( EVENT_REMOVED, entry.status );
+			}
+		}
+		dispatchEvents();
+	}
+
+	public void clear() {
+		synchronized ( this ) {
+			mEntries.clear();
+			mHead = mTail = null;
+			mSizeInBytes = 0;
+			addEvent( EVENT_CLEARED, null );
+		}
+		dispatchEvents();
+	}
+
+	public synchronized int size() {
+		return mEntries.size();
+	}
+
+	public synchronized long sizeInBytes() {
+		return mSizeInBytes;
+	}
+
+	public synchronized long getHitCount() {
+		return mHitCount;
+	}
+
+	public synchronized long getMissCount() {
+		return mMissCount;
+	}
+
+	public synchronized long getEvictionCount() {
+		return mEvictionCount;
+	}
+
+	private void internLocked( CompactStatus status ) {
+		Entry entry = mEntries.get( status.getId() );
+		if ( null != entry ) {
+			mHitCount++;
+			replace( entry, status );
+		} else {
+			mMissCount++;
+			insert( status );
+		}
+	}
+
+	private void replace( Entry entry, CompactStatus status ) {
+		mSizeInBytes -= entry.size;
+		addEvent( EVENT_REMOVED, entry.status );
+		addEvent( EVENT_ADDED, status );
+		entry.status = status;
+		entry.size = estimateSize( status );
+		mSizeInBytes += entry.size;
+		moveToHead( entry );
+		trim();
+	}
+
+	private void insert( CompactStatus status ) {
+		Entry entry = new Entry( status.getId() );
+		entry.status = status;
+		entry.size = estimateSize( status );
+		mEntries.put( entry.id, entry );
+		mSizeInBytes += entry.size;
+		linkAtHead( entry );
+		addEvent( EVENT_ADDED, status );
+		trim();
+	}
+
+	private void trim() {
+		while ( null != mTail && mTail != mHead && ( mEntries.size() > mMaxEntries || mSizeInBytes > mMaxBytes ) ) {
+			Entry eldest = mTail;
+			unlink( eldest );
+			mEntries.remove( eldest.id );
+			mSizeInBytes -= eldest.size;
+			mEvictionCount++;
+			addEvent( EVENT_REMOVED, eldest.status );
+		}
+	}
+
+	/**
+	 * Queue a change for the listener, if any. Must be called holding the lock.
+	 */
+	private void addEvent( int type, CompactStatus status ) {
+		if ( null != mListener ) {
+			mEvents.add( new Event( type, status ) );
+		}
+	}
+
+	/**
+	 * Deliver the queued changes to the listener, outside the lock. Returns right away if another thread is already
+	 * delivering them, that thread delivers the ones queued in the meantime as well.
+	 */
+	private void dispatchEvents() {
+		synchronized ( this ) {
+			if ( mDispatching || mEvents.isEmpty() ) return;
+			mDispatching = true;
+		}
+
+		boolean idle = false;
+		try {
+			while ( !idle ) {
+				final Listener listener;
+				final List<Event> events;
+				synchronized ( this ) {
+					if ( mEvents.isEmpty() ) {
+						mDispatching = false;
+						idle = true;
+						break;
+					}
+					listener = mListener;
+					events = new ArrayList<Event>( mEvents );
+					mEvents.clear();
+				}
+
+				for ( int i = 0; null != listener && i < events.size(); i++ ) {
+					final Event event = events.get( i );
+					switch ( event.type ) {
+						case EVENT_ADDED:
+							listener.onStatusAdded( event.status );
+							break;
+
+						case EVENT_REMOVED:
+							listener.onStatusRemoved( event.status );
+							break;
+
+						default:
+							listener.onCleared();
+							break;
+					}
+				}
+			}
+		} finally {
+			if ( !idle ) {
+				// the listener failed: the next change delivers the remaining ones
+				synchronized ( this ) {
+					mDispatching = false;
+				}
+			}
+		}
+	}
+
+	private void moveToHead( Entry entry ) {
+		if ( entry != mHead ) {
+			unlink( entry );
+			linkAtHead( entry );
+		}
+	}
+
+	private void linkAtHead( Entry entry ) {
+		entry.prev = null;
+		entry.next = mHead;
+		if ( null != mHead ) mHead.prev = entry;
+		mHead = entry;
+		if ( null == mTail ) mTail = entry;
+	}
+
+	private void unlink( Entry entry ) {
+		if ( null != entry.prev ) entry.prev.next = entry.next;
+		else mHead = entry.next;
+		if ( null != entry.next ) entry.next.prev = entry.prev;
+		else mTail = entry.prev;
+		entry.prev = entry.next = null;
+	}
+
+	/**
+	 * Rough estimate of the memory retained by a status: a fixed overhead plus the encoded text and the entities. The user is
+	 * shared with the other statuses and not counted.
+	 */
+	static int estimateSize( CompactStatus status ) {
+		int size = ENTRY_OVERHEAD_BYTES + status.getTextSize() + status.getPackedEntities().length * 4;
+		final String[] urls = status.getEntityUrls();
+		if ( null != urls ) {
+			for ( String url : urls ) {
+				size += 4 + ( null != url ? 40 + url.length() * 2 : 0 );
+			}
+		}
+		if ( null != status.getRetweetedStatus() ) {
+			size += estimateSize( status.getRetweetedStatus() );
+		}
+		return size;
+	}
+}
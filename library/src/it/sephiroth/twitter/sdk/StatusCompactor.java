@@ -0,0 +1,204 @@
+package it.sephiroth.twitter.sdk;
+
+import java.util.ArrayList;
+import java.util.List;
+import twitter4j.HashtagEntity;
+import twitter4j.MediaEntity;
+import twitter4j.Status;
+import twitter4j.URLEntity;
+import twitter4j.User;
+import twitter4j.UserMentionEntity;
+
+/**
+ * Converts the twitter4j {@link Status}es into {@link CompactStatus}es.<br />
+ * The converter keeps a pool of {@link CompactUser}s keyed by user id, so that all the statuses of the same user share a
+ * single instance and the user strings are held once. A pooled user is replaced when the profile changes.<br />
+ * The pool also hydrates the statuses requested with {@link RequestProfile#isTrimUser()}: their user holds only the id, and
+ * the pooled user received with an earlier full status is used instead.<br />
+ * The pool is bounded: users are kept in two generations, the recently used ones are moved to the young generation and the
+ * old one is dropped when the young one is full, so that up to maxUsers users are held.
+ */
+public class StatusCompactor {
+
+	public static final int DEFAULT_MAX_USERS = 2000;
+
+	private final int mGenerationSize;
+	private LongHashMap<CompactUser> mUsers;
+	private LongHashMap<CompactUser> mOldUsers;
+
+	public StatusCompactor() {
+		this( DEFAULT_MAX_USERS );
+	}
+
+	/**
+	 * @param maxUsers
+	 *           max number of pooled users
+	 */
+	public StatusCompactor( int maxUsers ) {
+		if ( maxUsers < 2 ) throw new IllegalArgumentException( "maxUsers must be > 1" );
+		mGenerationSize = maxUsers / 2;
+		mUsers = new LongHashMap<CompactUser>( mGenerationSize );
+		mOldUsers = new LongHashMap<CompactUser>( mGenerationSize );
+	}
+
+	/**
+	 * Convert the given status.
+	 */
+	public synchronized CompactStatus compact( Status status ) {
+		final Status retweeted = status.getRetweetedStatus();
+		final CompactStatus compactRetweeted = null != retweeted ? compact( retweeted ) : null;
+
+		final HashtagEntity[] hashtags = status.getHashtagEntities();
+		final UserMentionEntity[] mentions = status.getUserMentionEntities();
+		final URLEntity[] urls = status.getURLEntities();
+		final MediaEntity[] media = status.getMediaEntities();
+
+		final int count = length( hashtags ) + length( mentions ) + length( urls ) + length( media );
+		int[] entities = null;
+		String[] entityUrls = null;
+
+		if ( count > 0 ) {
+			entities = new int[count * 3];
+			if ( length( urls ) + length( media ) > 0 ) {
+				entityUrls = new String[count];
+			}
+
+			int index = 0;
+			if ( null != hashtags ) {
+				for ( HashtagEntity entity : hashtags ) {
+					index = putEntity( entities, index, CompactStatus.ENTITY_HASHTAG, entity.getStart(), entity.getEnd() );
+				}
+			}
+			if ( null != mentions ) {
+				for ( UserMentionEntity entity : mentions ) {
+					index = putEntity( entities, index, CompactStatus.ENTITY_MENTION, entity.getStart(), entity.getEnd() );
+				}
+			}
+			if ( null != urls ) {
+				for ( URLEntity entity : urls ) {
+					entityUrls[index] = entity.getExpandedURL();
+					index = putEntity( entities, index, CompactStatus.ENTITY_URL, entity.getStart(), entity.getEnd() );
+				}
+			}
+			if ( null != media ) {
+				for ( MediaEntity entity : media ) {
+					entityUrls[index] = entity.getMediaURL();
+					index = putEntity( entities, index, CompactStatus.ENTITY_MEDIA, entity.getStart(), entity.getEnd() );
+				}
+			}
+		}
+
+		return new CompactStatus( status, internUser( status.getUser() ), compactRetweeted, entities, entityUrls );
+	}
+
+	public List<CompactStatus> compactAll( List<Status> statuses ) {
+		List<CompactStatus> result = new ArrayList<CompactStatus>( statuses.size() );
+		for ( Status status : statuses ) {
+			result.add( compact( status ) );
+		}
+		return result;
+	}
+
+	/**
+	 * Add the authors of the given statuses, and of the retweeted ones, to the user pool.
+	 */
+	public synchronized void updateUsers( List<Status> statuses ) {
+		for ( Status status : statuses ) {
+			internUser( status.getUser() );
+			if ( null != status.getRetweetedStatus() ) {
+				internUser( status.getRetweetedStatus().getUser() );
+			}
+		}
+	}
+
+	/**
+	 * Returns the pooled instance of the given user, which is pooled if missing. Used for the users read from disk.
+	 */
+	synchronized CompactUser share( CompactUser user ) {
+		final CompactUser pooled = lookup( user.getId() );
+		if ( null != pooled ) return pooled;
+
+		pool( user );
+		return user;
+	}
+
+	/**
+	 * Returns the pooled user with the given id, or null.
+	 */
+	public synchronized CompactUser getUser( long userId ) {
+		return lookup( userId );
+	}
+
+	public synchronized int getUserCount() {
+		return mUsers.size() + mOldUsers.size();
+	}
+
+	/**
+	 * Empty the user pool. Already converted statuses keep their users.
+	 */
+	public synchronized void clear() {
+		mUsers.clear();
+		mOldUsers.clear();
+	}
+
+	private CompactUser internUser( User user ) {
+		if ( null == user ) return null;
+
+		CompactUser compact = lookup( user.getId() );
+		if ( null != compact && isTrimmed( user ) ) return compact;
+
+		if ( null == compact || !compact.matches( user ) ) {
+			compact = new CompactUser( user );
+			pool( compact );
+		}
+		return compact;
+	}
+
+	/**
+	 * Returns the pooled user, moving it to the young generation.
+	 */
+	private CompactUser lookup( long userId ) {
+		CompactUser compact = mUsers.get( userId );
+		if ( null == compact ) {
+			compact = mOldUsers.remove( userId );
+			if ( null != compact ) {
+				pool( compact );
+			}
+		}
+		return compact;
+	}
+
+	/**
+	 * Add the user to the young generation, dropping the old one if full.
+	 */
+	private void pool( CompactUser compact ) {
+		final long id = compact.getId();
+		mOldUsers.remove( id );
+
+		if ( !mUsers.containsKey( id ) && mUsers.size() >= mGenerationSize ) {
+			final LongHashMap<CompactUser> dropped = mOldUsers;
+			dropped.clear();
+			mOldUsers = mUsers;
+			mUsers = dropped;
+		}
+		mUsers.put( id, compact );
+	}
+
+	/**
+	 * Returns true if the user comes from a trim_user response, which carries only the id.
+	 */
+	private static boolean isTrimmed( User user ) {
+		return null == user.getScreenName();
+	}
+
+	private static int putEntity( int[] entities, int index, int type, int start, int end ) {
+		entities[index * 3] = type;
+		entities[index * 3 + 1] = start;
+		entities[index * 3 + 2] = end;
+		return index + 1;
+	}
+
+	private static int length( Object[] array ) {
+		return null != array ? array.length : 0;
+	}
+}
@@ -0,0 +1,119 @@
+package it.sephiroth.twitter.sdk;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import twitter4j.Status;
+
+/**
+ * Bounded lock-free ring buffer of statuses, with a single producer and a single consumer.<br />
+ * When the buffer is full the overflow policy decides whether the incoming status or the oldest buffered one is dropped. The
+ * number of dropped statuses is accumulated and returned to the consumer with the next drain.
+ */
+public class StatusRingBuffer {
+
+	/** when full, the incoming status is discarded */
+	public static final int OVERFLOW_DROP_NEWEST = 0;
+
+	/** when full, the oldest buffered status is discarded to make room for the incoming one */
+	public static final int OVERFLOW_DROP_OLDEST = 1;
+
+	private final AtomicReferenceArray<Status> mSlots;
+	private final int mMask;
+	private final int mOverflowPolicy;
+
+	/** next position to read, moved by the consumer and, with {@link #OVERFLOW_DROP_OLDEST}, by the producer */
+	private final AtomicLong mHead = new AtomicLong();
+
+	/** next position to write, moved by the producer only */
+	private final AtomicLong mTail = new AtomicLong();
+
+	private final AtomicLong mDropped = new AtomicLong();
+
+	/**
+	 * @param capacity
+	 *           rounded up to the next power of two
+	 * @param overflowPolicy
+	 *           {@link #OVERFLOW_DROP_NEWEST} or {@link #OVERFLOW_DROP_OLDEST}
+	 */
+	public StatusRingBuffer( int capacity, int overflowPolicy ) {
+		if ( capacity < 1 ) throw new IllegalArgumentException( "capacity must be > 0" );
+		if ( overflowPolicy != OVERFLOW_DROP_NEWEST && overflowPolicy != OVERFLOW_DROP_OLDEST )
+			throw new IllegalArgumentException( "invalid overflow policy: " + overflowPolicy );
+
+		int size = 1;
+		while ( size < capacity ) {
+			size <<= 1;
+		}
+		mSlots = new AtomicReferenceArray<Status>( size );
+		mMask = size - 1;
+		mOverflowPolicy = overflowPolicy;
+	}
+
+	/**
+	 * Producer side.
+	 *
+	 * @return false if the status has been dropped
+	 */
+	public boolean offer( Status status ) {
+		final long tail = mTail.get();
+
+		while ( true ) {
+			final long head = mHead.get();
+			if ( tail - head < mSlots.length() ) {
+				break;
+			}
+
+			if ( mOverflowPolicy == OVERFLOW_DROP_NEWEST ) {
+				mDropped.incrementAndGet();
+				return false;
+			}
+
+			if ( mHead.compareAndSet( head, head + 1 ) ) {
+				mDropped.incrementAndGet();
+				break;
+			}
+		}
+
+		mSlots.set( (int) tail & mMask, status );
+		mTail.set( tail + 1 );
+		return true;
+	}
+
+	/**
+	 * Consumer side: move up to maxCount statuses, oldest first, in the given list.
+	 *
+	 * @return the number of statuses dropped since the previous drain
+	 */
+	public int drainTo( List<Status> out, int maxCount ) {
+		int count = 0;
+
+		while ( count < maxCount ) {
+			final long head = mHead.get();
+			if ( head >= mTail.get() ) {
+				break;
+			}
+
+			final Status status = mSlots.get( (int) head & mMask );
+
+			// the producer may have dropped this slot in the meantime, in which case the read value is stale
+			if ( mHead.compareAndSet( head, head + 1 ) ) {
+				out.add( status );
+				count++;
+			}
+		}
+		return (int) mDropped.getAndSet( 0 );
+	}
+
+	public int size() {
+		return (int) Math.max( 0, mTail.get() - mHead.get() );
+	}
+
+	public boolean isEmpty() {
+		return size() == 0;
+	}
+
+	public int capacity() {
+		return mSlots.length();
+	}
+}
@@ -0,0 +1,526 @@
+package it.sephiroth.twitter.sdk;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import android.util.Log;
+
+/**
+ * Append-only on disk store of the last received statuses, used to show a timeline before any network call is made.<br />
+ * <br />
+ * File layout:
+ *
+ * <pre>
+ * header: int magic, int version
+ * block:  int payloadLength, int count, long newestId, long oldestId, byte[payloadLength] payload
+ * payload: int stringCount, utf[stringCount] strings, int userCount, user[userCount] users, status[count] statuses
+ * user:    long id, int screenName, int name, int profileImageUrl, int profileImageUrlHttps, int flags
+ * status:  long id, long createdAt, long inReplyToStatusId, long inReplyToUserId, int inReplyToScreenName,
+ *          long retweetCount, long currentUserRetweetId, int flags, int user, boolean retweet, [status retweetedStatus],
+ *          int textLength, byte[textLength] utf8Text, int entityLength, int[entityLength] entities,
+ *          boolean hasUrls, [int[entityLength / 3] entityUrls]
+ * </pre>
+ *
+ * Strings and users are written once per block, in its tables, and referenced by index; -1 stands for null. The statuses
+ * are stored as {@link CompactStatus} records: the loaded statuses are compact instances whose users are shared through
+ * the {@link StatusCompactor} pool.<br />
+ * Every {@link #append(List)} writes a single block. When the file holds more than twice the configured number of statuses
+ * it is compacted into a single block containing only the newest ones.
+ */
+public class StatusStore {
+
+	private static final String LOG_TAG = "StatusStore";
+
+	private static final int MAGIC = 0x54575353; // "TWSS"
+	private static final int VERSION = 2;
+
+	private static final int HEADER_SIZE = 8;
+	private static final int BLOCK_HEADER_SIZE = 24;
+
+	private static final Comparator<CompactStatus> NEWEST_FIRST = new Comparator<CompactStatus>() {
+
+		@Override
+		public int compare( CompactStatus lhs, CompactStatus rhs ) {
+			final long l = lhs.getId();
+			final long r = rhs.getId();
+			return l > r ? -1 : ( l == r ? 0 : 1 );
+		}
+	};
+
+	private final File mFile;
+	private final int mMaxEntries;
+	private final StatusCompactor mCompactor;
+
+	private FileChannel mChannel;
+	private final List<Long> mBlockOffsets = new ArrayList<Long>();
+	/** newest status id of every block, in the order of the offsets */
+	private final List<Long> mBlockNewestIds = new ArrayList<Long>();
+	private int mCount;
+
+	/**
+	 * @param file
+	 *           the backing file, created if missing
+	 * @param maxEntries
+	 *           max number of statuses kept after a compaction
+	 */
+	public StatusStore( File file, int maxEntries ) {
+		this( file, maxEntries, new StatusCompactor() );
+	}
+
+	/**
+	 * @param compactor
+	 *           pool of the users of the loaded statuses
+	 */
+	public StatusStore( File file, int maxEntries, StatusCompactor compactor ) {
+		if ( maxEntries < 1 ) throw new IllegalArgumentException( "maxEntries must be > 0" );
+		mFile = file;
+		mMaxEntries = maxEntries;
+		mCompactor = compactor;
+	}
+
+	/**
+	 * Returns up to the given number of stored statuses, newest first.<br />
+	 * Blocks are not appended in id order, an older page can be appended after a newer one: they are read by decreasing
+	 * newest id, until the remaining ones can only hold older statuses than the ones selected. A status stored more than
+	 * once is returned as last appended.
+	 */
+	public synchronized List<CompactStatus> load( int maxCount ) {
+		final Map<Long, CompactStatus> statuses = new HashMap<Long, CompactStatus>();
+
+		try {
+			open();
+
+			final Map<Long, Integer> sources = new HashMap<Long, Integer>();
+			long threshold = 0;
+
+			for ( int block : getBlocksNewestFirst() ) {
+				if ( statuses.size() >= maxCount && mBlockNewestIds.get( block ) < threshold ) break;
+
+				for ( CompactStatus status : readBlock( mBlockOffsets.get( block ) ) ) {
+					final Integer source = sources.get( status.getId() );
+					if ( null == source || source < block ) {
+						statuses.put( status.getId(), status );
+						sources.put( status.getId(), block );
+					}
+				}
+
+				if ( statuses.size() >= maxCount ) {
+					threshold = getNewestIds( statuses.keySet() )[maxCount - 1];
+				}
+			}
+		} catch ( IOException e ) {
+			Log.e( LOG_TAG, "failed to load statuses", e );
+			reset();
+			statuses.clear();
+		}
+
+		List<CompactStatus> result = new ArrayList<CompactStatus>( statuses.values() );
+		Collections.sort( result, NEWEST_FIRST );
+		return result.size() > maxCount ? new ArrayList<CompactStatus>( result.subList( 0, maxCount ) ) : result;
+	}
+
+	/**
+	 * Append the given statuses to the store, compacting the file if required.
+	 */
+	public synchronized void append( List<CompactStatus> statuses ) {
+		if ( statuses.isEmpty() ) return;
+
+		try {
+			open();
+			writeBlock( mChannel, statuses );
+			mCount += statuses.size();
+
+			if ( mCount > mMaxEntries * 2 ) {
+				compact();
+			}
+		} catch ( IOException e ) {
+			Log.e( LOG_TAG, "failed to append statuses", e );
+			reset();
+		}
+	}
+
+	/**
+	 * Remove all the stored statuses.
+	 */
+	public synchronized void clear() {
+		reset();
+	}
+
+	public synchronized void close() {
+		closeChannel();
+	}
+
+	private void open() throws IOException {
+		if ( null != mChannel ) return;
+
+		mChannel = new RandomAccessFile( mFile, "rw" ).getChannel();
+		mBlockOffsets.clear();
+		mBlockNewestIds.clear();
+		mCount = 0;
+
+		if ( mChannel.size() < HEADER_SIZE || !readHeader() ) {
+			Log.w( LOG_TAG, "missing or incompatible header, creating a new store" );
+			mChannel.truncate( 0 );
+			writeHeader( mChannel );
+			return;
+		}
+
+		final long size = mChannel.size();
+		final ByteBuffer header = ByteBuffer.allocate( BLOCK_HEADER_SIZE );
+		long position = HEADER_SIZE;
+
+		while ( position + BLOCK_HEADER_SIZE <= size ) {
+			header.clear();
+			readFully( header, position );
+			final int length = header.getInt( 0 );
+			final int count = header.getInt( 4 );
+
+			if ( length < 0 || count < 0 || position + BLOCK_HEADER_SIZE + length > size ) {
+				break;
+			}
+
+			mBlockOffsets.add( position );
+			mBlockNewestIds.add( header.getLong( 8 ) );
+			mCount += count;
+			position += BLOCK_HEADER_SIZE + length;
+		}
+
+		if ( position != size ) {
+			// partially written block, most likely the process has been killed while appending
+			Log.w( LOG_TAG, "truncating store from " + size + " to " + position );
+			mChannel.truncate( position );
+		}
+		mChannel.position( position );
+	}
+
+	private boolean readHeader() throws IOException {
+		ByteBuffer header = ByteBuffer.allocate( HEADER_SIZE );
+		readFully( header, 0 );
+		return header.getInt( 0 ) == MAGIC && header.getInt( 4 ) == VERSION;
+	}
+
+	private static void writeHeader( FileChannel channel ) throws IOException {
+		ByteBuffer header = ByteBuffer.allocate( HEADER_SIZE );
+		header.putInt( MAGIC ).putInt( VERSION ).flip();
+		channel.position( 0 );
+		while ( header.hasRemaining() ) {
+			channel.write( header );
+		}
+	}
+
+	private void writeBlock( FileChannel channel, List<CompactStatus> statuses ) throws IOException {
+		final BlockTables tables = new BlockTables();
+
+		long newest = 0;
+		long oldest = Long.MAX_VALUE;
+		for ( CompactStatus status : statuses ) {
+			tables.add( status );
+			newest = Math.max( newest, status.getId() );
+			oldest = Math.min( oldest, status.getId() );
+		}
+
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream( statuses.size() * 256 );
+		DataOutputStream output = new DataOutputStream( bytes );
+		tables.write( output );
+		for ( CompactStatus status : statuses ) {
+			writeStatus( output, status, tables );
+		}
+		output.close();
+
+		final byte[] payload = bytes.toByteArray();
+		ByteBuffer buffer = ByteBuffer.allocate( BLOCK_HEADER_SIZE + payload.length );
+		buffer.putInt( payload.length ).putInt( statuses.size() ).putLong( newest ).putLong( oldest ).put( payload ).flip();
+
+		final long position = channel.size();
+		channel.position( position );
+		while ( buffer.hasRemaining() ) {
+			channel.write( buffer );
+		}
+
+		if ( channel == mChannel ) {
+			mBlockOffsets.add( position );
+			mBlockNewestIds.add( newest );
+		}
+	}
+
+	private List<CompactStatus> readBlock( long position ) throws IOException {
+		ByteBuffer header = ByteBuffer.allocate( BLOCK_HEADER_SIZE );
+		readFully( header, position );
+		final int length = header.getInt( 0 );
+		final int count = header.getInt( 4 );
+
+		ByteBuffer payload = ByteBuffer.allocate( length );
+		readFully( payload, position + BLOCK_HEADER_SIZE );
+
+		List<CompactStatus> result = new ArrayList<CompactStatus>( count );
+		DataInputStream input = new DataInputStream( new ByteArrayInputStream( payload.array() ) );
+		try {
+			final String[] strings = new String[readLength( input )];
+			for ( int i = 0; i < strings.length; i++ ) {
+				strings[i] = input.readUTF();
+			}
+
+			final CompactUser[] users = new CompactUser[readLength( input )];
+			for ( int i = 0; i < users.length; i++ ) {
+				users[i] = mCompactor.share( new CompactUser( input.readLong(), getString( strings, input.readInt() ),
+						getString( strings, input.readInt() ), getString( strings, input.readInt() ),
+						getString( strings, input.readInt() ), input.readInt() ) );
+			}
+
+			for ( int i = 0; i < count; i++ ) {
+				result.add( readStatus( input, strings, users ) );
+			}
+		} finally {
+			input.close();
+		}
+		return result;
+	}
+
+	private static void writeStatus( DataOutputStream output, CompactStatus status, BlockTables tables ) throws IOException {
+		output.writeLong( status.getId() );
+		output.writeLong( status.getCreatedAtMillis() );
+		output.writeLong( status.getInReplyToStatusId() );
+		output.writeLong( status.getInReplyToUserId() );
+		output.writeInt( tables.indexOf( status.getInReplyToScreenName() ) );
+		output.writeLong( status.getRetweetCount() );
+		output.writeLong( status.getCurrentUserRetweetId() );
+		output.writeInt( status.getFlags() );
+		output.writeInt( tables.indexOf( status.getUser() ) );
+
+		output.writeBoolean( null != status.getRetweetedStatus() );
+		if ( null != status.getRetweetedStatus() ) {
+			writeStatus( output, status.getRetweetedStatus(), tables );
+		}
+
+		final byte[] text = status.getTextBytes();
+		output.writeInt( text.length );
+		output.write( text );
+
+		final int[] entities = status.getPackedEntities();
+		output.writeInt( entities.length );
+		for ( int value : entities ) {
+			output.writeInt( value );
+		}
+
+		final String[] urls = status.getEntityUrls();
+		output.writeBoolean( null != urls );
+		if ( null != urls ) {
+			for ( String url : urls ) {
+				output.writeInt( tables.indexOf( url ) );
+			}
+		}
+	}
+
+	private static CompactStatus readStatus( DataInputStream input, String[] strings, CompactUser[] users ) throws IOException {
+		final long id = input.readLong();
+		final long createdAt = input.readLong();
+		final long inReplyToStatusId = input.readLong();
+		final long inReplyToUserId = input.readLong();
+		final String inReplyToScreenName = getString( strings, input.readInt() );
+		final long retweetCount = input.readLong();
+		final long currentUserRetweetId = input.readLong();
+		final int flags = input.readInt();
+		final int user = input.readInt();
+		final CompactStatus retweetedStatus = input.readBoolean() ? readStatus( input, strings, users ) : null;
+
+		final byte[] text = new byte[readLength( input )];
+		input.readFully( text );
+
+		final int[] entities = new int[readLength( input )];
+		for ( int i = 0; i < entities.length; i++ ) {
+			entities[i] = input.readInt();
+		}
+
+		String[] urls = null;
+		if ( input.readBoolean() ) {
+			urls = new String[entities.length / 3];
+			for ( int i = 0; i < urls.length; i++ ) {
+				urls[i] = getString( strings, input.readInt() );
+			}
+		}
+
+		if ( user < -1 || user >= users.length ) throw new IOException( "invalid user index: " + user );
+		return new CompactStatus( id, createdAt, inReplyToStatusId, inReplyToUserId, inReplyToScreenName, retweetCount,
+				currentUserRetweetId, flags, user >= 0 ? users[user] : null, retweetedStatus, text, entities, urls );
+	}
+
+	private static int readLength( DataInputStream input ) throws IOException {
+		final int length = input.readInt();
+		if ( length < 0 ) throw new IOException( "invalid length: " + length );
+		return length;
+	}
+
+	private static String getString( String[] strings, int index ) throws IOException {
+		if ( index < -1 || index >= strings.length ) throw new IOException( "invalid string index: " + index );
+		return index >= 0 ? strings[index] : null;
+	}
+
+	/**
+	 * String and user tables of a block being written.
+	 */
+	private static final class BlockTables {
+
+		final List<String> strings = new ArrayList<String>();
+		final Map<String, Integer> stringIndexes = new HashMap<String, Integer>();
+		final List<CompactUser> users = new ArrayList<CompactUser>();
+		final Map<CompactUser, Integer> userIndexes = new HashMap<CompactUser, Integer>();
+
+		void add( CompactStatus status ) {
+			addString( status.getInReplyToScreenName() );
+			addUser( status.getUser() );
+			if ( null != status.getRetweetedStatus() ) {
+				add( status.getRetweetedStatus() );
+			}
+			if ( null != status.getEntityUrls() ) {
+				for ( String url : status.getEntityUrls() ) {
+					addString( url );
+				}
+			}
+		}
+
+		void addUser( CompactUser user ) {
+			if ( null == user || userIndexes.containsKey( user ) ) return;
+
+			userIndexes.put( user, users.size() );
+			users.add( user );
+			addString( user.getScreenName() );
+			addString( user.getName() );
+			addString( user.getProfileImageUrl() );
+			addString( user.getProfileImageUrlHttps() );
+		}
+
+		void addString( String value ) {
+			if ( null == value || stringIndexes.containsKey( value ) ) return;
+
+			stringIndexes.put( value, strings.size() );
+			strings.add( value );
+		}
+
+		int indexOf( String value ) {
+			return null != value ? stringIndexes.get( value ) : -1;
+		}
+
+		int indexOf( CompactUser user ) {
+			return null != user ? userIndexes.get( user ) : -1;
+		}
+
+		void write( DataOutputStream output ) throws IOException {
+			output.writeInt( strings.size() );
+			for ( String value : strings ) {
+				output.writeUTF( value );
+			}
+
+			output.writeInt( users.size() );
+			for ( CompactUser user : users ) {
+				output.writeLong( user.getId() );
+				output.writeInt( indexOf( user.getScreenName() ) );
+				output.writeInt( indexOf( user.getName() ) );
+				output.writeInt( indexOf( user.getProfileImageUrl() ) );
+				output.writeInt( indexOf( user.getProfileImageUrlHttps() ) );
+				output.writeInt( user.getFlags() );
+			}
+		}
+	}
+
+	/**
+	 * Returns the block indexes sorted by decreasing newest id, the last appended first on equal ids.
+	 */
+	private List<Integer> getBlocksNewestFirst() {
+		List<Integer> blocks = new ArrayList<Integer>( mBlockOffsets.size() );
+		for ( int i = mBlockOffsets.size() - 1; i >= 0; i-- ) {
+			blocks.add( i );
+		}
+		Collections.sort( blocks, new Comparator<Integer>() {
+
+			@Override
+			public int compare( Integer lhs, Integer rhs ) {
+				final long l = mBlockNewestIds.get( lhs );
+				final long r = mBlockNewestIds.get( rhs );
+				return l > r ? -1 : ( l == r ? 0 : 1 );
+			}
+		} );
+		return blocks;
+	}
+
+	private static long[] getNewestIds( Set<Long> ids ) {
+		final long[] result = new long[ids.size()];
+		int i = 0;
+		for ( long id : ids ) {
+			result[i++] = -id;
+		}
+		Arrays.sort( result );
+		for ( i = 0; i < result.length; i++ ) {
+			result[i] = -result[i];
+		}
+		return result;
+	}
+
+	private void readFully( ByteBuffer buffer, long position ) throws IOException {
+		while ( buffer.hasRemaining() ) {
+			if ( mChannel.read( buffer, position + buffer.position() ) < 0 ) {
+				throw new IOException( "unexpected end of file" );
+			}
+		}
+	}
+
+	/**
+	 * Rewrite the store keeping only the newest {@link #mMaxEntries} statuses.
+	 */
+	private void compact() throws IOException {
+		Log.i( LOG_TAG, "compact: " + mCount + " -> " + mMaxEntries );
+
+		List<CompactStatus> newest = load( mMaxEntries );
+		File tmp = new File( mFile.getPath() + ".tmp" );
+		RandomAccessFile output = new RandomAccessFile( tmp, "rw" );
+		try {
+			FileChannel channel = output.getChannel();
+			channel.truncate( 0 );
+			writeHeader( channel );
+			writeBlock( channel, newest );
+			channel.force( false );
+		} finally {
+			output.close();
+		}
+
+		closeChannel();
+		if ( !tmp.renameTo( mFile ) ) {
+			throw new IOException( "failed to rename " + tmp );
+		}
+		open();
+	}
+
+	private void reset() {
+		closeChannel();
+		if ( mFile.exists() && !mFile.delete() ) {
+			Log.w( LOG_TAG, "failed to delete " + mFile );
+		}
+	}
+
+	private void closeChannel() {
+		if ( null != mChannel ) {
+			try {
+				mChannel.close();
+			} catch ( IOException e ) {
+				e.printStackTrace();
+			}
+			mChannel = null;
+		}
+		mBlockOffsets.clear();
+		mBlockNewestIds.clear();
+		mCount = 0;
+	}
+}
@@ -0,0 +1,120 @@
+package it.sephiroth.twitter.sdk;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import twitter4j.Status;
+import android.os.Handler;
+import android.os.SystemClock;
+import android.util.Log;
+
+/**
+ * Push channel of statuses toward the UI.<br />
+ * Statuses offered by a producer thread, typically the listener of a streaming connection, are buffered in a
+ * {@link StatusRingBuffer} and delivered in batches on the {@link Handler} thread, at most once per frame interval. When the
+ * consumer falls behind, the overflow policy of the buffer decides which statuses are dropped, and the number of dropped
+ * statuses is reported with the next batch.
+ */
+public class StatusStream {
+
+	private static final String LOG_TAG = "StatusStream";
+
+	public static interface StreamCallback {
+
+		/**
+		 * @param statuses
+		 *           the new statuses, oldest first
+		 * @param dropped
+		 *           number of statuses dropped since the previous batch
+		 */
+		public void onStatuses( List<Status> statuses, int dropped );
+	}
+
+	private final StatusRingBuffer mBuffer;
+	private final Handler mHandler;
+	private final StreamCallback mCallback;
+	private final long mFrameIntervalMillis;
+	private final int mMaxBatchSize;
+
+	private final AtomicBoolean mFramePending = new AtomicBoolean();
+	private volatile boolean mClosed;
+	private volatile long mLastFrameTime;
+
+	private final Runnable mFrame = new Runnable() {
+
+		@Override
+		public void run() {
+			mFramePending.set( false );
+			if ( mClosed ) return;
+
+			mLastFrameTime = SystemClock.uptimeMillis();
+
+			List<Status> batch = new ArrayList<Status>( Math.min( mMaxBatchSize, mBuffer.size() ) );
+			int dropped = mBuffer.drainTo( batch, mMaxBatchSize );
+
+			if ( !batch.isEmpty() || dropped > 0 ) {
+				if ( dropped > 0 ) Log.w( LOG_TAG, "dropped " + dropped + " statuses" );
+				mCallback.onStatuses( batch, dropped );
+			}
+
+			if ( !mBuffer.isEmpty() ) {
+				scheduleFrame();
+			}
+		}
+	};
+
+	/**
+	 * @param handler
+	 *           handler of the thread which receives the batches
+	 * @param callback
+	 *           batches receiver
+	 * @param capacity
+	 *           max number of buffered statuses
+	 * @param overflowPolicy
+	 *           one of the StatusRingBuffer.OVERFLOW_* constants
+	 * @param frameIntervalMillis
+	 *           min interval between two batches
+	 * @param maxBatchSize
+	 *           max number of statuses per batch
+	 */
+	public StatusStream( Handler handler, StreamCallback callback, int capacity, int overflowPolicy, long frameIntervalMillis,
+			int maxBatchSize ) {
+		mBuffer = new StatusRingBuffer( capacity, overflowPolicy );
+		mHandler = handler;
+		mCallback = callback;
+		mFrameIntervalMillis = frameIntervalMillis;
+		mMaxBatchSize = maxBatchSize;
+	}
+
+	/**
+	 * Producer side, must always be called from the same thread.
+	 *
+	 * @return false if the status has been dropped
+	 */
+	public boolean offer( Status status ) {
+		if ( mClosed ) return false;
+
+		boolean result = mBuffer.offer( status );
+		scheduleFrame();
+		return result;
+	}
+
+	/**
+	 * Stop the delivery. Buffered statuses are discarded.
+	 */
+	public void close() {
+		mClosed = true;
+		mHandler.removeCallbacks( mFrame );
+	}
+
+	public boolean isClosed() {
+		return mClosed;
+	}
+
+	private void scheduleFrame() {
+		if ( mFramePending.compareAndSet( false, true ) ) {
+			final long elapsed = SystemClock.uptimeMillis() - mLastFrameTime;
+			mHandler.postDelayed( mFrame, Math.max( 0, mFrameIntervalMillis - elapsed ) );
+		}
+	}
+}
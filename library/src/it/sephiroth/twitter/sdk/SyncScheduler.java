@@ -0,0 +1,344 @@
+package it.sephiroth.twitter.sdk;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import twitter4j.TwitterException;
+
+/**
+ * Polls the subscribed endpoints in background.<br />
+ * Every endpoint has its own interval: it is halved when a fetch returns new items and grows by half when it returns none,
+ * within the configured bounds. Fetches due within a short window are run together, so the device is woken up once per
+ * batch. No fetch is made while offline, and a resource whose rate limit quota is running low is postponed to the
+ * quota reset.<br />
+ * This class only holds the policy: time, network state, fetches and wake-ups go through the {@link Clock},
+ * {@link NetworkStateProvider} and {@link Dispatcher} interfaces, so that it can be driven deterministically by a fake
+ * clock. The Android implementations are in {@link AndroidSyncAdapters}.
+ */
+public class SyncScheduler {
+
+	public static final long DEFAULT_MIN_INTERVAL_MILLIS = 60 * 1000;
+	public static final long DEFAULT_MAX_INTERVAL_MILLIS = 15 * 60 * 1000;
+
+	/** fraction of the min interval used as batching window */
+	private static final int BATCH_WINDOW_DIVISOR = 4;
+
+	public static interface Clock {
+
+		/**
+		 * Monotonic time, in milliseconds, used for the intervals.
+		 */
+		public long uptimeMillis();
+
+		/**
+		 * Wall clock time, in milliseconds since the epoch, used to compare the rate limit reset times.
+		 */
+		public long currentTimeMillis();
+	}
+
+	public static interface NetworkStateProvider {
+
+		public boolean isConnected();
+	}
+
+	/**
+	 * Fetch performed for a subscribed endpoint, on a background thread.
+	 */
+	public static interface SyncTask {
+
+		/**
+		 * @return the number of new items received
+		 */
+		public int fetch() throws TwitterException;
+	}
+
+	/**
+	 * Fetch completing asynchronously, for the endpoints which may join a request already running elsewhere: the fetch is
+	 * started on a background thread and completes on any thread.
+	 */
+	public static interface AsyncSyncTask {
+
+		/**
+		 * Start the fetch. The callback must be invoked exactly once, unless an exception is thrown: the fetch is then
+		 * considered failed.
+		 */
+		public void fetch( FetchCallback callback ) throws TwitterException;
+	}
+
+	/**
+	 * Runs the fetches and plans the wake-ups of the scheduler, see {@link AndroidSyncAdapters.ExecutorDispatcher}.
+	 */
+	public static interface Dispatcher {
+
+		/**
+		 * Start the fetch in background, within the quota of the resource. The callback is always invoked, with 0 new items
+		 * if the fetch failed or has been rejected.
+		 */
+		public void execute( String resource, AsyncSyncTask task, FetchCallback callback );
+
+		/**
+		 * Run the wake-up in background once the {@link Clock} of the scheduler reaches the given uptime.
+		 *
+		 * @param onRejected
+		 *           invoked if the wake-up can't be run once due
+		 * @return the handle to cancel the wake-up, or null if it has been rejected immediately
+		 */
+		public Alarm schedule( Runnable wakeUp, long uptimeMillis, Runnable onRejected );
+
+		/**
+		 * Returns the wall clock time at which the quota of the resource is reset if it's running low, otherwise 0.
+		 */
+		public long getQuotaResetTime( String resource );
+	}
+
+	public static interface FetchCallback {
+
+		public void onFetchComplete( int newItems );
+	}
+
+	public static interface Alarm {
+
+		public void cancel();
+	}
+
+	private static final class Subscription {
+
+		final String name;
+		final String resource;
+		final AsyncSyncTask task;
+		long interval;
+		long nextRun;
+		boolean running;
+
+		Subscription( String name, String resource, AsyncSyncTask task ) {
+			this.name = name;
+			this.resource = resource;
+			this.task = task;
+		}
+	}
+
+	private final Dispatcher mDispatcher;
+	private final Clock mClock;
+	private final NetworkStateProvider mNetwork;
+	private final long mMinInterval;
+	private final long mMaxInterval;
+
+	private final Map<String, Subscription> mSubscriptions = new LinkedHashMap<String, Subscription>();
+	private boolean mStarted;
+	private Alarm mWakeUp;
+	private long mWakeUpTime;
+
+	private final Runnable mWakeUpTask = new Runnable() {
+
+		@Override
+		public void run() {
+			wakeUp();
+		}
+	};
+
+	private final Runnable mWakeUpRejectedTask = new Runnable() {
+
+		@Override
+		public void run() {
+			synchronized ( SyncScheduler.this ) {
+				// the wake-up may have been cancelled, or a later one planned, in the meantime
+				if ( !mStarted || 0 == mWakeUpTime || mWakeUpTime > mClock.uptimeMillis() ) return;
+				schedule( mClock.uptimeMillis() + mMinInterval / BATCH_WINDOW_DIVISOR );
+			}
+		}
+	};
+
+	public SyncScheduler( Dispatcher dispatcher, Clock clock, NetworkStateProvider network, long minIntervalMillis,
+			long maxIntervalMillis ) {
+		if ( minIntervalMillis < 1 || maxIntervalMillis < minIntervalMillis ) {
+			throw new IllegalArgumentException( "invalid intervals: " + minIntervalMillis + ", " + maxIntervalMillis );
+		}
+		mDispatcher = dispatcher;
+		mClock = clock;
+		mNetwork = network;
+		mMinInterval = minIntervalMillis;
+		mMaxInterval = maxIntervalMillis;
+	}
+
+	/**
+	 * Subscribe an endpoint, replacing any previous subscription with the same name. The first fetch is due immediately.
+	 *
+	 * @param resource
+	 *           the {@link RateLimitScheduler} resource of the task
+	 */
+	public void subscribe( String name, String resource, final SyncTask task ) {
+		subscribe( name, resource, new AsyncSyncTask() {
+
+			@Override
+			public void fetch( FetchCallback callback ) throws TwitterException {
+				callback.onFetchComplete( task.fetch() );
+			}
+		} );
+	}
+
+	/**
+	 * Same as {@link #subscribe(String, String, SyncTask)}, for a fetch completing asynchronously.
+	 */
+	public synchronized void subscribe( String name, String resource, AsyncSyncTask task ) {
+		Subscription subscription = new Subscription( name, resource, task );
+		subscription.interval = mMinInterval;
+		subscription.nextRun = mClock.uptimeMillis();
+		mSubscriptions.put( name, subscription );
+		scheduleWakeUp();
+	}
+
+	public synchronized void unsubscribe( String name ) {
+		mSubscriptions.remove( name );
+		scheduleWakeUp();
+	}
+
+	public synchronized boolean isSubscribed( String name ) {
+		return mSubscriptions.containsKey( name );
+	}
+
+	/**
+	 * Returns the current polling interval of the endpoint, or 0 if not subscribed.
+	 */
+	public synchronized long getInterval( String name ) {
+		Subscription subscription = mSubscriptions.get( name );
+		return null != subscription ? subscription.interval : 0;
+	}
+
+	/**
+	 * Returns the uptime of the next planned wake-up, or 0 if none.
+	 */
+	public synchronized long getNextWakeUpTime() {
+		return mWakeUpTime;
+	}
+
+	public synchronized void start() {
+		mStarted = true;
+		scheduleWakeUp();
+	}
+
+	public synchronized void stop() {
+		mStarted = false;
+		cancelWakeUp();
+	}
+
+	/**
+	 * To be called when the connectivity changes: the due fetches are run as soon as the network is back.
+	 */
+	public void onNetworkStateChanged() {
+		if ( mNetwork.isConnected() ) {
+			wakeUp();
+		}
+	}
+
+	/**
+	 * Run all the fetches due now or within the batching window, then plan the next wake-up.
+	 */
+	public void wakeUp() {
+		final List<Subscription> batch = new ArrayList<Subscription>();
+
+		synchronized ( this ) {
+			cancelWakeUp();
+			if ( !mStarted ) return;
+
+			final long now = mClock.uptimeMillis();
+
+			if ( !mNetwork.isConnected() ) {
+				schedule( now + mMinInterval );
+				return;
+			}
+
+			final long window = now + mMinInterval / BATCH_WINDOW_DIVISOR;
+			for ( Subscription subscription : mSubscriptions.values() ) {
+				if ( subscription.running || subscription.nextRun > window ) continue;
+
+				final long postponed = getQuotaResetTime( subscription.resource, now );
+				if ( postponed > 0 ) {
+					subscription.nextRun = postponed;
+					continue;
+				}
+
+				subscription.running = true;
+				batch.add( subscription );
+			}
+			scheduleWakeUp();
+		}
+
+		for ( final Subscription subscription : batch ) {
+			mDispatcher.execute( subscription.resource, subscription.task, new FetchCallback() {
+
+				@Override
+				public void onFetchComplete( int newItems ) {
+					SyncScheduler.this.onFetchComplete( subscription, newItems );
+				}
+			} );
+		}
+	}
+
+	/**
+	 * Adapt the endpoint interval to the fetch result and plan its next run.
+	 */
+	synchronized void onFetchComplete( Subscription subscription, int newItems ) {
+		subscription.running = false;
+
+		if ( newItems > 0 ) {
+			subscription.interval = Math.max( mMinInterval, subscription.interval / 2 );
+		} else {
+			subscription.interval = Math.min( mMaxInterval, subscription.interval + subscription.interval / 2 );
+		}
+		subscription.nextRun = mClock.uptimeMillis() + subscription.interval;
+
+		if ( mSubscriptions.get( subscription.name ) == subscription ) {
+			scheduleWakeUp();
+		}
+	}
+
+	/**
+	 * Returns the uptime at which the resource quota is reset if it's running low, otherwise 0.
+	 */
+	private long getQuotaResetTime( String resource, long now ) {
+		final long resetTime = mDispatcher.getQuotaResetTime( resource );
+		if ( resetTime <= 0 ) return 0;
+
+		final long delay = resetTime - mClock.currentTimeMillis();
+		return delay > 0 ? now + delay : 0;
+	}
+
+	/**
+	 * Plan the wake-up for the earliest pending fetch. Must be called holding the lock.
+	 */
+	private void scheduleWakeUp() {
+		if ( !mStarted ) return;
+
+		long next = Long.MAX_VALUE;
+		for ( Subscription subscription : mSubscriptions.values() ) {
+			if ( !subscription.running ) {
+				next = Math.min( next, subscription.nextRun );
+			}
+		}
+
+		if ( next == Long.MAX_VALUE ) {
+			cancelWakeUp();
+		} else if ( 0 == mWakeUpTime || next < mWakeUpTime ) {
+			schedule( next );
+		}
+	}
+
+	private void schedule( long time ) {
+		cancelWakeUp();
+		mWakeUpTime = time;
+		mWakeUp = mDispatcher.schedule( mWakeUpTask, time, mWakeUpRejectedTask );
+		if ( null == mWakeUp ) {
+			// shut down, the next subscription change tries again
+			mWakeUpTime = 0;
+		}
+	}
+
+	private void cancelWakeUp() {
+		if ( null != mWakeUp ) {
+			mWakeUp.cancel();
+			mWakeUp = null;
+		}
+		mWakeUpTime = 0;
+	}
+}
@@ -0,0 +1,119 @@
+package it.sephiroth.twitter.sdk;
+
+import java.util.List;
+import twitter4j.Paging;
+import twitter4j.Status;
+
+/**
+ * Keeps track of the newest and oldest status ids received for a timeline, in order to build the {@link Paging} used to
+ * fetch only the new statuses (since_id) or the next older page (max_id).<br />
+ * A full page of new statuses may not reach the ones already received: the statuses in between are then marked as a gap,
+ * and the following {@link #newer(int)} calls request the gap, newest first, until it's filled.
+ */
+public class TimelineCursor {
+
+	private long mNewestId;
+	private long mOldestId;
+
+	/** bounds of the missing statuses: since_id, exclusive, and max_id, inclusive. 0 if there is no gap */
+	private long mGapSinceId;
+	private long mGapMaxId;
+
+	/**
+	 * Paging for the statuses newer than the newest one already received, or for the newest statuses of the gap if any.
+	 */
+	public synchronized Paging newer( int count ) {
+		Paging paging = new Paging().count( count );
+		if ( mGapMaxId > 0 ) {
+			paging.setSinceId( mGapSinceId );
+			paging.setMaxId( mGapMaxId );
+		} else if ( mNewestId > 0 ) {
+			paging.setSinceId( mNewestId );
+		}
+		return paging;
+	}
+
+	/**
+	 * Paging for the page of statuses immediately older than the oldest one already received.
+	 */
+	public synchronized Paging older( int count ) {
+		Paging paging = new Paging().count( count );
+		if ( mOldestId > 0 ) {
+			paging.setMaxId( mOldestId - 1 );
+		}
+		return paging;
+	}
+
+	/**
+	 * Update the cursor bounds with the given statuses.
+	 */
+	public synchronized void update( List<Status> statuses ) {
+		for ( Status status : statuses ) {
+			update( status.getId(), status.getId() );
+		}
+	}
+
+	/**
+	 * Update the cursor bounds with a range of statuses already received, such as the stored ones.
+	 */
+	public synchronized void update( long newestId, long oldestId ) {
+		if ( newestId > mNewestId ) mNewestId = newestId;
+		if ( oldestId > 0 && ( mOldestId == 0 || oldestId < mOldestId ) ) mOldestId = oldestId;
+	}
+
+	/**
+	 * Update the cursor with the result of a {@link #newer(int)} request, marking or shrinking the gap.
+	 *
+	 * @param count
+	 *           number of statuses requested. A full page means that more statuses may be missing
+	 */
+	public synchronized void update( Paging paging, int count, List<Status> statuses ) {
+		update( statuses );
+
+		final long sinceId = paging.getSinceId();
+		if ( sinceId <= 0 ) return;
+
+		if ( statuses.size() < count ) {
+			// the page reached the statuses already received
+			if ( paging.getMaxId() > 0 && paging.getMaxId() == mGapMaxId ) {
+				mGapSinceId = 0;
+				mGapMaxId = 0;
+			}
+			return;
+		}
+
+		long oldest = Long.MAX_VALUE;
+		for ( Status status : statuses ) {
+			oldest = Math.min( oldest, status.getId() );
+		}
+		if ( oldest - 1 > sinceId ) {
+			mGapSinceId = sinceId;
+			mGapMaxId = oldest - 1;
+		} else {
+			mGapSinceId = 0;
+			mGapMaxId = 0;
+		}
+	}
+
+	/**
+	 * Returns true if some statuses between the newest and the oldest one received are still missing.
+	 */
+	public synchronized boolean hasGap() {
+		return mGapMaxId > 0;
+	}
+
+	public synchronized long getNewestId() {
+		return mNewestId;
+	}
+
+	public synchronized long getOldestId() {
+		return mOldestId;
+	}
+
+	public synchronized void reset() {
+		mNewestId = 0;
+		mOldestId = 0;
+		mGapSinceId = 0;
+		mGapMaxId = 0;
+	}
+}
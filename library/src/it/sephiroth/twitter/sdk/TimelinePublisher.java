@@ -0,0 +1,352 @@
+package it.sephiroth.twitter.sdk;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import twitter4j.Paging;
+import twitter4j.TwitterException;
+import android.os.Handler;
+import android.util.Log;
+
+/**
+ * Publisher of a timeline, newest status first, driven by the demand of its subscribers.<br />
+ * Nothing is fetched until the subscriber calls {@link Subscription#request(long)}, and every page is sized on the
+ * outstanding demand: a list showing 40 rows downloads 40 statuses. The first page is requested as the statuses newer than
+ * the cached ones; if it's not full the cached statuses follow it with no gap, and are served without network calls until
+ * exhausted. Otherwise the older pages are fetched until one of them reaches the newest cached status, and the cache is
+ * served from there. The pages older than the cache are then fetched on demand. Cancelling the subscription aborts the
+ * page being fetched.<br />
+ * The statuses are delivered as {@link CompactStatus}es, the form held by the list adapters; the fetched ones are interned
+ * in the {@link StatusCache}.<br />
+ * All the signals are delivered on the thread which created the {@link TwitterAndroid} instance.
+ */
+public class TimelinePublisher {
+
+	private static final String LOG_TAG = "TimelinePublisher";
+
+	/** max statuses per page accepted by the timeline endpoints */
+	public static final int MAX_PAGE_SIZE = 200;
+
+	public static interface Subscriber {
+
+		/**
+		 * Invoked once, before any other signal.
+		 */
+		public void onSubscribe( Subscription subscription );
+
+		/**
+		 * Invoked at most as many times as requested.
+		 */
+		public void onNext( CompactStatus status );
+
+		/**
+		 * Terminal signal. Not invoked after {@link Subscription#cancel()}.
+		 */
+		public void onError( TwitterException exception );
+
+		/**
+		 * Terminal signal: the end of the timeline has been reached.
+		 */
+		public void onComplete();
+	}
+
+	public static interface Subscription {
+
+		/**
+		 * Add the given number of statuses to the demand.
+		 *
+		 * @param count
+		 *           must be > 0
+		 */
+		public void request( long count );
+
+		/**
+		 * Stop the delivery and abort the request in progress.
+		 */
+		public void cancel();
+	}
+
+	/**
+	 * Statuses of the timeline. Methods are invoked on a worker thread.
+	 */
+	static interface Source {
+
+		/**
+		 * Returns the cached statuses, newest first.
+		 */
+		public List<CompactStatus> getCached();
+
+		/**
+		 * Fetch a page of the timeline. Must not change the state used by the other timeline readers.
+		 */
+		public List<CompactStatus> fetch( Paging paging ) throws TwitterException;
+	}
+
+	private final RateLimitScheduler.Provider mRateLimits;
+	private final Handler mHandler;
+	private final RequestScope mScope;
+	private final Source mSource;
+
+	/**
+	 * @param rateLimits
+	 *           rate limits of the current account, read for every page
+	 */
+	TimelinePublisher( RateLimitScheduler.Provider rateLimits, Handler handler, RequestScope scope, Source source ) {
+		mRateLimits = rateLimits;
+		mHandler = handler;
+		mScope = scope;
+		mSource = source;
+	}
+
+	/**
+	 * Subscribe to the timeline. Every subscription reads the timeline from the start, independently of the others.
+	 */
+	public void subscribe( final Subscriber subscriber ) {
+		final TimelineSubscription subscription = new TimelineSubscription( subscriber );
+		mHandler.post( new Runnable() {
+
+			@Override
+			public void run() {
+				subscriber.onSubscribe( subscription );
+			}
+		} );
+	}
+
+	private final class TimelineSubscription implements Subscription {
+
+		private final Subscriber mSubscriber;
+
+		/** requested statuses not yet fetched */
+		private long mDemand;
+		private boolean mFetching;
+		private boolean mCancelled;
+		private boolean mTerminated;
+		private RequestHandle mHandle;
+
+		// accessed only by the fetch in progress
+		private boolean mHeadFetched;
+		private boolean mCacheUsable;
+		private List<CompactStatus> mCached;
+		private long mLastId;
+
+		TimelineSubscription( Subscriber subscriber ) {
+			mSubscriber = subscriber;
+		}
+
+		@Override
+		public void request( long count ) {
+			if ( count <= 0 ) throw new IllegalArgumentException( "count must be > 0" );
+
+			synchronized ( this ) {
+				mDemand = mDemand + count < 0 ? Long.MAX_VALUE : mDemand + count;
+			}
+			drain();
+		}
+
+		@Override
+		public void cancel() {
+			final RequestHandle handle;
+			synchronized ( this ) {
+				if ( mCancelled ) return;
+				mCancelled = true;
+				handle = mHandle;
+				mHandle = null;
+			}
+			Log.d( LOG_TAG, "cancelled" );
+			if ( null != handle ) {
+				handle.cancel();
+			}
+		}
+
+		/**
+		 * Start fetching the next page, if there is demand and no fetch is running.
+		 */
+		private void drain() {
+			final RequestHandle handle;
+			synchronized ( this ) {
+				if ( mCancelled || mTerminated || mFetching || mDemand == 0 ) return;
+				mFetching = true;
+				handle = mScope.add( new RequestHandle() );
+				mHandle = handle;
+			}
+
+			mRateLimits.get().execute( TwitterExecutor.LANE_DATA, RateLimitScheduler.RESOURCE_USER_TIMELINE, new Runnable() {
+
+				@Override
+				public void run() {
+					if ( handle.isCancelled() ) {
+						onCancelled();
+						return;
+					}
+
+					RequestHandle.bind( handle );
+					try {
+						fetchPage( handle );
+					} finally {
+						RequestHandle.unbind();
+					}
+				}
+			}, new Runnable() {
+
+				@Override
+				public void run() {
+					handle.finish();
+					terminate( new TwitterException( "request rejected" ) );
+				}
+			} );
+		}
+
+		/**
+		 * Fetch the next page and deliver it, on the worker thread.
+		 */
+		private void fetchPage( RequestHandle handle ) {
+			final int count;
+			synchronized ( this ) {
+				count = (int) Math.min( mDemand, MAX_PAGE_SIZE );
+			}
+
+			List<CompactStatus> page;
+			try {
+				if ( null == mCached ) {
+					mCached = mSource.getCached();
+				}
+
+				if ( !mHeadFetched ) {
+					Paging paging = new Paging( 1, count );
+					if ( !mCached.isEmpty() ) {
+						paging.setSinceId( mCached.get( 0 ).getId() );
+					}
+					page = mSource.fetch( paging );
+					mHeadFetched = true;
+					// a page not full reached the cached statuses
+					mCacheUsable = !mCached.isEmpty() && page.size() < count;
+					Log.d( LOG_TAG, "head: " + page.size() + " statuses, cache usable: " + mCacheUsable );
+
+					if ( page.isEmpty() && mCacheUsable ) {
+						// nothing newer than the cache
+						page = takeCached( count );
+					}
+				} else {
+					page = mCacheUsable ? takeCached( count ) : Collections.<CompactStatus> emptyList();
+					if ( page.isEmpty() ) {
+						final boolean cacheConsumed = mCacheUsable;
+						mCacheUsable = false;
+						Paging paging = new Paging( 1, count );
+						paging.setMaxId( mLastId - 1 );
+						page = mSource.fetch( paging );
+
+						if ( !cacheConsumed && reachesCache( page ) ) {
+							// the gap between the head and the cache is filled, the rest of the page is cached
+							Log.d( LOG_TAG, "cache reached" );
+							mCacheUsable = true;
+						}
+					}
+				}
+			} catch ( TwitterException e ) {
+				handle.finish();
+				if ( handle.isCancelled() ) {
+					onCancelled();
+				} else {
+					terminate( e );
+				}
+				return;
+			}
+			handle.finish();
+
+			final List<CompactStatus> result = new ArrayList<CompactStatus>( Math.min( page.size(), count ) );
+			for ( CompactStatus status : page ) {
+				if ( result.size() == count ) break;
+				if ( mLastId == 0 || status.getId() < mLastId ) {
+					result.add( status );
+					mLastId = status.getId();
+				}
+			}
+
+			if ( result.isEmpty() ) {
+				terminate( null );
+				return;
+			}
+
+			synchronized ( this ) {
+				mDemand -= result.size();
+			}
+			deliver( result );
+		}
+
+		/**
+		 * Returns true if the page holds the newest cached status, or an older one.
+		 */
+		private boolean reachesCache( List<CompactStatus> page ) {
+			if ( mCached.isEmpty() || page.isEmpty() ) return false;
+			return page.get( page.size() - 1 ).getId() <= mCached.get( 0 ).getId();
+		}
+
+		private List<CompactStatus> takeCached( int count ) {
+			List<CompactStatus> result = new ArrayList<CompactStatus>( count );
+			for ( CompactStatus status : mCached ) {
+				if ( result.size() == count ) break;
+				if ( mLastId == 0 || status.getId() < mLastId ) {
+					result.add( status );
+				}
+			}
+			return result;
+		}
+
+		private void deliver( final List<CompactStatus> statuses ) {
+			mHandler.post( new Runnable() {
+
+				@Override
+				public void run() {
+					for ( CompactStatus status : statuses ) {
+						synchronized ( TimelineSubscription.this ) {
+							if ( mCancelled || mTerminated ) return;
+						}
+						mSubscriber.onNext( status );
+					}
+
+					synchronized ( TimelineSubscription.this ) {
+						mFetching = false;
+						mHandle = null;
+					}
+					drain();
+				}
+			} );
+		}
+
+		private void onCancelled() {
+			synchronized ( this ) {
+				mFetching = false;
+				mHandle = null;
+				if ( mCancelled ) return;
+			}
+			// the handle has been cancelled by its scope, on logout
+			terminate( new TwitterException( "request cancelled" ) );
+		}
+
+		/**
+		 * Deliver the terminal signal: complete if the exception is null.
+		 */
+		private void terminate( final TwitterException exception ) {
+			synchronized ( this ) {
+				if ( mTerminated ) return;
+				mTerminated = true;
+				mHandle = null;
+			}
+
+			mHandler.post( new Runnable() {
+
+				@Override
+				public void run() {
+					synchronized ( TimelineSubscription.this ) {
+						if ( mCancelled ) return;
+					}
+					if ( null != exception ) {
+						mSubscriber.onError( exception );
+					} else {
+						mSubscriber.onComplete();
+					}
+				}
+			} );
+		}
+	}
+}
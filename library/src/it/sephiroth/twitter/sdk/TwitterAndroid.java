@@ -1,19 +1,30 @@
 package it.sephiroth.twitter.sdk;
 
-import java.util.Iterator;
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import twitter4j.DirectMessage;
+import twitter4j.Paging;
 import twitter4j.ResponseList;
 import twitter4j.Status;
 import twitter4j.Twitter;
 import twitter4j.TwitterException;
 import twitter4j.TwitterFactory;
+import twitter4j.User;
 import twitter4j.auth.AccessToken;
+import twitter4j.auth.RequestToken;
 import twitter4j.conf.Configuration;
+import twitter4j.internal.json.DataObjectFactoryUtil;
 import android.content.Context;
 import android.content.DialogInterface;
 import android.content.SharedPreferences;
 import android.content.SharedPreferences.Editor;
 import android.os.Handler;
-import android.os.Message;
+import android.os.SystemClock;
 import android.util.Log;
 
 public class TwitterAndroid {
@@ -28,19 +39,157 @@ public class TwitterAndroid {
 
 	private static final String PREF_NAME = "TwitterAndroidSDK-Pref";
 
+	private static final String TIMELINE_STORE_NAME = "TwitterAndroidSDK-timeline-%d.bin";
+
+	private static final String OUTBOX_JOURNAL_NAME = "TwitterAndroidSDK-outbox.journal";
+
 	private static final String PREF_KEY_LOGGED = "logged_in";
 	private static final String PREF_KEY_OAUTH_TOKEN = "oauth_token";
 	private static final String PREF_KEY_OAUTH_SECRET = "oauth_token_secret";
 	private static final String PREF_KEY_OAUTH_USERID = "oauth_token_userid";
 	private static final String PREF_KEY_OAUTH_SCREENNAME = "oauth_screen_name";
 
-	private static final int ACTION_SEND_CALLBACK = 2;
+	/** max time, in milliseconds, the constructor is expected to block the caller thread */
+	private static final long STARTUP_TIME_TARGET_MILLIS = 5;
+
+	private static final int TIMELINE_PAGE_SIZE = 20;
+
+	/** max pages fetched by a single refresh to fill the gap with the statuses already received */
+	private static final int MAX_GAP_PAGES = 5;
+
+	private static final long FANOUT_TIMEOUT_MILLIS = 10000;
+
+	/** delay before queueing again the session restore rejected by a full auth lane */
+	private static final long RESTORE_RETRY_DELAY_MILLIS = 100;
+
+	/** all the refreshes share the same key, so that repeated taps are served by the same request */
+	private static final String USER_TIMELINE_NEWER_KEY = "user_timeline:newer";
+
+	/** estimated size, in bytes, of a full status until one has been measured */
+	private static final long DEFAULT_FULL_STATUS_BYTES = 3000;
+
+	private static final int STREAM_CAPACITY = 256;
+	private static final long STREAM_FRAME_INTERVAL_MILLIS = 200;
+	private static final int STREAM_MAX_BATCH_SIZE = 50;
+
+	private final Configuration configuration;
+	private final Object twitterLock = new Object();
+	private Twitter twitter;
+	private AccessToken twitterAccessToken;
+	private volatile AccessToken activeAccessToken;
 
-	private final Twitter twitter;
+	private PreparedLogin preparedLogin;
 
+	private final Context appContext;
 	private final SharedPreferences prefs;
 	private final Handler handler;
-	private final StatusCallback statusCallback;
+	private final SessionStateMachine sessionStateMachine;
+	private final SessionManager sessionManager;
+	private final Outbox outbox;
+	/** user id of the account owning the timeline data, also while disconnected */
+	private volatile long accountUserId;
+	private final TwitterExecutor executor;
+	private final boolean optimisticLogin;
+	/** timeline cursor of every account, dropped with the account data */
+	private final LongHashMap<TimelineCursor> timelineCursors = new LongHashMap<TimelineCursor>();
+	/** rate limits of the calls made before the account is signed in, the signed in accounts have their own */
+	private final RateLimitScheduler rateLimits;
+	private final StatusCache statusCache;
+	private final StatusCompactor statusCompactor = new StatusCompactor();
+	private final SearchIndex searchIndex;
+	private final SyncScheduler syncScheduler;
+	/** requests of the current account, cancelled on logout and on account switch */
+	private final RequestScope sessionScope = new RequestScope();
+	/** restores the saved session on the auth lane */
+	private final Runnable restoreTask = new Runnable() {
+
+		@Override
+		public void run() {
+			restoreSession();
+		}
+	};
+	private final TimelinePublisher timelinePublisher;
+	private final RequestCoalescer<List<Status>> timelineRequests;
+	private StatusStore timelineStore;
+	private long timelineStoreUserId;
+	private final int timelineStoreSize;
+	private final Object storedTimelineLock = new Object();
+	private List<CompactStatus> storedTimeline;
+	private final RequestProfile requestProfile;
+	private final boolean clearJSONStore;
+	/** running average of the response size of a full status */
+	private volatile long fullStatusBytes = DEFAULT_FULL_STATUS_BYTES;
+	private volatile RequestReportListener requestReportListener;
+
+	/**
+	 * Optional settings used to create a new {@link TwitterAndroid} instance.
+	 */
+	public static final class Options {
+
+		/**
+		 * Executor used for all the network calls. If null {@link TwitterExecutor#getDefault()} is used
+		 */
+		public TwitterExecutor executor;
+
+		/**
+		 * If true a saved session is restored as {@link SessionState#CONNECTED} immediately, and the access token is verified
+		 * in background. The session moves to {@link SessionState#LOGIN_FAILED} only if the server rejects the token
+		 */
+		public boolean optimisticLogin = true;
+
+		/**
+		 * Max number of timeline statuses persisted on disk and served by {@link TwitterAndroid#loadStoredTimeline(StoredTimelineCallback)}
+		 */
+		public int timelineStoreSize = 200;
+
+		/**
+		 * Max number of statuses kept in memory by the {@link StatusCache}
+		 */
+		public int statusCacheSize = 1000;
+
+		/**
+		 * Max estimated memory, in bytes, used by the {@link StatusCache}
+		 */
+		public long statusCacheMaxBytes = 2 * 1024 * 1024;
+
+		/**
+		 * How long, in milliseconds, the result of a timeline request is reused for identical requests
+		 */
+		public long requestCoalesceTtl = 2000;
+
+		/**
+		 * Max number of idle connections kept alive by the {@link SharedHttpClient}. Only the value of the first instance
+		 * created is used
+		 */
+		public int httpMaxConnections = SharedHttpClient.DEFAULT_MAX_CONNECTIONS;
+
+		/**
+		 * If true the statuses held by the {@link StatusCache} are indexed for {@link TwitterAndroid#search(String, int)}
+		 */
+		public boolean searchIndexEnabled = true;
+
+		/**
+		 * Shortest interval, in milliseconds, between two background refreshes of the same endpoint
+		 */
+		public long syncMinInterval = SyncScheduler.DEFAULT_MIN_INTERVAL_MILLIS;
+
+		/**
+		 * Longest interval, in milliseconds, between two background refreshes of the same endpoint
+		 */
+		public long syncMaxInterval = SyncScheduler.DEFAULT_MAX_INTERVAL_MILLIS;
+
+		/**
+		 * Shape of the timeline requests, see {@link RequestProfile}. Use {@link RequestProfile#LIGHT} to download only the
+		 * status texts, the users are then read from {@link TwitterAndroid#getUser(long)}
+		 */
+		public RequestProfile requestProfile = RequestProfile.FULL;
+
+		/**
+		 * If false, and the Configuration has the JSON store enabled anyway, the raw JSON kept by twitter4j for every response
+		 * is released right after each timeline request
+		 */
+		public boolean jsonStoreEnabled = false;
+	}
 
 	public static final class Session {
 
@@ -108,129 +257,357 @@ public class TwitterAndroid {
 		}
 	}
 
-	private SessionState mSessionState;
-
 	public static interface StatusCallback {
 
 		public void call( SessionState newState );
 	}
 
-	private Handler.Callback handlerCallback = new Handler.Callback() {
+	/**
+	 * Receives the result of a timeline request, always on the thread which created the {@link TwitterAndroid} instance.
+	 */
+	public static interface TimelineCallback {
 
-		@Override
-		public boolean handleMessage( Message msg ) {
-			final int action = msg.what;
+		public void onTimelineLoaded( List<Status> statuses );
 
-			Log.i( LOG_TAG, "handleMessage: " + action );
+		public void onTimelineError( TwitterException exception );
+	}
 
-			switch ( action ) {
-				case ACTION_SEND_CALLBACK:
-					SessionState state = (SessionState) msg.obj;
-					statusCallback.call( state );
-					break;
-			}
+	/**
+	 * Receives the statuses persisted by the previous sessions, on the thread which created the {@link TwitterAndroid}
+	 * instance. They are read from the compact on-disk records, see {@link CompactStatus}.
+	 */
+	public static interface StoredTimelineCallback {
 
-			return false;
+		public void onStoredTimelineLoaded( List<CompactStatus> statuses );
+	}
+
+	/**
+	 * Receives the aggregated result of {@link TwitterAndroid#loadHomeScreen(int, long, FanOutCallback)}, on the thread which
+	 * created the {@link TwitterAndroid} instance.
+	 */
+	public static interface FanOutCallback {
+
+		public void onFanOutComplete( FanOutResult result );
+	}
+
+	/**
+	 * Receives the size of every timeline response, on the thread which created the {@link TwitterAndroid} instance.
+	 */
+	public static interface RequestReportListener {
+
+		/**
+		 * @param bytesReceived
+		 *           size of the response body, 0 if the {@link SharedHttpClient} is not installed
+		 * @param bytesSaved
+		 *           estimated difference with the same statuses requested in full
+		 */
+		public void onRequestReport( String endpoint, RequestProfile profile, int statusCount, long bytesReceived,
+				long bytesSaved );
+	}
+
+	/**
+	 * Account a request is issued for, with its rate limits and timeline cursor. Captured when the request is issued, so
+	 * that a request completing after an account switch never touches the data of the account active then.
+	 */
+	private final class AccountContext {
+
+		final long userId;
+		final RateLimitScheduler rateLimits;
+		final TimelineCursor cursor;
+
+		AccountContext( long userId, RateLimitScheduler rateLimits, TimelineCursor cursor ) {
+			this.userId = userId;
+			this.rateLimits = rateLimits;
+			this.cursor = cursor;
 		}
-	};
+
+		/**
+		 * Returns the client of the account kept by the {@link SessionManager}, or the shared one if the account is not
+		 * signed in.
+		 */
+		Twitter getClient() {
+			final Twitter twitter = sessionManager.getClient( userId );
+			return null != twitter ? twitter : getTwitter();
+		}
+	}
 
 	public TwitterAndroid( Context context, StatusCallback callback, Configuration configuration ) {
-		TwitterFactory factory = new TwitterFactory( configuration );
-		twitter = factory.getInstance();
-		prefs = context.getApplicationContext().getSharedPreferences( PREF_NAME, Context.MODE_PRIVATE );
-		handler = new Handler( handlerCallback );
-		statusCallback = callback;
+		this( context, callback, configuration, new Options() );
+	}
+
+	/**
+	 * The constructor does not perform any disk or network I/O: the saved session is restored in background and the
+	 * {@link StatusCallback} is notified once done.
+	 */
+	public TwitterAndroid( Context context, StatusCallback callback, Configuration configuration, Options options ) {
+		final long startTime = SystemClock.uptimeMillis();
+		SharedHttpClient.install( options.httpMaxConnections );
+
+		executor = null != options.executor ? options.executor : TwitterExecutor.getDefault();
+		rateLimits = new RateLimitScheduler( executor );
+		optimisticLogin = options.optimisticLogin;
+		this.configuration = configuration;
+		appContext = context.getApplicationContext();
+		prefs = appContext.getSharedPreferences( PREF_NAME, Context.MODE_PRIVATE );
+		handler = new Handler();
+		sessionStateMachine = new SessionStateMachine( handler, executor, TwitterExecutor.LANE_AUTH,
+				new SessionStateMachine.Effects() {
+
+					@Override
+					public void apply( SessionState state ) {
+						applySessionState( state );
+					}
+				} );
+		if ( null != callback ) {
+			sessionStateMachine.addListener( callback );
+		}
+		statusCache = new StatusCache( options.statusCacheSize, options.statusCacheMaxBytes, statusCompactor );
+		searchIndex = options.searchIndexEnabled ? new SearchIndex() : null;
+		statusCache.setListener( searchIndex );
+		timelineRequests = new RequestCoalescer<List<Status>>( options.requestCoalesceTtl );
+		timelineStoreSize = options.timelineStoreSize;
+		sessionManager = new SessionManager( prefs, configuration, executor );
+		final RateLimitScheduler.Provider accountRateLimits = new RateLimitScheduler.Provider() {
+
+			@Override
+			public RateLimitScheduler get() {
+				return getAccountRateLimits( accountUserId );
+			}
+		};
+		syncScheduler = new SyncScheduler( new AndroidSyncAdapters.ExecutorDispatcher( executor, accountRateLimits,
+				AndroidSyncAdapters.SYSTEM_CLOCK ), AndroidSyncAdapters.SYSTEM_CLOCK,
+				new AndroidSyncAdapters.ConnectivityStateProvider( appContext ), options.syncMinInterval, options.syncMaxInterval );
+		requestProfile = null != options.requestProfile ? options.requestProfile : RequestProfile.FULL;
+		clearJSONStore = !options.jsonStoreEnabled && configuration.isJSONStoreEnabled();
+		if ( clearJSONStore ) {
+			Log.w( LOG_TAG, "jsonStoreEnabled is set in the configuration, the raw JSON is released after every timeline request" );
+		}
+		timelinePublisher = new TimelinePublisher( accountRateLimits, handler, sessionScope,
+				new TimelinePublisher.Source() {
+
+			@Override
+			public List<CompactStatus> getCached() {
+				if ( !isLogged() ) return new ArrayList<CompactStatus>();
+				final long userId = accountUserId;
+				return getStoredTimeline( userId, getTimelineCursor( userId ) );
+			}
 
-		mSessionState = new SessionState( SessionState.INVALID );
+			@Override
+			public List<CompactStatus> fetch( Paging paging ) throws TwitterException {
+				if ( !isLogged() ) throw new TwitterException( "not logged" );
+				// subscribers read the timeline independently: the cursor of the refreshes and the store are left untouched
+				return statusCache.internAll( fetchUserTimeline( getAccount(), paging, requestProfile ) );
+			}
+		} );
+		outbox = new Outbox( appContext, OUTBOX_JOURNAL_NAME, sessionManager, executor, handler );
+
+		// the saved session is never restored on the calling thread, which is usually the main one
+		if ( !executor.execute( TwitterExecutor.LANE_AUTH, restoreTask ) ) {
+			retryRestore();
+		}
+
+		final long elapsed = SystemClock.uptimeMillis() - startTime;
+		if ( elapsed > STARTUP_TIME_TARGET_MILLIS ) {
+			Log.w( LOG_TAG, "startup took " + elapsed + "ms, target is " + STARTUP_TIME_TARGET_MILLIS + "ms" );
+		} else {
+			Log.i( LOG_TAG, "startup took " + elapsed + "ms" );
+		}
+	}
+
+	/**
+	 * Queue again the session restore rejected by the auth lane, unless the executor has been shut down.
+	 */
+	private void retryRestore() {
+		if ( executor.isShutdown() ) {
+			Log.e( LOG_TAG, "executor shut down, the saved session is not restored" );
+			return;
+		}
+
+		executor.schedule( TwitterExecutor.LANE_AUTH, restoreTask, RESTORE_RETRY_DELAY_MILLIS, new Runnable() {
+
+			@Override
+			public void run() {
+				retryRestore();
+			}
+		} );
+	}
+
+	private void restoreSession() {
+		outbox.open();
 
 		AccessToken accessToken = getSavedAccessToken();
 		Log.i( LOG_TAG, "saved accessToken: " + accessToken );
 
 		if ( null != accessToken ) {
+			accountUserId = accessToken.getUserId();
+			preloadStoredTimeline();
 			performAutoLogin( accessToken );
 		} else {
 			setSessionState( SessionState.DISCONNECTED );
 		}
 	}
 
-	private boolean setSessionState( int state ) {
-		return setSessionState( new SessionState( state ) );
+	/**
+	 * Returns the shared twitter client, created on first use, with the access token of the active session. Used for the
+	 * access tokens not yet signed in; the requests of a signed in account use its own client, see {@link AccountContext}.
+	 */
+	private Twitter getTwitter() {
+		synchronized ( twitterLock ) {
+			if ( null == twitter ) {
+				Log.i( LOG_TAG, "creating twitter client" );
+				twitter = new TwitterFactory( configuration ).getInstance();
+			}
+
+			final AccessToken accessToken = activeAccessToken;
+			if ( twitterAccessToken != accessToken ) {
+				Log.d( LOG_TAG, "setAccessToken: " + accessToken );
+				twitter.setOAuthAccessToken( accessToken );
+				twitterAccessToken = accessToken;
+			}
+			return twitter;
+		}
 	}
 
-	private synchronized boolean setSessionState( SessionState newState ) {
+	/**
+	 * Returns the current account, with the rate limits kept by the {@link SessionManager}.
+	 */
+	private AccountContext getAccount() {
+		final long userId = accountUserId;
+		return new AccountContext( userId, getAccountRateLimits( userId ), getTimelineCursor( userId ) );
+	}
 
-		Log.i( LOG_TAG, "setStatus: " + newState.getState() + " from " + mSessionState.getState() );
-		
-		final int old_state = mSessionState.getState();
-		final int new_state = newState.getState();
+	/**
+	 * Returns the rate limits of the given account, or the shared ones if the account is not signed in.
+	 */
+	private RateLimitScheduler getAccountRateLimits( long userId ) {
+		final RateLimitScheduler result = sessionManager.getRateLimits( userId );
+		return null != result ? result : rateLimits;
+	}
 
-		boolean handled = false;
+	private TimelineCursor getTimelineCursor( long userId ) {
+		synchronized ( timelineCursors ) {
+			TimelineCursor cursor = timelineCursors.get( userId );
+			if ( null == cursor ) {
+				cursor = new TimelineCursor();
+				timelineCursors.put( userId, cursor );
+			}
+			return cursor;
+		}
+	}
 
-		if ( old_state != new_state ) {
+	/**
+	 * Set the access token used by the twitter client. It's applied the next time the client is used.
+	 */
+	private void setActiveAccessToken( AccessToken accessToken ) {
+		activeAccessToken = accessToken;
+	}
 
-			switch ( new_state ) {
-				case SessionState.CONNECTING:
-					if ( old_state != SessionState.CONNECTING ) {
-						handled = true;
-					}
-					break;
-
-				case SessionState.CONNECTED:
-					if ( old_state == SessionState.CONNECTING ) {
-
-						Session session = newState.getActiveSession();
-						AccessToken accessToken = session.getAccessToken();
-						saveAccessToken( accessToken.getToken(), accessToken.getTokenSecret(), session.getUserId(), session.getScreenName() );
-						
-						Log.e( LOG_TAG, "setAccessToken: " + accessToken );
-						twitter.setOAuthAccessToken( accessToken );
-						handled = true;
-					}
-					break;
+	private boolean setSessionState( int state ) {
+		return setSessionState( new SessionState( state ) );
+	}
 
-				case SessionState.DISCONNECTED:
-					if ( old_state != SessionState.DISCONNECTED ) {
-						clearAccessToken();
-						handled = true;
-					}
-					break;
+	/**
+	 * Move to the new state. Its side effects are applied later on the auth lane, in transition order, so that a DISCONNECTED
+	 * quickly followed by a CONNECTING still clears the session.
+	 */
+	private boolean setSessionState( SessionState newState ) {
+		return sessionStateMachine.transition( newState );
+	}
 
-				case SessionState.LOGIN_FAILED:
-					if ( old_state == SessionState.CONNECTING ) {
-						clearAccessToken();
-						handled = true;
-					}
-					break;
-			}
+	/**
+	 * Apply the side effects of a session state entered. Invoked by the session state machine, one state at a time.
+	 */
+	private void applySessionState( SessionState state ) {
+		switch ( state.getState() ) {
+			case SessionState.CONNECTED:
+				Session session = state.getActiveSession();
+				AccessToken accessToken = session.getAccessToken();
+				saveAccessToken( accessToken.getToken(), accessToken.getTokenSecret(), session.getUserId(), session.getScreenName() );
+				sessionManager.add( session );
+				sessionManager.setActive( session.getUserId() );
+
+				if ( accountUserId != session.getUserId() ) {
+					Log.i( LOG_TAG, "account changed: " + accountUserId + " -> " + session.getUserId() );
+					resetAccountData();
+					accountUserId = session.getUserId();
+				}
+				setActiveAccessToken( accessToken );
+				outbox.drain();
+				break;
+
+			case SessionState.DISCONNECTED:
+			case SessionState.LOGIN_FAILED:
+				clearAccessToken();
+				break;
 		}
+	}
 
-		if ( handled ) {
-			mSessionState = newState;
-			sendCallback( mSessionState );
-		} else {
-			Log.e( LOG_TAG, "error, " + new_state + " == old state" );
-		}
-		return handled;
+	private SessionState getSessionState() {
+		return sessionStateMachine.get();
 	}
 
-	private synchronized SessionState getSessionState() {
-		return mSessionState;
+	/**
+	 * Register a new listener of the session state changes. Listeners are invoked on the thread which created this instance,
+	 * and rapid successive changes are coalesced into the latest state.
+	 */
+	public void addStatusCallback( StatusCallback callback ) {
+		sessionStateMachine.addListener( callback );
 	}
 
-	private void sendCallback( SessionState state ) {
-		Log.i( LOG_TAG, "sendCallback: " + state.getState() );
-		Message message = handler.obtainMessage( ACTION_SEND_CALLBACK, state );
-		handler.sendMessage( message );
+	public void removeStatusCallback( StatusCallback callback ) {
+		sessionStateMachine.removeListener( callback );
 	}
 
+	/**
+	 * Sign out the active account, which is removed from the {@link SessionManager}.
+	 */
 	public void logout() {
 		Log.i( LOG_TAG, "logout" );
+
+		final Session session = getSessionState().getActiveSession();
+		if ( null != session ) {
+			outbox.removeAll( session.getUserId() );
+			sessionManager.remove( session.getUserId() );
+		}
 		setSessionState( SessionState.DISCONNECTED );
 	}
 
+	/**
+	 * Make the given account, previously signed in with {@link #login(Context)}, the active one. No network call is
+	 * performed: the saved session is used as is.
+	 *
+	 * @return false if the account is unknown
+	 */
+	public boolean switchAccount( long userId ) {
+		Log.i( LOG_TAG, "switchAccount: " + userId );
+
+		final Session session = sessionManager.get( userId );
+		if ( null == session ) return false;
+
+		final Session current = getSessionState().getActiveSession();
+		if ( isLogged() && null != current && current.getUserId() == userId ) return true;
+
+		return setSessionState( SessionState.CONNECTING )
+				&& setSessionState( SessionState.create( SessionState.CONNECTED, session ) );
+	}
+
+	/**
+	 * Returns the manager of all the signed in accounts. Calling {@link #login(Context)} while already logged adds a new
+	 * account.
+	 */
+	public SessionManager getSessionManager() {
+		return sessionManager;
+	}
+
+	/**
+	 * Show the login dialog. When already logged a new account is added: if the dialog is cancelled or the authorization
+	 * denied, the account logged before is restored.
+	 */
 	public void login( Context context ) {
 		Log.i( LOG_TAG, "login" );
 
+		final Session previous = isLogged() ? getSessionState().getActiveSession() : null;
+
 		if ( setSessionState( SessionState.CONNECTING ) ) {
 
 			DialogInterface.OnCancelListener cancelListener = new DialogInterface.OnCancelListener() {
@@ -239,7 +616,7 @@ public class TwitterAndroid {
 				public void onCancel( DialogInterface dialog ) {
 					Log.i( LOG_TAG, "onCancel" );
 					( (TwitterDialog) dialog ).setOnTwitterDialogListener( null );
-					logout();
+					abortLogin( previous );
 				}
 			};
 
@@ -257,31 +634,134 @@ public class TwitterAndroid {
 				@Override
 				public void onAuthorizationDenied() {
 					Log.i( LOG_TAG, "onAuthorizationDenied" );
-					logout();
+					abortLogin( previous );
 				}
 			};
 
-			final TwitterDialog dialog = new TwitterDialog( context, twitter.getConfiguration() );
+			PreparedLogin prepared = preparedLogin;
+			if ( null != prepared && prepared.isUsableWith( context ) ) {
+				preparedLogin = null;
+				handler.removeCallbacksAndMessages( prepared );
+			} else {
+				cancelPrepareLogin();
+				prepared = null;
+			}
+
+			final TwitterDialog dialog = new TwitterDialog( context, configuration, executor, prepared );
 			dialog.setOnTwitterDialogListener( twitterDialogCallback );
 			dialog.setOnCancelListener( cancelListener );
 			dialog.show();
 		}
 	}
 
+	/**
+	 * Leave the CONNECTING state of a login not completed: the previous account, if any and still signed in, is made active
+	 * again, otherwise the session is disconnected. No account is removed.
+	 */
+	private void abortLogin( Session previous ) {
+		if ( null != previous && null != sessionManager.get( previous.getUserId() )
+				&& setSessionState( SessionState.create( SessionState.CONNECTED, previous ) ) ) {
+			Log.i( LOG_TAG, "login aborted, restored " + previous.getUserId() );
+			return;
+		}
+		setSessionState( SessionState.DISCONNECTED );
+	}
+
+	/**
+	 * Prepare a following {@link #login(Context)} call with the same context: the request token is fetched in background and
+	 * the authorization page is preloaded, so that the login dialog shows it almost instantly.<br />
+	 * Must be called on the main thread. The prepared request token expires after a few minutes, the preloaded page is then
+	 * released.
+	 *
+	 * @see #cancelPrepareLogin()
+	 */
+	public void prepareLogin( Context context ) {
+		Log.i( LOG_TAG, "prepareLogin" );
+
+		if ( isLogged() ) return;
+		if ( null != preparedLogin && preparedLogin.isUsableWith( context ) ) return;
+		cancelPrepareLogin();
+
+		final PreparedLogin prepared = new PreparedLogin( context );
+		preparedLogin = prepared;
+
+		executor.execute( TwitterExecutor.LANE_AUTH, new Runnable() {
+
+			@Override
+			public void run() {
+				try {
+					final long startTime = Metrics.start();
+					RequestToken requestToken = new TwitterFactory( configuration ).getInstance().getOAuthRequestToken();
+					Metrics.recordAuthPhase( Metrics.PHASE_REQUEST_TOKEN, startTime );
+					Log.d( LOG_TAG, "prepared request token: " + requestToken.getToken() );
+					prepared.setRequestToken( requestToken );
+
+					handler.post( new Runnable() {
+
+						@Override
+						public void run() {
+							prepared.loadAuthorizationPage();
+						}
+					} );
+					releasePreparedLoginAt( prepared, SystemClock.uptimeMillis() + PreparedLogin.REQUEST_TOKEN_TTL_MILLIS );
+				} catch ( TwitterException e ) {
+					e.printStackTrace();
+					releasePreparedLoginAt( prepared, SystemClock.uptimeMillis() );
+				}
+			}
+		} );
+	}
+
+	/**
+	 * Release the login prepared by {@link #prepareLogin(Context)} and not used yet, along with its preloaded page and its
+	 * reference to the context. To be called on the main thread when the activity which prepared it is destroyed.
+	 */
+	public void cancelPrepareLogin() {
+		final PreparedLogin prepared = preparedLogin;
+		if ( null == prepared ) return;
+
+		Log.i( LOG_TAG, "cancelPrepareLogin" );
+		preparedLogin = null;
+		handler.removeCallbacksAndMessages( prepared );
+		prepared.release();
+	}
+
+	private void releasePreparedLoginAt( final PreparedLogin prepared, long uptimeMillis ) {
+		// the prepared login is the token, so the callback is removed once the login is used or cancelled
+		handler.postAtTime( new Runnable() {
+
+			@Override
+			public void run() {
+				if ( preparedLogin == prepared ) {
+					cancelPrepareLogin();
+				}
+			}
+		}, prepared, uptimeMillis );
+	}
+
 	private void performAutoLogin( final AccessToken token ) {
 		Log.i( LOG_TAG, "performAutoLogin: " + token );
 
 		if ( setSessionState( SessionState.CONNECTING ) ) {
 
-			new Thread( new Runnable() {
+			final String savedScreenName = getSavedScreenName();
+			if ( optimisticLogin && null != savedScreenName ) {
+				SessionState sessionState = SessionState.create( SessionState.CONNECTED, new Session( token, token.getUserId(),
+						savedScreenName ) );
+				setSessionState( sessionState );
+				verifyAccessToken( token );
+				return;
+			}
+
+			rateLimits.execute( TwitterExecutor.LANE_AUTH, RateLimitScheduler.RESOURCE_VERIFY_CREDENTIALS, new Runnable() {
 
 				@Override
 				public void run() {
 
-					twitter.setOAuthAccessToken( token );
+					setActiveAccessToken( token );
 
 					try {
-						String screen_name = twitter.getScreenName();
+						String screen_name = getTwitter().getScreenName();
 						long userId = token.getUserId();
 
 						SessionState sessionState = SessionState
@@ -291,6 +771,7 @@ public class TwitterAndroid {
 					} catch ( TwitterException e ) {
 
 						e.printStackTrace();
+						rateLimits.update( RateLimitScheduler.RESOURCE_VERIFY_CREDENTIALS, e );
 
 						if ( e.isCausedByNetworkIssue() ) {
 							String screenName = getSavedScreenName();
@@ -309,24 +790,228 @@ public class TwitterAndroid {
 						Log.d( LOG_TAG, "error code: " + e.getErrorCode() );
 						Log.d( LOG_TAG, "exception code: " + e.getExceptionCode() );
 
+						sessionManager.remove( token.getUserId() );
 						SessionState sessionState = SessionState.create( SessionState.LOGIN_FAILED, e );
 						setSessionState( sessionState );
 					}
 
 				}
-			} ).start();
+			} );
 		} else {
 			setSessionState( SessionState.DISCONNECTED );
 		}
 	}
 
+	/**
+	 * Open a push channel delivering statuses in batches on the thread which created this instance, at most every 200ms.
+	 * When the receiver falls behind the oldest buffered statuses are dropped.
+	 *
+	 * @see #openStatusStream(StatusStream.StreamCallback, int, int, long, int)
+	 */
+	public StatusStream openStatusStream( StatusStream.StreamCallback callback ) {
+		return openStatusStream( callback, STREAM_CAPACITY, StatusRingBuffer.OVERFLOW_DROP_OLDEST, STREAM_FRAME_INTERVAL_MILLIS,
+				STREAM_MAX_BATCH_SIZE );
+	}
+
+	/**
+	 * Open a push channel delivering statuses in batches on the thread which created this instance.<br />
+	 * The returned stream is meant to be fed by a streaming connection listener, through {@link StatusStream#offer(Status)}.
+	 *
+	 * @param capacity
+	 *           max number of buffered statuses
+	 * @param overflowPolicy
+	 *           one of the StatusRingBuffer.OVERFLOW_* constants
+	 * @param frameIntervalMillis
+	 *           min interval between two batches
+	 * @param maxBatchSize
+	 *           max number of statuses per batch
+	 */
+	public StatusStream openStatusStream( StatusStream.StreamCallback callback, int capacity, int overflowPolicy,
+			long frameIntervalMillis, int maxBatchSize ) {
+		Log.i( LOG_TAG, "openStatusStream" );
+		return new StatusStream( handler, callback, capacity, overflowPolicy, frameIntervalMillis, maxBatchSize );
+	}
+
+	/**
+	 * Queue a new status update for the active account. The update is persisted and sent as soon as possible, also if the
+	 * device is offline now.
+	 *
+	 * @return the queued operation, or null if not logged
+	 * @see #setOutboxListener(Outbox.Listener)
+	 */
+	public Outbox.Operation post( String text ) {
+		return enqueue( Outbox.TYPE_POST, 0, 0, text );
+	}
+
+	/**
+	 * Queue a reply to the given status for the active account.
+	 *
+	 * @see #post(String)
+	 */
+	public Outbox.Operation reply( long inReplyToStatusId, String text ) {
+		return enqueue( Outbox.TYPE_POST, 0, inReplyToStatusId, text );
+	}
+
+	/**
+	 * Queue a retweet of the given status for the active account.
+	 *
+	 * @see #post(String)
+	 */
+	public Outbox.Operation retweet( long statusId ) {
+		return enqueue( Outbox.TYPE_RETWEET, statusId, 0, null );
+	}
+
+	/**
+	 * Queue a favorite of the given status for the active account.
+	 *
+	 * @return the queued operation, or null if not logged or if a pending unfavorite of the same status has been cancelled
+	 *         instead
+	 */
+	public Outbox.Operation favorite( long statusId ) {
+		return enqueue( Outbox.TYPE_FAVORITE, statusId, 0, null );
+	}
+
+	/**
+	 * Queue the removal of the given status from the favorites of the active account.
+	 *
+	 * @return the queued operation, or null if not logged or if a pending favorite of the same status has been cancelled
+	 *         instead
+	 */
+	public Outbox.Operation unfavorite( long statusId ) {
+		return enqueue( Outbox.TYPE_UNFAVORITE, statusId, 0, null );
+	}
+
+	/**
+	 * Set the listener notified when the queued write operations have been sent or rejected.
+	 */
+	public void setOutboxListener( Outbox.Listener listener ) {
+		outbox.setListener( listener );
+	}
+
+	public Outbox getOutbox() {
+		return outbox;
+	}
+
+	private Outbox.Operation enqueue( int type, long statusId, long inReplyToStatusId, String text ) {
+		final SessionState state = getSessionState();
+		if ( state.getState() != SessionState.CONNECTED ) {
+			Log.w( LOG_TAG, "not logged, operation discarded: " + type );
+			return null;
+		}
+		return outbox.enqueue( type, state.getActiveSession().getUserId(), statusId, inReplyToStatusId, text );
+	}
+
+	/**
+	 * Returns the last known rate limit quota of the given resource for the current account, or null if unknown.
+	 *
+	 * @param resource
+	 *           one of the RateLimitScheduler.RESOURCE_* constants
+	 */
+	public RateLimitScheduler.Budget getRateLimitBudget( String resource ) {
+		return getAccountRateLimits( accountUserId ).getBudget( resource );
+	}
+
+	/**
+	 * Returns the cache shared by all the statuses returned by this instance.
+	 */
+	public StatusCache getStatusCache() {
+		return statusCache;
+	}
+
+	/**
+	 * Returns the converter used to turn the received statuses into {@link CompactStatus}es. Adapters holding large timelines
+	 * should keep the compact statuses instead of the twitter4j ones.
+	 */
+	public StatusCompactor getStatusCompactor() {
+		return statusCompactor;
+	}
+
+	/**
+	 * Returns the author of a status already received, or null. Statuses requested with {@link RequestProfile#isTrimUser()}
+	 * carry only the user id, the rest of the user is read from here.
+	 */
+	public CompactUser getUser( long userId ) {
+		return statusCompactor.getUser( userId );
+	}
+
+	/**
+	 * Set the listener notified with the size of every timeline response.
+	 */
+	public void setRequestReportListener( RequestReportListener listener ) {
+		requestReportListener = listener;
+	}
+
+	/**
+	 * Search the statuses already loaded, without any network call. The stored timeline is indexed as well once loaded.
+	 *
+	 * @param query
+	 *           see {@link SearchIndex} for the syntax
+	 * @param limit
+	 *           max number of statuses returned
+	 * @return the matching statuses, newest first. Empty if the index is disabled
+	 */
+	public List<CompactStatus> search( String query, int limit ) {
+		List<CompactStatus> result = new ArrayList<CompactStatus>();
+		if ( null == searchIndex ) return result;
+
+		for ( long id : searchIndex.search( query, limit ) ) {
+			CompactStatus status = statusCache.get( id );
+			if ( null != status ) {
+				result.add( status );
+			}
+		}
+		return result;
+	}
+
+	public SearchIndex getSearchIndex() {
+		return searchIndex;
+	}
+
+	/**
+	 * Verify in background the access token of a session restored optimistically.
+	 */
+	private void verifyAccessToken( final AccessToken token ) {
+		Log.i( LOG_TAG, "verifyAccessToken: " + token );
+
+		final AccountContext account = getAccount();
+		final String resource = RateLimitScheduler.RESOURCE_VERIFY_CREDENTIALS;
+		account.rateLimits.execute( TwitterExecutor.LANE_AUTH, resource, new Runnable() {
+
+			@Override
+			public void run() {
+				try {
+					User user = account.getClient().verifyCredentials();
+					account.rateLimits.update( resource, user );
+					Log.d( LOG_TAG, "access token verified: " + user.getScreenName() );
+				} catch ( TwitterException e ) {
+					account.rateLimits.update( resource, e );
+
+					// network errors and rate limits leave the session untouched, the token is only
+					// discarded when the server explicitly rejects it
+					if ( e.getStatusCode() == TwitterException.UNAUTHORIZED && isActiveAccessToken( token ) ) {
+						Log.w( LOG_TAG, "access token rejected" );
+						sessionManager.remove( token.getUserId() );
+						setSessionState( SessionState.create( SessionState.LOGIN_FAILED, e ) );
+					} else {
+						Log.d( LOG_TAG, "access token not verified: " + e.getStatusCode() );
+					}
+				}
+			}
+		} );
+	}
+
+	private boolean isActiveAccessToken( AccessToken token ) {
+		Session session = getSessionState().getActiveSession();
+		return null != session && token.equals( session.getAccessToken() );
+	}
+
 	public boolean isLogged() {
 		Log.i( LOG_TAG, "isLogged" );
 		return getSessionState().getState() == SessionState.CONNECTED;
 	}
 
 	private void saveAccessToken( String token, String tokenSecret, long userId, String screenName ) {
-		Log.i( LOG_TAG, "saveAccessToken: " + token + ", " + tokenSecret + ", " + userId + ", " + screenName );
+		Log.i( LOG_TAG, "saveAccessToken: " + token + ", " + userId + ", " + screenName );
 
 		Editor editor = prefs.edit();
 		editor.putString( PREF_KEY_OAUTH_TOKEN, token );
@@ -334,14 +1019,16 @@ public class TwitterAndroid {
 		editor.putString( PREF_KEY_OAUTH_SCREENNAME, screenName );
 		editor.putLong( PREF_KEY_OAUTH_USERID, userId );
 		editor.putBoolean( PREF_KEY_LOGGED, true );
-		editor.commit();
+		editor.apply();
 	}
 
 	private void clearAccessToken() {
 		Log.i( LOG_TAG, "clearAccessToken" );
 
-		Log.e( LOG_TAG, "setAccessToken: " + null );
-		twitter.setOAuthAccessToken( null );
+		resetAccountData();
+		clearStoredTimeline( accountUserId );
+
+		setActiveAccessToken( null );
 		
 		Editor editor = prefs.edit();
 		editor.remove( PREF_KEY_LOGGED );
@@ -349,7 +1036,21 @@ public class TwitterAndroid {
 		editor.remove( PREF_KEY_OAUTH_TOKEN );
 		editor.remove( PREF_KEY_OAUTH_USERID );
 		editor.remove( PREF_KEY_OAUTH_SCREENNAME );
-		editor.commit();
+		editor.apply();
+	}
+
+	/**
+	 * Drop the in memory data of the current account. The rate limits are kept by the {@link SessionManager} with the
+	 * account, and survive the switch.
+	 */
+	private void resetAccountData() {
+		sessionScope.cancelAll();
+		synchronized ( timelineCursors ) {
+			timelineCursors.clear();
+		}
+		statusCache.clear();
+		statusCompactor.clear();
+		timelineRequests.clear();
 	}
 
 	private AccessToken getSavedAccessToken() {
@@ -368,30 +1069,605 @@ public class TwitterAndroid {
 		return prefs.getString( PREF_KEY_OAUTH_SCREENNAME, null );
 	}
 	
-	public void loadTimeline() {
+	public RequestHandle loadTimeline() {
 		Log.i( LOG_TAG, "loadTimeline" );
-		if( isLogged() ) {
-			Log.i( LOG_TAG, "[ok] loadTimeline" );
-			new Thread( new Runnable() {
-				
+		return refreshTimeline( null );
+	}
+
+	/**
+	 * Fetch the user timeline statuses newer than the ones already received.<br />
+	 * The first call loads the most recent page. When there are more new statuses than a page, the following pages are
+	 * fetched as well up to a limit; the statuses still missing are fetched by the next calls, so the delivered statuses
+	 * are not always newer than the ones of the previous call.
+	 *
+	 * @return the handle to cancel the request. The request is cancelled as well on logout
+	 */
+	public RequestHandle refreshTimeline( TimelineCallback callback ) {
+		return refreshTimeline( requestProfile, callback );
+	}
+
+	/**
+	 * Same as {@link #refreshTimeline(TimelineCallback)}, shaping the request with the given profile.
+	 */
+	public RequestHandle refreshTimeline( RequestProfile profile, TimelineCallback callback ) {
+		Log.i( LOG_TAG, "refreshTimeline" );
+		final AccountContext account = getAccount();
+		return fetchTimeline( account, getRequestKey( account, USER_TIMELINE_NEWER_KEY, profile ),
+				account.cursor.newer( TIMELINE_PAGE_SIZE ), profile, false, callback );
+	}
+
+	/**
+	 * Fetch the page of user timeline statuses older than the oldest one already received.
+	 */
+	public RequestHandle loadOlderTimeline( TimelineCallback callback ) {
+		return loadOlderTimeline( requestProfile, callback );
+	}
+
+	/**
+	 * Same as {@link #loadOlderTimeline(TimelineCallback)}, shaping the request with the given profile.
+	 */
+	public RequestHandle loadOlderTimeline( RequestProfile profile, TimelineCallback callback ) {
+		Log.i( LOG_TAG, "loadOlderTimeline" );
+		final AccountContext account = getAccount();
+		Paging paging = account.cursor.older( TIMELINE_PAGE_SIZE );
+		final String key = getRequestKey( account, "user_timeline:older:" + paging.getMaxId(), profile );
+		return fetchTimeline( account, key, paging, profile, true, callback );
+	}
+
+	/**
+	 * Requests of different accounts or with a different profile return different data, they must not be coalesced.
+	 */
+	private String getRequestKey( AccountContext account, String key, RequestProfile profile ) {
+		final String accountKey = account.userId + ":" + key;
+		return profile == requestProfile ? accountKey : accountKey + ":" + profile.getKey();
+	}
+
+	/**
+	 * Load the home timeline, the mentions, the direct messages and the user timeline concurrently, with the default 10
+	 * seconds timeout for each request.
+	 *
+	 * @see #loadHomeScreen(int, long, FanOutCallback)
+	 */
+	public RequestHandle loadHomeScreen( FanOutCallback callback ) {
+		return loadHomeScreen( FanOutResult.ENDPOINT_ALL, FANOUT_TIMEOUT_MILLIS, callback );
+	}
+
+	/**
+	 * Request the given endpoints concurrently, and deliver a single result once all of them completed or timed out: the most
+	 * recent page of the home timeline, the mentions and the direct messages, and the user timeline statuses newer than the
+	 * ones already received, as {@link #refreshTimeline(TimelineCallback)} does. Endpoints fail independently: the result
+	 * holds the successful ones and the errors of the others. Every request has its own timeout, a timed out request is
+	 * cancelled and fails with a timeout error while the others keep running.
+	 *
+	 * @param endpoints
+	 *           bitmask of the FanOutResult.ENDPOINT_* constants
+	 * @param timeoutMillis
+	 *           max time to wait for each request
+	 * @return the handle to cancel all the requests. The callback is not invoked once cancelled
+	 */
+	public RequestHandle loadHomeScreen( int endpoints, long timeoutMillis, final FanOutCallback callback ) {
+		Log.i( LOG_TAG, "loadHomeScreen: " + endpoints );
+
+		final RequestHandle handle = sessionScope.add( new RequestHandle() );
+		final FanOut fanOut = new FanOut( handler, new FanOutCallback() {
+
+			@Override
+			public void onFanOutComplete( FanOutResult result ) {
+				if ( handle.isCancelled() ) return;
+				handle.finish();
+				if ( null != callback ) {
+					callback.onFanOutComplete( result );
+				}
+			}
+		} );
+		if ( !isLogged() ) {
+			fanOut.start();
+			return handle;
+		}
+
+		final Paging paging = new Paging( 1, TIMELINE_PAGE_SIZE );
+		final AccountContext account = getAccount();
+
+		// all the listeners are registered before the first request is sent, so that the result can't be delivered early
+		RequestCoalescer.Listener<List<Status>> home = null;
+		RequestCoalescer.Listener<List<Status>> mentions = null;
+		RequestCoalescer.Listener<List<DirectMessage>> messages = null;
+		RequestCoalescer.Listener<List<Status>> user = null;
+		final RequestHandle homeHandle = new RequestHandle();
+		final RequestHandle mentionsHandle = new RequestHandle();
+		final RequestHandle messagesHandle = new RequestHandle();
+		final RequestHandle userHandle = new RequestHandle();
+
+		if ( ( endpoints & FanOutResult.ENDPOINT_HOME_TIMELINE ) != 0 ) {
+			home = fanOut.expect( FanOutResult.ENDPOINT_HOME_TIMELINE, timeoutMillis, homeHandle );
+		}
+		if ( ( endpoints & FanOutResult.ENDPOINT_MENTIONS ) != 0 ) {
+			mentions = fanOut.expect( FanOutResult.ENDPOINT_MENTIONS, timeoutMillis, mentionsHandle );
+		}
+		if ( ( endpoints & FanOutResult.ENDPOINT_DIRECT_MESSAGES ) != 0 ) {
+			messages = fanOut.expect( FanOutResult.ENDPOINT_DIRECT_MESSAGES, timeoutMillis, messagesHandle );
+		}
+		if ( ( endpoints & FanOutResult.ENDPOINT_USER_TIMELINE ) != 0 ) {
+			user = fanOut.expect( FanOutResult.ENDPOINT_USER_TIMELINE, timeoutMillis, userHandle );
+		}
+
+		if ( null != home ) {
+			executeFanOut( account, RateLimitScheduler.RESOURCE_HOME_TIMELINE,
+					new RequestCoalescer.Request<List<Status>>() {
+
 				@Override
-				public void run() {
+				public List<Status> execute() throws TwitterException {
+					final long startBytes = beginProfiledRequest( requestProfile );
+					ResponseList<Status> response = null;
 					try {
-						ResponseList<Status> result = twitter.getUserTimeline();
-						Log.d( LOG_TAG, "result: " + result.size() );
-						
-						Iterator<Status> iterator = result.iterator();
-						
-						int index = 0;
-						while( iterator.hasNext() ) {
-							Status item = iterator.next();
-							Log.d( LOG_TAG, "status: " + ++index + " = " + item.getText() );
-						}
+						response = account.getClient().getHomeTimeline( paging );
+					} finally {
+						endProfiledRequest( "home_timeline", requestProfile, startBytes, response );
+					}
+					account.rateLimits.update( RateLimitScheduler.RESOURCE_HOME_TIMELINE, response );
+					statusCache.internAll( response );
+					return response;
+				}
+			}, home, handle, homeHandle );
+		}
+
+		if ( null != mentions ) {
+			executeFanOut( account, RateLimitScheduler.RESOURCE_MENTIONS_TIMELINE,
+					new RequestCoalescer.Request<List<Status>>() {
+
+				@Override
+				public List<Status> execute() throws TwitterException {
+					final long startBytes = beginProfiledRequest( requestProfile );
+					ResponseList<Status> response = null;
+					try {
+						response = account.getClient().getMentionsTimeline( paging );
+					} finally {
+						endProfiledRequest( "mentions_timeline", requestProfile, startBytes, response );
+					}
+					account.rateLimits.update( RateLimitScheduler.RESOURCE_MENTIONS_TIMELINE, response );
+					statusCache.internAll( response );
+					return response;
+				}
+			}, mentions, handle, mentionsHandle );
+		}
+
+		if ( null != messages ) {
+			executeFanOut( account, RateLimitScheduler.RESOURCE_DIRECT_MESSAGES,
+					new RequestCoalescer.Request<List<DirectMessage>>() {
+
+				@Override
+				public List<DirectMessage> execute() throws TwitterException {
+					ResponseList<DirectMessage> response = account.getClient().getDirectMessages( paging );
+					account.rateLimits.update( RateLimitScheduler.RESOURCE_DIRECT_MESSAGES, response );
+					return response;
+				}
+			}, messages, handle, messagesHandle );
+		}
+
+		if ( null != user ) {
+			// shared with refreshTimeline(), so that the cursor and the stored timeline stay consistent
+			handle.link( userHandle );
+			final Paging newer = account.cursor.newer( TIMELINE_PAGE_SIZE );
+			timelineRequests.execute( account.rateLimits, TwitterExecutor.LANE_DATA, RateLimitScheduler.RESOURCE_USER_TIMELINE,
+					getRequestKey( account, USER_TIMELINE_NEWER_KEY, requestProfile ),
+					createUserTimelineRequest( account, newer, requestProfile ), user, userHandle, false );
+		}
+
+		fanOut.start();
+		return handle;
+	}
+
+	/**
+	 * @param requestHandle
+	 *           handle of this request alone, cancelled with the fan-out handle or when the request times out
+	 */
+	private <T> void executeFanOut( final AccountContext account, final String resource,
+			final RequestCoalescer.Request<T> request, final RequestCoalescer.Listener<T> listener, RequestHandle handle,
+			RequestHandle requestHandle ) {
+		handle.link( requestHandle );
+		account.rateLimits.execute( TwitterExecutor.LANE_DATA, resource, requestHandle.wrap( new Runnable() {
+
+			@Override
+			public void run() {
+				try {
+					listener.onResult( request.execute() );
+				} catch ( TwitterException e ) {
+					account.rateLimits.update( resource, e );
+					listener.onError( e );
+				}
+			}
+		} ), new Runnable() {
+
+			@Override
+			public void run() {
+				listener.onError( new TwitterException( "request rejected" ) );
+			}
+		} );
+	}
+
+	private RequestCoalescer.Request<List<Status>> createUserTimelineRequest( final AccountContext account,
+			final Paging paging, final RequestProfile profile ) {
+		return new RequestCoalescer.Request<List<Status>>() {
+
+			@Override
+			public List<Status> execute() throws TwitterException {
+				final TimelineCursor cursor = account.cursor;
+				final int count = profile.getCount() > 0 ? profile.getCount() : paging.getCount();
+				List<Status> result = fetchUserTimeline( account, paging, profile );
+				List<CompactStatus> compact = statusCache.internAll( result );
+				cursor.update( paging, count, result );
+
+				// a full page of new statuses may not reach the ones already received: the missing ones are fetched right
+				// away, within a few pages, the rest of the gap is left to the next refresh
+				Paging next = paging;
+				for ( int pages = 1; next.getSinceId() > 0 && cursor.hasGap() && pages < MAX_GAP_PAGES; pages++ ) {
+					next = cursor.newer( paging.getCount() );
+					final List<Status> page;
+					try {
+						page = fetchUserTimeline( account, next, profile );
 					} catch ( TwitterException e ) {
-						e.printStackTrace();
+						Log.w( LOG_TAG, "failed to fill the timeline gap: " + e.getStatusCode() );
+						break;
+					}
+					cursor.update( next, count, page );
+
+					if ( pages == 1 ) {
+						result = new ArrayList<Status>( result );
+						compact = new ArrayList<CompactStatus>( compact );
+					}
+					result.addAll( page );
+					compact.addAll( statusCache.internAll( page ) );
+				}
+
+				appendStoredTimeline( account.userId, compact );
+				return result;
+			}
+		};
+	}
+
+	/**
+	 * Fetch a page of the user timeline. The statuses are not interned.
+	 */
+	private List<Status> fetchUserTimeline( AccountContext account, Paging paging, RequestProfile profile )
+			throws TwitterException {
+		final long startBytes = beginProfiledRequest( profile );
+		ResponseList<Status> response = null;
+		try {
+			response = account.getClient().getUserTimeline( paging );
+			account.rateLimits.update( RateLimitScheduler.RESOURCE_USER_TIMELINE, response );
+		} catch ( TwitterException e ) {
+			account.rateLimits.update( RateLimitScheduler.RESOURCE_USER_TIMELINE, e );
+			throw e;
+		} finally {
+			endProfiledRequest( "user_timeline", profile, startBytes, response );
+		}
+		Log.d( LOG_TAG, "result: " + response.size() );
+		return response;
+	}
+
+	/**
+	 * Make the profile active for the twitter4j calls of the current thread.
+	 *
+	 * @return the bytes received so far by the thread
+	 */
+	private long beginProfiledRequest( RequestProfile profile ) {
+		RequestProfile.setCurrent( profile );
+		return SharedHttpClient.getThreadBytesReceived();
+	}
+
+	/**
+	 * Deactivate the profile, hydrate the user pool from full responses and report the response size.
+	 *
+	 * @param response
+	 *           null if the request failed
+	 */
+	private void endProfiledRequest( final String endpoint, final RequestProfile profile, long startBytes,
+			final List<Status> response ) {
+		RequestProfile.clearCurrent();
+		if ( clearJSONStore ) {
+			DataObjectFactoryUtil.clearThreadLocalMap();
+		}
+		if ( null == response ) return;
+
+		final long received = SharedHttpClient.getThreadBytesReceived() - startBytes;
+		final int count = response.size();
+		long saved = 0;
+
+		if ( count > 0 && received > 0 ) {
+			if ( profile.isFull() ) {
+				fullStatusBytes = ( fullStatusBytes * 3 + received / count ) / 4;
+			} else {
+				saved = Math.max( 0, fullStatusBytes * count - received );
+			}
+		}
+		Log.d( LOG_TAG, endpoint + ": " + count + " statuses, " + received + " bytes, " + saved + " saved" );
+
+		final RequestReportListener listener = requestReportListener;
+		if ( null != listener ) {
+			final long bytesSaved = saved;
+			handler.post( new Runnable() {
+
+				@Override
+				public void run() {
+					listener.onRequestReport( endpoint, profile, count, received, bytesSaved );
+				}
+			} );
+		}
+	}
+
+	/**
+	 * @param reusable
+	 *           false for the requests of the newer statuses, whose result can't be served to the following callers
+	 */
+	private RequestHandle fetchTimeline( AccountContext account, final String key, final Paging paging,
+			final RequestProfile profile, boolean reusable, final TimelineCallback callback ) {
+		final RequestHandle handle = sessionScope.add( new RequestHandle() );
+
+		if ( isLogged() ) {
+			Log.i( LOG_TAG, "[ok] fetchTimeline: " + paging );
+
+			RequestCoalescer.Request<List<Status>> request = createUserTimelineRequest( account, paging, profile );
+
+			timelineRequests.execute( account.rateLimits, TwitterExecutor.LANE_DATA, RateLimitScheduler.RESOURCE_USER_TIMELINE,
+					key, request, new RequestCoalescer.Listener<List<Status>>() {
+
+						@Override
+						public void onResult( List<Status> result ) {
+							sendTimelineLoaded( handle, callback, result );
+						}
+
+						@Override
+						public void onError( TwitterException exception ) {
+							exception.printStackTrace();
+							sendTimelineError( handle, callback, exception );
+						}
+					}, handle, reusable );
+		} else {
+			handle.finish();
+		}
+		return handle;
+	}
+
+	/**
+	 * Returns the user timeline as a demand-driven publisher: the pages are fetched only as the subscribers request statuses,
+	 * starting from the stored ones when possible.
+	 */
+	public TimelinePublisher getTimelinePublisher() {
+		return timelinePublisher;
+	}
+
+	/**
+	 * Refresh the user timeline in background, at an interval adapting to the activity of the timeline. The new statuses
+	 * are delivered to the callback, empty refreshes are not.<br />
+	 * Requires the ACCESS_NETWORK_STATE permission.
+	 */
+	public void startTimelineSync( final TimelineCallback callback ) {
+		Log.i( LOG_TAG, "startTimelineSync" );
+
+		syncScheduler.subscribe( USER_TIMELINE_NEWER_KEY, RateLimitScheduler.RESOURCE_USER_TIMELINE,
+				new SyncScheduler.AsyncSyncTask() {
+
+				@Override
+				public void fetch( final SyncScheduler.FetchCallback fetchCallback ) {
+					if ( !isLogged() ) {
+						fetchCallback.onFetchComplete( 0 );
+						return;
 					}
+
+					final RequestHandle handle = sessionScope.add( new RequestHandle() );
+					final AccountContext account = getAccount();
+					// merged with a concurrent refreshTimeline(), which moves the same cursor. Joining a refresh delayed by the
+					// rate limits returns right away, the sync thread is not blocked until it completes
+					final String key = getRequestKey( account, USER_TIMELINE_NEWER_KEY, requestProfile );
+					final Paging paging = account.cursor.newer( TIMELINE_PAGE_SIZE );
+					timelineRequests.executeNow( key, createUserTimelineRequest( account, paging, requestProfile ),
+							new RequestCoalescer.Listener<List<Status>>() {
+
+								@Override
+								public void onResult( List<Status> result ) {
+									if ( result.isEmpty() ) {
+										handle.finish();
+									} else {
+										sendTimelineLoaded( handle, callback, result );
+									}
+									fetchCallback.onFetchComplete( result.size() );
+								}
+
+								@Override
+								public void onError( TwitterException exception ) {
+									Log.w( LOG_TAG, "timeline sync failed: " + exception.getStatusCode() );
+									account.rateLimits.update( RateLimitScheduler.RESOURCE_USER_TIMELINE, exception );
+									handle.finish();
+									fetchCallback.onFetchComplete( 0 );
+								}
+							}, handle, false );
 				}
-			} ).start();
+			} );
+		syncScheduler.start();
+	}
+
+	public void stopTimelineSync() {
+		Log.i( LOG_TAG, "stopTimelineSync" );
+		syncScheduler.unsubscribe( USER_TIMELINE_NEWER_KEY );
+	}
+
+	/**
+	 * Returns the scheduler of the background refreshes, to subscribe other endpoints.
+	 */
+	public SyncScheduler getSyncScheduler() {
+		return syncScheduler;
+	}
+
+	/**
+	 * Deliver the timeline statuses persisted by the previous sessions, newest first, without any network call.<br />
+	 * The timeline cursor is moved accordingly, so the next {@link #refreshTimeline(TimelineCallback)} only fetches the new
+	 * statuses.
+	 */
+	public void loadStoredTimeline( final StoredTimelineCallback callback ) {
+		Log.i( LOG_TAG, "loadStoredTimeline" );
+
+		executor.execute( TwitterExecutor.LANE_DATA, new Runnable() {
+
+			@Override
+			public void run() {
+				final long userId = accountUserId;
+				final List<CompactStatus> statuses = getStoredTimeline( userId, getTimelineCursor( userId ) );
+				if ( null == callback ) return;
+
+				handler.post( new Runnable() {
+
+					@Override
+					public void run() {
+						callback.onStoredTimelineLoaded( statuses );
+					}
+				} );
+			}
+		} );
+	}
+
+	private void preloadStoredTimeline() {
+		executor.execute( TwitterExecutor.LANE_DATA, new Runnable() {
+
+			@Override
+			public void run() {
+				final long userId = accountUserId;
+				getStoredTimeline( userId, getTimelineCursor( userId ) );
+			}
+		} );
+	}
+
+	/**
+	 * Returns the stored timeline of the given account, loading it the first time and moving the cursor accordingly.
+	 */
+	private List<CompactStatus> getStoredTimeline( long userId, TimelineCursor cursor ) {
+		synchronized ( storedTimelineLock ) {
+			final StatusStore store = getTimelineStore( userId );
+			if ( null == storedTimeline ) {
+				storedTimeline = store.load( timelineStoreSize );
+				statusCache.putAll( storedTimeline );
+				if ( !storedTimeline.isEmpty() ) {
+					cursor.update( storedTimeline.get( 0 ).getId(), storedTimeline.get( storedTimeline.size() - 1 ).getId() );
+				}
+				Log.d( LOG_TAG, "stored timeline: " + storedTimeline.size() );
+			}
+			return storedTimeline;
+		}
+	}
+
+	/**
+	 * Persist the statuses received for the given account, which may not be the current one anymore. The stored timeline
+	 * already loaded is updated as well, so that it always matches the store.
+	 */
+	private void appendStoredTimeline( long userId, List<CompactStatus> statuses ) {
+		synchronized ( storedTimelineLock ) {
+			getTimelineStore( userId ).append( statuses );
+			if ( null != storedTimeline && !statuses.isEmpty() ) {
+				storedTimeline = mergeNewestFirst( storedTimeline, statuses, timelineStoreSize );
+			}
+		}
+	}
+
+	/**
+	 * Returns a new list with the statuses of both lists, newest first and without duplicates, up to the given size. The
+	 * added statuses replace the same ones of the current list.
+	 */
+	private static List<CompactStatus> mergeNewestFirst( List<CompactStatus> current, List<CompactStatus> added,
+			int maxSize ) {
+		final Map<Long, CompactStatus> statuses = new HashMap<Long, CompactStatus>( ( current.size() + added.size() ) * 2 );
+		for ( CompactStatus status : current ) {
+			statuses.put( status.getId(), status );
+		}
+		for ( CompactStatus status : added ) {
+			statuses.put( status.getId(), status );
+		}
+
+		List<CompactStatus> result = new ArrayList<CompactStatus>( statuses.values() );
+		Collections.sort( result, new Comparator<CompactStatus>() {
+
+			@Override
+			public int compare( CompactStatus lhs, CompactStatus rhs ) {
+				final long l = lhs.getId();
+				final long r = rhs.getId();
+				return l > r ? -1 : ( l == r ? 0 : 1 );
+			}
+		} );
+		return result.size() > maxSize ? new ArrayList<CompactStatus>( result.subList( 0, maxSize ) ) : result;
+	}
+
+	/**
+	 * Returns the timeline store of the given account, every account has its own file. Only the store of one account is
+	 * kept open.
+	 */
+	private StatusStore getTimelineStore( long userId ) {
+		synchronized ( storedTimelineLock ) {
+			if ( null == timelineStore || timelineStoreUserId != userId ) {
+				if ( null != timelineStore ) {
+					timelineStore.close();
+				}
+				storedTimeline = null;
+				timelineStore = new StatusStore( getTimelineStoreFile( userId ), timelineStoreSize, statusCompactor );
+				timelineStoreUserId = userId;
+			}
+			return timelineStore;
 		}
 	}
+
+	private File getTimelineStoreFile( long userId ) {
+		return new File( appContext.getFilesDir(), String.format( TIMELINE_STORE_NAME, userId ) );
+	}
+
+	private void clearStoredTimeline( final long userId ) {
+		executor.execute( TwitterExecutor.LANE_DATA, new Runnable() {
+
+			@Override
+			public void run() {
+				synchronized ( storedTimelineLock ) {
+					if ( null != timelineStore && timelineStoreUserId == userId ) {
+						storedTimeline = null;
+						timelineStore.clear();
+					} else {
+						getTimelineStoreFile( userId ).delete();
+					}
+				}
+			}
+		} );
+	}
+
+	/**
+	 * Deliver the statuses on the handler thread, unless the request is cancelled before.
+	 */
+	private void sendTimelineLoaded( final RequestHandle handle, final TimelineCallback callback, final List<Status> statuses ) {
+		if ( null == callback ) {
+			handle.finish();
+			return;
+		}
+
+		handler.post( new Runnable() {
+
+			@Override
+			public void run() {
+				if ( handle.isCancelled() ) return;
+				handle.finish();
+				callback.onTimelineLoaded( statuses );
+			}
+		} );
+	}
+
+	private void sendTimelineError( final RequestHandle handle, final TimelineCallback callback,
+			final TwitterException exception ) {
+		if ( null == callback ) {
+			handle.finish();
+			return;
+		}
+
+		handler.post( new Runnable() {
+
+			@Override
+			public void run() {
+				if ( handle.isCancelled() ) return;
+				handle.finish();
+				callback.onTimelineError( exception );
+			}
+		} );
+	}
 }
@@ -40,6 +40,12 @@ public class TwitterDialog extends Dialog {
 	private static final int ACTION_DISMISS = 2;
 	
 	private Twitter twitter;
+	private final TwitterExecutor executor;
+	/** dropped once used, the dialog then owns its web view */
+	private PreparedLogin preparedLogin;
+	/** background requests, cancelled when the dialog is dismissed */
+	private final RequestScope requestScope = new RequestScope();
+	private volatile RequestToken requestToken;
 	private WebView webView;
 	private ProgressBar spinner;
 	private Uri authorizationUri;
@@ -74,10 +80,34 @@ public class TwitterDialog extends Dialog {
 	}
 	
 	public TwitterDialog( Context context, Configuration configuration ) {
+		this( context, configuration, TwitterExecutor.getDefault() );
+	}
+	
+	public TwitterDialog( Context context, Configuration configuration, TwitterExecutor executor ) {
+		this( context, configuration, executor, null );
+	}
+	
+	TwitterDialog( Context context, Configuration configuration, TwitterExecutor executor, PreparedLogin preparedLogin ) {
 		super( context );
+		SharedHttpClient.install();
+		this.executor = executor;
+		this.preparedLogin = preparedLogin;
 		twitter = new TwitterFactory( configuration ).getInstance();
 	}
 	
+	/**
+	 * Create a web view configured to display the authorization page.
+	 */
+	static WebView createWebView( Context context ) {
+		WebView webView = new WebView( context );
+		webView.setVerticalScrollBarEnabled( false );
+		webView.setHorizontalScrollBarEnabled( false );
+		webView.getSettings().setJavaScriptEnabled( true );
+		webView.setLayoutParams( new FrameLayout.LayoutParams( FrameLayout.LayoutParams.MATCH_PARENT, FrameLayout.LayoutParams.MATCH_PARENT ) );
+		webView.getSettings().setSavePassword( false );
+		return webView;
+	}
+	
 	@Override
 	protected void onCreate( Bundle savedInstanceState ) {
 		Log.i( LOG_TAG, "onCreate" );
@@ -86,13 +116,13 @@ public class TwitterDialog extends Dialog {
 		requestWindowFeature( Window.FEATURE_NO_TITLE );
 		
 		
-		webView = new WebView( getContext() );
-		webView.setVerticalScrollBarEnabled( false );
-		webView.setHorizontalScrollBarEnabled( false );
+		if( null != preparedLogin ) {
+			Log.i( LOG_TAG, "using prepared login" );
+			webView = preparedLogin.consume();
+		} else {
+			webView = createWebView( getContext() );
+		}
 		webView.setWebViewClient( new CustomClient() );
-		webView.getSettings().setJavaScriptEnabled( true );
-		webView.setLayoutParams( new FrameLayout.LayoutParams( FrameLayout.LayoutParams.MATCH_PARENT, FrameLayout.LayoutParams.MATCH_PARENT ) );
-		webView.getSettings().setSavePassword( false );
 		
 		spinner = new ProgressBar( getContext(), null, android.R.attr.progressBarStyle );
 		spinner.setIndeterminate( true );
@@ -120,50 +150,86 @@ public class TwitterDialog extends Dialog {
 	private void initialize() {
 		Log.i( LOG_TAG, "initialize" );
 		
+		final PreparedLogin preparedLogin = this.preparedLogin;
+		this.preparedLogin = null;
+		
+		RequestToken prepared = null != preparedLogin ? preparedLogin.getRequestToken() : null;
+		if( null != prepared ) {
+			requestToken = prepared;
+			authorizationUri = Uri.parse( prepared.getAuthorizationURL() );
+			
+			if( null == webView.getUrl() ) {
+				startLoading();
+				webView.loadUrl( prepared.getAuthorizationURL() );
+			} else if( preparedLogin.isPageFinished() ) {
+				endLoading();
+			} else {
+				startLoading();
+			}
+			return;
+		}
+		
 		startLoading();
 
-		new Thread( new Runnable() {
+		final RequestHandle handle = requestScope.add( new RequestHandle() );
+		executor.execute( TwitterExecutor.LANE_AUTH, handle.wrap( new Runnable() {
 
 			@Override
 			public void run() {
-				RequestToken requestToken;
 				try {
 					
+					final long startTime = Metrics.start();
 					requestToken = twitter.getOAuthRequestToken();
+					Metrics.recordAuthPhase( Metrics.PHASE_REQUEST_TOKEN, startTime );
 					final String url = requestToken.getAuthorizationURL();
 					Log.i( LOG_TAG, "url: " + url );
 					
 					authorizationUri = Uri.parse( url );
-					handler.sendMessage( handler.obtainMessage( ACTION_LOAD_PAGE_URL, url ) );
+					if( !handle.isCancelled() ) {
+						handler.sendMessage( handler.obtainMessage( ACTION_LOAD_PAGE_URL, url ) );
+					}
 
 				} catch ( TwitterException e ) {
 					e.printStackTrace();
+				} finally {
+					handle.finish();
 				}
 			}
-		} ).start();		
+		} ) );
 	}
 	
 	private void retrieveAccessToken( final String token, final String verifier ) {
 		Log.i( LOG_TAG, "retrieveAccessToken: " + token + " -- " + verifier );
 		startLoading();
 		
-		new Thread( new Runnable() {
+		final RequestHandle handle = requestScope.add( new RequestHandle() );
+		executor.execute( TwitterExecutor.LANE_AUTH, handle.wrap( new Runnable() {
 			
 			@Override
 			public void run() {
 				String access_token_secret = twitter.getConfiguration().getOAuthAccessTokenSecret();
+				if( null != requestToken && token.equals( requestToken.getToken() ) ) {
+					access_token_secret = requestToken.getTokenSecret();
+				}
 				Log.d( LOG_TAG, "access token secret: " + access_token_secret );
 				AccessToken accessToken;
 				try {
+					final long startTime = Metrics.start();
 					accessToken = twitter.getOAuthAccessToken( new RequestToken( token, access_token_secret ), verifier );
-					fireAuthorizationComplete( accessToken );
+					Metrics.recordAuthPhase( Metrics.PHASE_ACCESS_TOKEN, startTime );
+					if( !handle.isCancelled() ) {
+						fireAuthorizationComplete( accessToken );
+					}
 				} catch ( TwitterException e ) {
 					e.printStackTrace();
 				}
 				
-				handler.sendEmptyMessage( ACTION_DISMISS );
+				if( !handle.isCancelled() ) {
+					handler.sendEmptyMessage( ACTION_DISMISS );
+				}
+				handle.finish();
 			}
-		} ).start();
+		} ) );
 	}
 	
 	private void fireAuthorizationDenied() {
@@ -192,6 +258,17 @@ public class TwitterDialog extends Dialog {
 		dialogCallback = callback;
 	}
 	
+	/**
+	 * Invoked when the dialog is dismissed or cancelled: the requests in progress are aborted.
+	 */
+	@Override
+	protected void onStop() {
+		Log.i( LOG_TAG, "onStop" );
+		requestScope.cancelAll();
+		handler.removeCallbacksAndMessages( null );
+		super.onStop();
+	}
+	
 	@Override
 	public void onContentChanged() {
 		Log.i( LOG_TAG, "onContentChanged" );
@@ -202,10 +279,13 @@ public class TwitterDialog extends Dialog {
 		
 		private String LOG_TAG = "custom-client";
 		
+		private long pageStartTime;
+		
 		@Override
 		public void onPageStarted( WebView view, String url, Bitmap favicon ) {
 			Log.i( LOG_TAG, "onPageStarted: " + url );
 			super.onPageStarted( view, url, favicon );
+			pageStartTime = Metrics.start();
 			startLoading();
 		}
 		
@@ -213,6 +293,8 @@ public class TwitterDialog extends Dialog {
 		public void onPageFinished( WebView view, String url ) {
 			Log.i( LOG_TAG, "onPageFinished: " + url );
 			super.onPageFinished( view, url );
+			Metrics.recordAuthPhase( Metrics.PHASE_PAGE_LOAD, pageStartTime );
+			pageStartTime = 0;
 			endLoading();
 		}
 		
@@ -0,0 +1,262 @@
+package it.sephiroth.twitter.sdk;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import android.os.Process;
+import android.util.Log;
+
+/**
+ * Bounded execution engine used by every network call of the sdk.<br />
+ * Work is split in three lanes, each one backed by its own fixed size pool and bounded queue, so that a burst of timeline
+ * refreshes can never delay an authorization request:
+ * <ul>
+ * <li>{@link #LANE_AUTH}: login, access token and credentials verification</li>
+ * <li>{@link #LANE_DATA}: user initiated data fetches</li>
+ * <li>{@link #LANE_SYNC}: background synchronization</li>
+ * </ul>
+ * Delayed tasks are held by a single timer thread and moved to their lane once due.<br />
+ * A shared instance is available through {@link #getDefault()}.
+ */
+public class TwitterExecutor {
+
+	private static final String LOG_TAG = "TwitterExecutor";
+
+	public static final int LANE_AUTH = 0;
+	public static final int LANE_DATA = 1;
+	public static final int LANE_SYNC = 2;
+
+	private static final String[] LANE_NAMES = { "auth", "data", "sync" };
+	private static final int[] LANE_PRIORITIES = {
+		Process.THREAD_PRIORITY_DEFAULT,
+		Process.THREAD_PRIORITY_BACKGROUND,
+		Process.THREAD_PRIORITY_BACKGROUND + Process.THREAD_PRIORITY_LESS_FAVORABLE };
+
+	private static final int DEFAULT_AUTH_THREADS = 1;
+	private static final int DEFAULT_DATA_THREADS = 4;
+	private static final int DEFAULT_SYNC_THREADS = 2;
+	private static final int DEFAULT_MAX_QUEUE_SIZE = 32;
+
+	private static final long KEEP_ALIVE_SECONDS = 30;
+
+	private static TwitterExecutor sDefault;
+
+	private final ThreadPoolExecutor[] mLanes;
+	private final ScheduledThreadPoolExecutor mTimer;
+
+	public TwitterExecutor() {
+		this( DEFAULT_AUTH_THREADS, DEFAULT_DATA_THREADS, DEFAULT_SYNC_THREADS, DEFAULT_MAX_QUEUE_SIZE );
+	}
+
+	/**
+	 * @param authThreads
+	 *           max number of threads of the {@link #LANE_AUTH} lane
+	 * @param dataThreads
+	 *           max number of threads of the {@link #LANE_DATA} lane
+	 * @param syncThreads
+	 *           max number of threads of the {@link #LANE_SYNC} lane
+	 * @param maxQueueSize
+	 *           max number of pending tasks per lane
+	 */
+	public TwitterExecutor( int authThreads, int dataThreads, int syncThreads, int maxQueueSize ) {
+		mLanes = new ThreadPoolExecutor[3];
+		mLanes[LANE_AUTH] = createLane( LANE_AUTH, authThreads, maxQueueSize, new ThreadPoolExecutor.AbortPolicy() );
+		mLanes[LANE_DATA] = createLane( LANE_DATA, dataThreads, maxQueueSize, new ThreadPoolExecutor.AbortPolicy() );
+		mLanes[LANE_SYNC] = createLane( LANE_SYNC, syncThreads, maxQueueSize, new ThreadPoolExecutor.AbortPolicy() );
+		mTimer = new ScheduledThreadPoolExecutor( 1, new ThreadFactory() {
+
+			@Override
+			public Thread newThread( Runnable runnable ) {
+				Thread thread = new Thread( runnable, "TwitterAndroidSDK-timer" );
+				thread.setDaemon( true );
+				return thread;
+			}
+		} );
+	}
+
+	/**
+	 * Returns the executor shared by all the sdk components which have not been given a custom one.
+	 */
+	public static synchronized TwitterExecutor getDefault() {
+		if ( null == sDefault || sDefault.isShutdown() ) {
+			sDefault = new TwitterExecutor();
+		}
+		return sDefault;
+	}
+
+	private static ThreadPoolExecutor createLane( int lane, int threads, int maxQueueSize, RejectedExecutionHandler handler ) {
+		if ( threads < 1 ) throw new IllegalArgumentException( "threads must be > 0" );
+		if ( maxQueueSize < 1 ) throw new IllegalArgumentException( "maxQueueSize must be > 0" );
+
+		ThreadPoolExecutor executor = new ThreadPoolExecutor( threads, threads, KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+				new ArrayBlockingQueue<Runnable>( maxQueueSize ), new LaneThreadFactory( lane ), handler );
+		executor.allowCoreThreadTimeOut( true );
+		return executor;
+	}
+
+	/**
+	 * Queue a new task in the given lane.
+	 *
+	 * @throws RejectedExecutionException
+	 *            if the lane queue is full or the executor has been shut down
+	 */
+	public Future<?> submit( int lane, Runnable task ) {
+		return getLane( lane ).submit( task );
+	}
+
+	/**
+	 * Same as {@link #submit(int, Runnable)} but a rejected task is only logged.
+	 *
+	 * @return false if the task has been rejected
+	 */
+	public boolean execute( int lane, Runnable task ) {
+		try {
+			getLane( lane ).execute( task );
+			return true;
+		} catch ( RejectedExecutionException e ) {
+			Log.w( LOG_TAG, "task rejected by lane " + LANE_NAMES[lane] );
+			return false;
+		}
+	}
+
+	/**
+	 * Queue a task in the given lane once the delay has elapsed.
+	 *
+	 * @return the timer handle, which can be used to cancel the task before it is queued. Null if the executor has been shut
+	 *         down
+	 */
+	public ScheduledFuture<?> schedule( int lane, Runnable task, long delayMillis ) {
+		return schedule( lane, task, delayMillis, null );
+	}
+
+	/**
+	 * Same as {@link #schedule(int, Runnable, long)}, reporting the rejection of the task.
+	 *
+	 * @param onRejected
+	 *           invoked if the lane rejects the task once due, on the timer thread, or if the executor has been shut down, on
+	 *           the calling thread. Can be null
+	 */
+	public ScheduledFuture<?> schedule( final int lane, final Runnable task, long delayMillis, final Runnable onRejected ) {
+		getLane( lane );
+		return scheduleOnTimer( new Runnable() {
+
+			@Override
+			public void run() {
+				if ( !execute( lane, task ) && null != onRejected ) {
+					onRejected.run();
+				}
+			}
+		}, delayMillis, onRejected );
+	}
+
+	/**
+	 * Run a short task on the timer thread itself once the delay has elapsed.
+	 *
+	 * @param onRejected
+	 *           invoked on the calling thread if the executor has been shut down. Can be null
+	 * @return the timer handle, or null if rejected
+	 */
+	ScheduledFuture<?> scheduleOnTimer( Runnable task, long delayMillis, Runnable onRejected ) {
+		try {
+			return mTimer.schedule( task, delayMillis, TimeUnit.MILLISECONDS );
+		} catch ( RejectedExecutionException e ) {
+			Log.w( LOG_TAG, "delayed task rejected, executor shut down" );
+			if ( null != onRejected ) {
+				onRejected.run();
+			}
+			return null;
+		}
+	}
+
+	/**
+	 * Returns the max number of tasks running at the same time in the given lane.
+	 */
+	public int getThreadCount( int lane ) {
+		return getLane( lane ).getMaximumPoolSize();
+	}
+
+	/**
+	 * Returns the number of tasks waiting in the given lane.
+	 */
+	public int getQueueSize( int lane ) {
+		return getLane( lane ).getQueue().size();
+	}
+
+	public boolean isShutdown() {
+		return mLanes[LANE_AUTH].isShutdown();
+	}
+
+	/**
+	 * Pending tasks are still executed, new tasks are rejected.
+	 */
+	public void shutdown() {
+		Log.i( LOG_TAG, "shutdown" );
+		mTimer.shutdown();
+		for ( ThreadPoolExecutor lane : mLanes ) {
+			lane.shutdown();
+		}
+	}
+
+	/**
+	 * Pending tasks are discarded and running tasks are interrupted.
+	 */
+	public void shutdownNow() {
+		Log.i( LOG_TAG, "shutdownNow" );
+		mTimer.shutdownNow();
+		for ( ThreadPoolExecutor lane : mLanes ) {
+			lane.shutdownNow();
+		}
+	}
+
+	/**
+	 * Blocks until all the lanes have terminated after a shutdown request, or the timeout expires.
+	 *
+	 * @return true if all the lanes have terminated
+	 */
+	public boolean awaitTermination( long timeout, TimeUnit unit ) throws InterruptedException {
+		final long deadline = System.nanoTime() + unit.toNanos( timeout );
+		for ( ThreadPoolExecutor lane : mLanes ) {
+			long remaining = deadline - System.nanoTime();
+			if ( !lane.awaitTermination( remaining, TimeUnit.NANOSECONDS ) ) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private ThreadPoolExecutor getLane( int lane ) {
+		if ( lane < 0 || lane >= mLanes.length ) throw new IllegalArgumentException( "invalid lane: " + lane );
+		return mLanes[lane];
+	}
+
+	private static final class LaneThreadFactory implements ThreadFactory {
+
+		private final AtomicInteger mCount = new AtomicInteger();
+		private final int mLane;
+
+		LaneThreadFactory( int lane ) {
+			mLane = lane;
+		}
+
+		@Override
+		public Thread newThread( final Runnable runnable ) {
+			Thread thread = new Thread( new Runnable() {
+
+				@Override
+				public void run() {
+					Process.setThreadPriority( LANE_PRIORITIES[mLane] );
+					runnable.run();
+				}
+			}, "TwitterAndroidSDK-" + LANE_NAMES[mLane] + "-" + mCount.incrementAndGet() );
+			thread.setDaemon( true );
+			return thread;
+		}
+	}
+}
@@ -0,0 +1,164 @@
+package it.sephiroth.twitter.replay;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import twitter4j.internal.org.json.JSONArray;
+import twitter4j.internal.org.json.JSONException;
+import twitter4j.internal.org.json.JSONObject;
+
+/**
+ * Recorded responses served by the {@link ReplayServer}, read from the fixtures directory:
+ * <ul>
+ * <li><code>oauth_request_token.txt</code> and <code>oauth_access_token.txt</code>: templates of the OAuth responses, with
+ * the <code>{token}</code>, <code>{secret}</code>, <code>{user_id}</code> and <code>{screen_name}</code> placeholders</li>
+ * <li><code>verify_credentials.json</code>: the authenticated user, whose id and screen name are replaced by the ones of
+ * the access token</li>
+ * <li><code>user_timeline.json</code>, <code>home_timeline.json</code>, <code>mentions_timeline.json</code> and
+ * <code>direct_messages.json</code>: recorded pages, newest first, replayed as a {@link Timeline}</li>
+ * </ul>
+ */
+final class Fixtures {
+
+	static final String USER_TIMELINE = "user_timeline.json";
+	static final String HOME_TIMELINE = "home_timeline.json";
+	static final String MENTIONS_TIMELINE = "mentions_timeline.json";
+	static final String DIRECT_MESSAGES = "direct_messages.json";
+
+	private final File mDirectory;
+	private final String mRequestToken;
+	private final String mAccessToken;
+	private final String mUser;
+
+	Fixtures( File directory ) throws IOException {
+		mDirectory = directory;
+		mRequestToken = read( "oauth_request_token.txt" ).trim();
+		mAccessToken = read( "oauth_access_token.txt" ).trim();
+		mUser = read( "verify_credentials.json" );
+	}
+
+	String getRequestToken( String token, String secret ) {
+		return mRequestToken.replace( "{token}", token ).replace( "{secret}", secret );
+	}
+
+	String getAccessToken( String token, String secret, long userId, String screenName ) {
+		return mAccessToken.replace( "{token}", token ).replace( "{secret}", secret )
+				.replace( "{user_id}", String.valueOf( userId ) ).replace( "{screen_name}", screenName );
+	}
+
+	String getUser( long userId, String screenName ) {
+		try {
+			JSONObject user = new JSONObject( mUser );
+			user.put( "id", userId );
+			user.put( "id_str", String.valueOf( userId ) );
+			user.put( "screen_name", screenName );
+			return user.toString();
+		} catch ( JSONException e ) {
+			throw new IllegalStateException( "invalid verify_credentials.json", e );
+		}
+	}
+
+	/**
+	 * @param growthPerMinute
+	 *           new items appended to the timeline every minute
+	 */
+	Timeline loadTimeline( String name, double growthPerMinute ) throws IOException {
+		try {
+			return new Timeline( new JSONArray( read( name ) ), growthPerMinute );
+		} catch ( JSONException e ) {
+			throw new IOException( "invalid fixture " + name + ": " + e.getMessage() );
+		}
+	}
+
+	private String read( String name ) throws IOException {
+		final File file = new File( mDirectory, name );
+		InputStream in = new FileInputStream( file );
+		try {
+			ByteArrayOutputStream out = new ByteArrayOutputStream( (int) file.length() );
+			byte[] buffer = new byte[8192];
+			int count;
+			while ( ( count = in.read( buffer ) ) >= 0 ) {
+				out.write( buffer, 0, count );
+			}
+			return out.toString( "UTF-8" );
+		} finally {
+			in.close();
+		}
+	}
+
+	/**
+	 * A recorded timeline replayed as an endless one: the recorded items are repeated, oldest first, and new ones are
+	 * appended as time passes. Every item gets a new id following the previous one, so that since_id and max_id page the
+	 * timeline as the real API does.
+	 */
+	static final class Timeline {
+
+		/** JSON of the recorded items, oldest first, without the leading "{" and the id fields */
+		private final String[] mItems;
+		private final String[] mTrimmedItems;
+		private final long mBaseId;
+		private final long mStartTime = System.currentTimeMillis();
+		private final double mGrowthPerMillisecond;
+
+		Timeline( JSONArray recorded, double growthPerMinute ) throws JSONException {
+			final int count = recorded.length();
+			if ( count == 0 ) throw new JSONException( "empty timeline" );
+
+			mItems = new String[count];
+			mTrimmedItems = new String[count];
+			long oldestId = Long.MAX_VALUE;
+
+			for ( int i = 0; i < count; i++ ) {
+				JSONObject item = recorded.getJSONObject( count - 1 - i );
+				oldestId = Math.min( oldestId, item.getLong( "id" ) );
+				item.remove( "id" );
+				item.remove( "id_str" );
+				mItems[i] = item.toString().substring( 1 );
+
+				if ( item.has( "user" ) ) {
+					final long userId = item.getJSONObject( "user" ).getLong( "id" );
+					JSONObject user = new JSONObject();
+					user.put( "id", userId );
+					user.put( "id_str", String.valueOf( userId ) );
+					item.put( "user", user );
+				}
+				mTrimmedItems[i] = item.toString().substring( 1 );
+			}
+			mBaseId = oldestId;
+			mGrowthPerMillisecond = growthPerMinute / 60000;
+		}
+
+		/**
+		 * Returns the id of the newest item at the given time.
+		 */
+		long getNewestId( long now ) {
+			return mBaseId + mItems.length - 1 + (long) ( Math.max( 0, now - mStartTime ) * mGrowthPerMillisecond );
+		}
+
+		/**
+		 * Returns the JSON array of the page, newest first.
+		 *
+		 * @param sinceId
+		 *           exclusive lower bound, 0 for none
+		 * @param maxId
+		 *           inclusive upper bound, 0 for none
+		 */
+		String getPage( long sinceId, long maxId, int count, boolean trimUser, long now ) {
+			long newest = getNewestId( now );
+			if ( maxId > 0 ) newest = Math.min( newest, maxId );
+			final long oldest = Math.max( Math.max( sinceId + 1, mBaseId ), newest - count + 1 );
+
+			final String[] items = trimUser ? mTrimmedItems : mItems;
+			StringBuilder builder = new StringBuilder( (int) Math.max( 2, Math.min( count, newest - oldest + 1 ) * 2500 ) );
+			builder.append( '[' );
+			for ( long id = newest; id >= oldest; id-- ) {
+				if ( id != newest ) builder.append( ',' );
+				builder.append( "{\"id\":" ).append( id ).append( ",\"id_str\":\"" ).append( id ).append( "\"," );
+				builder.append( items[(int) ( ( id - mBaseId ) % items.length )] );
+			}
+			return builder.append( ']' ).toString();
+		}
+	}
+}
@@ -0,0 +1,451 @@
+package it.sephiroth.twitter.replay;
+
+import it.sephiroth.android.stubs.JvmContext;
+import it.sephiroth.twitter.sdk.FanOutResult;
+import it.sephiroth.twitter.sdk.TwitterAndroid;
+import it.sephiroth.twitter.sdk.TwitterAndroid.FanOutCallback;
+import it.sephiroth.twitter.sdk.TwitterAndroid.SessionState;
+import it.sephiroth.twitter.sdk.TwitterAndroid.StatusCallback;
+import it.sephiroth.twitter.sdk.TwitterAndroid.TimelineCallback;
+import it.sephiroth.twitter.sdk.TwitterExecutor;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+import twitter4j.Status;
+import twitter4j.Twitter;
+import twitter4j.TwitterException;
+import twitter4j.TwitterFactory;
+import twitter4j.auth.AccessToken;
+import twitter4j.auth.RequestToken;
+import twitter4j.conf.Configuration;
+import twitter4j.conf.ConfigurationBuilder;
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.net.Uri;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.SystemClock;
+import android.util.Log;
+
+/**
+ * Runs many concurrent SDK sessions against a {@link ReplayServer}.<br />
+ * Every session is a {@link TwitterAndroid} instance with its own preferences, files and access token, as on its own
+ * device. The sessions are started within the ramp-up time, some of them through the OAuth steps and the others from saved
+ * credentials, then each one refreshes its timeline, and every few actions loads the home screen, pausing between the
+ * actions. The sessions share a few looper threads, playing their main threads, and the {@link TwitterExecutor} of the
+ * network calls.<br />
+ * The outcomes and latencies of the logins and the actions are printed periodically.
+ */
+public class LoadDriver {
+
+	/** property prefix of the settings read by {@link Settings#fromSystemProperties()} */
+	public static final String PROPERTY_PREFIX = "load.";
+
+	private static final String PREF_NAME = "TwitterAndroidSDK-Pref";
+	private static final long REPORT_INTERVAL_MILLIS = 10000;
+
+	/**
+	 * Driver settings.
+	 */
+	public static final class Settings {
+
+		/** base url of the server, such as http://127.0.0.1:8080. If null a server is started in the same JVM */
+		public String server;
+
+		/** number of concurrent sessions */
+		public int sessions = 1000;
+
+		/** looper threads shared by the sessions */
+		public int loopers = 8;
+
+		/** threads of the data lane shared by the sessions, and max connections kept alive */
+		public int threads = 64;
+
+		/** duration of the run, in seconds, from the start of the first session */
+		public int duration = 60;
+
+		/** time, in seconds, over which the sessions are started */
+		public int ramp = 10;
+
+		/** average pause, in milliseconds, between two actions of a session */
+		public long think = 5000;
+
+		/** fraction of the sessions signing in through the OAuth steps, the others restore saved credentials */
+		public double oauth = 0.1;
+
+		/** every how many actions a session loads the home screen instead of refreshing its timeline, 0 never */
+		public int fanout = 5;
+
+		/** time, in milliseconds, after which an action without result is counted as timed out */
+		public long timeout = 30000;
+
+		/** max memory, in bytes, of the status cache of every session */
+		public long cacheBytes = 256 * 1024;
+
+		/** file receiving the standard error, where the library prints the stack traces of the failed requests */
+		public String stderr;
+
+		public static Settings fromSystemProperties() {
+			Settings settings = new Settings();
+			settings.server = System.getProperty( PROPERTY_PREFIX + "server" );
+			if ( null != settings.server && settings.server.length() == 0 ) settings.server = null;
+			settings.sessions = Integer.getInteger( PROPERTY_PREFIX + "sessions", settings.sessions );
+			settings.loopers = Integer.getInteger( PROPERTY_PREFIX + "loopers", settings.loopers );
+			settings.threads = Integer.getInteger( PROPERTY_PREFIX + "threads", settings.threads );
+			settings.duration = Integer.getInteger( PROPERTY_PREFIX + "duration", settings.duration );
+			settings.ramp = Integer.getInteger( PROPERTY_PREFIX + "ramp", settings.ramp );
+			settings.think = Long.getLong( PROPERTY_PREFIX + "think", settings.think );
+			final String oauth = System.getProperty( PROPERTY_PREFIX + "oauth" );
+			if ( null != oauth && oauth.length() > 0 ) settings.oauth = Double.parseDouble( oauth );
+			settings.fanout = Integer.getInteger( PROPERTY_PREFIX + "fanout", settings.fanout );
+			settings.timeout = Long.getLong( PROPERTY_PREFIX + "timeout", settings.timeout );
+			settings.cacheBytes = Long.getLong( PROPERTY_PREFIX + "cacheBytes", settings.cacheBytes );
+			settings.stderr = System.getProperty( PROPERTY_PREFIX + "stderr" );
+			if ( null != settings.stderr && settings.stderr.length() == 0 ) settings.stderr = null;
+			return settings;
+		}
+
+		@Override
+		public String toString() {
+			return "sessions=" + sessions + ", loopers=" + loopers + ", threads=" + threads + ", duration=" + duration + "s, ramp="
+					+ ramp + "s, think=" + think + "ms, oauth=" + oauth + ", fanout=" + fanout;
+		}
+	}
+
+	private final Settings mSettings;
+	private final Configuration mConfiguration;
+	private final TwitterExecutor mExecutor;
+	private final HandlerThread[] mLoopers;
+	private final List<Session> mSessions = new ArrayList<Session>();
+	private final Random mRandom = new Random();
+
+	private final OperationStats mLogins = new OperationStats( "login" );
+	private final OperationStats mRefreshes = new OperationStats( "refresh" );
+	private final OperationStats mHomeScreens = new OperationStats( "homeScreen" );
+	private final AtomicInteger mConnected = new AtomicInteger();
+	private volatile boolean mStopped;
+
+	public LoadDriver( Settings settings, String serverUrl ) {
+		mSettings = settings;
+		mConfiguration = createConfiguration( serverUrl );
+		mExecutor = new TwitterExecutor( Math.max( 4, settings.threads / 4 ), settings.threads, 1, settings.sessions * 4 );
+		mLoopers = new HandlerThread[settings.loopers];
+		for ( int i = 0; i < mLoopers.length; i++ ) {
+			mLoopers[i] = new HandlerThread( "LoadDriver-main-" + i );
+			mLoopers[i].start();
+		}
+	}
+
+	static Configuration createConfiguration( String serverUrl ) {
+		ConfigurationBuilder builder = new ConfigurationBuilder();
+		builder.setOAuthConsumerKey( "replay-consumer-key" );
+		builder.setOAuthConsumerSecret( "replay-consumer-secret" );
+		builder.setUseSSL( false );
+		builder.setRestBaseURL( serverUrl + "/1.1/" );
+		builder.setOAuthRequestTokenURL( serverUrl + "/oauth/request_token" );
+		builder.setOAuthAuthorizationURL( serverUrl + "/oauth/authorize" );
+		builder.setOAuthAccessTokenURL( serverUrl + "/oauth/access_token" );
+		return builder.build();
+	}
+
+	/**
+	 * Start the sessions, and block until the end of the run.
+	 */
+	public void run() throws InterruptedException {
+		System.out.println( "LoadDriver: " + mSettings );
+
+		final long rampMillis = mSettings.ramp * 1000L;
+		for ( int i = 0; i < mSettings.sessions; i++ ) {
+			final Session session = new Session( i, mLoopers[i % mLoopers.length], mRandom.nextDouble() < mSettings.oauth );
+			mSessions.add( session );
+			session.handler.postDelayed( new Runnable() {
+
+				@Override
+				public void run() {
+					session.start();
+				}
+			}, mSettings.sessions > 1 ? rampMillis * i / ( mSettings.sessions - 1 ) : 0 );
+		}
+
+		final long start = SystemClock.uptimeMillis();
+		final long end = start + mSettings.duration * 1000L;
+		long now;
+		while ( ( now = SystemClock.uptimeMillis() ) < end ) {
+			Thread.sleep( Math.min( REPORT_INTERVAL_MILLIS, end - now ) );
+			report( start );
+		}
+		mStopped = true;
+
+		System.out.println( "LoadDriver: done" );
+		report( start );
+	}
+
+	private void report( long start ) {
+		final double seconds = ( SystemClock.uptimeMillis() - start ) / 1000.0;
+		System.out.println( String.format( "LoadDriver %.0fs: %d/%d sessions connected", seconds, mConnected.get(),
+				mSettings.sessions ) );
+		System.out.println( "  " + mLogins.summary( seconds ) );
+		System.out.println( "  " + mRefreshes.summary( seconds ) );
+		System.out.println( "  " + mHomeScreens.summary( seconds ) );
+	}
+
+	/**
+	 * Stop the network calls and the loopers, and delete the files of the sessions.
+	 */
+	public void shutdown() {
+		mStopped = true;
+		mExecutor.shutdownNow();
+		for ( HandlerThread looper : mLoopers ) {
+			looper.quit();
+		}
+		for ( Session session : mSessions ) {
+			if ( null != session.context ) session.context.clear();
+		}
+	}
+
+	static String getOutcome( TwitterException exception ) {
+		if ( exception.getStatusCode() == 429 ) return "429";
+		if ( exception.isCausedByNetworkIssue() ) return "network";
+		if ( exception.getStatusCode() > 0 ) return "http" + exception.getStatusCode();
+		return "error";
+	}
+
+	static String getOutcome( FanOutResult result ) {
+		if ( result.isTimedOut() ) return "timeout";
+
+		final int requested = result.getRequested();
+		for ( int endpoint = 1; endpoint <= requested; endpoint <<= 1 ) {
+			if ( ( requested & endpoint ) != 0 && !result.isSuccessful( endpoint ) ) {
+				final TwitterException error = result.getError( endpoint );
+				return null != error ? getOutcome( error ) : "error";
+			}
+		}
+		return OperationStats.OK;
+	}
+
+	/**
+	 * One SDK session. Everything but the OAuth steps runs on its looper thread.
+	 */
+	private final class Session implements StatusCallback {
+
+		final int index;
+		final Handler handler;
+		final boolean oauth;
+		JvmContext context;
+		TwitterAndroid twitter;
+
+		private long mLoginStart;
+		private boolean mConnected;
+		private int mActions;
+		/** sequence number of the running action, the late results of the previous ones are ignored */
+		private int mSequence;
+		private OperationStats mCurrent;
+		private long mActionStart;
+
+		private final Runnable mNextAction = new Runnable() {
+
+			@Override
+			public void run() {
+				nextAction();
+			}
+		};
+
+		private final Runnable mTimeout = new Runnable() {
+
+			@Override
+			public void run() {
+				complete( mSequence, "timeout" );
+			}
+		};
+
+		Session( int index, HandlerThread looper, boolean oauth ) {
+			this.index = index;
+			this.handler = new Handler( looper.getLooper() );
+			this.oauth = oauth;
+		}
+
+		void start() {
+			mLoginStart = SystemClock.uptimeMillis();
+			if ( !oauth ) {
+				final long userId = 1000000 + index;
+				create( userId + "-access-token", "access-secret", userId, ReplayServer.getScreenName( userId ) );
+				return;
+			}
+
+			// the steps of TwitterDialog, the authorization page being accepted right away
+			mExecutor.execute( TwitterExecutor.LANE_AUTH, new Runnable() {
+
+				@Override
+				public void run() {
+					try {
+						Twitter client = new TwitterFactory( mConfiguration ).getInstance();
+						RequestToken requestToken = client.getOAuthRequestToken();
+						final String verifier = authorize( requestToken.getAuthorizationURL() );
+						final AccessToken accessToken = client.getOAuthAccessToken( requestToken, verifier );
+
+						handler.post( new Runnable() {
+
+							@Override
+							public void run() {
+								create( accessToken.getToken(), accessToken.getTokenSecret(), accessToken.getUserId(),
+										accessToken.getScreenName() );
+							}
+						} );
+					} catch ( TwitterException e ) {
+						mLogins.record( getOutcome( e ), 0 );
+					} catch ( IOException e ) {
+						mLogins.record( "network", 0 );
+					}
+				}
+			} );
+		}
+
+		/**
+		 * Load the authorization page, and return the verifier of the callback it redirects to.
+		 */
+		private String authorize( String url ) throws IOException {
+			HttpURLConnection connection = (HttpURLConnection) new URL( url ).openConnection();
+			try {
+				connection.setInstanceFollowRedirects( false );
+				connection.getResponseCode();
+				final String location = connection.getHeaderField( "Location" );
+				final String verifier = null != location ? Uri.parse( location ).getQueryParameter( "oauth_verifier" ) : null;
+				if ( null == verifier ) throw new IOException( "authorization not redirected" );
+				return verifier;
+			} finally {
+				connection.disconnect();
+			}
+		}
+
+		/**
+		 * Save the credentials, as done by the SDK once signed in, and create the SDK instance which restores them.
+		 */
+		private void create( String token, String secret, long userId, String screenName ) {
+			if ( mStopped ) return;
+
+			context = JvmContext.create( handler.getLooper() );
+			SharedPreferences.Editor editor = context.getSharedPreferences( PREF_NAME, Context.MODE_PRIVATE ).edit();
+			editor.putString( "oauth_token", token );
+			editor.putString( "oauth_token_secret", secret );
+			editor.putString( "oauth_screen_name", screenName );
+			editor.putLong( "oauth_token_userid", userId );
+			editor.putBoolean( "logged_in", true );
+			editor.apply();
+
+			TwitterAndroid.Options options = new TwitterAndroid.Options();
+			options.executor = mExecutor;
+			options.httpMaxConnections = mSettings.threads;
+			options.statusCacheMaxBytes = mSettings.cacheBytes;
+			twitter = new TwitterAndroid( context, this, mConfiguration, options );
+		}
+
+		@Override
+		public void call( SessionState newState ) {
+			switch ( newState.getState() ) {
+				case SessionState.CONNECTED:
+					if ( mConnected ) return;
+					mConnected = true;
+					mLogins.record( OperationStats.OK, SystemClock.uptimeMillis() - mLoginStart );
+					LoadDriver.this.mConnected.incrementAndGet();
+					schedule();
+					break;
+
+				case SessionState.LOGIN_FAILED:
+					final TwitterException exception = newState.getException();
+					mLogins.record( null != exception ? getOutcome( exception ) : "failed", 0 );
+					if ( mConnected ) {
+						mConnected = false;
+						LoadDriver.this.mConnected.decrementAndGet();
+					}
+					break;
+			}
+		}
+
+		private void schedule() {
+			if ( mStopped ) return;
+			final long think = mSettings.think;
+			handler.postDelayed( mNextAction, think / 2 + (long) ( Math.random() * think ) );
+		}
+
+		private void nextAction() {
+			if ( mStopped || !mConnected ) return;
+
+			final int sequence = ++mSequence;
+			mActionStart = SystemClock.uptimeMillis();
+			handler.postDelayed( mTimeout, mSettings.timeout );
+
+			if ( mSettings.fanout > 0 && ++mActions % mSettings.fanout == 0 ) {
+				mCurrent = mHomeScreens;
+				twitter.loadHomeScreen( new FanOutCallback() {
+
+					@Override
+					public void onFanOutComplete( FanOutResult result ) {
+						complete( sequence, getOutcome( result ) );
+					}
+				} );
+			} else {
+				mCurrent = mRefreshes;
+				twitter.refreshTimeline( new TimelineCallback() {
+
+					@Override
+					public void onTimelineLoaded( List<Status> statuses ) {
+						complete( sequence, OperationStats.OK );
+					}
+
+					@Override
+					public void onTimelineError( TwitterException exception ) {
+						complete( sequence, getOutcome( exception ) );
+					}
+				} );
+			}
+		}
+
+		private void complete( int sequence, String outcome ) {
+			if ( sequence != mSequence || null == mCurrent ) return;
+
+			handler.removeCallbacks( mTimeout );
+			mCurrent.record( outcome, SystemClock.uptimeMillis() - mActionStart );
+			mCurrent = null;
+			schedule();
+		}
+	}
+
+	public static void main( String[] args ) throws Exception {
+		final Settings settings = Settings.fromSystemProperties();
+		if ( null == System.getProperty( "android.util.Log.level" ) ) {
+			Log.setLevel( Log.ERROR );
+		}
+		if ( null != settings.stderr ) {
+			System.setErr( new PrintStream( new FileOutputStream( settings.stderr ), true ) );
+		}
+
+		ReplayServer server = null;
+		String serverUrl = settings.server;
+		if ( null == serverUrl ) {
+			ReplayServer.Settings serverSettings = ReplayServer.Settings.fromSystemProperties();
+			if ( null == System.getProperty( ReplayServer.PROPERTY_PREFIX + "port" ) ) {
+				serverSettings.port = 0;
+			}
+			server = new ReplayServer( serverSettings );
+			server.start();
+			serverUrl = "http://127.0.0.1:" + server.getPort();
+		}
+
+		LoadDriver driver = new LoadDriver( settings, serverUrl );
+		try {
+			driver.run();
+		} finally {
+			driver.shutdown();
+			if ( null != server ) {
+				System.out.println( "ReplayServer: " + server.getStats() );
+				server.stop();
+			}
+		}
+	}
+}
@@ -0,0 +1,75 @@
+package it.sephiroth.twitter.replay;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Outcomes and latencies of one kind of operation of the {@link LoadDriver}. The latencies are kept in a uniform sample of
+ * fixed size.
+ */
+final class OperationStats {
+
+	static final String OK = "ok";
+
+	private static final int MAX_SAMPLES = 1 << 16;
+
+	private final String mName;
+	private final long[] mSamples = new long[MAX_SAMPLES];
+	private final Map<String, Long> mOutcomes = new LinkedHashMap<String, Long>();
+	private final Random mRandom = new Random();
+	private long mRecorded;
+	private long mCount;
+
+	OperationStats( String name ) {
+		mName = name;
+	}
+
+	/**
+	 * @param latencyMillis
+	 *           recorded only for the successful operations
+	 */
+	synchronized void record( String outcome, long latencyMillis ) {
+		mCount++;
+		final Long count = mOutcomes.get( outcome );
+		mOutcomes.put( outcome, null != count ? count + 1 : 1 );
+
+		if ( !OK.equals( outcome ) ) return;
+		if ( mRecorded < MAX_SAMPLES ) {
+			mSamples[(int) mRecorded] = latencyMillis;
+		} else {
+			final long slot = (long) ( mRandom.nextDouble() * ( mRecorded + 1 ) );
+			if ( slot < MAX_SAMPLES ) mSamples[(int) slot] = latencyMillis;
+		}
+		mRecorded++;
+	}
+
+	synchronized long getCount() {
+		return mCount;
+	}
+
+	/**
+	 * Returns the summary line: count, outcomes and latency percentiles of the successful operations.
+	 */
+	synchronized String summary( double seconds ) {
+		final long[] sorted = Arrays.copyOf( mSamples, (int) Math.min( mRecorded, MAX_SAMPLES ) );
+		Arrays.sort( sorted );
+
+		StringBuilder builder = new StringBuilder();
+		builder.append( String.format( Locale.US, "%-12s %8d %8.1f/s  p50 %6d  p90 %6d  p99 %6d  max %6d ms ", mName, mCount,
+				seconds > 0 ? mCount / seconds : 0, percentile( sorted, 50 ), percentile( sorted, 90 ), percentile( sorted, 99 ),
+				percentile( sorted, 100 ) ) );
+		for ( Map.Entry<String, Long> entry : mOutcomes.entrySet() ) {
+			builder.append( ' ' ).append( entry.getKey() ).append( '=' ).append( entry.getValue() );
+		}
+		return builder.toString();
+	}
+
+	private static long percentile( long[] sorted, double percentile ) {
+		if ( sorted.length == 0 ) return 0;
+		final int index = (int) Math.ceil( percentile / 100 * sorted.length ) - 1;
+		return sorted[Math.max( 0, Math.min( sorted.length - 1, index ) )];
+	}
+}
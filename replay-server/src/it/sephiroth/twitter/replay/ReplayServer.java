@@ -0,0 +1,611 @@
+package it.sephiroth.twitter.replay;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.net.URLEncoder;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.zip.GZIPOutputStream;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Local stand-in of the Twitter API serving the recorded {@link Fixtures}, for load and slow network testing.<br />
+ * It serves the OAuth request token, authorize and access token steps, verify_credentials, the user, home and mentions
+ * timelines and the direct messages. Every access token gets the rate limits of the real API, per endpoint and per 15
+ * minutes window, and the faults set in the {@link Settings} are injected on top: latency, bandwidth limit, 429 responses
+ * and dropped connections.<br />
+ * Point the SDK at it with the twitter4j configuration, see the README.
+ */
+public class ReplayServer {
+
+	/** property prefix of the settings read by {@link Settings#fromSystemProperties()} */
+	public static final String PROPERTY_PREFIX = "replay.";
+
+	private static final long RATE_LIMIT_WINDOW_MILLIS = 15 * 60 * 1000;
+	private static final int DEFAULT_COUNT = 20;
+	private static final int MAX_COUNT = 200;
+	/** bandwidth throttling granularity */
+	private static final long THROTTLE_INTERVAL_MILLIS = 50;
+
+	private static final Pattern OAUTH_TOKEN = Pattern.compile( "oauth_token=\"([^\"]*)\"" );
+
+	/**
+	 * Server settings. The defaults serve the fixtures without any fault.
+	 */
+	public static final class Settings {
+
+		/** port to listen on, 0 for any free port */
+		public int port = 8080;
+
+		/** directory of the recorded responses */
+		public File fixtures = new File( "fixtures" );
+
+		/** delay, in milliseconds, added before every response */
+		public long latency;
+
+		/** random delay, in milliseconds, added to the latency, up to this value */
+		public long jitter;
+
+		/** max bytes per second sent by every response, 0 for no limit */
+		public long bandwidth;
+
+		/** fraction of the API requests answered with a 429, on top of the rate limits */
+		public double rate429;
+
+		/** fraction of the requests whose connection is dropped, before the response or in the middle of the body */
+		public double drop;
+
+		/** multiplier of the rate limits of the real API, 0 to disable them */
+		public double quotaScale = 1;
+
+		/** new statuses appended to every timeline per minute */
+		public double growth = 6;
+
+		/** url the authorize step redirects to, with the oauth_token and oauth_verifier parameters */
+		public String callback = "http://replay.callback/";
+
+		/** interval, in seconds, of the statistics printed on the standard output, 0 to disable */
+		public int statsInterval = 10;
+
+		/**
+		 * Read the settings from the system properties, named after the fields with the {@value ReplayServer#PROPERTY_PREFIX}
+		 * prefix: replay.port, replay.latency, ...
+		 */
+		public static Settings fromSystemProperties() {
+			Settings settings = new Settings();
+			settings.port = Integer.getInteger( PROPERTY_PREFIX + "port", settings.port );
+			settings.fixtures = new File( System.getProperty( PROPERTY_PREFIX + "fixtures", settings.fixtures.getPath() ) );
+			settings.latency = Long.getLong( PROPERTY_PREFIX + "latency", settings.latency );
+			settings.jitter = Long.getLong( PROPERTY_PREFIX + "jitter", settings.jitter );
+			settings.bandwidth = Long.getLong( PROPERTY_PREFIX + "bandwidth", settings.bandwidth );
+			settings.rate429 = getDouble( "rate429", settings.rate429 );
+			settings.drop = getDouble( "drop", settings.drop );
+			settings.quotaScale = getDouble( "quotaScale", settings.quotaScale );
+			settings.growth = getDouble( "growth", settings.growth );
+			settings.callback = System.getProperty( PROPERTY_PREFIX + "callback", settings.callback );
+			settings.statsInterval = Integer.getInteger( PROPERTY_PREFIX + "statsInterval", settings.statsInterval );
+			return settings;
+		}
+
+		private static double getDouble( String name, double defValue ) {
+			final String value = System.getProperty( PROPERTY_PREFIX + name );
+			if ( null == value || value.length() == 0 ) return defValue;
+			return Double.parseDouble( value );
+		}
+
+		@Override
+		public String toString() {
+			return "port=" + port + ", latency=" + latency + "ms, jitter=" + jitter + "ms, bandwidth=" + bandwidth
+					+ "B/s, rate429=" + rate429 + ", drop=" + drop + ", quotaScale=" + quotaScale + ", growth=" + growth + "/min";
+		}
+	}
+
+	/**
+	 * Request counters, see {@link ReplayServer#getStats()}.
+	 */
+	public static final class Stats {
+
+		final AtomicLong requests = new AtomicLong();
+		final AtomicLong responses = new AtomicLong();
+		final AtomicLong injected429 = new AtomicLong();
+		final AtomicLong rateLimited = new AtomicLong();
+		final AtomicLong dropped = new AtomicLong();
+		final AtomicLong truncated = new AtomicLong();
+		final AtomicLong bytesSent = new AtomicLong();
+
+		public long getRequests() {
+			return requests.get();
+		}
+
+		public long getResponses() {
+			return responses.get();
+		}
+
+		public long getInjected429() {
+			return injected429.get();
+		}
+
+		public long getRateLimited() {
+			return rateLimited.get();
+		}
+
+		public long getDropped() {
+			return dropped.get();
+		}
+
+		public long getTruncated() {
+			return truncated.get();
+		}
+
+		public long getBytesSent() {
+			return bytesSent.get();
+		}
+
+		@Override
+		public String toString() {
+			return "requests=" + requests + ", ok=" + responses + ", 429 injected=" + injected429 + ", 429 rate limit="
+					+ rateLimited + ", dropped=" + dropped + ", truncated=" + truncated + ", sent=" + bytesSent.get() / 1024 + "KB";
+		}
+	}
+
+	/**
+	 * Requests left of an access token for an endpoint, in the current window.
+	 */
+	private static final class Quota {
+
+		long windowEnd;
+		int remaining;
+	}
+
+	private final Settings mSettings;
+	private final Fixtures mFixtures;
+	private final HttpServer mServer;
+	private final ExecutorService mExecutor;
+	private final Stats mStats = new Stats();
+	private final Map<String, Quota> mQuotas = new HashMap<String, Quota>();
+	private final AtomicLong mNextUserId = new AtomicLong( 2000000 );
+	/** user id assigned to every request token, used by the access token step */
+	private final Map<String, Long> mRequestTokens = new HashMap<String, Long>();
+	private final ThreadLocal<Random> mRandom = new ThreadLocal<Random>() {
+
+		@Override
+		protected Random initialValue() {
+			return new Random();
+		}
+	};
+	private Thread mStatsThread;
+
+	public ReplayServer( Settings settings ) throws IOException {
+		mSettings = settings;
+		mFixtures = new Fixtures( settings.fixtures );
+
+		// headers and body are written separately: without it, Nagle and the delayed ACKs add ~40ms to every response. Read
+		// once, when the first server is created
+		System.setProperty( "sun.net.httpserver.nodelay", "true" );
+
+		mServer = HttpServer.create( new InetSocketAddress( settings.port ), 1024 );
+		// the injected latency and the bandwidth limit block the handler threads, so the pool is not bounded
+		mExecutor = Executors.newCachedThreadPool( new ThreadFactory() {
+
+			private final AtomicInteger mCount = new AtomicInteger();
+
+			@Override
+			public Thread newThread( Runnable runnable ) {
+				Thread thread = new Thread( runnable, "ReplayServer-" + mCount.incrementAndGet() );
+				thread.setDaemon( true );
+				return thread;
+			}
+		} );
+		mServer.setExecutor( mExecutor );
+
+		addTimeline( "/1.1/statuses/user_timeline.json", Fixtures.USER_TIMELINE, 180 );
+		addTimeline( "/1.1/statuses/home_timeline.json", Fixtures.HOME_TIMELINE, 15 );
+		addTimeline( "/1.1/statuses/mentions_timeline.json", Fixtures.MENTIONS_TIMELINE, 15 );
+		addTimeline( "/1.1/direct_messages.json", Fixtures.DIRECT_MESSAGES, 15 );
+
+		mServer.createContext( "/1.1/account/verify_credentials.json", new Route( 15 ) {
+
+			@Override
+			Response respond( HttpExchange exchange, Map<String, String> params, String token ) {
+				final long userId = getUserId( token );
+				return Response.json( mFixtures.getUser( userId, getScreenName( userId ) ) );
+			}
+		} );
+
+		mServer.createContext( "/oauth/request_token", new Route( 0 ) {
+
+			@Override
+			Response respond( HttpExchange exchange, Map<String, String> params, String token ) {
+				final long userId = mNextUserId.incrementAndGet();
+				final String requestToken = "request-" + userId;
+				synchronized ( mRequestTokens ) {
+					mRequestTokens.put( requestToken, userId );
+				}
+				return Response.text( mFixtures.getRequestToken( requestToken, "request-secret" ) );
+			}
+		} );
+
+		mServer.createContext( "/oauth/authorize", new Route( 0 ) {
+
+			@Override
+			Response respond( HttpExchange exchange, Map<String, String> params, String token ) {
+				final String requestToken = params.get( "oauth_token" );
+				if ( null == requestToken ) return Response.error( 400, 32, "Missing oauth_token" );
+
+				final String separator = mSettings.callback.indexOf( '?' ) < 0 ? "?" : "&";
+				exchange.getResponseHeaders().set( "Location",
+						mSettings.callback + separator + "oauth_token=" + encode( requestToken ) + "&oauth_verifier=replay-verifier" );
+				return new Response( 302, "text/html", "<html><body>Authorized</body></html>" );
+			}
+		} );
+
+		mServer.createContext( "/oauth/access_token", new Route( 0 ) {
+
+			@Override
+			Response respond( HttpExchange exchange, Map<String, String> params, String token ) {
+				Long userId;
+				synchronized ( mRequestTokens ) {
+					userId = null != token ? mRequestTokens.remove( token ) : null;
+				}
+				if ( null == userId ) return Response.error( 401, 89, "Invalid or expired token" );
+
+				return Response.text( mFixtures.getAccessToken( "access-token", "access-secret", userId, getScreenName( userId ) ) );
+			}
+		} );
+
+		mServer.createContext( "/", new Route( 0 ) {
+
+			@Override
+			Response respond( HttpExchange exchange, Map<String, String> params, String token ) {
+				return Response.error( 404, 34, "Sorry, that page does not exist" );
+			}
+		} );
+	}
+
+	private void addTimeline( String path, String fixture, int quota ) throws IOException {
+		final Fixtures.Timeline timeline = mFixtures.loadTimeline( fixture, mSettings.growth );
+		mServer.createContext( path, new Route( quota ) {
+
+			@Override
+			Response respond( HttpExchange exchange, Map<String, String> params, String token ) {
+				final int count = (int) Math.max( 1, Math.min( MAX_COUNT, getLong( params, "count", DEFAULT_COUNT ) ) );
+				return Response.json( timeline.getPage( getLong( params, "since_id", 0 ), getLong( params, "max_id", 0 ), count,
+						"true".equals( params.get( "trim_user" ) ) || "1".equals( params.get( "trim_user" ) ),
+						System.currentTimeMillis() ) );
+			}
+		} );
+	}
+
+	public void start() {
+		mServer.start();
+		System.out.println( "ReplayServer listening on " + getPort() + ": " + mSettings );
+
+		if ( mSettings.statsInterval > 0 ) {
+			mStatsThread = new Thread( "ReplayServer-stats" ) {
+
+				@Override
+				public void run() {
+					try {
+						while ( !isInterrupted() ) {
+							Thread.sleep( mSettings.statsInterval * 1000L );
+							System.out.println( "ReplayServer: " + mStats );
+						}
+					} catch ( InterruptedException e ) {
+						// stopped
+					}
+				}
+			};
+			mStatsThread.setDaemon( true );
+			mStatsThread.start();
+		}
+	}
+
+	public void stop() {
+		if ( null != mStatsThread ) mStatsThread.interrupt();
+		mServer.stop( 0 );
+		mExecutor.shutdownNow();
+	}
+
+	public int getPort() {
+		return mServer.getAddress().getPort();
+	}
+
+	public Stats getStats() {
+		return mStats;
+	}
+
+	/**
+	 * User id of an access token, as issued by the access token step: the digits before the first dash.
+	 */
+	static long getUserId( String token ) {
+		if ( null == token ) return 0;
+		final int index = token.indexOf( '-' );
+		try {
+			return Long.parseLong( index < 0 ? token : token.substring( 0, index ) );
+		} catch ( NumberFormatException e ) {
+			return Math.abs( (long) token.hashCode() );
+		}
+	}
+
+	static String getScreenName( long userId ) {
+		return "replay_user_" + userId;
+	}
+
+	/**
+	 * Consume a request of the endpoint quota of the access token.
+	 *
+	 * @param limits
+	 *           receives the limit, the reset time in milliseconds and the remaining requests
+	 * @return 0 if allowed, otherwise the time at which the quota is reset
+	 */
+	private long acquire( String token, String path, int quota, long now, long[] limits ) {
+		final int limit = (int) Math.ceil( quota * mSettings.quotaScale );
+		synchronized ( mQuotas ) {
+			final String key = token + ' ' + path;
+			Quota current = mQuotas.get( key );
+			if ( null == current ) {
+				current = new Quota();
+				mQuotas.put( key, current );
+			}
+			if ( current.windowEnd <= now ) {
+				current.windowEnd = now + RATE_LIMIT_WINDOW_MILLIS;
+				current.remaining = limit;
+			}
+			limits[0] = limit;
+			limits[1] = current.windowEnd;
+			if ( current.remaining <= 0 ) {
+				limits[2] = 0;
+				return current.windowEnd;
+			}
+			limits[2] = --current.remaining;
+			return 0;
+		}
+	}
+
+	private static final class Response {
+
+		final int status;
+		final String contentType;
+		final String body;
+
+		Response( int status, String contentType, String body ) {
+			this.status = status;
+			this.contentType = contentType;
+			this.body = body;
+		}
+
+		static Response json( String body ) {
+			return new Response( 200, "application/json;charset=utf-8", body );
+		}
+
+		static Response text( String body ) {
+			return new Response( 200, "text/plain;charset=utf-8", body );
+		}
+
+		static Response error( int status, int code, String message ) {
+			return new Response( status, "application/json;charset=utf-8", "{\"errors\":[{\"message\":\"" + message
+					+ "\",\"code\":" + code + "}]}" );
+		}
+	}
+
+	/**
+	 * Handler of an endpoint, injecting the faults around the response.
+	 */
+	private abstract class Route implements HttpHandler {
+
+		/** requests per window of the real API, 0 if not rate limited */
+		private final int mQuota;
+
+		Route( int quota ) {
+			mQuota = quota;
+		}
+
+		abstract Response respond( HttpExchange exchange, Map<String, String> params, String token );
+
+		@Override
+		public void handle( HttpExchange exchange ) throws IOException {
+			mStats.requests.incrementAndGet();
+			try {
+				final Map<String, String> params = parseQuery( exchange.getRequestURI().getRawQuery() );
+				params.putAll( parseQuery( readBody( exchange.getRequestBody() ) ) );
+				final String token = getToken( exchange );
+				final Random random = mRandom.get();
+
+				delay( random );
+
+				// dropped before the response, or in the middle of the body
+				boolean truncate = false;
+				if ( random.nextDouble() < mSettings.drop ) {
+					if ( random.nextBoolean() ) {
+						mStats.dropped.incrementAndGet();
+						return;
+					}
+					truncate = true;
+				}
+
+				final long now = System.currentTimeMillis();
+				final long[] limits = new long[3];
+				final boolean limited = mQuota > 0 && mSettings.quotaScale > 0;
+				if ( limited ) {
+					final long resetTime = acquire( token, exchange.getHttpContext().getPath(), mQuota, now, limits );
+					if ( resetTime > 0 ) {
+						mStats.rateLimited.incrementAndGet();
+						send( exchange, Response.error( 429, 88, "Rate limit exceeded" ), limits, false );
+						return;
+					}
+				}
+				if ( mQuota > 0 && random.nextDouble() < mSettings.rate429 ) {
+					mStats.injected429.incrementAndGet();
+					limits[2] = 0;
+					if ( !limited ) {
+						limits[0] = mQuota;
+						limits[1] = now + RATE_LIMIT_WINDOW_MILLIS;
+					}
+					send( exchange, Response.error( 429, 88, "Rate limit exceeded" ), limits, false );
+					return;
+				}
+
+				final Response response = respond( exchange, params, token );
+				if ( send( exchange, response, limited ? limits : null, truncate ) ) {
+					mStats.responses.incrementAndGet();
+				} else {
+					mStats.truncated.incrementAndGet();
+				}
+			} catch ( IOException e ) {
+				// the client went away
+			} finally {
+				exchange.close();
+			}
+		}
+
+		private void delay( Random random ) {
+			long delay = mSettings.latency;
+			if ( mSettings.jitter > 0 ) {
+				delay += (long) ( random.nextDouble() * mSettings.jitter );
+			}
+			if ( delay > 0 ) {
+				try {
+					Thread.sleep( delay );
+				} catch ( InterruptedException e ) {
+					Thread.currentThread().interrupt();
+				}
+			}
+		}
+	}
+
+	/**
+	 * Send the response, honoring the bandwidth limit.
+	 *
+	 * @param limits
+	 *           limit, reset time in milliseconds and remaining requests as filled by {@link #acquire}, null to omit the
+	 *           rate limit headers
+	 * @param truncate
+	 *           if true only half of the body is sent, then the connection is closed
+	 * @return false if the body has been truncated
+	 */
+	private boolean send( HttpExchange exchange, Response response, long[] limits, boolean truncate ) throws IOException {
+		byte[] bytes = response.body.getBytes( "UTF-8" );
+
+		final String acceptEncoding = exchange.getRequestHeaders().getFirst( "Accept-Encoding" );
+		if ( bytes.length > 0 && null != acceptEncoding && acceptEncoding.contains( "gzip" ) ) {
+			ByteArrayOutputStream buffer = new ByteArrayOutputStream( bytes.length / 4 );
+			GZIPOutputStream gzip = new GZIPOutputStream( buffer );
+			gzip.write( bytes );
+			gzip.close();
+			bytes = buffer.toByteArray();
+			exchange.getResponseHeaders().set( "Content-Encoding", "gzip" );
+		}
+
+		exchange.getResponseHeaders().set( "Content-Type", response.contentType );
+		if ( null != limits ) {
+			exchange.getResponseHeaders().set( "X-Rate-Limit-Limit", String.valueOf( limits[0] ) );
+			exchange.getResponseHeaders().set( "X-Rate-Limit-Remaining", String.valueOf( limits[2] ) );
+			exchange.getResponseHeaders().set( "X-Rate-Limit-Reset", String.valueOf( limits[1] / 1000 ) );
+		}
+		exchange.sendResponseHeaders( response.status, bytes.length );
+
+		final int length = truncate ? bytes.length / 2 : bytes.length;
+		final OutputStream out = exchange.getResponseBody();
+		final long bandwidth = mSettings.bandwidth;
+		if ( bandwidth <= 0 ) {
+			out.write( bytes, 0, length );
+		} else {
+			final int chunk = (int) Math.max( 1, bandwidth * THROTTLE_INTERVAL_MILLIS / 1000 );
+			for ( int offset = 0; offset < length; offset += chunk ) {
+				out.write( bytes, offset, Math.min( chunk, length - offset ) );
+				out.flush();
+				try {
+					Thread.sleep( THROTTLE_INTERVAL_MILLIS );
+				} catch ( InterruptedException e ) {
+					Thread.currentThread().interrupt();
+					break;
+				}
+			}
+		}
+		mStats.bytesSent.addAndGet( length );
+
+		if ( truncate ) {
+			// closing the exchange with missing bytes closes the connection
+			return false;
+		}
+		out.close();
+		return true;
+	}
+
+	private static String getToken( HttpExchange exchange ) {
+		final String authorization = exchange.getRequestHeaders().getFirst( "Authorization" );
+		if ( null == authorization ) return null;
+
+		final Matcher matcher = OAUTH_TOKEN.matcher( authorization );
+		return matcher.find() ? decode( matcher.group( 1 ) ) : null;
+	}
+
+	private static String readBody( InputStream in ) throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		byte[] buffer = new byte[1024];
+		int count;
+		while ( ( count = in.read( buffer ) ) >= 0 ) {
+			out.write( buffer, 0, count );
+		}
+		return out.size() > 0 ? out.toString( "UTF-8" ) : null;
+	}
+
+	private static Map<String, String> parseQuery( String query ) {
+		Map<String, String> params = new HashMap<String, String>();
+		if ( null == query ) return params;
+
+		for ( String pair : query.split( "&" ) ) {
+			final int index = pair.indexOf( '=' );
+			if ( index > 0 ) {
+				params.put( decode( pair.substring( 0, index ) ), decode( pair.substring( index + 1 ) ) );
+			}
+		}
+		return params;
+	}
+
+	private static long getLong( Map<String, String> params, String name, long defValue ) {
+		final String value = params.get( name );
+		if ( null == value ) return defValue;
+		try {
+			return Long.parseLong( value );
+		} catch ( NumberFormatException e ) {
+			return defValue;
+		}
+	}
+
+	private static String decode( String value ) {
+		try {
+			return URLDecoder.decode( value, "UTF-8" );
+		} catch ( UnsupportedEncodingException e ) {
+			throw new AssertionError( e );
+		}
+	}
+
+	private static String encode( String value ) {
+		try {
+			return URLEncoder.encode( value, "UTF-8" );
+		} catch ( UnsupportedEncodingException e ) {
+			throw new AssertionError( e );
+		}
+	}
+
+	public static void main( String[] args ) throws IOException {
+		new ReplayServer( Settings.fromSystemProperties() ).start();
+	}
+}
@@ -0,0 +1,113 @@
+package it.sephiroth.twitter.sdk;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Tests of the {@link LongHashMap} lookups and of the backward shift deletion, which must keep every probe sequence
+ * reachable without tombstones.
+ */
+public class LongHashMapTest {
+
+	/** table size of a map created with an expected size of 8 */
+	private static final int CAPACITY = 16;
+
+	/**
+	 * Keys whose probe sequence starts at the given slot of a {@link #CAPACITY} table, using the same hash as the map.
+	 */
+	private static List<Long> keysAtSlot( int slot, int count ) {
+		List<Long> keys = new ArrayList<Long>( count );
+		for ( long key = 1; keys.size() < count; key++ ) {
+			long h = key * 0x9E3779B97F4A7C15L;
+			if ( ( (int) ( h ^ ( h >>> 32 ) ) & ( CAPACITY - 1 ) ) == slot ) {
+				keys.add( key );
+			}
+		}
+		return keys;
+	}
+
+	public void testPutGetRemove() throws Exception {
+		LongHashMap<String> map = new LongHashMap<String>();
+		check( null == map.put( 1, "a" ), "new key" );
+		check( "a".equals( map.put( 1, "b" ) ), "previous value returned" );
+		check( "b".equals( map.get( 1 ) ), "value replaced" );
+		check( 1 == map.size(), "size: " + map.size() );
+
+		check( "b".equals( map.remove( 1 ) ), "removed value returned" );
+		check( null == map.remove( 1 ), "already removed" );
+		check( !map.containsKey( 1 ) && map.isEmpty(), "empty" );
+	}
+
+	public void testRemoveShiftsBackCollidingKeys() throws Exception {
+		LongHashMap<Long> map = new LongHashMap<Long>( 8 );
+		List<Long> keys = keysAtSlot( 3, 5 );
+		for ( Long key : keys ) {
+			map.put( key, key );
+		}
+
+		// removing the head and a middle entry of the chain must not hide the following ones
+		map.remove( keys.get( 0 ) );
+		map.remove( keys.get( 2 ) );
+
+		check( 3 == map.size(), "size: " + map.size() );
+		check( !map.containsKey( keys.get( 0 ) ) && !map.containsKey( keys.get( 2 ) ), "removed keys" );
+		for ( int i : new int[] { 1, 3, 4 } ) {
+			check( keys.get( i ).equals( map.get( keys.get( i ) ) ), "key " + i + " still reachable" );
+		}
+	}
+
+	public void testRemoveShiftsBackAcrossTheTableEnd() throws Exception {
+		LongHashMap<Long> map = new LongHashMap<Long>( 8 );
+		// the chain starting at the last slot wraps around to the first ones, which also hold keys of their own
+		List<Long> wrapped = keysAtSlot( CAPACITY - 1, 3 );
+		List<Long> first = keysAtSlot( 0, 2 );
+		for ( Long key : wrapped ) {
+			map.put( key, key );
+		}
+		for ( Long key : first ) {
+			map.put( key, key );
+		}
+
+		map.remove( wrapped.get( 0 ) );
+
+		check( 4 == map.size(), "size: " + map.size() );
+		for ( Long key : wrapped.subList( 1, 3 ) ) {
+			check( key.equals( map.get( key ) ), "wrapped key " + key + " reachable" );
+		}
+		for ( Long key : first ) {
+			check( key.equals( map.get( key ) ), "key " + key + " reachable" );
+		}
+	}
+
+	public void testRandomOperationsMatchHashMap() throws Exception {
+		LongHashMap<Long> map = new LongHashMap<Long>();
+		Map<Long, Long> expected = new HashMap<Long, Long>();
+		Random random = new Random( 42 );
+
+		for ( int i = 0; i < 20000; i++ ) {
+			final long key = random.nextInt( 500 );
+			if ( random.nextInt( 3 ) == 0 ) {
+				check( equal( expected.remove( key ), map.remove( key ) ), "remove " + key + " at " + i );
+			} else {
+				final Long value = Long.valueOf( i );
+				check( equal( expected.put( key, value ), map.put( key, value ) ), "put " + key + " at " + i );
+			}
+			check( expected.size() == map.size(), "size at " + i );
+		}
+
+		for ( long key = 0; key < 500; key++ ) {
+			check( equal( expected.get( key ), map.get( key ) ), "get " + key );
+		}
+	}
+
+	private static boolean equal( Long lhs, Long rhs ) {
+		return null == lhs ? null == rhs : lhs.equals( rhs );
+	}
+
+	private static void check( boolean condition, String message ) {
+		if ( !condition ) throw new AssertionError( message );
+	}
+}
@@ -0,0 +1,67 @@
+package it.sephiroth.twitter.sdk;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import twitter4j.Status;
+
+/**
+ * Tests of the {@link MergedTimeline} ordering and deduplication, for pages newer, older and overlapping the timeline.
+ */
+public class MergedTimelineTest {
+
+	public void testPagesMergedWithoutDuplicates() throws Exception {
+		MergedTimeline timeline = new MergedTimeline();
+		List<List<Status>> pages = new ArrayList<List<Status>>();
+		pages.add( TestStatuses.page( 10, 8, 6 ) );
+		pages.add( TestStatuses.page( 9, 8, 7 ) );
+		pages.add( TestStatuses.page( 6 ) );
+
+		check( 5 == timeline.addPages( pages ), "added count" );
+		checkIds( timeline, 10, 9, 8, 7, 6 );
+		check( 0 == timeline.addPage( TestStatuses.page( 9, 7 ) ), "duplicates skipped" );
+		check( 5 == timeline.size(), "size: " + timeline.size() );
+	}
+
+	public void testNewerAndOlderPagesAppended() throws Exception {
+		MergedTimeline timeline = new MergedTimeline();
+		timeline.addPage( TestStatuses.page( 5, 4 ) );
+		timeline.addPage( TestStatuses.page( 8, 7 ) );
+		timeline.addPage( TestStatuses.page( 2, 1 ) );
+		timeline.addPage( TestStatuses.page( 10, 9 ) );
+
+		checkIds( timeline, 10, 9, 8, 7, 5, 4, 2, 1 );
+		check( 10 == timeline.getNewestId() && 1 == timeline.getOldestId(), "bounds" );
+		check( 7 == timeline.get( 3 ).getId(), "get by position" );
+		check( timeline.contains( 4 ) && null != timeline.getById( 4 ) && !timeline.contains( 3 ), "lookup by id" );
+	}
+
+	public void testOverlappingPageMerged() throws Exception {
+		MergedTimeline timeline = new MergedTimeline();
+		timeline.addPage( TestStatuses.page( 12, 10 ) );
+		timeline.addPage( TestStatuses.page( 8, 6 ) );
+
+		// fills the holes of the current range and extends it at both ends
+		check( 5 == timeline.addPage( TestStatuses.page( 13, 11, 10, 9, 7, 5 ) ), "added count" );
+		checkIds( timeline, 13, 12, 11, 10, 9, 8, 7, 6, 5 );
+
+		// a newer page appended after the merge goes in front again
+		timeline.addPage( TestStatuses.page( 15, 14 ) );
+		checkIds( timeline, 15, 14, 13, 12, 11, 10, 9, 8, 7, 6, 5 );
+	}
+
+	public void testUnsortedPageSorted() throws Exception {
+		MergedTimeline timeline = new MergedTimeline();
+		timeline.addPage( TestStatuses.page( 1, 3, 2 ) );
+		checkIds( timeline, 3, 2, 1 );
+	}
+
+	private static void checkIds( MergedTimeline timeline, long... expected ) {
+		final long[] ids = TestStatuses.ids( timeline.toList() );
+		check( Arrays.equals( expected, ids ), "timeline: " + Arrays.toString( ids ) );
+	}
+
+	private static void check( boolean condition, String message ) {
+		if ( !condition ) throw new AssertionError( message );
+	}
+}
@@ -0,0 +1,103 @@
+package it.sephiroth.twitter.sdk;
+
+import it.sephiroth.android.stubs.JvmContext;
+import it.sephiroth.twitter.sdk.Outbox.Operation;
+import it.sephiroth.twitter.sdk.TwitterAndroid.Session;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import twitter4j.TwitterException;
+import twitter4j.auth.AccessToken;
+
+/**
+ * Tests of the {@link Outbox} queue and journal. The rate limits of the account are exhausted, so the operations stay
+ * pending on the executor timer and nothing is sent.
+ */
+public class OutboxTest {
+
+	private static final String JOURNAL_NAME = "outbox.journal";
+	private static final long USER_ID = 42;
+
+	private final JvmContext mContext = JvmContext.create( null );
+	private final TwitterExecutor mExecutor = new TwitterExecutor();
+	private final SessionManager mSessions = new SessionManager( mContext.getSharedPreferences( "sessions", 0 ), null,
+			mExecutor );
+	private final Outbox mOutbox;
+
+	public OutboxTest() {
+		mSessions.add( new Session( new AccessToken( "token", "secret", USER_ID ), USER_ID, "user" ) );
+
+		final RateLimitScheduler rateLimits = mSessions.getRateLimits( USER_ID );
+		final TwitterException limited = new TwitterException( "rate limited", null, 429 );
+		rateLimits.update( RateLimitScheduler.RESOURCE_STATUSES_UPDATE, limited );
+		rateLimits.update( RateLimitScheduler.RESOURCE_STATUSES_RETWEET, limited );
+		rateLimits.update( RateLimitScheduler.RESOURCE_FAVORITES_CREATE, limited );
+		rateLimits.update( RateLimitScheduler.RESOURCE_FAVORITES_DESTROY, limited );
+
+		mOutbox = new Outbox( mContext, JOURNAL_NAME, mSessions, mExecutor, null );
+	}
+
+	public void testDuplicateOperationReturnsPendingOne() throws Exception {
+		final Operation favorite = mOutbox.enqueue( Outbox.TYPE_FAVORITE, USER_ID, 5, 0, null );
+		check( mOutbox.enqueue( Outbox.TYPE_FAVORITE, USER_ID, 5, 0, null ) == favorite, "same operation returned" );
+
+		// a different type or status is a new operation
+		final Operation retweet = mOutbox.enqueue( Outbox.TYPE_RETWEET, USER_ID, 5, 0, null );
+		final Operation other = mOutbox.enqueue( Outbox.TYPE_FAVORITE, USER_ID, 6, 0, null );
+		check( retweet != favorite && other != favorite, "new operations" );
+
+		// posts are never merged
+		mOutbox.enqueue( Outbox.TYPE_POST, USER_ID, 0, 0, "hello" );
+		mOutbox.enqueue( Outbox.TYPE_POST, USER_ID, 0, 0, "hello" );
+		check( 5 == mOutbox.size(), "size: " + mOutbox.size() );
+	}
+
+	public void testOppositeOperationCancelsPendingOne() throws Exception {
+		mOutbox.enqueue( Outbox.TYPE_FAVORITE, USER_ID, 5, 0, null );
+		check( null == mOutbox.enqueue( Outbox.TYPE_UNFAVORITE, USER_ID, 5, 0, null ), "favorite cancelled" );
+		check( 0 == mOutbox.size(), "size: " + mOutbox.size() );
+
+		mOutbox.enqueue( Outbox.TYPE_UNFAVORITE, USER_ID, 6, 0, null );
+		check( null == mOutbox.enqueue( Outbox.TYPE_FAVORITE, USER_ID, 6, 0, null ), "unfavorite cancelled" );
+		check( 0 == mOutbox.size(), "size: " + mOutbox.size() );
+
+		// a retweet has no opposite
+		mOutbox.enqueue( Outbox.TYPE_RETWEET, USER_ID, 7, 0, null );
+		check( null != mOutbox.enqueue( Outbox.TYPE_UNFAVORITE, USER_ID, 7, 0, null ), "unfavorite queued" );
+		check( 2 == mOutbox.size(), "size: " + mOutbox.size() );
+	}
+
+	public void testJournalReplayed() throws Exception {
+		mOutbox.enqueue( Outbox.TYPE_POST, USER_ID, 0, 3, "hello" );
+		mOutbox.enqueue( Outbox.TYPE_FAVORITE, USER_ID, 5, 0, null );
+		mOutbox.enqueue( Outbox.TYPE_FAVORITE, USER_ID, 6, 0, null );
+		mOutbox.enqueue( Outbox.TYPE_UNFAVORITE, USER_ID, 6, 0, null );
+		mOutbox.enqueue( Outbox.TYPE_RETWEET, USER_ID, 7, 0, null );
+		final List<Operation> expected = mOutbox.getPending();
+		check( 3 == expected.size(), "pending: " + expected.size() );
+
+		// the journal is written on the data lane, which runs the pending writes before terminating
+		mExecutor.shutdown();
+		check( mExecutor.awaitTermination( 10, TimeUnit.SECONDS ), "journal written" );
+
+		Outbox reopened = new Outbox( mContext, JOURNAL_NAME, mSessions, mExecutor, null );
+		reopened.open();
+		final List<Operation> pending = reopened.getPending();
+
+		check( expected.size() == pending.size(), "pending: " + pending.size() );
+		for ( int i = 0; i < expected.size(); i++ ) {
+			final Operation lhs = expected.get( i );
+			final Operation rhs = pending.get( i );
+			check( lhs.getId() == rhs.getId() && lhs.getType() == rhs.getType() && lhs.getUserId() == rhs.getUserId()
+					&& lhs.getStatusId() == rhs.getStatusId() && lhs.getInReplyToStatusId() == rhs.getInReplyToStatusId()
+					&& equal( lhs.getText(), rhs.getText() ) && lhs.getCreatedAt() == rhs.getCreatedAt(), "operation " + i );
+		}
+	}
+
+	private static boolean equal( String lhs, String rhs ) {
+		return null == lhs ? null == rhs : lhs.equals( rhs );
+	}
+
+	private static void check( boolean condition, String message ) {
+		if ( !condition ) throw new AssertionError( message );
+	}
+}
@@ -0,0 +1,75 @@
+package it.sephiroth.twitter.sdk;
+
+import java.util.Arrays;
+
+/**
+ * Tests of the {@link SearchIndex} queries: all the terms of a clause must match, <code>OR</code> separates the clauses and a
+ * trailing <code>*</code> matches a prefix.
+ */
+public class SearchIndexTest {
+
+	private final StatusCache mCache = new StatusCache( 100, Long.MAX_VALUE );
+	private final SearchIndex mIndex = new SearchIndex();
+
+	public SearchIndexTest() {
+		mCache.setListener( mIndex );
+		mCache.intern( TestStatuses.create( 1, "Android sdk released #sdk" ) );
+		mCache.intern( TestStatuses.create( 2, "Java tips for android developers" ) );
+		mCache.intern( TestStatuses.create( 3, "androidx migration notes @twitter" ) );
+		mCache.intern( TestStatuses.create( 4, "release notes at http://www.Example.com/notes" ) );
+		mCache.intern( TestStatuses.create( 5, "Plain java status" ) );
+	}
+
+	public void testAllTermsMustMatch() throws Exception {
+		checkSearch( "android", 2, 1 );
+		checkSearch( "ANDROID sdk", 1 );
+		checkSearch( "android missing" );
+	}
+
+	public void testOrSeparatesClauses() throws Exception {
+		checkSearch( "sdk OR java", 5, 2, 1 );
+		checkSearch( "android sdk OR plain java", 5, 1 );
+		checkSearch( "missing OR notes", 4, 3 );
+	}
+
+	public void testPrefixMatchesLongerWords() throws Exception {
+		checkSearch( "andr*", 3, 2, 1 );
+		checkSearch( "release*", 4, 1 );
+		checkSearch( "andr* notes", 3 );
+	}
+
+	public void testEntitiesIndexed() throws Exception {
+		checkSearch( "#sdk", 1 );
+		checkSearch( "@TWITTER", 3 );
+		checkSearch( "host:example.com", 4 );
+		// links are indexed by host only
+		checkSearch( "http" );
+	}
+
+	public void testResultsNewestFirstAndLimited() throws Exception {
+		check( Arrays.equals( new long[] { 3, 2 }, mIndex.search( "andr*", 2 ) ), "limited to the newest" );
+	}
+
+	public void testIndexFollowsCache() throws Exception {
+		mCache.remove( 1 );
+		checkSearch( "#sdk" );
+		checkSearch( "android", 2 );
+
+		mCache.put( TestStatuses.create( 2, "Kotlin tips" ) );
+		checkSearch( "java", 5 );
+		checkSearch( "kotlin", 2 );
+		check( 4 == mIndex.getDocumentCount(), "documents: " + mIndex.getDocumentCount() );
+
+		mCache.clear();
+		check( 0 == mIndex.getDocumentCount(), "cleared" );
+	}
+
+	private void checkSearch( String query, long... expected ) {
+		final long[] ids = mIndex.search( query, 100 );
+		check( Arrays.equals( expected, ids ), "'" + query + "': " + Arrays.toString( ids ) );
+	}
+
+	private static void check( boolean condition, String message ) {
+		if ( !condition ) throw new AssertionError( message );
+	}
+}
@@ -0,0 +1,111 @@
+package it.sephiroth.twitter.sdk;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Tests of the {@link StatusCache} eviction by number of entries and by size, and of the listener notifications.
+ */
+public class StatusCacheTest {
+
+	private static final class RecordingListener implements StatusCache.Listener {
+
+		final StatusCache cache;
+		final List<String> events = new ArrayList<String>();
+		boolean lockHeld;
+
+		RecordingListener( StatusCache cache ) {
+			this.cache = cache;
+		}
+
+		@Override
+		public void onStatusAdded( CompactStatus status ) {
+			lockHeld |= Thread.holdsLock( cache );
+			events.add( "+" + status.getId() );
+		}
+
+		@Override
+		public void onStatusRemoved( CompactStatus status ) {
+			lockHeld |= Thread.holdsLock( cache );
+			events.add( "-" + status.getId() );
+		}
+
+		@Override
+		public void onCleared() {
+			lockHeld |= Thread.holdsLock( cache );
+			events.add( "clear" );
+		}
+	}
+
+	public void testEntryLimitEvictsLeastRecentlyUsed() throws Exception {
+		StatusCache cache = new StatusCache( 3, Long.MAX_VALUE );
+		cache.intern( TestStatuses.create( 1 ) );
+		cache.intern( TestStatuses.create( 2 ) );
+		cache.intern( TestStatuses.create( 3 ) );
+
+		// 1 becomes the most recently used, 2 the eldest
+		check( null != cache.get( 1 ), "1 cached" );
+		cache.intern( TestStatuses.create( 4 ) );
+
+		check( 3 == cache.size(), "size: " + cache.size() );
+		check( null == cache.get( 2 ), "2 evicted" );
+		check( null != cache.get( 1 ) && null != cache.get( 3 ) && null != cache.get( 4 ), "others kept" );
+		check( 1 == cache.getEvictionCount(), "evictions: " + cache.getEvictionCount() );
+	}
+
+	public void testByteLimitEvictsLeastRecentlyUsed() throws Exception {
+		final CompactStatus sample = new StatusCompactor().compact( TestStatuses.create( 1 ) );
+		final int size = StatusCache.estimateSize( sample );
+
+		// room for two statuses of the same size, not three
+		StatusCache cache = new StatusCache( 100, size * 2 + size / 2 );
+		for ( long id = 1; id <= 5; id++ ) {
+			cache.intern( TestStatuses.create( id ) );
+			check( cache.sizeInBytes() <= size * 2 + size / 2, "size in bytes: " + cache.sizeInBytes() );
+		}
+
+		check( 2 == cache.size(), "size: " + cache.size() );
+		check( null != cache.get( 4 ) && null != cache.get( 5 ), "newest kept" );
+		check( 3 == cache.getEvictionCount(), "evictions: " + cache.getEvictionCount() );
+		check( 2L * size == cache.sizeInBytes(), "size in bytes: " + cache.sizeInBytes() );
+	}
+
+	public void testStatusLargerThanLimitIsKept() throws Exception {
+		StatusCache cache = new StatusCache( 10, 1 );
+		cache.intern( TestStatuses.create( 1 ) );
+		check( 1 == cache.size() && null != cache.get( 1 ), "most recent status kept" );
+
+		cache.intern( TestStatuses.create( 2 ) );
+		check( 1 == cache.size() && null != cache.get( 2 ), "previous one evicted" );
+	}
+
+	public void testInternReplacesCachedStatus() throws Exception {
+		StatusCache cache = new StatusCache( 10, Long.MAX_VALUE );
+		final CompactStatus first = cache.intern( TestStatuses.create( 1, "first" ) );
+		final CompactStatus second = cache.intern( TestStatuses.create( 1, "second" ) );
+
+		check( first != second, "new instance" );
+		check( 1 == cache.size(), "size: " + cache.size() );
+		check( cache.get( 1 ) == second, "latest instance cached" );
+		check( StatusCache.estimateSize( second ) == cache.sizeInBytes(), "size in bytes: " + cache.sizeInBytes() );
+	}
+
+	public void testListenerFollowsContentOutsideLock() throws Exception {
+		StatusCache cache = new StatusCache( 2, Long.MAX_VALUE );
+		RecordingListener listener = new RecordingListener( cache );
+		cache.setListener( listener );
+
+		cache.internAll( TestStatuses.page( 1, 2, 3 ) );
+		cache.put( TestStatuses.create( 3 ) );
+		cache.remove( 2 );
+		cache.clear();
+
+		final String expected = "[+1, +2, +3, -1, -3, +3, -2, clear]";
+		check( expected.equals( listener.events.toString() ), "events: " + listener.events );
+		check( !listener.lockHeld, "listener called outside the cache lock" );
+	}
+
+	private static void check( boolean condition, String message ) {
+		if ( !condition ) throw new AssertionError( message );
+	}
+}
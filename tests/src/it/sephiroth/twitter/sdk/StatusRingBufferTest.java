@@ -0,0 +1,72 @@
+package it.sephiroth.twitter.sdk;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import twitter4j.Status;
+
+/**
+ * Tests of the {@link StatusRingBuffer} overflow policies, from a single thread.
+ */
+public class StatusRingBufferTest {
+
+	public void testCapacityRoundedUpToPowerOfTwo() throws Exception {
+		check( 8 == new StatusRingBuffer( 5, StatusRingBuffer.OVERFLOW_DROP_OLDEST ).capacity(), "capacity 8" );
+		check( 1 == new StatusRingBuffer( 1, StatusRingBuffer.OVERFLOW_DROP_OLDEST ).capacity(), "capacity 1" );
+	}
+
+	public void testDropOldestKeepsNewestStatuses() throws Exception {
+		StatusRingBuffer buffer = new StatusRingBuffer( 4, StatusRingBuffer.OVERFLOW_DROP_OLDEST );
+		for ( long id = 1; id <= 6; id++ ) {
+			check( buffer.offer( TestStatuses.create( id ) ), "offered " + id );
+		}
+		check( 4 == buffer.size(), "size: " + buffer.size() );
+
+		List<Status> out = new ArrayList<Status>();
+		check( 2 == buffer.drainTo( out, 10 ), "dropped count" );
+		check( Arrays.equals( new long[] { 3, 4, 5, 6 }, TestStatuses.ids( out ) ), "oldest first: "
+				+ Arrays.toString( TestStatuses.ids( out ) ) );
+		check( buffer.isEmpty(), "drained" );
+
+		out.clear();
+		check( 0 == buffer.drainTo( out, 10 ), "dropped count reset" );
+		check( out.isEmpty(), "nothing left" );
+	}
+
+	public void testDropNewestKeepsOldestStatuses() throws Exception {
+		StatusRingBuffer buffer = new StatusRingBuffer( 4, StatusRingBuffer.OVERFLOW_DROP_NEWEST );
+		for ( long id = 1; id <= 6; id++ ) {
+			check( buffer.offer( TestStatuses.create( id ) ) == ( id <= 4 ), "offer " + id );
+		}
+
+		List<Status> out = new ArrayList<Status>();
+		check( 2 == buffer.drainTo( out, 10 ), "dropped count" );
+		check( Arrays.equals( new long[] { 1, 2, 3, 4 }, TestStatuses.ids( out ) ), "first statuses kept: "
+				+ Arrays.toString( TestStatuses.ids( out ) ) );
+	}
+
+	public void testDrainHonorsMaxCount() throws Exception {
+		StatusRingBuffer buffer = new StatusRingBuffer( 8, StatusRingBuffer.OVERFLOW_DROP_OLDEST );
+		for ( long id = 1; id <= 5; id++ ) {
+			buffer.offer( TestStatuses.create( id ) );
+		}
+
+		List<Status> out = new ArrayList<Status>();
+		buffer.drainTo( out, 2 );
+		check( Arrays.equals( new long[] { 1, 2 }, TestStatuses.ids( out ) ), "first two" );
+		check( 3 == buffer.size(), "size: " + buffer.size() );
+
+		// the slots freed by the drain are reused once the tail wraps around
+		for ( long id = 6; id <= 10; id++ ) {
+			buffer.offer( TestStatuses.create( id ) );
+		}
+		out.clear();
+		check( 0 == buffer.drainTo( out, 100 ), "nothing dropped" );
+		check( Arrays.equals( new long[] { 3, 4, 5, 6, 7, 8, 9, 10 }, TestStatuses.ids( out ) ), "in order: "
+				+ Arrays.toString( TestStatuses.ids( out ) ) );
+	}
+
+	private static void check( boolean condition, String message ) {
+		if ( !condition ) throw new AssertionError( message );
+	}
+}
@@ -0,0 +1,376 @@
+package it.sephiroth.twitter.sdk;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import twitter4j.TwitterException;
+
+/**
+ * Deterministic tests of the {@link SyncScheduler} policy: the time only moves when {@link FakeDispatcher#advance(long)} is
+ * called, and the fetches run when {@link FakeDispatcher#runFetches()} is called.<br />
+ * Every public method whose name starts with "test" is run on a new instance, the process exits with 1 if any fails.
+ */
+public class SyncSchedulerTest {
+
+	private static final long MIN = 60 * 1000;
+	private static final long MAX = 15 * 60 * 1000;
+	private static final long START_TIME = 1000000;
+	private static final long WALL_OFFSET = 1360000000000L;
+
+	private static final class FakeClock implements SyncScheduler.Clock, SyncScheduler.NetworkStateProvider {
+
+		long uptime = START_TIME;
+		boolean connected = true;
+
+		@Override
+		public long uptimeMillis() {
+			return uptime;
+		}
+
+		@Override
+		public long currentTimeMillis() {
+			return WALL_OFFSET + uptime;
+		}
+
+		@Override
+		public boolean isConnected() {
+			return connected;
+		}
+	}
+
+	private static final class FakeAlarm implements SyncScheduler.Alarm {
+
+		final Runnable task;
+		final long time;
+		final Runnable onRejected;
+		boolean cancelled;
+
+		FakeAlarm( Runnable task, long time, Runnable onRejected ) {
+			this.task = task;
+			this.time = time;
+			this.onRejected = onRejected;
+		}
+
+		@Override
+		public void cancel() {
+			cancelled = true;
+		}
+	}
+
+	private static final class PendingFetch {
+
+		final String resource;
+		final SyncScheduler.AsyncSyncTask task;
+		final SyncScheduler.FetchCallback callback;
+
+		PendingFetch( String resource, SyncScheduler.AsyncSyncTask task, SyncScheduler.FetchCallback callback ) {
+			this.resource = resource;
+			this.task = task;
+			this.callback = callback;
+		}
+	}
+
+	private static final class FakeDispatcher implements SyncScheduler.Dispatcher {
+
+		final FakeClock clock;
+		final List<FakeAlarm> alarms = new ArrayList<FakeAlarm>();
+		final List<PendingFetch> fetches = new ArrayList<PendingFetch>();
+		final Map<String, Long> quotaResets = new HashMap<String, Long>();
+		boolean rejectFetches;
+		boolean rejectWakeUps;
+		int wakeUps;
+
+		FakeDispatcher( FakeClock clock ) {
+			this.clock = clock;
+		}
+
+		@Override
+		public void execute( String resource, SyncScheduler.AsyncSyncTask task, SyncScheduler.FetchCallback callback ) {
+			if ( rejectFetches ) {
+				callback.onFetchComplete( 0 );
+			} else {
+				fetches.add( new PendingFetch( resource, task, callback ) );
+			}
+		}
+
+		@Override
+		public SyncScheduler.Alarm schedule( Runnable wakeUp, long uptimeMillis, Runnable onRejected ) {
+			FakeAlarm alarm = new FakeAlarm( wakeUp, uptimeMillis, onRejected );
+			alarms.add( alarm );
+			return alarm;
+		}
+
+		@Override
+		public long getQuotaResetTime( String resource ) {
+			Long reset = quotaResets.get( resource );
+			return null != reset ? reset : 0;
+		}
+
+		/**
+		 * Move the clock forward, firing the due alarms in order.
+		 */
+		void advance( long millis ) {
+			final long target = clock.uptime + millis;
+			while ( true ) {
+				FakeAlarm next = null;
+				for ( FakeAlarm alarm : alarms ) {
+					if ( !alarm.cancelled && alarm.time <= target && ( null == next || alarm.time < next.time ) ) {
+						next = alarm;
+					}
+				}
+				if ( null == next ) break;
+
+				alarms.remove( next );
+				clock.uptime = Math.max( clock.uptime, next.time );
+				if ( rejectWakeUps ) {
+					next.onRejected.run();
+				} else {
+					wakeUps++;
+					next.task.run();
+				}
+			}
+			clock.uptime = target;
+		}
+
+		void runFetches() throws TwitterException {
+			List<PendingFetch> pending = new ArrayList<PendingFetch>( fetches );
+			fetches.clear();
+			for ( PendingFetch fetch : pending ) {
+				fetch.task.fetch( fetch.callback );
+			}
+		}
+
+		int activeAlarms() {
+			int count = 0;
+			for ( FakeAlarm alarm : alarms ) {
+				if ( !alarm.cancelled ) count++;
+			}
+			return count;
+		}
+	}
+
+	private static final class CountingTask implements SyncScheduler.SyncTask {
+
+		int newItems;
+		int calls;
+
+		@Override
+		public int fetch() {
+			calls++;
+			return newItems;
+		}
+	}
+
+	private final FakeClock mClock = new FakeClock();
+	private final FakeDispatcher mDispatcher = new FakeDispatcher( mClock );
+	private final SyncScheduler mScheduler = new SyncScheduler( mDispatcher, mClock, mClock, MIN, MAX );
+
+	public void testFirstFetchIsImmediate() throws Exception {
+		CountingTask task = new CountingTask();
+		mScheduler.subscribe( "home", "home", task );
+		mScheduler.start();
+
+		check( mScheduler.getNextWakeUpTime() == START_TIME, "wake-up planned now" );
+		mDispatcher.advance( 0 );
+		mDispatcher.runFetches();
+		check( task.calls == 1, "fetched once: " + task.calls );
+	}
+
+	public void testNothingRunsBeforeStart() throws Exception {
+		CountingTask task = new CountingTask();
+		mScheduler.subscribe( "home", "home", task );
+
+		mDispatcher.advance( MAX );
+		mDispatcher.runFetches();
+		check( 0 == task.calls, "not started" );
+		check( 0 == mDispatcher.activeAlarms(), "no alarm" );
+	}
+
+	public void testIntervalGrowsWhenEmpty() throws Exception {
+		CountingTask task = new CountingTask();
+		mScheduler.subscribe( "home", "home", task );
+		mScheduler.start();
+
+		long expected = MIN;
+		for ( int i = 0; i < 10; i++ ) {
+			mDispatcher.advance( mScheduler.getNextWakeUpTime() - mClock.uptime );
+			mDispatcher.runFetches();
+			expected = Math.min( MAX, expected + expected / 2 );
+			check( mScheduler.getInterval( "home" ) == expected, "interval " + i + ": " + mScheduler.getInterval( "home" ) );
+			check( mScheduler.getNextWakeUpTime() == mClock.uptime + expected, "next run after the interval" );
+		}
+		check( mScheduler.getInterval( "home" ) == MAX, "capped to the max interval" );
+		check( task.calls == 10, "one fetch per wake-up: " + task.calls );
+	}
+
+	public void testIntervalShrinksWithNewItems() throws Exception {
+		CountingTask task = new CountingTask();
+		mScheduler.subscribe( "home", "home", task );
+		mScheduler.start();
+
+		for ( int i = 0; i < 5; i++ ) {
+			mDispatcher.advance( mScheduler.getNextWakeUpTime() - mClock.uptime );
+			mDispatcher.runFetches();
+		}
+		final long idle = mScheduler.getInterval( "home" );
+
+		task.newItems = 3;
+		mDispatcher.advance( mScheduler.getNextWakeUpTime() - mClock.uptime );
+		mDispatcher.runFetches();
+		check( mScheduler.getInterval( "home" ) == idle / 2, "halved: " + mScheduler.getInterval( "home" ) );
+
+		for ( int i = 0; i < 10; i++ ) {
+			mDispatcher.advance( mScheduler.getNextWakeUpTime() - mClock.uptime );
+			mDispatcher.runFetches();
+		}
+		check( mScheduler.getInterval( "home" ) == MIN, "bounded by the min interval" );
+	}
+
+	public void testFetchesWithinWindowAreBatched() throws Exception {
+		CountingTask home = new CountingTask();
+		CountingTask mentions = new CountingTask();
+		CountingTask messages = new CountingTask();
+		mScheduler.start();
+		subscribeAndFetch( "home", home );
+		mDispatcher.advance( MIN / 8 );
+		subscribeAndFetch( "mentions", mentions );
+		mDispatcher.advance( MIN / 2 );
+		subscribeAndFetch( "messages", messages );
+
+		final int wakeUps = mDispatcher.wakeUps;
+		mDispatcher.advance( START_TIME + MIN + MIN / 2 - mClock.uptime );
+		mDispatcher.runFetches();
+
+		// home and mentions are due 1/8 of the min interval apart, within the batching window
+		check( mDispatcher.wakeUps == wakeUps + 1, "single wake-up: " + ( mDispatcher.wakeUps - wakeUps ) );
+		check( 2 == home.calls && 2 == mentions.calls, "home and mentions batched" );
+		check( 1 == messages.calls, "messages not due yet" );
+	}
+
+	public void testOfflineRetriesAfterMinInterval() throws Exception {
+		CountingTask task = new CountingTask();
+		mClock.connected = false;
+		mScheduler.subscribe( "home", "home", task );
+		mScheduler.start();
+
+		mDispatcher.advance( 0 );
+		mDispatcher.runFetches();
+		check( 0 == task.calls, "no fetch while offline" );
+		check( mScheduler.getNextWakeUpTime() == START_TIME + MIN, "retry planned" );
+
+		mClock.connected = true;
+		mScheduler.onNetworkStateChanged();
+		mDispatcher.runFetches();
+		check( 1 == task.calls, "fetched once back online" );
+	}
+
+	public void testLowQuotaIsPostponedToReset() throws Exception {
+		CountingTask task = new CountingTask();
+		mDispatcher.quotaResets.put( "home", WALL_OFFSET + START_TIME + 5 * MIN );
+		mScheduler.subscribe( "home", "home", task );
+		mScheduler.start();
+
+		mDispatcher.advance( 0 );
+		mDispatcher.runFetches();
+		check( 0 == task.calls, "postponed" );
+		check( mScheduler.getNextWakeUpTime() == START_TIME + 5 * MIN, "planned at the reset: "
+				+ ( mScheduler.getNextWakeUpTime() - START_TIME ) );
+
+		mDispatcher.quotaResets.clear();
+		mDispatcher.advance( 5 * MIN );
+		mDispatcher.runFetches();
+		check( 1 == task.calls, "fetched after the reset" );
+	}
+
+	public void testRejectedFetchIsPlannedAgain() throws Exception {
+		CountingTask task = new CountingTask();
+		mDispatcher.rejectFetches = true;
+		mScheduler.subscribe( "home", "home", task );
+		mScheduler.start();
+
+		mDispatcher.advance( 0 );
+		check( 0 == task.calls, "rejected" );
+		check( mScheduler.getNextWakeUpTime() == START_TIME + MIN + MIN / 2, "planned after the grown interval" );
+
+		mDispatcher.rejectFetches = false;
+		mDispatcher.advance( MIN + MIN / 2 );
+		mDispatcher.runFetches();
+		check( 1 == task.calls, "not left running after the rejection" );
+	}
+
+	public void testRejectedWakeUpIsRetried() throws Exception {
+		CountingTask task = new CountingTask();
+		mScheduler.subscribe( "home", "home", task );
+		mScheduler.start();
+
+		mDispatcher.rejectWakeUps = true;
+		mDispatcher.advance( 0 );
+		check( mScheduler.getNextWakeUpTime() == START_TIME + MIN / 4, "retry after the batching window" );
+
+		mDispatcher.rejectWakeUps = false;
+		mDispatcher.advance( MIN / 4 );
+		mDispatcher.runFetches();
+		check( 1 == task.calls, "fetched by the retry" );
+	}
+
+	public void testStopCancelsWakeUp() throws Exception {
+		CountingTask task = new CountingTask();
+		mScheduler.subscribe( "home", "home", task );
+		mScheduler.start();
+		mDispatcher.advance( 0 );
+		mDispatcher.runFetches();
+
+		mScheduler.stop();
+		check( 0 == mScheduler.getNextWakeUpTime(), "no wake-up planned" );
+		check( 0 == mDispatcher.activeAlarms(), "alarm cancelled" );
+
+		mDispatcher.advance( MAX );
+		mDispatcher.runFetches();
+		check( 1 == task.calls, "no fetch once stopped" );
+	}
+
+	public void testUnsubscribeDuringFetch() throws Exception {
+		CountingTask task = new CountingTask();
+		mScheduler.subscribe( "home", "home", task );
+		mScheduler.start();
+		mDispatcher.advance( 0 );
+
+		mScheduler.unsubscribe( "home" );
+		mDispatcher.runFetches();
+		check( 0 == mDispatcher.activeAlarms(), "nothing planned for a removed subscription" );
+	}
+
+	private void subscribeAndFetch( String name, CountingTask task ) throws TwitterException {
+		mScheduler.subscribe( name, name, task );
+		mDispatcher.advance( 0 );
+		mDispatcher.runFetches();
+	}
+
+	private static void check( boolean condition, String message ) {
+		if ( !condition ) throw new AssertionError( message );
+	}
+
+	public static void main( String[] args ) throws Exception {
+		int run = 0;
+		int failed = 0;
+
+		for ( Method method : SyncSchedulerTest.class.getDeclaredMethods() ) {
+			if ( !method.getName().startsWith( "test" ) ) continue;
+
+			run++;
+			try {
+				method.invoke( new SyncSchedulerTest() );
+				System.out.println( "ok     " + method.getName() );
+			} catch ( InvocationTargetException e ) {
+				failed++;
+				System.out.println( "FAILED " + method.getName() + ": " + e.getCause() );
+			}
+		}
+
+		System.out.println( run + " tests, " + failed + " failed" );
+		if ( failed > 0 ) System.exit( 1 );
+	}
+}
@@ -0,0 +1,39 @@
+package it.sephiroth.twitter.sdk;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+
+/**
+ * Runs the test classes given as arguments: every public method whose name starts with "test" is run on a new instance, the
+ * process exits with 1 if any fails.
+ */
+public final class TestRunner {
+
+	private TestRunner() {}
+
+	public static void main( String[] args ) throws Exception {
+		int run = 0;
+		int failed = 0;
+
+		for ( String name : args ) {
+			final Class<?> type = Class.forName( name );
+			System.out.println( type.getSimpleName() );
+
+			for ( Method method : type.getMethods() ) {
+				if ( !method.getName().startsWith( "test" ) ) continue;
+
+				run++;
+				try {
+					method.invoke( type.newInstance() );
+					System.out.println( "ok     " + method.getName() );
+				} catch ( InvocationTargetException e ) {
+					failed++;
+					System.out.println( "FAILED " + method.getName() + ": " + e.getCause() );
+				}
+			}
+		}
+
+		System.out.println( run + " tests, " + failed + " failed" );
+		System.exit( failed > 0 ? 1 : 0 );
+	}
+}
@@ -0,0 +1,81 @@
+package it.sephiroth.twitter.sdk;
+
+import java.util.ArrayList;
+import java.util.List;
+import twitter4j.Status;
+import twitter4j.TwitterException;
+import twitter4j.json.DataObjectFactory;
+
+/**
+ * Builds twitter4j statuses from the JSON returned by the timeline endpoints. The hashtags, mentions and links of the text
+ * are reported as its entities, as the server does.
+ */
+final class TestStatuses {
+
+	static final long USER_ID = 1000;
+
+	private TestStatuses() {}
+
+	static Status create( long id ) {
+		return create( id, "status " + id );
+	}
+
+	static Status create( long id, String text ) {
+		StringBuilder hashtags = new StringBuilder();
+		StringBuilder mentions = new StringBuilder();
+		StringBuilder urls = new StringBuilder();
+
+		int start = 0;
+		for ( String token : text.split( " " ) ) {
+			final int end = start + token.length();
+			if ( token.startsWith( "#" ) ) {
+				append( hashtags, "{\"text\":\"" + token.substring( 1 ) + "\",\"indices\":[" + start + "," + end + "]}" );
+			} else if ( token.startsWith( "@" ) ) {
+				append( mentions, "{\"screen_name\":\"" + token.substring( 1 ) + "\",\"name\":\"" + token.substring( 1 )
+						+ "\",\"id\":" + ( USER_ID + 1 ) + ",\"id_str\":\"" + ( USER_ID + 1 ) + "\",\"indices\":[" + start + ","
+						+ end + "]}" );
+			} else if ( token.startsWith( "http://" ) || token.startsWith( "https://" ) ) {
+				append( urls, "{\"url\":\"" + token + "\",\"expanded_url\":\"" + token + "\",\"display_url\":\""
+						+ token.substring( token.indexOf( "://" ) + 3 ) + "\",\"indices\":[" + start + "," + end + "]}" );
+			}
+			start = end + 1;
+		}
+
+		final String json = "{\"created_at\":\"Tue Jan 15 10:00:00 +0000 2013\",\"id\":" + id + ",\"id_str\":\"" + id
+				+ "\",\"text\":\"" + text + "\",\"source\":\"web\",\"truncated\":false,\"user\":{\"id\":" + USER_ID
+				+ ",\"id_str\":\"" + USER_ID + "\",\"name\":\"Test User\",\"screen_name\":\"test_user\","
+				+ "\"created_at\":\"Mon Jan 07 10:00:00 +0000 2013\"},\"retweet_count\":0,\"favorite_count\":0,"
+				+ "\"entities\":{\"hashtags\":[" + hashtags + "],\"symbols\":[],\"urls\":[" + urls + "],\"user_mentions\":["
+				+ mentions + "]},\"favorited\":false,\"retweeted\":false,\"lang\":\"en\"}";
+
+		try {
+			return DataObjectFactory.createStatus( json );
+		} catch ( TwitterException e ) {
+			throw new IllegalArgumentException( "invalid status json: " + json, e );
+		}
+	}
+
+	/**
+	 * Statuses with the given ids, in the given order.
+	 */
+	static List<Status> page( long... ids ) {
+		List<Status> page = new ArrayList<Status>( ids.length );
+		for ( long id : ids ) {
+			page.add( create( id ) );
+		}
+		return page;
+	}
+
+	static long[] ids( List<? extends Status> statuses ) {
+		long[] ids = new long[statuses.size()];
+		for ( int i = 0; i < ids.length; i++ ) {
+			ids[i] = statuses.get( i ).getId();
+		}
+		return ids;
+	}
+
+	private static void append( StringBuilder builder, String entity ) {
+		if ( builder.length() > 0 ) builder.append( ',' );
+		builder.append( entity );
+	}
+}
@@ -0,0 +1,82 @@
+package it.sephiroth.twitter.sdk;
+
+import twitter4j.Paging;
+
+/**
+ * Tests of the {@link TimelineCursor} paging, and of the gap left by a full page of newer statuses.
+ */
+public class TimelineCursorTest {
+
+	private static final int COUNT = 3;
+
+	private final TimelineCursor mCursor = new TimelineCursor();
+
+	public void testFirstPagingHasNoBounds() throws Exception {
+		final Paging paging = mCursor.newer( COUNT );
+		check( paging.getSinceId() <= 0 && paging.getMaxId() <= 0, "no bounds" );
+		check( COUNT == paging.getCount(), "count" );
+
+		mCursor.update( paging, COUNT, TestStatuses.page( 30, 29, 28 ) );
+		check( !mCursor.hasGap(), "no gap without a since_id" );
+		check( 30 == mCursor.getNewestId() && 28 == mCursor.getOldestId(), "bounds" );
+	}
+
+	public void testNewerAndOlderPaging() throws Exception {
+		mCursor.update( TestStatuses.page( 10, 9, 8 ) );
+
+		check( 10 == mCursor.newer( COUNT ).getSinceId(), "since_id" );
+		check( mCursor.newer( COUNT ).getMaxId() <= 0, "no max_id" );
+		check( 7 == mCursor.older( COUNT ).getMaxId(), "max_id below the oldest" );
+	}
+
+	public void testPartialPageLeavesNoGap() throws Exception {
+		mCursor.update( TestStatuses.page( 10 ) );
+		final Paging paging = mCursor.newer( COUNT );
+		mCursor.update( paging, COUNT, TestStatuses.page( 12, 11 ) );
+
+		check( !mCursor.hasGap(), "no gap" );
+		check( 12 == mCursor.newer( COUNT ).getSinceId(), "since_id moved" );
+	}
+
+	public void testFullPageOpensGapFilledNewestFirst() throws Exception {
+		mCursor.update( TestStatuses.page( 10 ) );
+
+		Paging paging = mCursor.newer( COUNT );
+		mCursor.update( paging, COUNT, TestStatuses.page( 20, 19, 18 ) );
+		check( mCursor.hasGap(), "gap after a full page" );
+		check( 20 == mCursor.getNewestId(), "newest: " + mCursor.getNewestId() );
+
+		// the next requests walk down the gap
+		paging = mCursor.newer( COUNT );
+		check( 10 == paging.getSinceId() && 17 == paging.getMaxId(), "gap paging: " + paging );
+		mCursor.update( paging, COUNT, TestStatuses.page( 17, 16, 15 ) );
+		check( mCursor.hasGap(), "gap shrunk" );
+
+		paging = mCursor.newer( COUNT );
+		check( 10 == paging.getSinceId() && 14 == paging.getMaxId(), "gap paging: " + paging );
+		mCursor.update( paging, COUNT, TestStatuses.page( 14, 13 ) );
+		check( !mCursor.hasGap(), "gap filled by a partial page" );
+
+		paging = mCursor.newer( COUNT );
+		check( 20 == paging.getSinceId() && paging.getMaxId() <= 0, "back to the newer statuses: " + paging );
+	}
+
+	public void testFullPageReachingSinceIdLeavesNoGap() throws Exception {
+		mCursor.update( TestStatuses.page( 10 ) );
+		final Paging paging = mCursor.newer( COUNT );
+		mCursor.update( paging, COUNT, TestStatuses.page( 13, 12, 11 ) );
+		check( !mCursor.hasGap(), "no status missing" );
+	}
+
+	public void testReset() throws Exception {
+		mCursor.update( TestStatuses.page( 10 ) );
+		mCursor.update( mCursor.newer( COUNT ), COUNT, TestStatuses.page( 20, 19, 18 ) );
+		mCursor.reset();
+
+		check( !mCursor.hasGap() && 0 == mCursor.getNewestId() && 0 == mCursor.getOldestId(), "reset" );
+	}
+
+	private static void check( boolean condition, String message ) {
+		if ( !condition ) throw new AssertionError( message );
+	}
+}